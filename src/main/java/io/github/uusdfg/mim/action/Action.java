@@ -5,6 +5,9 @@ import io.github.uusdfg.mim.data.Game;
 
 public interface Action {
 
+	// See ActionCodes.
+	public long getCode();
+
 	public boolean checkIfPossible(final Game game);
 
 	public long getTimeRequired(final Game game, final Route pastActions);
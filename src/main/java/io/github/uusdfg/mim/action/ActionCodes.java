@@ -0,0 +1,195 @@
+package io.github.uusdfg.mim.action;
+
+import io.github.uusdfg.mim.data.Game;
+
+// Every action packs into a long, and this runs them straight from that.
+//
+// Going through Action.perform() means one call site with an implementation
+// for every kind of action behind it, so the JIT won't inline any of them.
+// Here, each kind gets its own case calling its own static method, which the
+// JIT can inline like any other. The Action classes decode to and from the
+// codes and print things; they do the actual work through the same static
+// methods, so the two can't drift apart.
+//
+// Layout, from the low bits up:
+// - 4 bits of opcode.
+// - 1 bit for running and 1 for landing left (stomps only).
+// - 2 unused bits.
+// - 56 bits of operand: the Koopa ID, the artifact ID, the road ID and
+// transition index (16 bits each, road on top), or a mask of Koopa IDs (see
+// KoopaMasks). Masks can only hold IDs below 56 this way.
+public final class ActionCodes {
+
+	public static final int GET_YOSHI = 1;
+
+	public static final int PICK_UP_ARTIFACT = 2;
+
+	public static final int PICK_UP_MULTIPLE_ARTIFACTS = 3;
+
+	public static final int RETURN_ARTIFACT = 4;
+
+	public static final int STOMP_KOOPA = 5;
+
+	public static final int STOMP_MULTIPLE_KOOPAS = 6;
+
+	public static final int TAKE_TRANSITION = 7;
+
+	private static final int OPCODE_BITS = 4;
+
+	private static final long OPCODE_MASK = (1L << OPCODE_BITS) - 1;
+
+	private static final long RUNNING_FLAG = 1L << OPCODE_BITS;
+
+	private static final long LAND_LEFT_FLAG = 1L << (OPCODE_BITS + 1);
+
+	private static final int OPERAND_SHIFT = 8;
+
+	private static final int TRANSITION_BITS = 16;
+
+	private static final int TRANSITION_MASK = (1 << TRANSITION_BITS) - 1;
+
+	private ActionCodes() {
+	}
+
+	public static int getOpcode(final long code) {
+		return (int) (code & OPCODE_MASK);
+	}
+
+	public static Action decode(final long code) {
+		switch (getOpcode(code)) {
+		case GET_YOSHI:
+			return new GetYoshi();
+		case PICK_UP_ARTIFACT:
+			return new PickUpArtifact(getId(code));
+		case PICK_UP_MULTIPLE_ARTIFACTS:
+			return new PickUpMultipleArtifacts(getKoopaMask(code));
+		case RETURN_ARTIFACT:
+			return new ReturnArtifact(getId(code));
+		case STOMP_KOOPA:
+			return new StompKoopa(getId(code), isRunning(code),
+					isLandingLeft(code));
+		case STOMP_MULTIPLE_KOOPAS:
+			return new StompMultipleKoopas(getKoopaMask(code),
+					isRunning(code), isLandingLeft(code));
+		case TAKE_TRANSITION:
+			return new TakeTransition(getRoadId(code),
+					getTransitionIndex(code));
+		default:
+			throw new IllegalArgumentException("Not an action: "
+					+ Long.toHexString(code));
+		}
+	}
+
+	public static boolean checkIfPossible(final long code, final Game game) {
+		switch (getOpcode(code)) {
+		case GET_YOSHI:
+			return GetYoshi.isPossible(game);
+		case PICK_UP_ARTIFACT:
+			return PickUpArtifact.isPossible(game, getId(code));
+		case PICK_UP_MULTIPLE_ARTIFACTS:
+			return PickUpMultipleArtifacts.isPossible(game, getKoopaMask(code));
+		case RETURN_ARTIFACT:
+			return ReturnArtifact.isPossible(game, getId(code));
+		case STOMP_KOOPA:
+			return StompKoopa.isPossible(game, getId(code));
+		case STOMP_MULTIPLE_KOOPAS:
+			return StompMultipleKoopas.isPossible(game, getKoopaMask(code));
+		case TAKE_TRANSITION:
+			return TakeTransition.isPossible(game, getRoadId(code),
+					getTransitionIndex(code));
+		default:
+			throw new IllegalArgumentException("Not an action: "
+					+ Long.toHexString(code));
+		}
+	}
+
+	public static long perform(final long code, final Game game,
+			final Route pastActions) {
+		switch (getOpcode(code)) {
+		case GET_YOSHI:
+			return GetYoshi.apply(game, pastActions);
+		case PICK_UP_ARTIFACT:
+			return PickUpArtifact.apply(game, pastActions, getId(code));
+		case PICK_UP_MULTIPLE_ARTIFACTS:
+			return PickUpMultipleArtifacts.apply(game, pastActions,
+					getKoopaMask(code));
+		case RETURN_ARTIFACT:
+			return ReturnArtifact.apply(game, pastActions, getId(code));
+		case STOMP_KOOPA:
+			return StompKoopa.apply(game, pastActions, getId(code),
+					isRunning(code), isLandingLeft(code));
+		case STOMP_MULTIPLE_KOOPAS:
+			return StompMultipleKoopas.apply(game, pastActions,
+					getKoopaMask(code), isRunning(code), isLandingLeft(code));
+		case TAKE_TRANSITION:
+			return TakeTransition.apply(game, pastActions, getRoadId(code),
+					getTransitionIndex(code));
+		default:
+			throw new IllegalArgumentException("Not an action: "
+					+ Long.toHexString(code));
+		}
+	}
+
+	// Encoding, for the Action classes.
+	static long encode(final int opcode) {
+		return opcode;
+	}
+
+	static long encodeId(final int opcode, final int id) {
+		if (id < 0) {
+			throw new IllegalArgumentException("Bad ID for an action: " + id);
+		}
+		return opcode | ((long) id << OPERAND_SHIFT);
+	}
+
+	static long encodeKoopaMask(final int opcode, final long koopaMask) {
+		if ((koopaMask >>> (Long.SIZE - OPERAND_SHIFT)) != 0) {
+			throw new IllegalArgumentException("Koopa IDs too big for a code: "
+					+ KoopaMasks.toString(koopaMask));
+		}
+		return opcode | (koopaMask << OPERAND_SHIFT);
+	}
+
+	static long encodeTransition(final int roadId, final int transitionIndex) {
+		if ((roadId < 0) || (roadId > TRANSITION_MASK)
+				|| (transitionIndex < 0) || (transitionIndex > TRANSITION_MASK)) {
+			throw new IllegalArgumentException(String.format(
+					"Transition %d in road %d doesn't fit in a code",
+					transitionIndex, roadId));
+		}
+		return TAKE_TRANSITION
+				| ((long) ((roadId << TRANSITION_BITS) | transitionIndex) << OPERAND_SHIFT);
+	}
+
+	static long withStompFlags(final long code, final boolean running,
+			final boolean landLeft) {
+		return code | (running ? RUNNING_FLAG : 0)
+				| (landLeft ? LAND_LEFT_FLAG : 0);
+	}
+
+	private static int getId(final long code) {
+		return (int) (code >>> OPERAND_SHIFT);
+	}
+
+	private static long getKoopaMask(final long code) {
+		return code >>> OPERAND_SHIFT;
+	}
+
+	private static int getRoadId(final long code) {
+		return (int) (code >>> (OPERAND_SHIFT + TRANSITION_BITS))
+				& TRANSITION_MASK;
+	}
+
+	private static int getTransitionIndex(final long code) {
+		return (int) (code >>> OPERAND_SHIFT) & TRANSITION_MASK;
+	}
+
+	private static boolean isRunning(final long code) {
+		return ((code & RUNNING_FLAG) != 0);
+	}
+
+	private static boolean isLandingLeft(final long code) {
+		return ((code & LAND_LEFT_FLAG) != 0);
+	}
+
+}
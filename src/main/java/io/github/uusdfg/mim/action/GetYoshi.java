@@ -11,7 +11,15 @@ public class GetYoshi implements Action {
 	// TODO Real, per-stage estimates.
 	public static final long GLOBULATOR_TIME = 600;
 
+	public long getCode() {
+		return ActionCodes.encode(ActionCodes.GET_YOSHI);
+	}
+
 	public boolean checkIfPossible(final Game game) {
+		return isPossible(game);
+	}
+
+	static boolean isPossible(final Game game) {
 		final Player player = game.getPlayer();
 		final Level level = player.getLevel();
 		final Road road;
@@ -31,8 +39,12 @@ public class GetYoshi implements Action {
 	}
 
 	public long perform(final Game game, final Route pastActions) {
+		return apply(game, pastActions);
+	}
+
+	static long apply(final Game game, final Route pastActions) {
 		game.getPlayer().setYoshi(true);
-		return getTimeRequired(game, pastActions);
+		return GLOBULATOR_TIME;
 	}
 
 	@Override
@@ -0,0 +1,39 @@
+package io.github.uusdfg.mim.action;
+
+// Helpers for the multi-Koopa actions, which keep track of their Koopas as
+// masks with a bit for each Koopa ID. They go through the Koopas from the
+// highest ID down.
+final class KoopaMasks {
+
+	private KoopaMasks() {
+	}
+
+	// Zero for IDs that don't fit in a mask.
+	static long getIdBit(final int koopaId) {
+		return ((koopaId >= 0) && (koopaId < Long.SIZE)) ? (1L << koopaId) : 0;
+	}
+
+	// Undefined for an empty mask.
+	static int getHighestId(final long koopaMask) {
+		return (Long.SIZE - 1) - Long.numberOfLeadingZeros(koopaMask);
+	}
+
+	static long withoutId(final long koopaMask, final int koopaId) {
+		return koopaMask & ~(1L << koopaId);
+	}
+
+	static String toString(final long koopaMask) {
+		final StringBuilder str = new StringBuilder("[");
+		long rest = koopaMask;
+		while (rest != 0) {
+			final int koopaId = getHighestId(rest);
+			rest = withoutId(rest, koopaId);
+			str.append(koopaId);
+			if (rest != 0) {
+				str.append(", ");
+			}
+		}
+		return str.append("]").toString();
+	}
+
+}
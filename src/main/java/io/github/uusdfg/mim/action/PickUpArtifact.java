@@ -2,22 +2,36 @@ package io.github.uusdfg.mim.action;
 
 import io.github.uusdfg.mim.action.Route.HistoryEntry;
 import io.github.uusdfg.mim.data.Game;
+import io.github.uusdfg.mim.data.Intercepts;
 import io.github.uusdfg.mim.data.Koopa;
 import io.github.uusdfg.mim.data.Level;
 import io.github.uusdfg.mim.data.Player;
+import io.github.uusdfg.mim.data.Position;
 import io.github.uusdfg.mim.data.Koopa.Status;
 
 public class PickUpArtifact implements Action {
 
 	private final int koopaId;
 
+	private final long code;
+
 	public PickUpArtifact(final int koopaId) {
 		this.koopaId = koopaId;
+		this.code = ActionCodes
+				.encodeId(ActionCodes.PICK_UP_ARTIFACT, koopaId);
+	}
+
+	public long getCode() {
+		return code;
 	}
 
 	public boolean checkIfPossible(final Game game) {
+		return isPossible(game, koopaId);
+	}
+
+	static boolean isPossible(final Game game, final int koopaId) {
 		// 1. The Koopa must exist in the current level, which must also exist.
-		final Koopa koopa = getKoopa(game);
+		final Koopa koopa = getKoopa(game, koopaId);
 		if (koopa == null) {
 			return false;
 		}
@@ -29,25 +43,27 @@ public class PickUpArtifact implements Action {
 		// pick it up without first taking a transition.
 		return koopa.hasArtifact()
 				&& (koopa.getStatus() == Status.STOMPED)
-				&& koopa.getCurrentPos().sharesRoadWith(
-						game.getPlayer().getPos());
+				&& Position.sharesRoad(koopa.getPackedCurrentPos(), game
+						.getPlayer().getPackedPos());
 	}
 
 	public long getTimeRequired(final Game game, final Route pastActions) {
-		// There's no delay in picking up an artifact. The player can run there
-		// directly.
-		return getKoopa(game).getTimeToHitboxEntry(game.getPlayer().getPos(),
-				game.getPlayer().getRunSpeed());
+		return getRunTime(game, koopaId);
 	}
 
 	public long perform(final Game game, final Route pastActions) {
-		final long time = getTimeRequired(game, pastActions);
+		return apply(game, pastActions, koopaId);
+	}
+
+	static long apply(final Game game, final Route pastActions,
+			final int koopaId) {
+		final long time = getRunTime(game, koopaId);
 
 		// The player is going to run over to where the Koopa is.
-		final Koopa koopa = getKoopa(game);
+		final Koopa koopa = getKoopa(game, koopaId);
 		final Player player = game.getPlayer();
-		final int oldX = player.getPos().getX();
-		final int artX = koopa.getCurrentPos().getX();
+		final int oldX = player.getX();
+		final int artX = koopa.getX();
 		player.run((artX < oldX), time);
 
 		// The Koopa will change its state to being picked up. Also, the game
@@ -79,7 +95,19 @@ public class PickUpArtifact implements Action {
 	}
 
 	protected final Koopa getKoopa(final Game game) {
+		return getKoopa(game, koopaId);
+	}
+
+	private static Koopa getKoopa(final Game game, final int koopaId) {
 		final Level level = game.getPlayer().getLevel();
 		return (level == null) ? null : level.getKoopa(koopaId);
 	}
+
+	private static long getRunTime(final Game game, final int koopaId) {
+		// There's no delay in picking up an artifact. The player can run there
+		// directly.
+		final Player player = game.getPlayer();
+		return Intercepts.timeToHitboxEntry(player.getPackedPos(),
+				player.getRunSpeed(), getKoopa(game, koopaId));
+	}
 }
@@ -5,24 +5,35 @@ import io.github.uusdfg.mim.data.Game;
 import io.github.uusdfg.mim.data.Koopa;
 import io.github.uusdfg.mim.data.Level;
 import io.github.uusdfg.mim.data.Player;
+import io.github.uusdfg.mim.data.Position;
 import io.github.uusdfg.mim.data.Range;
 import io.github.uusdfg.mim.data.Koopa.Status;
 
-import java.util.ArrayList;
-import java.util.Collection;
-
 public class PickUpMultipleArtifacts implements Action {
 
-	private final Collection<Integer> koopaIds;
+	// One bit per Koopa ID.
+	private final long koopaMask;
+
+	private final long code;
+
+	public PickUpMultipleArtifacts(final long koopaMask) {
+		this.koopaMask = koopaMask;
+		this.code = ActionCodes.encodeKoopaMask(
+				ActionCodes.PICK_UP_MULTIPLE_ARTIFACTS, koopaMask);
+	}
 
-	public PickUpMultipleArtifacts(final Collection<Integer> koopaIds) {
-		this.koopaIds = koopaIds;
+	public long getCode() {
+		return code;
 	}
 
 	public boolean checkIfPossible(final Game game) {
+		return isPossible(game, koopaMask);
+	}
+
+	static boolean isPossible(final Game game, final long koopaMask) {
 		// 1. All Koopas must be in the current level, or we've got a problem.
-		final Collection<Koopa> koopas = getKoopas(game);
-		if (koopas == null) {
+		final Level level = game.getPlayer().getLevel();
+		if (level == null) {
 			return false;
 		}
 
@@ -32,11 +43,16 @@ public class PickUpMultipleArtifacts implements Action {
 		// is available.
 		// 4. The player must be on the same road as the artifact in order to
 		// pick it up without first taking a transition.
-		for (Koopa koopa : koopas) {
-			boolean possible = koopa.hasArtifact()
+		long rest = koopaMask;
+		while (rest != 0) {
+			final int koopaId = KoopaMasks.getHighestId(rest);
+			rest = KoopaMasks.withoutId(rest, koopaId);
+			final Koopa koopa = level.getKoopa(koopaId);
+			boolean possible = (koopa != null)
+					&& koopa.hasArtifact()
 					&& (koopa.getStatus() == Status.STOMPED)
-					&& koopa.getCurrentPos().sharesRoadWith(
-							game.getPlayer().getPos());
+					&& Position.sharesRoad(koopa.getPackedCurrentPos(), game
+							.getPlayer().getPackedPos());
 			if (!possible) {
 				return false;
 			}
@@ -44,36 +60,26 @@ public class PickUpMultipleArtifacts implements Action {
 
 		// 5. The hitbox must intersect that of all of the other Koopas, so the
 		// player can indeed pick them up with a single action.
-		return (getHitbox(koopas) != null);
+		return (getHitbox(level, koopaMask) != null);
 	}
 
 	public long getTimeRequired(final Game game, final Route pastActions) {
-		// Since the Koopas have all presumably been stomped, we don't have to
-		// worry about when they'll come into intersection. We just need to
-		// figure out how long it takes the player to reach the point of
-		// intersection.
-		Range hitbox = getHitbox(getKoopas(game));
-
-		final int speed = game.getPlayer().getRunSpeed();
-		final int playerX = game.getPlayer().getPos().getX();
-		if (hitbox.includes(playerX)) {
-			return 0;
-		}
-
-		final int hitboxEntryPoint = (playerX > hitbox.getMax()) ? hitbox
-				.getMax() : hitbox.getMin();
-		return (long) Math.ceil(Math.abs((double) playerX - hitboxEntryPoint)
-				/ ((double) speed));
+		return getRunTime(game, koopaMask);
 	}
 
 	public long perform(final Game game, final Route pastActions) {
-		final long time = getTimeRequired(game, pastActions);
+		return apply(game, pastActions, koopaMask);
+	}
+
+	static long apply(final Game game, final Route pastActions,
+			final long koopaMask) {
+		final long time = getRunTime(game, koopaMask);
 
 		// The player is going to run to the nearest edge of the Koopas'
 		// aggregate hitbox.
-		final Collection<Koopa> koopas = getKoopas(game);
-		final Range hitbox = getHitbox(koopas);
 		final Player player = game.getPlayer();
+		final Level level = player.getLevel();
+		final Range hitbox = getHitbox(level, koopaMask);
 		final int oldX = player.getPos().getX();
 		player.run((hitbox.getMax() < oldX), time);
 
@@ -81,7 +87,11 @@ public class PickUpMultipleArtifacts implements Action {
 		// game will switch the player to carrying whichever of the Koopas'
 		// artifacts has the highest index.
 		int artifactNumber = 0;
-		for (Koopa koopa : koopas) {
+		long rest = koopaMask;
+		while (rest != 0) {
+			final int koopaId = KoopaMasks.getHighestId(rest);
+			rest = KoopaMasks.withoutId(rest, koopaId);
+			final Koopa koopa = level.getKoopa(koopaId);
 			koopa.setStatus(Status.CARRIED);
 			artifactNumber = Math
 					.max(artifactNumber, koopa.getArtifactNumber());
@@ -89,14 +99,15 @@ public class PickUpMultipleArtifacts implements Action {
 		player.setCurrentArtifact(artifactNumber);
 
 		// The rest of the level will move around in the meantime.
-		player.getLevel().advanceNpcs(time);
+		level.advanceNpcs(time);
 
 		return time;
 	}
 
 	@Override
 	public String toString() {
-		return String.format("Pick up artifact from Koopas %s", koopaIds);
+		return String.format("Pick up artifact from Koopas %s",
+				KoopaMasks.toString(koopaMask));
 	}
 
 	public String toDetailedString(final Game previousState,
@@ -106,14 +117,15 @@ public class PickUpMultipleArtifacts implements Action {
 		final StringBuilder str = new StringBuilder("Pick up artifacts from (");
 
 		final Level level = previousState.getPlayer().getLevel();
-		boolean firstKoopa = true;
-		for (Koopa koopa : getKoopas(previousState)) {
-			if (firstKoopa) {
-				firstKoopa = false;
-			} else {
+		long rest = koopaMask;
+		while (rest != 0) {
+			if (rest != koopaMask) {
 				str.append(" & ");
 			}
+			final int koopaId = KoopaMasks.getHighestId(rest);
+			rest = KoopaMasks.withoutId(rest, koopaId);
 
+			final Koopa koopa = level.getKoopa(koopaId);
 			final Koopa koopaClone = new Koopa(koopa, level);
 			koopaClone.advance(time);
 			str.append(koopa.getArtifactNumber()).append(" at ")
@@ -124,26 +136,37 @@ public class PickUpMultipleArtifacts implements Action {
 		return str.toString();
 	}
 
-	protected final Collection<Koopa> getKoopas(final Game game) {
-		final Level level = game.getPlayer().getLevel();
-		if (level == null) {
-			return null;
-		}
+	// Null if the Koopas' hitboxes don't all overlap.
+	protected final Range getHitbox(final Level level) {
+		return getHitbox(level, koopaMask);
+	}
 
-		final Collection<Koopa> koopas = new ArrayList<Koopa>(koopaIds.size());
-		for (int koopaId : koopaIds) {
-			final Koopa koopa = level.getKoopa(koopaId);
-			if (koopa == null) {
-				return null;
-			}
-			koopas.add(koopa);
+	private static long getRunTime(final Game game, final long koopaMask) {
+		// Since the Koopas have all presumably been stomped, we don't have to
+		// worry about when they'll come into intersection. We just need to
+		// figure out how long it takes the player to reach the point of
+		// intersection.
+		Range hitbox = getHitbox(game.getPlayer().getLevel(), koopaMask);
+
+		final int speed = game.getPlayer().getRunSpeed();
+		final int playerX = game.getPlayer().getPos().getX();
+		if (hitbox.includes(playerX)) {
+			return 0;
 		}
-		return koopas;
+
+		final int hitboxEntryPoint = (playerX > hitbox.getMax()) ? hitbox
+				.getMax() : hitbox.getMin();
+		return (long) Math.ceil(Math.abs((double) playerX - hitboxEntryPoint)
+				/ ((double) speed));
 	}
 
-	protected final Range getHitbox(final Collection<Koopa> koopas) {
+	private static Range getHitbox(final Level level, final long koopaMask) {
 		Range hitbox = null;
-		for (Koopa koopa : koopas) {
+		long rest = koopaMask;
+		while (rest != 0) {
+			final int koopaId = KoopaMasks.getHighestId(rest);
+			rest = KoopaMasks.withoutId(rest, koopaId);
+			final Koopa koopa = level.getKoopa(koopaId);
 			if (hitbox == null) {
 				hitbox = koopa.getHitbox();
 			} else {
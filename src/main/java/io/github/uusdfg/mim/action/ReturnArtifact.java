@@ -29,13 +29,25 @@ public class ReturnArtifact implements Action {
 
 	private final int artifactId;
 
+	private final long code;
+
 	public ReturnArtifact(final int artifactId) {
 		this.artifactId = artifactId;
+		this.code = ActionCodes.encodeId(ActionCodes.RETURN_ARTIFACT,
+				artifactId);
+	}
+
+	public long getCode() {
+		return code;
 	}
 
 	public boolean checkIfPossible(final Game game) {
+		return isPossible(game, artifactId);
+	}
+
+	static boolean isPossible(final Game game, final int artifactId) {
 		// 1. The Kiosk must exist.
-		final Kiosk kiosk = getKiosk(game);
+		final Kiosk kiosk = getKiosk(game, artifactId);
 		if (kiosk == null) {
 			return false;
 		}
@@ -48,7 +60,8 @@ public class ReturnArtifact implements Action {
 			return false;
 		}
 
-		if (!kiosk.getBasePos().sharesRoadWith(player.getPos())) {
+		if (!Position.sharesRoad(kiosk.getBasePos().pack(),
+				player.getPackedPos())) {
 			return false;
 		}
 
@@ -67,18 +80,25 @@ public class ReturnArtifact implements Action {
 		// wrong artifact equipped, the player has to switch to it.
 		final Kiosk kiosk = getKiosk(game);
 		final Player player = game.getPlayer();
-		final Position kioskPos = kiosk.getActivePosNearestTo(player.getPos());
+		final int kioskPos = kiosk.getActivePackedPosNearestTo(player
+				.getPackedPos());
 		return (player.getTimeToReach(kioskPos)
 				+ getArtifactReturningTime(player) + getArtifactSwitchingTime(player));
 	}
 
 	public long perform(final Game game, final Route pastActions) {
+		return apply(game, pastActions, artifactId);
+	}
+
+	static long apply(final Game game, final Route pastActions,
+			final int artifactId) {
 		// The player runs over to the kiosk...
-		final Kiosk kiosk = getKiosk(game);
+		final Kiosk kiosk = getKiosk(game, artifactId);
 		final Player player = game.getPlayer();
-		final Position kioskPos = kiosk.getActivePosNearestTo(player.getPos());
+		final int kioskPos = kiosk.getActivePackedPosNearestTo(player
+				.getPackedPos());
 		final long runTime = player.getTimeToReach(kioskPos);
-		player.run((kioskPos.getX() < player.getPos().getX()), runTime);
+		player.run(Position.isLeftOf(kioskPos, player.getPackedPos()), runTime);
 
 		// ...and then the kiosk is completed.
 		kiosk.setCompleted(true);
@@ -87,7 +107,8 @@ public class ReturnArtifact implements Action {
 		// the lowest ID that the player is holding. If the player is not
 		// holding any other artifacts, great.
 		final Level level = player.getLevel();
-		final long artifactSwitchingTime = getArtifactSwitchingTime(player);
+		final long artifactSwitchingTime = getArtifactSwitchingTime(player,
+				artifactId);
 		player.setCurrentArtifact(getFirstHeldArtifact(level));
 
 		// Meanwhile, the rest of the stage goes on.
@@ -123,15 +144,14 @@ public class ReturnArtifact implements Action {
 	}
 
 	protected final Kiosk getKiosk(final Game game) {
-		final Level level = game.getPlayer().getLevel();
-		return (level == null) ? null : level.getKiosk(artifactId);
+		return getKiosk(game, artifactId);
 	}
 
 	protected long getArtifactSwitchingTime(final Player player) {
-		return (player.getCurrentArtifact() == artifactId) ? 0 : SWITCH_TIME;
+		return getArtifactSwitchingTime(player, artifactId);
 	}
 
-	protected final int getFirstHeldArtifact(final Level level) {
+	protected static int getFirstHeldArtifact(final Level level) {
 		final Collection<Koopa> artifactHolders = level.getArtifactHolders();
 		int firstHeld = artifactHolders.size();
 		for (Koopa koopa : artifactHolders) {
@@ -151,4 +171,14 @@ public class ReturnArtifact implements Action {
 		return firstHeld;
 	}
 
+	private static Kiosk getKiosk(final Game game, final int artifactId) {
+		final Level level = game.getPlayer().getLevel();
+		return (level == null) ? null : level.getKiosk(artifactId);
+	}
+
+	private static long getArtifactSwitchingTime(final Player player,
+			final int artifactId) {
+		return (player.getCurrentArtifact() == artifactId) ? 0 : SWITCH_TIME;
+	}
+
 }
@@ -1,21 +1,45 @@
 package io.github.uusdfg.mim.action;
 
 import io.github.uusdfg.mim.data.Game;
+import io.github.uusdfg.mim.data.GameFingerprint;
+import io.github.uusdfg.mim.data.UndoLog;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
+import java.util.RandomAccess;
 
 public class Route {
 
+	public static final long UNKNOWN_ESTIMATE = Long.MIN_VALUE;
+
 	private final Game initialState;
 
+	// This can be null if the route's been compacted, in which case it gets
+	// rebuilt from the history the next time somebody asks for it.
 	private Game finalState;
 
-	private List<HistoryEntry> history;
+	// Routes share their history with the routes they were copied from, so
+	// copying a route doesn't have to copy the whole history. Each entry just
+	// points back at the one before it.
+	private HistoryEntry lastEntry;
 
 	private long totalTime;
 
+	// Where this route sits in an IndexedRouteHeap, or -1 if it isn't in one.
+	// Copies start out of every queue.
+	private int queueIndex = -1;
+
+	// Heuristic estimates of how much longer it'll take to finish the current
+	// level and the rest of the game from the final state. The optimizers fill
+	// these in the first time they need them so the queues don't have to
+	// recompute them on every comparison. Copies start without them because
+	// they're about to have different final states.
+	private long levelTimeEstimate = UNKNOWN_ESTIMATE;
+
+	private long remainingTimeEstimate = UNKNOWN_ESTIMATE;
+
 	// TODO Add a counter for the number of levels that have been exited
 	// immediately after entry. That will allow us to limit how often we do
 	// that, which should hopefully make it possible to try that without a huge
@@ -25,14 +49,14 @@ public class Route {
 		this.initialState = initialState;
 		this.finalState = initialState;
 		this.totalTime = 0;
-		this.history = new ArrayList<>();
+		this.lastEntry = null;
 	}
 
 	public Route(final Route src) {
 		this.initialState = src.initialState;
-		this.finalState = new Game(src.finalState);
+		this.finalState = new Game(src.getFinalState());
 		this.totalTime = src.totalTime;
-		this.history = new ArrayList<>(src.history);
+		this.lastEntry = src.lastEntry;
 	}
 
 	public Game getInitialState() {
@@ -40,29 +64,171 @@ public class Route {
 	}
 
 	public Game getFinalState() {
+		if (finalState == null) {
+			// Only the route that made the last entry gets to use its
+			// snapshot as its final state. Anybody else would change it.
+			final Game state = lastEntry.getState();
+			finalState = (lastEntry.backReference == this) ? state : new Game(
+					state);
+		}
 		return finalState;
 	}
 
+	public final boolean isCompacted() {
+		return finalState == null;
+	}
+
+	// Throws away the final state (and the snapshot in the last history entry)
+	// unless the route's at a checkpoint, i.e. its history is a multiple of
+	// checkpointInterval long. Anything that gets thrown away will be rebuilt
+	// by replaying actions from the closest checkpoint, so that never takes
+	// more than checkpointInterval actions.
+	public void compact(final int checkpointInterval) {
+		if ((lastEntry == null) || ((lastEntry.depth % checkpointInterval) == 0)
+				|| (lastEntry.backReference != this)) {
+			return;
+		}
+		releaseFinalState();
+	}
+
+	// Throws away the final state (and the last history entry's snapshot, if
+	// this route made it) for somebody that's keeping a copy of it elsewhere,
+	// e.g. off the heap. Hand the copy back with restoreFinalState(). If that
+	// never happens, the state gets rebuilt from the history like it does for
+	// compacted routes. Returns false for routes with no history since their
+	// final state is the initial state.
+	public boolean releaseFinalState() {
+		if (lastEntry == null) {
+			return false;
+		}
+		if (lastEntry.backReference == this) {
+			lastEntry.releaseState();
+		}
+		finalState = null;
+		return true;
+	}
+
+	public void restoreFinalState(final Game state) {
+		finalState = state;
+		if ((lastEntry != null) && (lastEntry.backReference == this)
+				&& (lastEntry.state == null)) {
+			lastEntry.state = state;
+		}
+	}
+
 	public List<HistoryEntry> getHistory() {
-		return Collections.unmodifiableList(history);
+		return new HistoryView(lastEntry);
+	}
+
+	public int getHistorySize() {
+		return (lastEntry == null) ? 0 : lastEntry.depth;
+	}
+
+	public HistoryEntry getLastEntry() {
+		return lastEntry;
+	}
+
+	// The history as action codes (see ActionCodes), e.g. for writing the
+	// route out. replay() turns them back into a route.
+	public long[] getActionCodes() {
+		final long[] codes = new long[getHistorySize()];
+		int i = codes.length;
+		for (HistoryEntry entry = lastEntry; entry != null; entry = entry.parent) {
+			codes[--i] = entry.action.getCode();
+		}
+		return codes;
+	}
+
+	// Leaves the initial state alone.
+	public static Route replay(final Game initialState,
+			final long[] actionCodes) {
+		final Route route = new Route(initialState);
+		route.finalState = new Game(initialState);
+		for (long code : actionCodes) {
+			route.performAction(ActionCodes.decode(code));
+		}
+		return route;
 	}
 
 	public Action getLastAction() {
-		if (history.isEmpty()) {
+		if (lastEntry == null) {
 			return null;
 		}
-		return history.get(history.size() - 1).action;
+		return lastEntry.action;
 	}
 
 	public final long getTotalTime() {
 		return totalTime;
 	}
 
+	public final int getQueueIndex() {
+		return queueIndex;
+	}
+
+	public final void setQueueIndex(final int queueIndex) {
+		this.queueIndex = queueIndex;
+	}
+
+	public final long getLevelTimeEstimate() {
+		return levelTimeEstimate;
+	}
+
+	public final void setLevelTimeEstimate(final long levelTimeEstimate) {
+		this.levelTimeEstimate = levelTimeEstimate;
+	}
+
+	public final long getRemainingTimeEstimate() {
+		return remainingTimeEstimate;
+	}
+
+	public final void setRemainingTimeEstimate(
+			final long remainingTimeEstimate) {
+		this.remainingTimeEstimate = remainingTimeEstimate;
+	}
+
 	public void performAction(final Action action) {
-		final long actionTime = action.perform(finalState, this);
+		// Straight to the interpreter instead of through Action.perform(), so
+		// the JIT can inline each kind of action (see ActionCodes).
+		final long actionTime = ActionCodes.perform(action.getCode(),
+				getFinalState(), this);
 		totalTime += actionTime;
-		history.add(new HistoryEntry(action, actionTime, totalTime, finalState,
-				this));
+		levelTimeEstimate = UNKNOWN_ESTIMATE;
+		remainingTimeEstimate = UNKNOWN_ESTIMATE;
+		lastEntry = new HistoryEntry(action, actionTime, totalTime, finalState,
+				this, lastEntry);
+	}
+
+	// Like performAction(), but the undo log remembers what the action changed
+	// so undoAction() can take it back. This is for trying actions on a
+	// working copy of a route without copying the whole game for each one.
+	// Use fork() to keep the result.
+	public void performUndoably(final Action action, final UndoLog undoLog) {
+		undoLog.mark(getFinalState());
+		performAction(action);
+	}
+
+	public void undoAction(final UndoLog undoLog) {
+		undoLog.undo();
+		totalTime -= lastEntry.time;
+		lastEntry = lastEntry.parent;
+		levelTimeEstimate = UNKNOWN_ESTIMATE;
+		remainingTimeEstimate = UNKNOWN_ESTIMATE;
+	}
+
+	// A copy of the route that doesn't share anything this route might change
+	// later, including the last history entry if this route made it. Unlike
+	// the copy constructor, the estimates come along, since the final states
+	// are the same.
+	public Route fork() {
+		final Route copy = new Route(this);
+		if ((lastEntry != null) && (lastEntry.backReference == this)) {
+			copy.lastEntry = new HistoryEntry(lastEntry.action, lastEntry.time,
+					lastEntry.cumulativeTime, copy.finalState, copy,
+					lastEntry.parent);
+		}
+		copy.levelTimeEstimate = levelTimeEstimate;
+		copy.remainingTimeEstimate = remainingTimeEstimate;
+		return copy;
 	}
 
 	@Override
@@ -70,6 +236,7 @@ public class Route {
 		final StringBuilder str = new StringBuilder();
 		str.append("Route (").append(totalTime).append("):\n");
 
+		final List<HistoryEntry> history = getHistory();
 		Game previousState = initialState;
 		for (int i = 0; i < history.size(); i++) {
 			str.append("  ").append(i).append(":  ");
@@ -77,29 +244,82 @@ public class Route {
 			final HistoryEntry entry = history.get(i);
 			str.append(entry.toDetailedString(previousState)).append("\n");
 
-			previousState = entry.state;
+			previousState = entry.getState();
 		}
 		return str.toString();
 	}
 
+	// A list view of a history chain. Nothing gets copied until somebody asks
+	// for something other than the last entry, and then the chain only gets
+	// walked once.
+	private static final class HistoryView extends AbstractList<HistoryEntry>
+			implements RandomAccess {
+		private final HistoryEntry lastEntry;
+
+		private HistoryEntry[] entries = null;
+
+		public HistoryView(final HistoryEntry lastEntry) {
+			this.lastEntry = lastEntry;
+		}
+
+		@Override
+		public int size() {
+			return (lastEntry == null) ? 0 : lastEntry.depth;
+		}
+
+		@Override
+		public HistoryEntry get(final int index) {
+			final int size = size();
+			if ((index < 0) || (index >= size)) {
+				throw new IndexOutOfBoundsException("Index " + index
+						+ " out of " + size);
+			} else if (index == size - 1) {
+				return lastEntry;
+			}
+
+			if (entries == null) {
+				entries = new HistoryEntry[size];
+				for (HistoryEntry entry = lastEntry; entry != null; entry = entry.parent) {
+					entries[entry.depth - 1] = entry;
+				}
+			}
+			return entries[index];
+		}
+	}
+
 	public static final class HistoryEntry {
 		public Action action;
 		public long time;
 		public long cumulativeTime;
+		// Null if the snapshot's been released. Use getState() unless you
+		// know it's there.
 		public Game state;
 		public Route backReference;
+		public final HistoryEntry parent;
+		public final int depth;
+		private GameFingerprint fingerprint;
 
 		public HistoryEntry() {
+			this.parent = null;
+			this.depth = 1;
 		}
 
 		public HistoryEntry(final Action action, final long time,
 				final long cumulativeTime, final Game state,
 				final Route backReference) {
+			this(action, time, cumulativeTime, state, backReference, null);
+		}
+
+		public HistoryEntry(final Action action, final long time,
+				final long cumulativeTime, final Game state,
+				final Route backReference, final HistoryEntry parent) {
 			this.action = action;
 			this.time = time;
 			this.cumulativeTime = cumulativeTime;
 			this.state = state;
 			this.backReference = backReference;
+			this.parent = parent;
+			this.depth = (parent == null) ? 1 : (parent.depth + 1);
 		}
 
 		public HistoryEntry(final HistoryEntry src) {
@@ -108,6 +328,65 @@ public class Route {
 			this.cumulativeTime = src.cumulativeTime;
 			this.state = src.state;
 			this.backReference = src.backReference;
+			this.parent = src.parent;
+			this.depth = src.depth;
+			this.fingerprint = src.fingerprint;
+		}
+
+		public GameFingerprint getFingerprint() {
+			if (fingerprint == null) {
+				// XXX Another thread could be releasing the snapshot right
+				// now, so go through getState() in case it's already gone.
+				fingerprint = new GameFingerprint(getState());
+			}
+			return fingerprint;
+		}
+
+		// Returns the snapshot, replaying actions from the closest ancestor
+		// that still has one if it's been released. Rebuilt snapshots aren't
+		// kept.
+		public Game getState() {
+			if (state != null) {
+				return state;
+			}
+
+			// Only read each snapshot once, since somebody else might be
+			// releasing them while we look.
+			final Deque<HistoryEntry> replay = new ArrayDeque<>();
+			HistoryEntry base = this;
+			Game baseState = null;
+			while (base != null) {
+				baseState = base.state;
+				if (baseState != null) {
+					break;
+				}
+				replay.push(base);
+				base = base.parent;
+			}
+
+			final Route route = new Route(backReference.initialState);
+			if (base == null) {
+				route.finalState = new Game(route.initialState);
+			} else {
+				route.finalState = new Game(baseState);
+				route.totalTime = base.cumulativeTime;
+				route.lastEntry = base;
+			}
+			while (!replay.isEmpty()) {
+				final HistoryEntry entry = replay.pop();
+				route.performAction(entry.action);
+				if (route.totalTime != entry.cumulativeTime) {
+					throw new IllegalStateException("Replaying " + entry.action
+							+ " took " + route.totalTime + " instead of "
+							+ entry.cumulativeTime);
+				}
+			}
+			return route.finalState;
+		}
+
+		public void releaseState() {
+			getFingerprint();
+			state = null;
 		}
 
 		@Override
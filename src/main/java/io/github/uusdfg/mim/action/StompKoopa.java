@@ -2,9 +2,12 @@ package io.github.uusdfg.mim.action;
 
 import io.github.uusdfg.mim.action.Route.HistoryEntry;
 import io.github.uusdfg.mim.data.Game;
+import io.github.uusdfg.mim.data.InterceptCache;
+import io.github.uusdfg.mim.data.Intercepts;
 import io.github.uusdfg.mim.data.Koopa;
 import io.github.uusdfg.mim.data.Level;
 import io.github.uusdfg.mim.data.Player;
+import io.github.uusdfg.mim.data.Position;
 import io.github.uusdfg.mim.data.Koopa.Status;
 
 public class StompKoopa implements Action {
@@ -17,17 +20,30 @@ public class StompKoopa implements Action {
 
 	private final boolean landLeft;
 
+	private final long code;
+
 	public StompKoopa(final int koopaId, final boolean running,
 			final boolean landLeft) {
 		this.koopaId = koopaId;
 		this.running = running;
 		this.landLeft = landLeft;
+		this.code = ActionCodes.withStompFlags(
+				ActionCodes.encodeId(ActionCodes.STOMP_KOOPA, koopaId),
+				running, landLeft);
+	}
+
+	public long getCode() {
+		return code;
 	}
 
 	public boolean checkIfPossible(final Game game) {
+		return isPossible(game, koopaId);
+	}
+
+	static boolean isPossible(final Game game, final int koopaId) {
 		// 1. The Koopa must exist in the current level (and there must be a
 		// current level).
-		final Koopa koopa = getKoopa(game);
+		final Koopa koopa = getKoopa(game, koopaId);
 		if (koopa == null) {
 			return false;
 		}
@@ -36,7 +52,8 @@ public class StompKoopa implements Action {
 		// up to it and stomp it.
 		// 3. The Koopa must not have already been stomped.
 		final Player player = game.getPlayer();
-		return koopa.getCurrentPos().sharesRoadWith(player.getPos())
+		return Position.sharesRoad(koopa.getPackedCurrentPos(),
+				player.getPackedPos())
 				&& (koopa.getStatus() == Status.ACTIVE);
 	}
 
@@ -47,28 +64,29 @@ public class StompKoopa implements Action {
 	// to land on the Koopa after picking it up or needs to wait until the
 	// player has jumped and landed again.
 	public long getTimeRequired(final Game game, final Route pastActions) {
-		final Koopa koopa = getKoopa(game);
-		final Player player = game.getPlayer();
 		return POST_STOMP_TIME
-				+ koopa.getTimeToHitboxEntry(player.getPos(),
-						player.getRunSpeed());
+				+ getRunTime(game.getPlayer(), getKoopa(game), koopaId);
 	}
 
 	public long perform(final Game game, final Route pastActions) {
+		return apply(game, pastActions, koopaId, running, landLeft);
+	}
+
+	static long apply(final Game game, final Route pastActions,
+			final int koopaId, final boolean running, final boolean landLeft) {
 		// The player first runs over to the Koopa...
-		final Koopa koopa = getKoopa(game);
+		final Koopa koopa = getKoopa(game, koopaId);
 		final Player player = game.getPlayer();
-		final long runTime = koopa.getTimeToHitboxEntry(player.getPos(),
-				player.getRunSpeed());
-		player.run((koopa.getCurrentPos().getX() < player.getPos().getX()),
-				runTime);
+		final long runTime = getRunTime(player, koopa, koopaId);
+		player.run((koopa.getX() < player.getX()), runTime);
 
 		// ...during which time, all of the NPCs move around...
 		final Level level = player.getLevel();
 		level.advanceNpcs(runTime);
 
 		// ...and then the player bounces off.
-		player.move(getBounceSpeed(player), landLeft, POST_STOMP_TIME);
+		player.move(getBounceSpeed(player, running), landLeft,
+				POST_STOMP_TIME);
 
 		// After the player hits, the target Koopa's status changes. The NPCs
 		// advance during the stomp time as well. It's important to change the
@@ -95,10 +113,9 @@ public class StompKoopa implements Action {
 	public String toDetailedString(final Game previousState,
 			final HistoryEntry historyEntry) {
 		final Player player = previousState.getPlayer();
-		final Koopa koopaClone = new Koopa(getKoopa(previousState),
-				player.getLevel());
-		final long runTime = koopaClone.getTimeToHitboxEntry(player.getPos(),
-				player.getRunSpeed());
+		final Koopa koopa = getKoopa(previousState);
+		final long runTime = getRunTime(player, koopa, koopaId);
+		final Koopa koopaClone = new Koopa(koopa, player.getLevel());
 		koopaClone.advance(runTime);
 
 		return String.format("Stomp %d at %s while %s and facing %s", koopaId,
@@ -107,11 +124,41 @@ public class StompKoopa implements Action {
 	}
 
 	protected final Koopa getKoopa(final Game game) {
+		return getKoopa(game, koopaId);
+	}
+
+	private static Koopa getKoopa(final Game game, final int koopaId) {
 		final Level level = game.getPlayer().getLevel();
 		return (level == null) ? null : level.getKoopa(koopaId);
 	}
 
-	private int getBounceSpeed(final Player player) {
+	// How long it takes the player to run into the Koopa. The other three
+	// variants of this action need the same thing for the same state, so the
+	// intercept cache hangs on to it.
+	private static long getRunTime(final Player player, final Koopa koopa,
+			final int koopaId) {
+		final long koopaMask = KoopaMasks.getIdBit(koopaId);
+		if (koopaMask == 0) {
+			return Intercepts.timeToHitboxEntry(player.getPackedPos(),
+					player.getRunSpeed(), koopa);
+		}
+
+		final InterceptCache intercepts = InterceptCache.get();
+		final Level level = player.getLevel();
+		final int playerPos = player.getPackedPos();
+		final int playerSpeed = player.getRunSpeed();
+		int entry = intercepts.find(level, koopaMask, playerPos, playerSpeed);
+		if (entry == InterceptCache.NO_ENTRY) {
+			// Nobody needs to know where for just one Koopa.
+			entry = intercepts.put(level, koopaMask, playerPos, playerSpeed,
+					0, Intercepts.timeToHitboxEntry(playerPos, playerSpeed,
+							koopa));
+		}
+		return intercepts.getTime(entry);
+	}
+
+	private static int getBounceSpeed(final Player player,
+			final boolean running) {
 		return (running) ? player.getRunSpeed() : player.getWalkSpeed();
 	}
 }
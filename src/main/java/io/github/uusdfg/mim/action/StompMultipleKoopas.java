@@ -2,58 +2,67 @@ package io.github.uusdfg.mim.action;
 
 import io.github.uusdfg.mim.action.Route.HistoryEntry;
 import io.github.uusdfg.mim.data.Game;
+import io.github.uusdfg.mim.data.InterceptCache;
+import io.github.uusdfg.mim.data.Intercepts;
 import io.github.uusdfg.mim.data.Koopa;
 import io.github.uusdfg.mim.data.Level;
 import io.github.uusdfg.mim.data.Player;
 import io.github.uusdfg.mim.data.Position;
-import io.github.uusdfg.mim.data.Range;
 import io.github.uusdfg.mim.data.Koopa.Status;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Iterator;
-
 public class StompMultipleKoopas implements Action {
 
 	public static final long POST_STOMP_TIME = 40;
 
-	private final Collection<Integer> koopaIds;
+	// One bit per Koopa ID.
+	private final long koopaMask;
 
 	private final boolean running;
 
 	private final boolean landLeft;
 
-	public StompMultipleKoopas(final Collection<Integer> koopaIds,
-			final boolean running, final boolean landLeft) {
-		this.koopaIds = koopaIds;
+	private final long code;
+
+	public StompMultipleKoopas(final long koopaMask, final boolean running,
+			final boolean landLeft) {
+		this.koopaMask = koopaMask;
 		this.running = running;
 		this.landLeft = landLeft;
+		this.code = ActionCodes.withStompFlags(ActionCodes.encodeKoopaMask(
+				ActionCodes.STOMP_MULTIPLE_KOOPAS, koopaMask), running,
+				landLeft);
+	}
+
+	public long getCode() {
+		return code;
 	}
 
 	public boolean checkIfPossible(final Game game) {
+		return isPossible(game, koopaMask);
+	}
+
+	static boolean isPossible(final Game game, final long koopaMask) {
 		// 1. We can't have more than two Koopas because their movement patterns
 		// make intersecting positions impossible otherwise.
 		// XXX Technically, if the Koopas are moving in the same direction and
 		// overlapping, we can have more than two here, but our model doesn't
 		// allow such conditions to develop. So, we make it easy on ourselves.
-		if (koopaIds.size() != 2) {
+		if (Long.bitCount(koopaMask) != 2) {
 			return false;
 		}
 
 		// 2. The Koopas must all exist in the current level.
-		final Collection<Koopa> koopas = getKoopas(game);
-		if (koopas == null) {
+		final Koopa koopa1 = getKoopa1(game, koopaMask);
+		final Koopa koopa2 = getKoopa2(game, koopaMask);
+		if ((koopa1 == null) || (koopa2 == null)) {
 			return false;
 		}
 
 		// 3. The player must be on the same road as the Koopas.
 		// 4. The Koopas must not have already been stomped.
-		final Player player = game.getPlayer();
-		for (Koopa koopa : koopas) {
-			if (!(koopa.getCurrentPos().sharesRoadWith(player.getPos()) && (koopa
-					.getStatus() == Status.ACTIVE))) {
-				return false;
-			}
+		final int playerPos = game.getPlayer().getPackedPos();
+		if (!isStompable(koopa1, playerPos) || !isStompable(koopa2, playerPos)) {
+			return false;
 		}
 
 		// If all of the above conditions hold, the Koopas will eventually cross
@@ -64,39 +73,49 @@ public class StompMultipleKoopas implements Action {
 	}
 
 	public long getTimeRequired(final Game game, final Route pastActions) {
-		final Collection<Koopa> koopas = getKoopas(game);
 		final Player player = game.getPlayer();
-
-		return POST_STOMP_TIME + getHitPoint(player, koopas).t;
+		return POST_STOMP_TIME
+				+ InterceptCache.get().getTime(
+						findHitPoint(player, getKoopa1(game), getKoopa2(game),
+								koopaMask));
 	}
 
 	public long perform(final Game game, final Route pastActions) {
+		return apply(game, pastActions, koopaMask, running, landLeft);
+	}
+
+	static long apply(final Game game, final Route pastActions,
+			final long koopaMask, final boolean running, final boolean landLeft) {
 		// The player runs over to where the Koopas will intersect...
-		final Collection<Koopa> koopas = getKoopas(game);
+		final Koopa koopa1 = getKoopa1(game, koopaMask);
+		final Koopa koopa2 = getKoopa2(game, koopaMask);
 		final Player player = game.getPlayer();
-		final HitPoint hitPoint = getHitPoint(player, koopas);
+		final InterceptCache intercepts = InterceptCache.get();
+		final int entry = findHitPoint(player, koopa1, koopa2, koopaMask);
+		final int hitX = intercepts.getX(entry);
+		final long hitT = intercepts.getTime(entry);
 
 		final Position oldPlayerPos = player.getPos();
 		player.setPos(new Position(landLeft, oldPlayerPos.getRoadIndex(),
-				hitPoint.x));
-		player.run((hitPoint.t < player.getPos().getX()), hitPoint.t);
+				hitX));
+		player.run((hitT < player.getPos().getX()), hitT);
 
 		// ...during which time, all of the NPCs move around, including these
 		// Koopas (so they're at the place where they intersect)...
 		final Level level = player.getLevel();
-		level.advanceNpcs(hitPoint.t);
+		level.advanceNpcs(hitT);
 
 		// ...and then the player bounces off.
-		player.move(getBounceSpeed(player), landLeft, POST_STOMP_TIME);
+		player.move(getBounceSpeed(player, running), landLeft,
+				POST_STOMP_TIME);
 
 		// After the player hits, the target Koopas' statuses change. The NPCs
 		// advance during the stomp time as well. It's important to change the
 		// status first, however, so the Koopas don't keep moving.
-		long animationTime = 0;
-		for (Koopa koopa : koopas) {
-			koopa.setStatus(Status.STOMPED);
-			animationTime = Math.max(animationTime, koopa.getAnimationTime());
-		}
+		koopa1.setStatus(Status.STOMPED);
+		koopa2.setStatus(Status.STOMPED);
+		final long animationTime = Math.max(koopa1.getAnimationTime(),
+				koopa2.getAnimationTime());
 		level.advanceNpcs(POST_STOMP_TIME);
 
 		// Finally, stomping on the Koopa adds a slight delay in when the player
@@ -105,12 +124,13 @@ public class StompMultipleKoopas implements Action {
 		player.setTransitionDelayEndSafe(pastActions.getTotalTime()
 				+ animationTime);
 
-		return (hitPoint.t + POST_STOMP_TIME);
+		return (hitT + POST_STOMP_TIME);
 	}
 
 	@Override
 	public String toString() {
-		return String.format("Stomp %d while %s and facing %s", koopaIds,
+		return String.format("Stomp %s while %s and facing %s",
+				KoopaMasks.toString(koopaMask),
 				running ? "running" : "walking", landLeft ? "left" : "right");
 	}
 
@@ -118,11 +138,13 @@ public class StompMultipleKoopas implements Action {
 			final HistoryEntry historyEntry) {
 		final StringBuilder str = new StringBuilder("Stomp (");
 
-		final Collection<Koopa> koopas = getKoopas(previousState);
+		final Koopa koopa1 = getKoopa1(previousState);
+		final Koopa koopa2 = getKoopa2(previousState);
 		final Player player = previousState.getPlayer();
-		final long runTime = getHitPoint(player, koopas).t;
+		final long runTime = InterceptCache.get().getTime(
+				findHitPoint(player, koopa1, koopa2, koopaMask));
 
-		for (Koopa koopa : koopas) {
+		for (Koopa koopa : new Koopa[] { koopa1, koopa2 }) {
 			final Koopa koopaClone = new Koopa(koopa, player.getLevel());
 			koopaClone.advance(runTime);
 			str.append(koopaClone.getId()).append(" at ")
@@ -134,26 +156,39 @@ public class StompMultipleKoopas implements Action {
 		return str.toString();
 	}
 
-	protected final Collection<Koopa> getKoopas(final Game game) {
-		final Level level = game.getPlayer().getLevel();
-		if (level == null) {
-			return null;
-		}
+	// The Koopa with the higher ID, or null if it isn't in the level.
+	protected final Koopa getKoopa1(final Game game) {
+		return getKoopa1(game, koopaMask);
+	}
 
-		final Collection<Koopa> koopas = new ArrayList<Koopa>(koopaIds.size());
-		for (Integer koopaId : koopaIds) {
-			final Koopa koopa = level.getKoopa(koopaId);
-			if (koopa == null) {
-				return null;
-			}
-			koopas.add(koopa);
+	protected final Koopa getKoopa2(final Game game) {
+		return getKoopa2(game, koopaMask);
+	}
+
+	// Returns the thread's intercept cache entry for where the player meets
+	// both Koopas, which is good until the next lookup. The four variants of
+	// this action all meet them in the same place, so whichever one gets
+	// there first works it out for the rest.
+	protected static int findHitPoint(final Player player, final Koopa koopa1,
+			final Koopa koopa2, final long koopaMask) {
+		final InterceptCache intercepts = InterceptCache.get();
+		final Level level = player.getLevel();
+		final int playerPos = player.getPackedPos();
+		final int playerSpeed = player.getRunSpeed();
+		final int entry = intercepts.find(level, koopaMask, playerPos,
+				playerSpeed);
+		if (entry != InterceptCache.NO_ENTRY) {
+			return entry;
 		}
-		return koopas;
+
+		final HitPoint hitPoint = getHitPoint(player, koopa1, koopa2);
+		return intercepts.put(level, koopaMask, playerPos, playerSpeed,
+				hitPoint.x, hitPoint.t);
 	}
 
 	// XXX This assumes that there are only two Koopas, pretty hard.
-	protected HitPoint getHitPoint(final Player player,
-			final Collection<Koopa> koopas) {
+	protected static HitPoint getHitPoint(final Player player,
+			final Koopa koopa1, final Koopa koopa2) {
 		// LOGIC OVERVIEW:
 		//
 		// Start with the two Koopas' current trajectories.
@@ -182,61 +217,61 @@ public class StompMultipleKoopas implements Action {
 		// having the other Koopa bounce and redo the math with both Koopas'
 		// bounce lines. We shouldn't ever have to bounce more than twice
 		// because the player moves faster than the Koopas.
-		final Iterator<Koopa> koopaIt = koopas.iterator();
-		final Koopa koopa1 = koopaIt.next();
-		final Koopa koopa2 = koopaIt.next();
-		final boolean left1 = koopa1.getCurrentPos().isFacingLeft();
-		final boolean left2 = koopa2.getCurrentPos().isFacingLeft();
-
-		final HitPoint firstIntersection = getHitPoint(koopa1.getHitbox(),
-				left1, koopa2.getHitbox(), left2, player);
+		final boolean left1 = koopa1.isFacingLeft();
+		final boolean left2 = koopa2.isFacingLeft();
+		final int x1 = koopa1.getX();
+		final int x2 = koopa2.getX();
+
+		final HitPoint firstIntersection = getHitPoint(x1, left1, x2, left2,
+				player);
 		if (firstIntersection != null) {
 			return firstIntersection;
 		}
 
+		final int bounceX1 = koopa1.getBounceX();
+		final int bounceX2 = koopa2.getBounceX();
 		final HitPoint secondIntersection;
 		final boolean bounce1first = koopa1.getTimeToBounce() < koopa2
 				.getTimeToBounce();
 		if (bounce1first) {
-			secondIntersection = getHitPoint(koopa1.getBounceHitbox(), !left1,
-					koopa2.getHitbox(), left2, player);
+			secondIntersection = getHitPoint(bounceX1, !left1, x2, left2,
+					player);
 		} else {
-			secondIntersection = getHitPoint(koopa1.getHitbox(), left1,
-					koopa2.getBounceHitbox(), !left2, player);
+			secondIntersection = getHitPoint(x1, left1, bounceX2, !left2,
+					player);
 		}
 		if (secondIntersection != null) {
 			return secondIntersection;
 		}
 
-		final HitPoint thirdIntersection = getHitPoint(
-				koopa1.getBounceHitbox(), !left1, koopa2.getBounceHitbox(),
-				!left2, player);
+		final HitPoint thirdIntersection = getHitPoint(bounceX1, !left1,
+				bounceX2, !left2, player);
 		if (thirdIntersection != null) {
 			return thirdIntersection;
 		}
 
 		final HitPoint fourthIntersection;
 		if (bounce1first) {
-			fourthIntersection = getHitPoint(koopa1.getDoubleBounceHitbox(),
-					left1, koopa2.getBounceHitbox(), !left2, player);
+			fourthIntersection = getHitPoint(koopa1.getDoubleBounceX(), left1,
+					bounceX2, !left2, player);
 		} else {
-			fourthIntersection = getHitPoint(koopa1.getBounceHitbox(), !left1,
-					koopa2.getDoubleBounceHitbox(), left2, player);
+			fourthIntersection = getHitPoint(bounceX1, !left1,
+					koopa2.getDoubleBounceX(), left2, player);
 		}
 		if (fourthIntersection == null) {
 			System.err.printf("WTF mate %s %s %s%n", koopa1, koopa2, player);
-			System.err.printf("bounce %s %s%n", koopa1.getBounceHitbox(),
-					koopa2.getBounceHitbox());
-			System.err.printf("dblbounce %s %s%n",
-					koopa1.getDoubleBounceHitbox(),
-					koopa2.getDoubleBounceHitbox());
+			System.err.printf("bounce %d %d%n", bounceX1, bounceX2);
+			System.err.printf("dblbounce %d %d%n", koopa1.getDoubleBounceX(),
+					koopa2.getDoubleBounceX());
 			throw new RuntimeException("WTF");
 		}
 		return fourthIntersection;
 	}
 
-	protected HitPoint getHitPoint(final Range box1, final boolean left1,
-			final Range box2, final boolean left2, final Player player) {
+	// Takes the X positions at the middle of the Koopas' hitboxes. Only the
+	// intercept that actually gets used turns into a HitPoint.
+	protected static HitPoint getHitPoint(final int x1, final boolean left1,
+			final int x2, final boolean left2, final Player player) {
 		// If the Koopas are moving in the same direction at the moment,
 		// they won't intersect until one's bounced. We'll have to be called
 		// with the post-bounce coordinates.
@@ -245,52 +280,45 @@ public class StompMultipleKoopas implements Action {
 		}
 
 		// TODO Confirm that this is right and then probably document it.
-		final int leftLeadingX, rightLeadingX, leftTrailingX, rightTrailingX;
-		if (left1) {
-			leftLeadingX = box1.getMin();
-			rightLeadingX = box2.getMax();
-			leftTrailingX = box1.getMax();
-			rightTrailingX = box2.getMin();
-		} else {
-			leftLeadingX = box2.getMin();
-			rightLeadingX = box1.getMax();
-			leftTrailingX = box2.getMax();
-			rightTrailingX = box1.getMin();
-		}
-
-		final HitPoint leadingIntersection = getLineIntersection(leftLeadingX,
-				-1, rightLeadingX, 1);
-		final HitPoint trailingIntersection = getLineIntersection(
-				leftTrailingX, -1, rightTrailingX, 1);
-		if (trailingIntersection.t < 0) {
+		final int leftX = (left1) ? x1 : x2;
+		final int rightX = (left1) ? x2 : x1;
+		final int leftLeadingX = leftX - Koopa.HITBOX_RADIUS;
+		final int rightLeadingX = rightX + Koopa.HITBOX_RADIUS;
+		final int leftTrailingX = leftX + Koopa.HITBOX_RADIUS;
+		final int rightTrailingX = rightX - Koopa.HITBOX_RADIUS;
+
+		final long leadingT = Intercepts.meetingTime(leftLeadingX, -1,
+				rightLeadingX, 1);
+		final long trailingT = Intercepts.meetingTime(leftTrailingX, -1,
+				rightTrailingX, 1);
+		if (trailingT < 0) {
 			// If the Koopas already passed each other, we need both of them to
 			// reverse. That has to happen in a different call.
 			return null;
 		}
 
+		final int leadingX = leftLeadingX - (int) leadingT;
 		final int playerX = player.getPos().getX();
-		final boolean playerLeft = leadingIntersection.x < playerX;
+		final boolean playerLeft = leadingX < playerX;
 		final int playerV = player.getRunSpeed() * (playerLeft ? -1 : 1);
 
-		final HitPoint midIntersection, frontHit, backHit;
+		final long midT, frontT, backT;
 		if (playerLeft) {
-			midIntersection = getLineIntersection(leftTrailingX, -1,
-					rightLeadingX, 1);
-			frontHit = getLineIntersection(playerX, playerV, rightLeadingX, 1);
-			backHit = getLineIntersection(playerX, playerV, leftTrailingX, -1);
+			midT = Intercepts.meetingTime(leftTrailingX, -1, rightLeadingX, 1);
+			frontT = Intercepts.meetingTime(playerX, playerV, rightLeadingX, 1);
+			backT = Intercepts.meetingTime(playerX, playerV, leftTrailingX, -1);
 		} else {
-			midIntersection = getLineIntersection(leftLeadingX, -1,
-					rightTrailingX, 1);
-			frontHit = getLineIntersection(playerX, playerV, leftLeadingX, -1);
-			backHit = getLineIntersection(playerX, playerV, rightTrailingX, 1);
+			midT = Intercepts.meetingTime(leftLeadingX, -1, rightTrailingX, 1);
+			frontT = Intercepts.meetingTime(playerX, playerV, leftLeadingX, -1);
+			backT = Intercepts.meetingTime(playerX, playerV, rightTrailingX, 1);
 		}
 
-		if (frontHit.t <= leadingIntersection.t) {
-			return leadingIntersection;
-		} else if (frontHit.t <= midIntersection.t) {
-			return frontHit;
-		} else if (backHit.t <= trailingIntersection.t) {
-			return backHit;
+		if (frontT <= leadingT) {
+			return new HitPoint(leadingX, leadingT);
+		} else if (frontT <= midT) {
+			return new HitPoint(playerX + (int) (playerV * frontT), frontT);
+		} else if (backT <= trailingT) {
+			return new HitPoint(playerX + (int) (playerV * backT), backT);
 		} else {
 			return null;
 		}
@@ -302,8 +330,7 @@ public class StompMultipleKoopas implements Action {
 			return null;
 		}
 
-		final long t = (long) Math
-				.ceil((double) (x1 - x2) / (double) (v2 - v1));
+		final long t = Intercepts.meetingTime(x1, v1, x2, v2);
 		final int x = x1 + (int) (v1 * t);
 		return new HitPoint(x, t);
 	}
@@ -312,7 +339,27 @@ public class StompMultipleKoopas implements Action {
 		return currentPos.isFacingLeft() ? -1 : 1;
 	}
 
-	private int getBounceSpeed(final Player player) {
+	private static Koopa getKoopa1(final Game game, final long koopaMask) {
+		return getKoopa(game, KoopaMasks.getHighestId(koopaMask));
+	}
+
+	private static Koopa getKoopa2(final Game game, final long koopaMask) {
+		return getKoopa(game, KoopaMasks.getHighestId(KoopaMasks.withoutId(
+				koopaMask, KoopaMasks.getHighestId(koopaMask))));
+	}
+
+	private static Koopa getKoopa(final Game game, final int koopaId) {
+		final Level level = game.getPlayer().getLevel();
+		return (level == null) ? null : level.getKoopa(koopaId);
+	}
+
+	private static boolean isStompable(final Koopa koopa, final int playerPos) {
+		return Position.sharesRoad(koopa.getPackedCurrentPos(), playerPos)
+				&& (koopa.getStatus() == Status.ACTIVE);
+	}
+
+	private static int getBounceSpeed(final Player player,
+			final boolean running) {
 		return (running) ? player.getRunSpeed() : player.getWalkSpeed();
 	}
 
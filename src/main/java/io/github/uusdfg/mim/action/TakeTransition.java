@@ -19,9 +19,16 @@ public class TakeTransition implements Action {
 
 	private final int transitionIndex;
 
+	private final long code;
+
 	public TakeTransition(final int roadId, final int transitionIndex) {
 		this.roadId = roadId;
 		this.transitionIndex = transitionIndex;
+		this.code = ActionCodes.encodeTransition(roadId, transitionIndex);
+	}
+
+	public long getCode() {
+		return code;
 	}
 
 	public final int getRoadId() {
@@ -33,10 +40,16 @@ public class TakeTransition implements Action {
 	}
 
 	public boolean checkIfPossible(final Game game) {
+		return isPossible(game, roadId, transitionIndex);
+	}
+
+	static boolean isPossible(final Game game, final int roadId,
+			final int transitionIndex) {
 		// As an early sanity check, it's completely impossible if the
 		// transition doesn't exist in the current level or if the player's not
 		// in a level at all.
-		final Transition transition = getTransition(game);
+		final Transition transition = getTransition(game, roadId,
+				transitionIndex);
 		if (transition == null) {
 			return false;
 		}
@@ -45,9 +58,9 @@ public class TakeTransition implements Action {
 		// player is on the same road. Otherwise, the player needs to take some
 		// other transition first.
 		final Player player = game.getPlayer();
-		final Position playerPos = player.getPos();
-		boolean possible = (transition.getSrcPos().getRoadIndex() == playerPos
-				.getRoadIndex());
+		final int playerPos = player.getPackedPos();
+		boolean possible = Position.sharesRoad(transition.getPackedSrcPos(),
+				playerPos);
 
 		if (transition instanceof Exit) {
 			// Additionally, the player can only exit a level if the player has
@@ -62,12 +75,13 @@ public class TakeTransition implements Action {
 			// completed, and the player can only exit the floor when all of the
 			// levels have been completed.
 			final Entrance entrance = (Entrance) transition;
-			final Floor floor = game.getFloor(player.getFloor());
+			final int floorId = player.getFloor();
 			if (entrance.isFloorExit()) {
-				possible = possible && floor.isCompleted();
+				possible = possible && game.isFloorCompleted(floorId);
 			} else {
 				possible = possible
-						&& !floor.getLevel(entrance.getLevelId()).isCompleted();
+						&& !game.isLevelCompleted(floorId,
+								entrance.getLevelId());
 			}
 		}
 		return possible;
@@ -88,16 +102,26 @@ public class TakeTransition implements Action {
 	}
 
 	public long getTimeToReach(final Game game) {
-		final Transition transition = getTransition(game);
+		return getTimeToReach(game, getTransition(game));
+	}
+
+	private static long getTimeToReach(final Game game,
+			final Transition transition) {
 		final Player player = game.getPlayer();
-		final Position playerPos = player.getPos();
-		final Position tPos = transition.getActivePosNearestTo(playerPos);
+		final int tPos = transition.getActivePackedPosNearestTo(player
+				.getPackedPos());
 		return player.getTimeToReach(tPos);
 	}
 
 	public long perform(final Game game, final Route pastActions) {
-		final Transition transition = getTransition(game);
-		final long timeToReach = getTimeToReach(game);
+		return apply(game, pastActions, roadId, transitionIndex);
+	}
+
+	static long apply(final Game game, final Route pastActions,
+			final int roadId, final int transitionIndex) {
+		final Transition transition = getTransition(game, roadId,
+				transitionIndex);
+		final long timeToReach = getTimeToReach(game, transition);
 		final long minPreTransitionTime = game.getPlayer()
 				.getTransitionDelayEnd() - pastActions.getTotalTime();
 		final long preTransitionTime = Math.max(timeToReach,
@@ -105,11 +129,12 @@ public class TakeTransition implements Action {
 		final long totalTime = preTransitionTime + transition.getTotalTime();
 
 		final Player player = game.getPlayer();
-		final Position playerPos = player.getPos();
-		final Position srcPos = transition.getSrcPos();
-		final Position destPos = transition.getDestPos();
+		final int playerPos = player.getPackedPos();
+		final int srcPos = transition.getPackedSrcPos();
+		final int destPos = transition.getPackedDestPos();
+		final boolean left = Position.isLeftOf(srcPos, playerPos);
 
-		Position newPos;
+		int newPos;
 		if (transition instanceof Entrance) {
 			final Entrance entrance = (Entrance) transition;
 			if (entrance.isFloorExit()) {
@@ -119,16 +144,13 @@ public class TakeTransition implements Action {
 				final int nextFloorId = player.getFloor() + 1;
 				player.setFloor(nextFloorId);
 				player.setLevel(null);
-				newPos = game.getFloor(nextFloorId).getStartPos();
+				newPos = game.getFloor(nextFloorId).getStartPos().pack();
 			} else {
 				// If the player is actually entering a level, we need to get
 				// the player set up to be at the start of that level.
-				final Position postRunPos = player.run(
-						srcPos.isLeftOf(playerPos), timeToReach);
-				final Level level = game.getLevel(player.getFloor(),
-						entrance.getLevelId());
-				player.setLevel(level);
-				newPos = transition.take(postRunPos);
+				player.run(left, timeToReach);
+				final Level level = game.enterLevel(entrance.getLevelId());
+				newPos = transition.take(player.getPackedPos());
 
 				// We also need to get the level set up. Everything resets when
 				// the player enters a level, even if the player had done most
@@ -140,34 +162,31 @@ public class TakeTransition implements Action {
 				// entrance obviously doesn't count, though.
 				level.advanceNpcs(transition.getNpcActivityTime());
 			}
-		} else if (destPos.getRoadIndex() == Road.CASTLE_ROAD_ID) {
+		} else if (Position.getRoadIndex(destPos) == Road.CASTLE_ROAD_ID) {
 			// In this case, the player is exiting the level, so the level gets
 			// nulled and Yoshi goes away. The transition should have the exit
 			// spot in the castle road.
-			final Position postRunPos = player.run(srcPos.isLeftOf(playerPos),
-					timeToReach);
-			newPos = transition.take(postRunPos);
-
-			final Level level = player.getLevel();
-			player.setLevel(null);
-			player.setYoshi(false);
+			player.run(left, timeToReach);
+			newPos = transition.take(player.getPackedPos());
 
 			// If the player collected everything in the level before leaving,
 			// we can mark it as completed.
+			final Level level = player.getLevel();
 			level.setCompleted(level.areAllArtifactsReturned());
+			game.exitLevel();
+			player.setYoshi(false);
 		} else {
 			// The normal case: the player goes from one place within a level to
 			// another. In this case, the player's position changes...
-			final Position postRunPos = player.run(srcPos.isLeftOf(playerPos),
-					timeToReach);
-			newPos = transition.take(postRunPos);
+			player.run(left, timeToReach);
+			newPos = transition.take(player.getPackedPos());
 
 			// ...and the NPCs all advance.
 			player.getLevel().advanceNpcs(
 					preTransitionTime + transition.getNpcActivityTime());
 		}
 
-		player.setPos(newPos);
+		player.setPackedPos(newPos);
 		return totalTime;
 	}
 
@@ -192,6 +211,11 @@ public class TakeTransition implements Action {
 	}
 
 	public final Transition getTransition(final Game game) {
+		return getTransition(game, roadId, transitionIndex);
+	}
+
+	private static Transition getTransition(final Game game,
+			final int roadId, final int transitionIndex) {
 		final Player player = game.getPlayer();
 
 		final Level level = player.getLevel();
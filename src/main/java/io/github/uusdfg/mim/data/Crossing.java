@@ -16,24 +16,16 @@ public final class Crossing extends Transition {
 
 	public static final long DOWN_TOTAL_TIME = DOWN_NPC_TIME + ROAD_LOAD_TIME;
 
-	private final Range xRange;
-
 	private final boolean left;
 
 	private final boolean up;
 
 	public Crossing(final Position srcPos, final Position destPos,
 			final boolean left, final boolean up) {
-		super(srcPos, destPos);
+		super(srcPos, destPos, (left) ? LEFT_ENTRY_RANGE : RIGHT_ENTRY_RANGE);
 
 		this.left = left;
 		this.up = up;
-
-		if (left) {
-			this.xRange = LEFT_ENTRY_RANGE.withOffset(srcPos.getX());
-		} else {
-			this.xRange = RIGHT_ENTRY_RANGE.withOffset(srcPos.getX());
-		}
 	}
 
 	public boolean isLeft() {
@@ -44,30 +36,6 @@ public final class Crossing extends Transition {
 		return up;
 	}
 
-	@Override
-	public boolean isActiveAt(final Position pos) {
-		return getSrcPos().sharesRoadWith(pos) && xRange.includes(pos.getX());
-	}
-
-	@Override
-	public Position getActivePosNearestTo(final Position pos) {
-		if (!getSrcPos().sharesRoadWith(pos)) {
-			return null;
-		}
-
-		final int x = pos.getX();
-		if (xRange.isWhollyBelow(x)) {
-			// Assume the player has to go left to get to a transition point to
-			// the left...
-			return new Position(true, pos.getRoadIndex(), xRange.getMax());
-		} else if (xRange.isWhollyAbove(x)) {
-			// Similar logic if the transition is to the right...
-			return new Position(false, pos.getRoadIndex(), xRange.getMin());
-		} else {
-			return pos;
-		}
-	}
-
 	@Override
 	public long getTotalTime() {
 		return (up) ? UP_TOTAL_TIME : DOWN_TOTAL_TIME;
@@ -79,13 +47,13 @@ public final class Crossing extends Transition {
 	}
 
 	@Override
-	public Position take(final Position pos) {
+	public int take(final int pos) {
 		if (isActiveAt(pos)) {
 			// The game forces the direction in which the player is facing after
 			// a crossing to match which side of the street the crossing is on.
-			return getDestPos().withLeftFlag(left);
+			return getPackedDestPos(left);
 		} else {
-			return null;
+			return Position.NOWHERE;
 		}
 	}
 
@@ -12,15 +12,11 @@ public final class Entrance extends Transition {
 
 	private final long loadTime;
 
-	private final Range xRange;
-
 	public Entrance(final Position srcPos, final Position destPos,
 			final int levelId, final long loadTime) {
-		super(srcPos, destPos);
+		super(srcPos, destPos, ENTRY_RANGE);
 		this.levelId = levelId;
 		this.loadTime = loadTime;
-
-		xRange = ENTRY_RANGE.withOffset(srcPos.getX());
 	}
 
 	public int getLevelId() {
@@ -31,27 +27,6 @@ public final class Entrance extends Transition {
 		return (levelId == FLOOR_EXIT_LEVEL_ID);
 	}
 
-	@Override
-	public boolean isActiveAt(final Position pos) {
-		return getSrcPos().sharesRoadWith(pos) && xRange.includes(pos.getX());
-	}
-
-	@Override
-	public Position getActivePosNearestTo(final Position pos) {
-		if (!getSrcPos().sharesRoadWith(pos)) {
-			return null;
-		}
-
-		final int x = pos.getX();
-		if (xRange.isWhollyBelow(x)) {
-			return new Position(true, pos.getRoadIndex(), xRange.getMax());
-		} else if (xRange.isWhollyAbove(x)) {
-			return new Position(false, pos.getRoadIndex(), xRange.getMin());
-		} else {
-			return pos;
-		}
-	}
-
 	@Override
 	public long getTotalTime() {
 		return (NPC_TIME + loadTime);
@@ -63,8 +38,8 @@ public final class Entrance extends Transition {
 	}
 
 	@Override
-	public Position take(final Position pos) {
-		return getDestPos().withLeftFlag(false);
+	public int take(final int pos) {
+		return getPackedDestPos(false);
 	}
 
 	@Override
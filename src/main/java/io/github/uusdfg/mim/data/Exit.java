@@ -8,33 +8,8 @@ public final class Exit extends Transition {
 
 	private static final Range ENTRY_RANGE = new Range(-3, 3);
 
-	private final Range xRange;
-
 	public Exit(final Position srcPos, final Position posInCastleRoad) {
-		super(srcPos, posInCastleRoad);
-
-		xRange = ENTRY_RANGE.withOffset(srcPos.getX());
-	}
-
-	@Override
-	public boolean isActiveAt(final Position pos) {
-		return getSrcPos().sharesRoadWith(pos) && xRange.includes(pos.getX());
-	}
-
-	@Override
-	public Position getActivePosNearestTo(final Position pos) {
-		if (!getSrcPos().sharesRoadWith(pos)) {
-			return null;
-		}
-
-		final int x = pos.getX();
-		if (xRange.isWhollyBelow(x)) {
-			return new Position(true, pos.getRoadIndex(), xRange.getMax());
-		} else if (xRange.isWhollyAbove(x)) {
-			return new Position(false, pos.getRoadIndex(), xRange.getMin());
-		} else {
-			return pos;
-		}
+		super(srcPos, posInCastleRoad, ENTRY_RANGE);
 	}
 
 	@Override
@@ -48,10 +23,10 @@ public final class Exit extends Transition {
 	}
 
 	@Override
-	public Position take(final Position pos) {
+	public int take(final int pos) {
 		// Exits, like regular pipes, preserve the direction the player is
 		// facing.
-		return getDestPos().withLeftFlag(pos.isFacingLeft());
+		return getPackedDestPos(Position.isFacingLeft(pos));
 	}
 
 	@Override
@@ -9,28 +9,44 @@ import java.util.Map;
 
 public final class Game {
 
-	private final Map<Integer, Floor> floors = new LinkedHashMap<>();
+	// The floors and levels in here are templates. They're shared by every
+	// copy of the game, so they must never change once the search starts.
+	// The only level that can change is the one the player is in, and the
+	// player always has a private copy of that one. Everything we need to know
+	// about the other levels fits in the completion mask.
+	private final Map<Integer, Floor> floors;
 
 	private final Player player;
 
 	private final SlotRng slotRng;
 
+	// Levels that have been completed, whether they already were when the
+	// game was loaded or the player has finished them since. One bit per
+	// level, as assigned by addFloor().
+	private int completionMask = 0;
+
 	public Game() {
+		floors = new LinkedHashMap<>();
 		player = new Player();
 		slotRng = new SlotRng();
 	}
 
 	public Game(final Game src) {
-		// Initialize the floors first so the player clone can look up its
-		// level.
-		for (Map.Entry<Integer, Floor> entry : src.floors.entrySet()) {
-			floors.put(entry.getKey(), new Floor(entry.getValue()));
-		}
-
-		this.player = new Player(src.player, this);
+		this.floors = src.floors;
+		this.completionMask = src.completionMask;
+		this.player = new Player(src.player);
 		this.slotRng = new SlotRng(src.slotRng);
 	}
 
+	// For GameRecord. Shares the template's floors.
+	Game(final Game template, final Player player, final SlotRng slotRng,
+			final int completionMask) {
+		this.floors = template.floors;
+		this.completionMask = completionMask;
+		this.player = player;
+		this.slotRng = slotRng;
+	}
+
 	public Player getPlayer() {
 		return player;
 	}
@@ -43,11 +59,34 @@ public final class Game {
 		return Collections.unmodifiableCollection(floors.values());
 	}
 
+	// Hands out the floor's levels' completion bits, so the floor needs all of
+	// its levels by now, and it has to be added before the search starts
+	// copying the game.
 	public void addFloor(final Floor floor) {
+		int bit = 0;
+		for (Floor oldFloor : floors.values()) {
+			bit += oldFloor.getLevels().size();
+		}
 		floors.put(floor.getFloorId(), floor);
+
+		for (Level level : floor.getLevels()) {
+			level.assignCompletionBit(bit);
+			if (level.isCompleted()) {
+				completionMask |= (1 << bit);
+			}
+			bit++;
+		}
 	}
 
+	// Returns the player's copy of the level if the player's in it, or the
+	// shared template otherwise. Don't modify templates!
 	public Level getLevel(final int floorId, final int levelId) {
+		final Level activeLevel = player.getLevel();
+		if ((activeLevel != null) && (player.getFloor() == floorId)
+				&& (activeLevel.getLevelId() == levelId)) {
+			return activeLevel;
+		}
+
 		final Floor floor = floors.get(floorId);
 		if (floor == null) {
 			return null;
@@ -56,25 +95,67 @@ public final class Game {
 		return floor.getLevel(levelId);
 	}
 
-	public boolean isCompleted() {
-		for (Floor floor : getFloors()) {
-			if (!floor.isCompleted()) {
+	// Puts the player in a fresh copy of the given level on the current floor.
+	public Level enterLevel(final int levelId) {
+		final Level level = new Level(floors.get(player.getFloor()).getLevel(
+				levelId));
+		player.setLevel(level);
+		return level;
+	}
+
+	// Takes the player out of the current level, remembering whether it got
+	// completed.
+	public void exitLevel() {
+		final Level level = player.getLevel();
+		final int bit = getCompletionBit(player.getFloor(), level.getLevelId());
+		if (level.isCompleted()) {
+			completionMask |= bit;
+		} else {
+			completionMask &= ~bit;
+		}
+		player.setLevel(null);
+	}
+
+	public boolean isLevelCompleted(final int floorId, final int levelId) {
+		final Level level = getLevel(floorId, levelId);
+		if (level == null) {
+			return false;
+		} else if (level == player.getLevel()) {
+			return level.isCompleted();
+		} else {
+			return (completionMask & getCompletionBit(floorId, levelId)) != 0;
+		}
+	}
+
+	public boolean isFloorCompleted(final int floorId) {
+		final Floor floor = floors.get(floorId);
+		for (Level level : floor.getLevels()) {
+			if (!isLevelCompleted(floorId, level.getLevelId())) {
 				return false;
 			}
 		}
 		return true;
 	}
 
-	public int getNumLevelsCompleted() {
-		int num = 0;
+	public boolean isCompleted() {
 		for (Floor floor : getFloors()) {
-			for (Level level : floor.getLevels()) {
-				if (level.isCompleted()) {
-					num++;
-				}
+			if (!isFloorCompleted(floor.getFloorId())) {
+				return false;
 			}
 		}
-		return num;
+		return true;
+	}
+
+	public int getNumLevelsCompleted() {
+		return Integer.bitCount(getCompletionMask());
+	}
+
+	// One bit per level, in the order the floors and levels were added. The
+	// full game has 15 levels, so this always fits. A level only counts once
+	// the player has left it, which is the only time a level gets completed
+	// anyway.
+	public int getCompletionMask() {
+		return completionMask;
 	}
 
 	public boolean sameState(final Game game) {
@@ -90,23 +171,39 @@ public final class Game {
 			return false;
 		}
 
-		if (floors.size() != game.floors.size()) {
+		if ((floors != game.floors) || (completionMask != game.completionMask)) {
 			return false;
 		}
-		for (Map.Entry<Integer, Floor> entry : floors.entrySet()) {
-			final int floorId = entry.getKey();
-			final Floor expectedFloor = entry.getValue();
-			final Floor actualFloor = game.floors.get(floorId);
-			if ((actualFloor == null) || !expectedFloor.sameState(actualFloor)) {
-				return false;
-			}
-		}
 
-		return true;
+		final Level level = player.getLevel();
+		return (level == null) || level.sameState(game.player.getLevel());
 	}
 
 	public SlotRng getSlotRng() {
 		return slotRng;
 	}
 
+	// For UndoLog.
+	void save(final UndoLog log) {
+		log.completionMask = completionMask;
+		log.rngLow = slotRng.getLow();
+		log.rngHigh = slotRng.getHigh();
+		player.save(log);
+	}
+
+	void restore(final UndoLog log) {
+		completionMask = log.completionMask;
+		slotRng.reseed(log.rngLow, log.rngHigh);
+		player.restore(log);
+	}
+
+	private int getCompletionBit(final int floorId, final int levelId) {
+		final Level template = floors.get(floorId).getLevel(levelId);
+		if (template.getCompletionBit() < 0) {
+			throw new IllegalStateException("Level " + floorId + "-" + levelId
+					+ " was added after its floor");
+		}
+		return 1 << template.getCompletionBit();
+	}
+
 }
@@ -0,0 +1,80 @@
+package io.github.uusdfg.mim.data;
+
+// The handful of things the optimizers look at when they compare a route to
+// an old snapshot, pulled out of a Game so the Game itself can be thrown away.
+public final class GameFingerprint {
+
+	private final boolean inCastle;
+
+	private final int roadIndex;
+
+	private final int x;
+
+	private final int runSpeed;
+
+	private final boolean yoshi;
+
+	private final int completionCode;
+
+	private final long transitionDelayEnd;
+
+	private final int rngLow;
+
+	private final int rngHigh;
+
+	public GameFingerprint(final Game game) {
+		final Player player = game.getPlayer();
+		this.inCastle = player.isInCastle();
+		this.roadIndex = player.getPos().getRoadIndex();
+		this.x = player.getPos().getX();
+		this.runSpeed = player.getRunSpeed();
+		this.yoshi = player.hasYoshi();
+		this.completionCode = inCastle ? 0 : player.getLevel()
+				.getCompletionCode();
+		this.transitionDelayEnd = player.getTransitionDelayEnd();
+		this.rngLow = game.getSlotRng().getLow();
+		this.rngHigh = game.getSlotRng().getHigh();
+	}
+
+	public boolean isInCastle() {
+		return inCastle;
+	}
+
+	public int getRoadIndex() {
+		return roadIndex;
+	}
+
+	public int getX() {
+		return x;
+	}
+
+	public int getRunSpeed() {
+		return runSpeed;
+	}
+
+	public boolean hasYoshi() {
+		return yoshi;
+	}
+
+	public int getCompletionCode() {
+		return completionCode;
+	}
+
+	public long getTransitionDelayEnd() {
+		return transitionDelayEnd;
+	}
+
+	public int getRngLow() {
+		return rngLow;
+	}
+
+	public int getRngHigh() {
+		return rngHigh;
+	}
+
+	public boolean sameRng(final Game game) {
+		return (rngLow == game.getSlotRng().getLow())
+				&& (rngHigh == game.getSlotRng().getHigh());
+	}
+
+}
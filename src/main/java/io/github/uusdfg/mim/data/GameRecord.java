@@ -0,0 +1,191 @@
+package io.github.uusdfg.mim.data;
+
+import io.github.uusdfg.mim.rng.SlotRng;
+
+import java.nio.ByteBuffer;
+
+// Packs everything about a game that can change during a search into a
+// fixed-size record, so games can be stored in plain byte buffers (e.g. off
+// the heap) instead of as a few dozen objects apiece. The floors and level
+// templates never change, so they aren't written out. Reading a record back
+// needs a game that shares them.
+//
+// Layout (all big-endian, like ByteBuffer does by default):
+// 0 RNG low, 4 RNG high, 8 completion mask, 12 floor, 16 player road,
+// 20 player x, 24 flags, 25 number of Koopas, 26 completed kiosks,
+// 28 held artifact, 32 transition delay end, 40 level ID, 44 completion code,
+// 48 Koopas.
+public final class GameRecord {
+
+	public static final int MAX_KOOPAS = 3;
+
+	private static final int KOOPA_SIZE = 32;
+
+	private static final int KOOPAS_OFFSET = 48;
+
+	public static final int SIZE = KOOPAS_OFFSET + (MAX_KOOPAS * KOOPA_SIZE);
+
+	// Where the (absolute) transition delay end time goes, for anybody that
+	// wants to compare records written at different times.
+	public static final int TRANSITION_DELAY_END_OFFSET = 32;
+
+	private static final int FACING_LEFT_FLAG = 1;
+
+	private static final int YOSHI_FLAG = 1 << 1;
+
+	private static final int IN_LEVEL_FLAG = 1 << 2;
+
+	private static final int LEVEL_COMPLETED_FLAG = 1 << 3;
+
+	private static final int START_LEFT_FLAG = 1;
+
+	private static final int CURRENT_LEFT_FLAG = 1 << 1;
+
+	private static final Koopa.Status[] STATUSES = Koopa.Status.values();
+
+	private GameRecord() {
+	}
+
+	public static void write(final Game game, final ByteBuffer buffer,
+			final int offset) {
+		final Player player = game.getPlayer();
+		final int pos = player.getPackedPos();
+		final Level level = player.getLevel();
+
+		buffer.putInt(offset, game.getSlotRng().getLow());
+		buffer.putInt(offset + 4, game.getSlotRng().getHigh());
+		buffer.putInt(offset + 8, game.getCompletionMask());
+		buffer.putInt(offset + 12, player.getFloor());
+		buffer.putInt(offset + 16, Position.getRoadIndex(pos));
+		buffer.putInt(offset + 20, Position.getX(pos));
+		buffer.putInt(offset + 28, player.getCurrentArtifact());
+		buffer.putLong(offset + TRANSITION_DELAY_END_OFFSET,
+				player.getTransitionDelayEnd());
+
+		int flags = (Position.isFacingLeft(pos) ? FACING_LEFT_FLAG : 0)
+				| (player.hasYoshi() ? YOSHI_FLAG : 0);
+		int numKoopas = 0;
+		int kioskMask = 0;
+		if (level != null) {
+			flags |= IN_LEVEL_FLAG
+					| (level.isCompleted() ? LEVEL_COMPLETED_FLAG : 0);
+			buffer.putInt(offset + 40, level.getLevelId());
+			buffer.putInt(offset + 44, level.getCompletionCode());
+
+			for (Kiosk kiosk : level.getKiosks()) {
+				if ((kiosk != null) && kiosk.isCompleted()) {
+					kioskMask |= 1 << kiosk.getArtifactId();
+				}
+			}
+
+			for (Koopa koopa : level.getKoopas()) {
+				if (koopa == null) {
+					continue;
+				}
+				if (numKoopas == MAX_KOOPAS) {
+					throw new IllegalArgumentException("Level "
+							+ level.getLevelId() + " has more than "
+							+ MAX_KOOPAS + " Koopas to write out");
+				}
+				writeKoopa(koopa, buffer, offset + KOOPAS_OFFSET
+						+ (numKoopas * KOOPA_SIZE));
+				numKoopas++;
+			}
+		}
+		if (level == null) {
+			buffer.putInt(offset + 40, 0);
+			buffer.putInt(offset + 44, 0);
+		}
+		// Zero out the rest so equal games always give equal records.
+		for (int i = offset + KOOPAS_OFFSET + (numKoopas * KOOPA_SIZE); i < offset
+				+ SIZE; i++) {
+			buffer.put(i, (byte) 0);
+		}
+		buffer.put(offset + 24, (byte) flags);
+		buffer.put(offset + 25, (byte) numKoopas);
+		buffer.putShort(offset + 26, (short) kioskMask);
+	}
+
+	// The new game shares the template's floors and level templates.
+	public static Game read(final ByteBuffer buffer, final int offset,
+			final Game template) {
+		final int flags = buffer.get(offset + 24);
+		final Player player = new Player();
+		player.setFloor(buffer.getInt(offset + 12));
+
+		Level level = null;
+		if ((flags & IN_LEVEL_FLAG) != 0) {
+			final Floor floor = template.getFloor(player.getFloor());
+			level = new Level(floor.getLevel(buffer.getInt(offset + 40)));
+			player.setLevel(level);
+
+			final int kioskMask = buffer.getShort(offset + 26);
+			for (Kiosk kiosk : level.getKiosks()) {
+				if (kiosk != null) {
+					kiosk.setCompleted((kioskMask & (1 << kiosk
+							.getArtifactId())) != 0);
+				}
+			}
+
+			level.clearKoopas();
+			final int numKoopas = buffer.get(offset + 25);
+			for (int i = 0; i < numKoopas; i++) {
+				level.addKoopa(readKoopa(buffer, offset + KOOPAS_OFFSET
+						+ (i * KOOPA_SIZE), level));
+			}
+		}
+
+		player.setPackedPos(Position.pack((flags & FACING_LEFT_FLAG) != 0, buffer
+				.getInt(offset + 16), buffer.getInt(offset + 20)));
+		player.setYoshi((flags & YOSHI_FLAG) != 0);
+		player.setCurrentArtifact(buffer.getInt(offset + 28));
+		player.setTransitionDelayEnd(buffer.getLong(offset
+				+ TRANSITION_DELAY_END_OFFSET));
+
+		// The player setters above fiddle with the completion code, so put
+		// the real one back last.
+		if (level != null) {
+			level.restoreCompletion((flags & LEVEL_COMPLETED_FLAG) != 0,
+					buffer.getInt(offset + 44));
+		}
+
+		final SlotRng slotRng = new SlotRng(buffer.getInt(offset),
+				buffer.getInt(offset + 4));
+		return new Game(template, player, slotRng, buffer.getInt(offset + 8));
+	}
+
+	private static void writeKoopa(final Koopa koopa, final ByteBuffer buffer,
+			final int offset) {
+		final int startPos = koopa.getPackedStartPos();
+		final int currentPos = koopa.getPackedCurrentPos();
+		buffer.putInt(offset, koopa.getId());
+		buffer.putInt(offset + 4, koopa.getArtifactNumber());
+		buffer.putInt(offset + 8, koopa.getAnimationTime());
+		buffer.put(offset + 12, (byte) koopa.getStatus().ordinal());
+		buffer.put(offset + 13,
+				(byte) ((Position.isFacingLeft(startPos) ? START_LEFT_FLAG : 0) | (Position
+						.isFacingLeft(currentPos) ? CURRENT_LEFT_FLAG : 0)));
+		buffer.putShort(offset + 14, (short) 0);
+		buffer.putInt(offset + 16, Position.getRoadIndex(startPos));
+		buffer.putInt(offset + 20, Position.getX(startPos));
+		buffer.putInt(offset + 24, Position.getRoadIndex(currentPos));
+		buffer.putInt(offset + 28, Position.getX(currentPos));
+	}
+
+	private static Koopa readKoopa(final ByteBuffer buffer, final int offset,
+			final Level level) {
+		final int flags = buffer.get(offset + 13);
+		final Position startPos = new Position(
+				(flags & START_LEFT_FLAG) != 0, buffer.getInt(offset + 16),
+				buffer.getInt(offset + 20));
+		final Koopa koopa = new Koopa(buffer.getInt(offset), startPos, level);
+		koopa.setCurrentPos(new Position((flags & CURRENT_LEFT_FLAG) != 0,
+				buffer.getInt(offset + 24), buffer.getInt(offset + 28)));
+		koopa.setRoad(level.getRoad(startPos.getRoadIndex()));
+		koopa.setArtifactNumber(buffer.getInt(offset + 4));
+		koopa.setAnimationTime(buffer.getInt(offset + 8));
+		koopa.setStatus(STATUSES[buffer.get(offset + 12)]);
+		return koopa;
+	}
+
+}
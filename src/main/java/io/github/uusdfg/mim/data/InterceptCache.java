@@ -0,0 +1,116 @@
+package io.github.uusdfg.mim.data;
+
+// Remembers where and when the player meets a Koopa (or a group of Koopas)
+// for one state of a level, keyed by which Koopas, where the player starts
+// and how fast the player runs. The stomping actions come in four variants
+// that all need the same intercept, and each of them works it out again in
+// perform() and toDetailedString(), so a search that tries every variant on
+// the same state only has to solve it once.
+//
+// Each thread has its own (see get()), and an entry's only good for the
+// level it went in for, as long as that level hasn't changed since (see
+// Level.getStateVersion()). Undoing an action puts the old version back, so
+// everything remembered about the state an expansion started from stays good
+// while the search tries each action on it. Moving on to the next expansion
+// means a new working copy of the level, which just pushes the old entries
+// out as the new ones come in.
+//
+// This is a little direct-mapped table, since there are only ever a handful
+// of Koopas on a road to ask about. A collision just means solving it again.
+// It doesn't make anything per level or per lookup, which matters since the
+// search makes a new working copy for every expansion.
+public final class InterceptCache {
+
+	public static final int NO_ENTRY = -1;
+
+	// Has to be a power of two.
+	private static final int SIZE = 16;
+
+	private static final ThreadLocal<InterceptCache> CACHES = new ThreadLocal<InterceptCache>() {
+		@Override
+		protected InterceptCache initialValue() {
+			return new InterceptCache();
+		}
+	};
+
+	private final Level[] levels = new Level[SIZE];
+
+	private final long[] versions = new long[SIZE];
+
+	private final long[] koopaMasks = new long[SIZE];
+
+	private final int[] playerPositions = new int[SIZE];
+
+	private final int[] playerSpeeds = new int[SIZE];
+
+	private final int[] xs = new int[SIZE];
+
+	private final long[] times = new long[SIZE];
+
+	private long hits = 0;
+
+	private long misses = 0;
+
+	InterceptCache() {
+	}
+
+	public static InterceptCache get() {
+		return CACHES.get();
+	}
+
+	// Returns the entry for the intercept, or NO_ENTRY if it has to be worked
+	// out (and put()).
+	public int find(final Level level, final long koopaMask,
+			final int playerPos, final int playerSpeed) {
+		final int entry = getEntry(koopaMask, playerPos, playerSpeed);
+		if ((levels[entry] == level)
+				&& (versions[entry] == level.getStateVersion())
+				&& (koopaMasks[entry] == koopaMask)
+				&& (playerPositions[entry] == playerPos)
+				&& (playerSpeeds[entry] == playerSpeed)) {
+			hits++;
+			return entry;
+		}
+		misses++;
+		return NO_ENTRY;
+	}
+
+	// Returns the entry it went in, which is good until the next put().
+	public int put(final Level level, final long koopaMask,
+			final int playerPos, final int playerSpeed, final int x,
+			final long time) {
+		final int entry = getEntry(koopaMask, playerPos, playerSpeed);
+		levels[entry] = level;
+		versions[entry] = level.getStateVersion();
+		koopaMasks[entry] = koopaMask;
+		playerPositions[entry] = playerPos;
+		playerSpeeds[entry] = playerSpeed;
+		xs[entry] = x;
+		times[entry] = time;
+		return entry;
+	}
+
+	public int getX(final int entry) {
+		return xs[entry];
+	}
+
+	public long getTime(final int entry) {
+		return times[entry];
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	private static int getEntry(final long koopaMask, final int playerPos,
+			final int playerSpeed) {
+		long hash = koopaMask * 0x9E3779B97F4A7C15L;
+		hash ^= (playerPos * 31L + playerSpeed) * 0xC2B2AE3D27D4EB4FL;
+		return (int) (hash >>> (Long.SIZE - Integer.numberOfTrailingZeros(SIZE)));
+	}
+
+}
@@ -0,0 +1,87 @@
+package io.github.uusdfg.mim.data;
+
+// When things walking along a road run into each other. Everything moves a
+// whole number of pixels per frame, so these stick to integers and round up
+// to the first whole frame where the meeting has happened, instead of going
+// through doubles and Math.ceil().
+//
+// The stomping actions and the heuristic all go through here, so they can't
+// disagree about when the player reaches a Koopa.
+public final class Intercepts {
+
+	// Time for "never", like when two things are moving in parallel.
+	public static final long NEVER = Long.MAX_VALUE;
+
+	private Intercepts() {
+	}
+
+	public static long ceilDiv(final long num, final long den) {
+		final long quotient = num / den;
+		if (((num % den) != 0) && ((num < 0) == (den < 0))) {
+			return quotient + 1;
+		}
+		return quotient;
+	}
+
+	// The first frame where something that starts at x1 moving at v1 has
+	// caught up to or passed something that starts at x2 moving at v2. Can be
+	// negative if they've already met.
+	public static long meetingTime(final long x1, final long v1,
+			final long x2, final long v2) {
+		if (v1 == v2) {
+			return NEVER;
+		}
+		return ceilDiv(x1 - x2, v2 - v1);
+	}
+
+	// How long it takes a player running at the given speed to get into the
+	// Koopa's hitbox, assuming the Koopa bounces off the end of the road at
+	// most once. Stomped and carried Koopas stand still.
+	public static long timeToHitboxEntry(final Position playerPos,
+			final int playerSpeed, final Koopa koopa) {
+		return timeToHitboxEntry(playerPos.pack(), playerSpeed, koopa);
+	}
+
+	public static long timeToHitboxEntry(final int playerPos,
+			final int playerSpeed, final Koopa koopa) {
+		// Sanity check.
+		final int koopaPos = koopa.getPackedCurrentPos();
+		final long koopaX = Position.getX(koopaPos);
+		if (Koopa.isInHitbox(playerPos, koopa)) {
+			return 0;
+		}
+
+		final long roadLength = koopa.getRoad().getLength();
+		final long playerX = Position.getX(playerPos);
+		final boolean koopaLeft = Position.isFacingLeft(koopaPos);
+		final boolean playerLeft = (playerX > koopaX);
+
+		// Note that there are some -1/+1s thrown into the bounce X to account
+		// for the fact that the Koopa pauses when it hits the edge of the road.
+		final long hitboxOffset = (playerLeft) ? Koopa.HITBOX_RADIUS
+				: -Koopa.HITBOX_RADIUS;
+		final long hitboxX = koopaX + hitboxOffset;
+		final long bounceHitboxX = ((koopaLeft) ? (2
+				* KoopaKinematics.LEFT_X_MARGIN - koopaX - 1)
+				: (2 * roadLength - koopaX + 1))
+				+ hitboxOffset;
+
+		final long koopaV = ((koopaLeft) ? -1 : 1)
+				* ((koopa.getStatus() == Koopa.Status.ACTIVE) ? KoopaKinematics.MOVEMENT_SPEED
+						: 0);
+		final long playerV = ((playerLeft) ? -1 : 1) * playerSpeed;
+
+		// A Koopa walking away exactly as fast as the player runs never gets
+		// caught before it bounces.
+		final long time = meetingTime(playerX, playerV, hitboxX, koopaV);
+		final long bounceTime;
+		if (koopaV == -playerV) {
+			bounceTime = NEVER;
+		} else {
+			bounceTime = ceilDiv(bounceHitboxX - playerX, koopaV + playerV);
+		}
+
+		return Math.min(time, (bounceTime >= 0) ? bounceTime : NEVER);
+	}
+
+}
@@ -10,28 +10,42 @@ public final class Kiosk {
 
 	private final Position basePos;
 
-	private final Range leftRange;
+	// Packed copy of basePos. See Position.
+	private final int packedBasePos;
 
-	private final Range rightRange;
+	// The activation ranges, one for each way the player can face. They're
+	// next to each other, with the left one on the right.
+	private final int leftMin;
 
-	private final Level level;
+	private final int leftMax;
+
+	private final int rightMin;
 
-	private boolean completed = false;
+	private final int rightMax;
+
+	// Whether the kiosk's been completed lives in the level, so copies of the
+	// level don't need their own kiosks until somebody asks.
+	private final Level level;
 
 	public Kiosk(final int artifactId, final Position basePos, final Level level) {
 		this.artifactId = artifactId;
 		this.basePos = basePos;
-		this.leftRange = LEFT_ACTIVATION_RANGE.withOffset(basePos.getX());
-		this.rightRange = RIGHT_ACTIVATION_RANGE.withOffset(basePos.getX());
+		this.packedBasePos = basePos.pack();
+		this.leftMin = LEFT_ACTIVATION_RANGE.getMin() + basePos.getX();
+		this.leftMax = LEFT_ACTIVATION_RANGE.getMax() + basePos.getX();
+		this.rightMin = RIGHT_ACTIVATION_RANGE.getMin() + basePos.getX();
+		this.rightMax = RIGHT_ACTIVATION_RANGE.getMax() + basePos.getX();
 		this.level = level;
 	}
 
 	public Kiosk(final Kiosk src, final Level level) {
 		this.artifactId = src.artifactId;
 		this.basePos = src.basePos;
-		this.completed = src.completed;
-		this.leftRange = src.leftRange;
-		this.rightRange = src.rightRange;
+		this.packedBasePos = src.packedBasePos;
+		this.leftMin = src.leftMin;
+		this.leftMax = src.leftMax;
+		this.rightMin = src.rightMin;
+		this.rightMax = src.rightMax;
 		this.level = level;
 	}
 
@@ -44,63 +58,77 @@ public final class Kiosk {
 	}
 
 	public boolean isCompleted() {
-		return completed;
+		return level.isKioskCompleted(artifactId);
 	}
 
 	public void setCompleted(final boolean completed) {
-		this.completed = completed;
+		level.setKioskCompleted(artifactId, completed);
+	}
 
-		level.setKioskCompletionFlag(artifactId, completed);
+	Level getLevel() {
+		return level;
 	}
 
 	public boolean isActiveAt(final Position pos) {
-		if (!pos.sharesRoadWith(basePos)) {
+		return isActiveAt(pos.pack());
+	}
+
+	public boolean isActiveAt(final int pos) {
+		if (!Position.sharesRoad(pos, packedBasePos)) {
 			return false;
 		}
 
-		if (pos.isFacingLeft()) {
-			return leftRange.includes(pos.getX());
+		final int x = Position.getX(pos);
+		if (Position.isFacingLeft(pos)) {
+			return (x >= leftMin) && (x <= leftMax);
 		} else {
-			return rightRange.includes(pos.getX());
+			return (x >= rightMin) && (x <= rightMax);
 		}
 	}
 
 	public Position getActivePosNearestTo(final Position pos) {
+		final int packed = pos.pack();
+		final int nearest = getActivePackedPosNearestTo(packed);
+		return (nearest == packed) ? pos : Position.unpack(nearest);
+	}
+
+	// Returns Position.NOWHERE if the kiosk's on a different road.
+	public int getActivePackedPosNearestTo(final int pos) {
 		// Because there are two activation ranges, we have a lot of cases to
 		// handle...
-		if (!pos.sharesRoadWith(basePos)) {
+		if (!Position.sharesRoad(pos, packedBasePos)) {
 			// If the position isn't even on the same road, this is impossible.
-			return null;
+			return Position.NOWHERE;
 		}
 
-		final int roadIndex = pos.getRoadIndex();
-		final int x = pos.getX();
+		final int x = Position.getX(pos);
 
 		// If the player isn't in the area of the kiosk at all, the player
 		// has to run to it.
-		final Range totalRange = leftRange.unionWith(rightRange);
-		if (totalRange.isWhollyBelow(x)) {
-			return new Position(true, roadIndex, totalRange.getMax());
-		} else if (totalRange.isWhollyAbove(x)) {
-			return new Position(false, roadIndex, totalRange.getMin());
+		final int totalMin = Math.min(leftMin, rightMin);
+		final int totalMax = Math.max(leftMax, rightMax);
+		if (x > totalMax) {
+			return Position.withX(Position.withLeftFlag(pos, true), totalMax);
+		} else if (x < totalMin) {
+			return Position.withX(Position.withLeftFlag(pos, false), totalMin);
 		}
 
 		// If the player is near the kiosk, the player might already be at the
 		// kiosk, or might need to turn around.
 		// XXX This doesn't account for the fact turning moves you a pixel.
-		if (pos.isFacingLeft()) {
-			if (leftRange.includes(x)) {
+		if (Position.isFacingLeft(pos)) {
+			if ((x >= leftMin) && (x <= leftMax)) {
 				return pos;
 			} else {
 				// XXX This assumes there is no gap between the ranges.
 				// Fortunately, there is no gap.
-				return pos.withLeftFlag(false);
+				return Position.withLeftFlag(pos, false);
 			}
 		} else {
-			if (rightRange.includes(x)) {
+			if ((x >= rightMin) && (x <= rightMax)) {
 				return pos;
 			} else {
-				return pos.withLeftFlag(true);
+				return Position.withLeftFlag(pos, true);
 			}
 		}
 	}
@@ -126,7 +154,7 @@ public final class Kiosk {
 	@Override
 	public String toString() {
 		return String.format("Kiosk %d%s @ %s", artifactId,
-				(completed) ? " (completed)" : "", basePos);
+				(isCompleted()) ? " (completed)" : "", basePos);
 	}
 
 }
@@ -4,42 +4,158 @@ public final class Koopa extends NPC {
 
 	public static final int NO_ARTIFACT = -1;
 
-	private static final Range HITBOX = new Range(-16, 16);
+	public static final int HITBOX_RADIUS = 16;
 
-	private static final int MOVEMENT_SPEED = 1;
+	private static final Range HITBOX = new Range(-HITBOX_RADIUS,
+			HITBOX_RADIUS);
 
-	private static final int LEFT_X_MARGIN = 15;
+	private static final int MOVEMENT_SPEED = KoopaKinematics.MOVEMENT_SPEED;
+
+	private static final int LEFT_X_MARGIN = KoopaKinematics.LEFT_X_MARGIN;
 
 	private final Level level;
 
+	// Koopas that belong to a level are just views of one of the level's
+	// Koopa slots. The status and anchor below live in the level's arrays,
+	// so copying the level doesn't mean copying its Koopas. A Koopa that
+	// hasn't been added to a level has a slot of -1 and keeps them here.
+	private int slot = -1;
+
 	private int artifactNumber = NO_ARTIFACT;
 
 	private int animationTime;
 
 	private Status status = Status.ACTIVE;
 
+	// Koopas don't actually move until somebody asks where they are. The
+	// position in the superclass is where this Koopa was when the level's NPC
+	// clock read anchorTime, and everything since then gets worked out from
+	// that.
+	private long anchorTime;
+
+	// The last position we worked out, so asking again at the same time is
+	// free. Packed, so it's free the first time too.
+	private long cachedTime;
+
+	private int cachedPos = Position.NOWHERE;
+
+	// The last position somebody wanted as an object. Positions don't change,
+	// so clones can share it.
+	private Position posView = null;
+
 	public Koopa(final int id, final Level level) {
 		super(id);
 		this.level = level;
+		this.anchorTime = getNpcTime();
 	}
 
 	public Koopa(final int id, final Position startPos, final Level level) {
 		super(id, startPos);
 		this.level = level;
+		this.anchorTime = getNpcTime();
 	}
 
+	// Makes a Koopa with its own state, even if the source is a view.
+	// XXX Assumes the new level's NPC clock reads the same as the old one's,
+	// which is true when the new level is a copy of the old one.
 	public Koopa(final Koopa src, final Level level) {
 		super(src);
+		super.setPackedCurrentPos(src.getAnchorPos());
 		this.artifactNumber = src.artifactNumber;
 		this.animationTime = src.animationTime;
-		this.status = src.status;
+		this.status = src.getStatus();
+		this.level = level;
+		this.anchorTime = src.getAnchorTime();
+		this.cachedTime = src.cachedTime;
+		this.cachedPos = src.cachedPos;
+		this.posView = src.posView;
+	}
+
+	// A view of one of the level's slots.
+	Koopa(final Level level, final KoopaRoster roster, final int slot) {
+		super(roster.getId(slot), roster.getStartPos(slot));
+		setRoad(roster.getRoad(slot));
+		this.artifactNumber = roster.getArtifactNumber(slot);
+		this.animationTime = roster.getAnimationTime(slot);
 		this.level = level;
+		this.slot = slot;
+	}
+
+	// Turns this Koopa into a view of the given slot, once the level has
+	// copied its state over.
+	void attach(final int slot) {
+		this.slot = slot;
+	}
+
+	Level getLevel() {
+		return level;
+	}
+
+	int getAnchorPos() {
+		return (slot < 0) ? super.getPackedCurrentPos() : level
+				.getKoopaAnchorPos(slot);
+	}
+
+	long getAnchorTime() {
+		return (slot < 0) ? anchorTime : level.getKoopaAnchorTime(slot);
+	}
+
+	@Override
+	public int getPackedCurrentPos() {
+		final int anchorPos = getAnchorPos();
+		if (getStatus() != Status.ACTIVE) {
+			// Inactive Koopas don't move.
+			return anchorPos;
+		}
+
+		final long now = getNpcTime();
+		final long anchor = getAnchorTime();
+		if (now == anchor) {
+			return anchorPos;
+		} else if ((cachedPos == Position.NOWHERE) || (cachedTime != now)) {
+			cachedPos = move(anchorPos, now - anchor);
+			cachedTime = now;
+		}
+		return cachedPos;
+	}
+
+	@Override
+	public Position getCurrentPos() {
+		final int pos = getPackedCurrentPos();
+		Position view = posView;
+		if ((view == null) || (view.pack() != pos)) {
+			view = Position.unpack(pos);
+			posView = view;
+		}
+		return view;
+	}
+
+	@Override
+	public void setPackedCurrentPos(final int currentPos) {
+		if (slot < 0) {
+			super.setPackedCurrentPos(currentPos);
+			anchorTime = getNpcTime();
+		} else {
+			level.setKoopaAnchor(slot, currentPos, getNpcTime());
+		}
+		cachedPos = Position.NOWHERE;
+	}
 
-		setCurrentPos(src.getCurrentPos());
+	// For when the level puts back an old anchor.
+	void forgetPosition() {
+		cachedPos = Position.NOWHERE;
+	}
+
+	public int getX() {
+		return Position.getX(getPackedCurrentPos());
+	}
+
+	public boolean isFacingLeft() {
+		return Position.isFacingLeft(getPackedCurrentPos());
 	}
 
 	public Range getHitbox() {
-		return HITBOX.withOffset(getCurrentPos().getX());
+		return HITBOX.withOffset(getX());
 	}
 
 	public boolean hasArtifact() {
@@ -51,7 +167,7 @@ public final class Koopa extends NPC {
 	}
 
 	public Status getStatus() {
-		return status;
+		return (slot < 0) ? status : level.getKoopaStatus(slot);
 	}
 
 	public int getAnimationTime() {
@@ -59,11 +175,20 @@ public final class Koopa extends NPC {
 	}
 
 	public void setArtifactNumber(final int artifactNumber) {
+		checkDetached();
 		this.artifactNumber = artifactNumber;
 	}
 
 	public void setStatus(final Status status) {
-		this.status = status;
+		// Pin the Koopa down where it is now, since it'll either stop moving
+		// or start moving from here.
+		final int pos = getPackedCurrentPos();
+		if (slot < 0) {
+			this.status = status;
+		} else {
+			level.setKoopaStatus(slot, status);
+		}
+		setPackedCurrentPos(pos);
 
 		if (hasArtifact()) {
 			level.setKoopaCompletionFlag(artifactNumber, status);
@@ -71,6 +196,7 @@ public final class Koopa extends NPC {
 	}
 
 	public void setAnimationTime(final int animationTime) {
+		checkDetached();
 		this.animationTime = animationTime;
 	}
 
@@ -79,37 +205,33 @@ public final class Koopa extends NPC {
 		return isInHitbox(pos, this);
 	}
 
+	// Moves just this Koopa, without the rest of the level. Normally it's
+	// better to advance the level's NPC clock.
 	@Override
 	public void advance(final long time) {
-		if (status != Status.ACTIVE) {
+		if (getStatus() != Status.ACTIVE) {
 			// Inactive Koopas don't move.
 			return;
 		}
 
-		final Position fromPos = getCurrentPos();
-		boolean left = fromPos.isFacingLeft();
-		long x = fromPos.getX();
-		x += ((left) ? -1 : 1) * time * MOVEMENT_SPEED;
-		final long roadLength = getRoad().getLength();
-
-		// Have the Koopa turn around when it hits the end of the road. Note
-		// that the Koopa is supposed to pause a frame when it turns around.
-		// Also note that the edges are weird: there's a space on the left side,
-		// and the Koopa goes all the way up to the theoretical width of the
-		// road on the right.
-		// TODO Less lame algorithm. You can make it O(1).
-		while ((x < LEFT_X_MARGIN) || (x > roadLength)) {
-			if (x < LEFT_X_MARGIN) {
-				x = LEFT_X_MARGIN + (LEFT_X_MARGIN - x - 1);
-				left = false;
-			} else {
-				x = roadLength + 1 - (x - roadLength);
-				left = true;
-			}
-		}
+		setPackedCurrentPos(move(getPackedCurrentPos(), time));
+	}
 
-		final Position toPos = fromPos.withLeftFlag(left).withX((int) x);
-		setCurrentPos(toPos);
+	private int move(final int fromPos, final long time) {
+		return getRoad().getKoopaKinematics().move(fromPos, time);
+	}
+
+	private long getNpcTime() {
+		return (level == null) ? anchorTime : level.getNpcTime();
+	}
+
+	// The level shares what doesn't change between all of the views of a
+	// slot, so changing it through one of them would be a mistake.
+	private void checkDetached() {
+		if (slot >= 0) {
+			throw new IllegalStateException("Koopa " + getId()
+					+ " already belongs to " + level);
+		}
 	}
 
 	public long getTimeToHitboxEntry(final Position playerPos,
@@ -118,8 +240,8 @@ public final class Koopa extends NPC {
 	}
 
 	public boolean sameState(final Koopa koopa) {
-		return (status == koopa.status)
-				&& (getCurrentPos().equals(koopa.getCurrentPos()));
+		return (getStatus() == koopa.getStatus())
+				&& (getPackedCurrentPos() == koopa.getPackedCurrentPos());
 	}
 
 	@Override
@@ -144,111 +266,80 @@ public final class Koopa extends NPC {
 	public String toString() {
 		final StringBuilder str = new StringBuilder();
 		str.append("Koopa ").append(getId()).append(" (");
-		str.append(status);
+		str.append(getStatus());
 
 		if (hasArtifact()) {
 			str.append(", artifact #").append(artifactNumber);
 		}
 
-		str.append(" @ ").append(getCurrentPos()).append(")");
+		str.append(" @ ").append(Position.toString(getPackedCurrentPos()))
+				.append(")");
 
 		return str.toString();
 	}
 
-	// XXX This is ugly :/
-	public Range getBounceHitbox() {
-		return HITBOX.withOffset(getBouncePosition().getX());
+	// Where the Koopa will be right after it next turns around, if it were
+	// still walking the way it is now. That's off the end of the road, but it
+	// makes the intercept math easier.
+	public int getBounceX() {
+		final int pos = getPackedCurrentPos();
+		final int x = Position.getX(pos);
+		if (Position.isFacingLeft(pos)) {
+			return LEFT_X_MARGIN + (LEFT_X_MARGIN - x - 1);
+		} else {
+			final int roadLength = (int) getRoad().getLength();
+			return roadLength + 1 + (roadLength - x);
+		}
 	}
 
-	public Range getDoubleBounceHitbox() {
-		return HITBOX.withOffset(getDoubleBouncePosition().getX());
+	// Same idea, but after turning around twice.
+	public int getDoubleBounceX() {
+		final int pos = getPackedCurrentPos();
+		final int x = Position.getX(pos);
+		final int roadLength = (int) getRoad().getLength();
+		if (Position.isFacingLeft(pos)) {
+			return x + roadLength + 2;
+		} else {
+			return x - roadLength - 2;
+		}
 	}
 
-	// XXX This is also ugly. :s
 	public Position getBouncePosition() {
 		final Position pos = getCurrentPos();
-		final int x = pos.getX();
-		final int roadIndex = pos.getRoadIndex();
-		if (pos.isFacingLeft()) {
-			return new Position(false, roadIndex, LEFT_X_MARGIN
-					+ (LEFT_X_MARGIN - x - 1));
-		} else {
-			final long roadLength = getRoad().getLength();
-			return new Position(true, roadIndex,
-					(int) (roadLength + 1 + (roadLength - x)));
-		}
+		return new Position(!pos.isFacingLeft(), pos.getRoadIndex(),
+				getBounceX());
 	}
 
 	public Position getDoubleBouncePosition() {
 		final Position pos = getCurrentPos();
-		final int x = pos.getX();
-		final int roadIndex = pos.getRoadIndex();
-		final int roadLength = (int) getRoad().getLength();
-
-		if (pos.isFacingLeft()) {
-			return new Position(true, roadIndex, x + roadLength + 2);
-		} else {
-			return new Position(false, roadIndex, x - roadLength - 2);
-		}
+		return new Position(pos.isFacingLeft(), pos.getRoadIndex(),
+				getDoubleBounceX());
 	}
 
 	public long getTimeToBounce() {
-		final Position pos = getCurrentPos();
-		final int x = pos.getX();
-		if (pos.isFacingLeft()) {
-			return (long) Math.ceil((double) (x + 1 - LEFT_X_MARGIN)
-					/ MOVEMENT_SPEED);
+		final int pos = getPackedCurrentPos();
+		final int x = Position.getX(pos);
+		if (Position.isFacingLeft(pos)) {
+			return Intercepts.ceilDiv(x + 1 - LEFT_X_MARGIN, MOVEMENT_SPEED);
 		} else {
 			final long roadLength = getRoad().getLength();
-			return (long) Math.ceil((double) (roadLength + 1 - x)
-					/ MOVEMENT_SPEED);
+			return Intercepts.ceilDiv(roadLength + 1 - x, MOVEMENT_SPEED);
 		}
 	}
 
-	// TODO I probably should have a hitbox class.
 	public static long getTimeToHitboxEntry(final Position playerPos,
 			final int playerSpeed, final Koopa koopa) {
-		// Sanity check.
-		final Position koopaPos = koopa.getCurrentPos();
-		if (isInHitbox(playerPos, koopa)) {
-			return 0;
-		}
-
-		final long roadLength = koopa.getRoad().getLength();
-		final long playerX = playerPos.getX();
-		final long koopaX = koopaPos.getX();
-		final boolean koopaLeft = koopaPos.isFacingLeft();
-		final boolean playerLeft = (playerX > koopaX);
-
-		// Note that there are some -1/+1s thrown into the bounce X to account
-		// for the fact that the Koopa pauses when it hits the edge of the road.
-		final Range hitbox = koopa.getHitbox();
-		final long hitboxX = (playerLeft) ? hitbox.getMax() : hitbox.getMin();
-		final long bounceHitboxX = ((koopaLeft) ? (2 * LEFT_X_MARGIN - koopaX - 1)
-				: (2 * roadLength - koopaX + 1))
-				+ ((playerLeft) ? HITBOX.getMax() : HITBOX.getMin());
-
-		final int koopaV = ((koopaLeft) ? -1 : 1)
-				* ((koopa.getStatus() == Status.ACTIVE) ? MOVEMENT_SPEED : 0);
-		final int playerV = ((playerLeft) ? -1 : 1) * playerSpeed;
-
-		final long time = (long) Math.ceil(((double) playerX - hitboxX)
-				/ ((double) koopaV - playerV));
-		final long bounceTime;
-		if (koopaV == -playerV) {
-			bounceTime = Long.MAX_VALUE;
-		} else {
-			bounceTime = (long) Math.ceil(((double) bounceHitboxX - playerX)
-					/ ((double) koopaV + playerV));
-		}
-
-		return Math.min(time, (bounceTime >= 0) ? bounceTime : Long.MAX_VALUE);
+		return Intercepts.timeToHitboxEntry(playerPos, playerSpeed, koopa);
 	}
 
 	public static boolean isInHitbox(final Position playerPos, final Koopa koopa) {
-		final Position koopaPos = koopa.getCurrentPos();
-		return playerPos.sharesRoadWith(koopaPos)
-				&& koopa.getHitbox().includes(playerPos.getX());
+		return isInHitbox(playerPos.pack(), koopa);
+	}
+
+	public static boolean isInHitbox(final int playerPos, final Koopa koopa) {
+		final int koopaPos = koopa.getPackedCurrentPos();
+		return Position.sharesRoad(playerPos, koopaPos)
+				&& (Position.getXdistance(playerPos, koopaPos) <= HITBOX_RADIUS);
 	}
 
 	public static enum Status {
@@ -0,0 +1,120 @@
+package io.github.uusdfg.mim.data;
+
+// Where a Koopa on a particular road is after walking for a while. Koopas
+// just walk back and forth at a constant speed, pausing for a frame at each
+// end of the road, so their motion repeats every
+// 2 * (roadLength - LEFT_X_MARGIN + 1) frames. Unfolding the back-and-forth
+// into a single lap around that period gives each (x, direction) pair a
+// phase, and walking for t frames just adds t to the phase.
+//
+// Each road builds one of these when it's created, which is when the loader
+// sets up the level. The table is never modified after that, so the levels
+// copied from the templates can all share it, even across threads.
+public final class KoopaKinematics {
+
+	public static final int MOVEMENT_SPEED = 1;
+
+	// Note that the edges are weird: there's a space on the left side, and
+	// Koopas go all the way up to the theoretical width of the road on the
+	// right.
+	public static final int LEFT_X_MARGIN = 15;
+
+	private final int roadLength;
+
+	// Phases below this are walking right. The rest are walking left.
+	private final int rightPhases;
+
+	private final int period;
+
+	// The X position for each phase. Null if the road's too short for a Koopa
+	// to walk on, which only happens with made-up roads.
+	private final int[] xByPhase;
+
+	public KoopaKinematics(final int roadLength) {
+		this.roadLength = roadLength;
+		this.rightPhases = roadLength - LEFT_X_MARGIN + 1;
+		this.period = 2 * rightPhases;
+
+		if (rightPhases <= 0) {
+			this.xByPhase = null;
+			return;
+		}
+		this.xByPhase = new int[period];
+		for (int phase = 0; phase < rightPhases; phase++) {
+			xByPhase[phase] = LEFT_X_MARGIN + phase;
+			xByPhase[period - 1 - phase] = LEFT_X_MARGIN + phase;
+		}
+	}
+
+	public int getRoadLength() {
+		return roadLength;
+	}
+
+	public int getPeriod() {
+		return period;
+	}
+
+	public boolean covers(final int x) {
+		return (xByPhase != null) && (x >= LEFT_X_MARGIN) && (x <= roadLength);
+	}
+
+	// Only makes sense for positions we cover.
+	public int getPhase(final boolean facingLeft, final int x) {
+		return facingLeft ? (period - 1 - (x - LEFT_X_MARGIN))
+				: (x - LEFT_X_MARGIN);
+	}
+
+	public int getX(final int phase) {
+		return xByPhase[phase];
+	}
+
+	public boolean isFacingLeft(final int phase) {
+		return (phase >= rightPhases);
+	}
+
+	public Position move(final Position fromPos, final long time) {
+		if (time == 0) {
+			return fromPos;
+		}
+		return Position.unpack(move(fromPos.pack(), time));
+	}
+
+	// Same thing with a packed position.
+	public int move(final int fromPos, final long time) {
+		if (time == 0) {
+			return fromPos;
+		}
+
+		final int x = Position.getX(fromPos);
+		if (!covers(x)) {
+			// Somewhere off the end of the road. Let it walk back on the hard
+			// way.
+			return reflect(fromPos, time);
+		}
+
+		final int phase = (int) ((getPhase(Position.isFacingLeft(fromPos), x) + ((time * MOVEMENT_SPEED) % period)) % period);
+		return Position.withX(
+				Position.withLeftFlag(fromPos, isFacingLeft(phase)),
+				xByPhase[phase]);
+	}
+
+	// How the Koopa would move if we bounced it off the ends of the road one
+	// at a time. Note that the Koopa is supposed to pause a frame when it
+	// turns around.
+	private int reflect(final int fromPos, final long time) {
+		boolean left = Position.isFacingLeft(fromPos);
+		long x = Position.getX(fromPos);
+		x += ((left) ? -1 : 1) * time * MOVEMENT_SPEED;
+		while ((x < LEFT_X_MARGIN) || (x > roadLength)) {
+			if (x < LEFT_X_MARGIN) {
+				x = LEFT_X_MARGIN + (LEFT_X_MARGIN - x - 1);
+				left = false;
+			} else {
+				x = roadLength + 1 - (x - roadLength);
+				left = true;
+			}
+		}
+		return Position.withX(Position.withLeftFlag(fromPos, left), (int) x);
+	}
+
+}
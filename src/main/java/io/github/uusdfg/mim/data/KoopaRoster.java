@@ -0,0 +1,222 @@
+package io.github.uusdfg.mim.data;
+
+import java.util.Arrays;
+
+// The parts of a level's Koopas that don't change until the level respawns:
+// who they are, where they started, what they're holding and which road
+// they walk on. Each Koopa gets a slot, and the level keeps everything that
+// does change in arrays indexed by slot.
+//
+// Level copies share one of these, so it's never modified once it's made.
+// Adding a Koopa makes a new one, but that only happens while spawning.
+final class KoopaRoster {
+
+	static final KoopaRoster EMPTY = new KoopaRoster(new int[0], new int[0],
+			new int[0], new int[0], new Road[0]);
+
+	private static final int NO_SLOT = -1;
+
+	private final int[] ids;
+
+	private final int[] startPositions;
+
+	private final int[] artifactNumbers;
+
+	private final int[] animationTimes;
+
+	private final Road[] roads;
+
+	// Lookups from Koopa ID and artifact number to slot, with NO_SLOT where
+	// there isn't a Koopa.
+	private final int[] slotsById;
+
+	private final int[] slotsByArtifact;
+
+	// Only the Koopas holding artifacts, since those are the only ones
+	// anybody asks about by road.
+	private final int[][] slotsByRoad;
+
+	// Every way to pick two or more of the artifact holders on each road, as
+	// masks with a bit for each Koopa ID. See getSubsets() for the order.
+	private final long[][] subsetsByRoad;
+
+	KoopaRoster(final int[] ids, final int[] startPositions,
+			final int[] artifactNumbers, final int[] animationTimes,
+			final Road[] roads) {
+		this.ids = ids;
+		this.startPositions = startPositions;
+		this.artifactNumbers = artifactNumbers;
+		this.animationTimes = animationTimes;
+		this.roads = roads;
+
+		int maxId = -1;
+		int maxArtifact = -1;
+		int maxRoad = -1;
+		for (int slot = 0; slot < ids.length; slot++) {
+			maxId = Math.max(maxId, ids[slot]);
+			if (artifactNumbers[slot] != Koopa.NO_ARTIFACT) {
+				maxArtifact = Math.max(maxArtifact, artifactNumbers[slot]);
+				maxRoad = Math.max(maxRoad,
+						Position.getRoadIndex(startPositions[slot]));
+			}
+		}
+
+		this.slotsById = new int[maxId + 1];
+		this.slotsByArtifact = new int[maxArtifact + 1];
+		Arrays.fill(slotsById, NO_SLOT);
+		Arrays.fill(slotsByArtifact, NO_SLOT);
+		final int[] koopasPerRoad = new int[maxRoad + 1];
+		for (int slot = 0; slot < ids.length; slot++) {
+			slotsById[ids[slot]] = slot;
+			if (artifactNumbers[slot] != Koopa.NO_ARTIFACT) {
+				slotsByArtifact[artifactNumbers[slot]] = slot;
+				koopasPerRoad[Position.getRoadIndex(startPositions[slot])]++;
+			}
+		}
+
+		this.slotsByRoad = new int[maxRoad + 1][];
+		for (int slot = 0; slot < ids.length; slot++) {
+			if (artifactNumbers[slot] != Koopa.NO_ARTIFACT) {
+				final int road = Position.getRoadIndex(startPositions[slot]);
+				if (slotsByRoad[road] == null) {
+					slotsByRoad[road] = new int[koopasPerRoad[road]];
+					koopasPerRoad[road] = 0;
+				}
+				slotsByRoad[road][koopasPerRoad[road]++] = slot;
+			}
+		}
+
+		this.subsetsByRoad = new long[maxRoad + 1][];
+		for (int road = 0; road <= maxRoad; road++) {
+			if (slotsByRoad[road] != null) {
+				subsetsByRoad[road] = getSubsets(slotsByRoad[road]);
+			}
+		}
+	}
+
+	// A roster with the given Koopa added, or swapped in for the Koopa with
+	// the same ID.
+	KoopaRoster with(final Koopa koopa) {
+		int slot = getSlot(koopa.getId());
+		final int size = (slot == NO_SLOT) ? ids.length + 1 : ids.length;
+		if (slot == NO_SLOT) {
+			slot = ids.length;
+		}
+
+		final int[] newIds = Arrays.copyOf(ids, size);
+		final int[] newStartPositions = Arrays.copyOf(startPositions, size);
+		final int[] newArtifactNumbers = Arrays.copyOf(artifactNumbers, size);
+		final int[] newAnimationTimes = Arrays.copyOf(animationTimes, size);
+		final Road[] newRoads = Arrays.copyOf(roads, size);
+		newIds[slot] = koopa.getId();
+		newStartPositions[slot] = koopa.getPackedStartPos();
+		newArtifactNumbers[slot] = koopa.getArtifactNumber();
+		newAnimationTimes[slot] = koopa.getAnimationTime();
+		newRoads[slot] = koopa.getRoad();
+		return new KoopaRoster(newIds, newStartPositions, newArtifactNumbers,
+				newAnimationTimes, newRoads);
+	}
+
+	int size() {
+		return ids.length;
+	}
+
+	int getId(final int slot) {
+		return ids[slot];
+	}
+
+	int getStartPos(final int slot) {
+		return startPositions[slot];
+	}
+
+	int getArtifactNumber(final int slot) {
+		return artifactNumbers[slot];
+	}
+
+	int getAnimationTime(final int slot) {
+		return animationTimes[slot];
+	}
+
+	Road getRoad(final int slot) {
+		return roads[slot];
+	}
+
+	// The biggest Koopa ID plus one.
+	int getIdLimit() {
+		return slotsById.length;
+	}
+
+	int getArtifactLimit() {
+		return slotsByArtifact.length;
+	}
+
+	int getSlot(final int id) {
+		return ((id >= 0) && (id < slotsById.length)) ? slotsById[id]
+				: NO_SLOT;
+	}
+
+	int getSlotByArtifact(final int artifactNumber) {
+		return ((artifactNumber >= 0) && (artifactNumber < slotsByArtifact.length)) ? slotsByArtifact[artifactNumber]
+				: NO_SLOT;
+	}
+
+	// Null if no artifact holders started on the road.
+	int[] getSlotsOnRoad(final int roadId) {
+		return ((roadId >= 0) && (roadId < slotsByRoad.length)) ? slotsByRoad[roadId]
+				: null;
+	}
+
+	// Null if no artifact holders started on the road.
+	long[] getSubsetsOnRoad(final int roadId) {
+		return ((roadId >= 0) && (roadId < subsetsByRoad.length)) ? subsetsByRoad[roadId]
+				: null;
+	}
+
+	static long getIdBit(final int id) {
+		if ((id < 0) || (id >= Long.SIZE)) {
+			throw new IllegalArgumentException("Koopa ID too big for a mask: "
+					+ id);
+		}
+		return (1L << id);
+	}
+
+	boolean sameKoopas(final KoopaRoster roster) {
+		return (this == roster) || Arrays.equals(ids, roster.ids);
+	}
+
+	// The subsets come out in the order the action generator used to find
+	// them in: go through the Koopas from the highest ID down, and after each
+	// subset, try adding each Koopa after the last one in it before moving
+	// on. For Koopas A, B and C, that's AB, ABC, AC, BC.
+	private long[] getSubsets(final int[] slots) {
+		final int[] sortedIds = new int[slots.length];
+		for (int i = 0; i < slots.length; i++) {
+			sortedIds[i] = ids[slots[i]];
+		}
+		Arrays.sort(sortedIds);
+		final int[] idsHighestFirst = new int[slots.length];
+		for (int i = 0; i < slots.length; i++) {
+			idsHighestFirst[i] = sortedIds[slots.length - 1 - i];
+		}
+
+		final long[] subsets = new long[(1 << slots.length) - slots.length - 1];
+		addSubsets(idsHighestFirst, 0, 0, 0, subsets, 0);
+		return subsets;
+	}
+
+	// Returns the next free spot in the output.
+	private static int addSubsets(final int[] ids, final int start,
+			final long selection, final int size, final long[] outSubsets,
+			final int firstFree) {
+		int next = firstFree;
+		for (int i = start; i < ids.length; i++) {
+			final long subset = selection | getIdBit(ids[i]);
+			if (size > 0) {
+				outSubsets[next++] = subset;
+			}
+			next = addSubsets(ids, i + 1, subset, size + 1, outSubsets, next);
+		}
+		return next;
+	}
+
+}
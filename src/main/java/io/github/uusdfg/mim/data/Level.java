@@ -5,17 +5,16 @@ import io.github.uusdfg.mim.rng.SlotRng;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
-import java.util.Set;
 
 public final class Level {
 
-	private static final int NUM_NPCS = 5;
+	private static final int NUM_NPCS = SpawnCache.NUM_NPCS;
 
-	private static final int NUM_USELESS_KOOPAS = 13;
+	private static final int NUM_USELESS_KOOPAS = SpawnCache.NUM_USELESS_KOOPAS;
 
-	private static final int NUM_ARTIFACTS = 3;
+	private static final int NUM_ARTIFACTS = SpawnCache.NUM_ARTIFACTS;
 
 	private static final int KOOPA_STATUS_WIDTH = 2;
 
@@ -38,19 +37,48 @@ public final class Level {
 	private static final List<Integer> ANIMATION_TIMES = Arrays.asList(80, 48,
 			152);
 
+	private static final Koopa.Status[] STATUSES = Koopa.Status.values();
+
 	private final int levelId;
 
 	private List<Road> roads;
 
+	// The kiosks as the loader made them. Copies of the level share these and
+	// make their own views of them when somebody asks. Whether each one's
+	// been completed lives in kioskCompletion, one bit per artifact ID.
 	private List<Kiosk> kiosks;
 
 	private List<Position> npcSlots;
 
-	private List<Koopa> koopas;
+	// Made from npcSlots the first time anybody copies or respawns the
+	// level, so the templates' caches get shared by all of their copies.
+	private SpawnCache spawnCache = null;
+
+	// The parts of the Koopas that don't change, which copies share.
+	private KoopaRoster koopaRoster = KoopaRoster.EMPTY;
+
+	// Everything about the Koopas that does change, indexed by slot in the
+	// roster. Each Koopa's anchor is where it was at the anchor time (see
+	// Koopa). Copying a level just copies these.
+	private int[] koopaAnchorPos = new int[0];
+
+	private long[] koopaAnchorTime = new long[0];
+
+	private byte[] koopaStatus = new byte[0];
+
+	private int kioskCompletion = 0;
+
+	// Koopa and Kiosk objects for the action code to use, made the first time
+	// somebody asks for them. These never get copied.
+	private Koopa[] koopaViews = null;
 
-	private List<Koopa> koopasByArtifactNumber;
+	private List<Koopa> koopaList = null;
 
-	private List<List<Koopa>> koopasByRoad;
+	private List<Koopa> artifactHolderList = null;
+
+	private List<List<Koopa>> koopasByRoad = null;
+
+	private List<Kiosk> kioskList = null;
 
 	private Position startPos;
 
@@ -58,6 +86,25 @@ public final class Level {
 
 	private int completionCode = 0;
 
+	// Which bit of the game's completion mask belongs to this level. Game
+	// assigns it once, when the level's floor gets added, and it never
+	// changes after that, so copies on any thread can read it freely.
+	private int completionBit = -1;
+
+	// How long the NPCs have been moving. The Koopas work out where they are
+	// from this when somebody asks, so advancing them is just an addition.
+	private long npcTime = 0;
+
+	// Goes up whenever anything about the Koopas changes, so the intercept
+	// cache can tell whether what it remembers is still good. Undoing an
+	// action puts the old version back, but lastStateVersion doesn't go back,
+	// so the next change still gets a version nobody's seen before. Copies
+	// are different levels as far as the cache is concerned, so they can
+	// start over.
+	private long stateVersion = 0;
+
+	private long lastStateVersion = 0;
+
 	public Level(final int levelId) {
 		this(levelId, new Position(false, 0, 0));
 	}
@@ -69,9 +116,6 @@ public final class Level {
 		this.roads = new ArrayList<>();
 		this.npcSlots = new ArrayList<>();
 		this.kiosks = new ArrayList<>();
-		this.koopas = new ArrayList<>();
-		this.koopasByArtifactNumber = new ArrayList<>();
-		this.koopasByRoad = new ArrayList<>();
 	}
 
 	// NOTE: I adopt the fields that don't change during normal gameplay because
@@ -79,33 +123,26 @@ public final class Level {
 	public Level(final Level src) {
 		this.completed = src.completed;
 		this.completionCode = src.completionCode;
+		this.completionBit = src.completionBit;
+		this.npcTime = src.npcTime;
 		this.levelId = src.levelId;
 		this.startPos = src.startPos;
 
 		this.roads = src.roads;
 		this.npcSlots = src.npcSlots;
+		this.spawnCache = src.getSpawnCache();
+		this.kiosks = src.kiosks;
+		this.koopaRoster = src.koopaRoster;
 
-		this.kiosks = new ArrayList<Kiosk>(src.kiosks.size());
-		for (Kiosk srcKiosk : src.kiosks) {
-			if (srcKiosk == null) {
-				this.kiosks.add(null);
-			} else {
-				this.kiosks.add(new Kiosk(srcKiosk, this));
-			}
-		}
-
-		final int numKoopas = src.koopas.size();
-		this.koopas = new ArrayList<>(numKoopas);
-		this.koopasByArtifactNumber = new ArrayList<>(numKoopas);
-		this.koopasByRoad = new ArrayList<>(roads.size());
-		for (Koopa srcKoopa : src.koopas) {
-			if (srcKoopa == null) {
-				this.koopas.add(null);
-			} else {
-				this.addKoopa(new Koopa(srcKoopa, this));
-			}
-		}
-
+		final int numKoopas = src.koopaStatus.length;
+		this.koopaAnchorPos = new int[numKoopas];
+		this.koopaAnchorTime = new long[numKoopas];
+		this.koopaStatus = new byte[numKoopas];
+		System.arraycopy(src.koopaAnchorPos, 0, koopaAnchorPos, 0, numKoopas);
+		System.arraycopy(src.koopaAnchorTime, 0, koopaAnchorTime, 0,
+				numKoopas);
+		System.arraycopy(src.koopaStatus, 0, koopaStatus, 0, numKoopas);
+		this.kioskCompletion = src.kioskCompletion;
 	}
 
 	public int getLevelId() {
@@ -124,27 +161,76 @@ public final class Level {
 		return completionCode;
 	}
 
+	public long getNpcTime() {
+		return npcTime;
+	}
+
+	public int getCompletionBit() {
+		return completionBit;
+	}
+
+	// For Game.addFloor().
+	void assignCompletionBit(final int completionBit) {
+		if ((this.completionBit >= 0) && (this.completionBit != completionBit)) {
+			throw new IllegalStateException("Level " + levelId
+					+ " already has completion bit " + this.completionBit);
+		}
+		this.completionBit = completionBit;
+	}
+
 	public boolean isArtifactCollected(final int artifactId) {
-		// TODO Better data structure so this is less lame.
-		Koopa koopa = null;
-		for (Koopa candidate : getKoopas()) {
-			if (candidate.getArtifactNumber() == artifactId) {
-				koopa = candidate;
-				break;
+		final int slot = koopaRoster.getSlotByArtifact(artifactId);
+		return (slot >= 0) && (getKoopaStatus(slot) == Koopa.Status.CARRIED);
+	}
+
+	public boolean isArtifactReturned(final int artifactId) {
+		return (getKiosk(artifactId) != null) && isKioskCompleted(artifactId);
+	}
+
+	// One bit per artifact whose Koopa has the given status, for checking a
+	// bunch of artifacts at once.
+	public int getArtifactStatusMask(final Koopa.Status status) {
+		final byte ordinal = (byte) status.ordinal();
+		final int artifactLimit = koopaRoster.getArtifactLimit();
+		int mask = 0;
+		for (int artifactId = 0; artifactId < artifactLimit; artifactId++) {
+			final int slot = koopaRoster.getSlotByArtifact(artifactId);
+			if ((slot >= 0) && (koopaStatus[slot] == ordinal)) {
+				mask |= (1 << artifactId);
 			}
 		}
+		return mask;
+	}
+
+	// One bit per Koopa ID, for the artifact holders with the given status.
+	public long getArtifactHolderMask(final Koopa.Status status) {
+		final byte ordinal = (byte) status.ordinal();
+		final int artifactLimit = koopaRoster.getArtifactLimit();
+		long mask = 0;
+		for (int artifactId = 0; artifactId < artifactLimit; artifactId++) {
+			final int slot = koopaRoster.getSlotByArtifact(artifactId);
+			if ((slot >= 0) && (koopaStatus[slot] == ordinal)) {
+				mask |= KoopaRoster.getIdBit(koopaRoster.getId(slot));
+			}
+		}
+		return mask;
+	}
 
-		return (koopa != null) && (koopa.getStatus() == Koopa.Status.CARRIED);
+	// Every combination of two or more of the artifact holders that started
+	// on the road, as masks like the one above, or null if there are none.
+	// Worked out when the Koopas spawn, so don't change it.
+	public long[] getKoopaSubsetsOnRoad(final int roadId) {
+		return koopaRoster.getSubsetsOnRoad(roadId);
 	}
 
-	public boolean isArtifactReturned(final int artifactId) {
-		final Kiosk kiosk = getKiosk(artifactId);
-		return (kiosk != null) && kiosk.isCompleted();
+	// One bit per artifact that's been returned.
+	public int getReturnedArtifactMask() {
+		return kioskCompletion;
 	}
 
 	public boolean areAllArtifactsReturned() {
-		for (Kiosk kiosk : getKiosks()) {
-			if (!kiosk.isCompleted()) {
+		for (Kiosk kiosk : kiosks) {
+			if ((kiosk != null) && !isKioskCompleted(kiosk.getArtifactId())) {
 				return false;
 			}
 		}
@@ -204,7 +290,24 @@ public final class Level {
 	}
 
 	public Collection<Koopa> getKoopasOnRoad(final int roadId) {
-		return (koopasByRoad.size() > roadId) ? koopasByRoad.get(roadId) : null;
+		final int[] slots = koopaRoster.getSlotsOnRoad(roadId);
+		if (slots == null) {
+			return null;
+		}
+
+		if (koopasByRoad == null) {
+			koopasByRoad = new ArrayList<>();
+		}
+		expandList(koopasByRoad, roadId + 1);
+		List<Koopa> koopasOnRoad = koopasByRoad.get(roadId);
+		if (koopasOnRoad == null) {
+			koopasOnRoad = new ArrayList<>(slots.length);
+			for (int slot : slots) {
+				koopasOnRoad.add(getKoopaView(slot));
+			}
+			koopasByRoad.set(roadId, koopasOnRoad);
+		}
+		return koopasOnRoad;
 	}
 
 	public void addRoad(final Road road) {
@@ -214,17 +317,31 @@ public final class Level {
 	}
 
 	public Kiosk getKiosk(final int artifactId) {
-		return (kiosks.size() > artifactId) ? kiosks.get(artifactId) : null;
-	}
-
-	public Collection<Kiosk> getKiosks() {
-		return kiosks;
+		return (kiosks.size() > artifactId) ? getKiosks().get(artifactId)
+				: null;
+	}
+
+	public List<Kiosk> getKiosks() {
+		if (kioskList == null) {
+			kioskList = new ArrayList<>(kiosks.size());
+			for (Kiosk kiosk : kiosks) {
+				if ((kiosk == null) || (kiosk.getLevel() == this)) {
+					kioskList.add(kiosk);
+				} else {
+					kioskList.add(new Kiosk(kiosk, this));
+				}
+			}
+		}
+		return kioskList;
 	}
 
 	public void addKiosk(final Kiosk kiosk) {
+		// Copies might share the list, so make a new one.
 		final int kioskId = kiosk.getArtifactId();
+		kiosks = new ArrayList<>(kiosks);
 		expandList(kiosks, kioskId + 1);
 		kiosks.set(kioskId, kiosk);
+		kioskList = null;
 	}
 
 	public Position getNpcSlot(final int id) {
@@ -238,82 +355,173 @@ public final class Level {
 	public void addNpcSlot(final int id, final Position npcSlot) {
 		expandList(npcSlots, id + 1);
 		npcSlots.set(id, npcSlot);
+		spawnCache = null;
+	}
+
+	// XXX Two threads copying a template for the first time at once might
+	// each make a cache. That's harmless, since they'd give the same answers.
+	SpawnCache getSpawnCache() {
+		SpawnCache cache = spawnCache;
+		if (cache == null) {
+			cache = new SpawnCache(npcSlots);
+			spawnCache = cache;
+		}
+		return cache;
 	}
 
 	public Koopa getKoopa(final int koopaId) {
-		return (koopas.size() > koopaId) ? koopas.get(koopaId) : null;
+		final int slot = koopaRoster.getSlot(koopaId);
+		return (slot < 0) ? null : getKoopaView(slot);
 	}
 
 	public Koopa getKoopaByArtifact(final int artifactNumber) {
-		return (koopasByArtifactNumber.size() > artifactNumber) ? koopasByArtifactNumber
-				.get(artifactNumber) : null;
+		final int slot = koopaRoster.getSlotByArtifact(artifactNumber);
+		return (slot < 0) ? null : getKoopaView(slot);
 	}
 
-	public Collection<Koopa> getKoopas() {
-		return koopas;
+	// Indexed by Koopa ID, so there are nulls for the Koopas we don't track.
+	public List<Koopa> getKoopas() {
+		if (koopaList == null) {
+			final Koopa[] koopas = new Koopa[koopaRoster.getIdLimit()];
+			for (int slot = 0; slot < koopaRoster.size(); slot++) {
+				koopas[koopaRoster.getId(slot)] = getKoopaView(slot);
+			}
+			koopaList = Collections.unmodifiableList(Arrays.asList(koopas));
+		}
+		return koopaList;
 	}
 
-	public Collection<Koopa> getArtifactHolders() {
-		return koopasByArtifactNumber;
+	// Indexed by artifact number.
+	public List<Koopa> getArtifactHolders() {
+		if (artifactHolderList == null) {
+			final Koopa[] koopas = new Koopa[koopaRoster.getArtifactLimit()];
+			for (int i = 0; i < koopas.length; i++) {
+				koopas[i] = getKoopaByArtifact(i);
+			}
+			artifactHolderList = Collections.unmodifiableList(Arrays
+					.asList(koopas));
+		}
+		return artifactHolderList;
 	}
 
+	// The Koopa becomes a view of this level's state for it, if it belongs to
+	// this level.
 	public void addKoopa(final Koopa koopa) {
-		final int koopaId = koopa.getId();
-		expandList(koopas, koopaId + 1);
-		koopas.set(koopaId, koopa);
-
-		if (koopa.hasArtifact()) {
-			final int artifactNumber = koopa.getArtifactNumber();
-			expandList(koopasByArtifactNumber, artifactNumber + 1);
-			koopasByArtifactNumber.set(artifactNumber, koopa);
-
-			final int roadId = koopa.getStartPos().getRoadIndex();
-			expandList(koopasByRoad, roadId + 1);
-			List<Koopa> koopasOnRoad = koopasByRoad.get(roadId);
-			if (koopasOnRoad == null) {
-				koopasOnRoad = new ArrayList<>();
-				koopasByRoad.set(roadId, koopasOnRoad);
-			}
-			koopasOnRoad.add(koopa);
+		changeState();
+		koopaRoster = koopaRoster.with(koopa);
+		final int slot = koopaRoster.getSlot(koopa.getId());
+
+		final int numKoopas = koopaRoster.size();
+		if (koopaStatus.length < numKoopas) {
+			koopaAnchorPos = Arrays.copyOf(koopaAnchorPos, numKoopas);
+			koopaAnchorTime = Arrays.copyOf(koopaAnchorTime, numKoopas);
+			koopaStatus = Arrays.copyOf(koopaStatus, numKoopas);
+		}
+		koopaAnchorPos[slot] = koopa.getAnchorPos();
+		koopaAnchorTime[slot] = koopa.getAnchorTime();
+		koopaStatus[slot] = (byte) koopa.getStatus().ordinal();
+
+		// The other slots stay put, so their views can too.
+		final Koopa[] views = (koopaViews == null) ? new Koopa[numKoopas]
+				: Arrays.copyOf(koopaViews, numKoopas);
+		clearKoopaViews();
+		koopaViews = views;
+		if (koopa.getLevel() == this) {
+			koopa.attach(slot);
+			views[slot] = koopa;
+		} else {
+			views[slot] = null;
 		}
 	}
 
+	// For GameRecord, which adds the Koopas back one at a time.
+	void clearKoopas() {
+		changeState();
+		koopaRoster = KoopaRoster.EMPTY;
+		koopaAnchorPos = new int[0];
+		koopaAnchorTime = new long[0];
+		koopaStatus = new byte[0];
+		clearKoopaViews();
+	}
+
+	// Also for GameRecord. Setting everything else up messes with the
+	// completion code, so this has to go last.
+	void restoreCompletion(final boolean completed, final int completionCode) {
+		this.completed = completed;
+		this.completionCode = completionCode;
+	}
+
+	// For the Koopa views.
+	int getKoopaAnchorPos(final int slot) {
+		return koopaAnchorPos[slot];
+	}
+
+	long getKoopaAnchorTime(final int slot) {
+		return koopaAnchorTime[slot];
+	}
+
+	Koopa.Status getKoopaStatus(final int slot) {
+		return STATUSES[koopaStatus[slot]];
+	}
+
+	void setKoopaAnchor(final int slot, final int pos, final long time) {
+		changeState();
+		koopaAnchorPos[slot] = pos;
+		koopaAnchorTime[slot] = time;
+	}
+
+	void setKoopaStatus(final int slot, final Koopa.Status status) {
+		changeState();
+		koopaStatus[slot] = (byte) status.ordinal();
+	}
+
+	// And for the Kiosk views.
+	boolean isKioskCompleted(final int artifactId) {
+		return ((kioskCompletion & (1 << artifactId)) != 0);
+	}
+
+	void setKioskCompleted(final int artifactId, final boolean completed) {
+		if (completed) {
+			kioskCompletion |= (1 << artifactId);
+		} else {
+			kioskCompletion &= ~(1 << artifactId);
+		}
+		setKioskCompletionFlag(artifactId, completed);
+	}
+
 	public void respawn(final SlotRng slotRng) {
 		// Throw out the old NPC positions since we're redoing them.
-		koopas.clear();
-
-		// We don't track of the NPCs, but the game does, and it advances the
-		// RNG for spawning them. Therefore, we have to pretend to spawn them.
-		final Set<Integer> occupiedIds = new HashSet<>();
-		final Set<Integer> occupiedNpcRoads = new HashSet<>();
-		for (int i = 0; i < NUM_NPCS; i++) {
-			getNextNpcSlot(occupiedIds, occupiedNpcRoads, slotRng);
-		}
+		clearKoopas();
 
-		// We also don't track the Koopas that spawn artifacts, but they affect
-		// the RNG as well. They follow different spawn logic from the NPCs.
-		for (int i = 0; i < NUM_USELESS_KOOPAS; i++) {
-			getNextKoopaSlot(occupiedIds, slotRng);
-		}
+		// Where everything spawns only depends on the RNG and the NPC slots,
+		// so the spawn cache has usually seen it before.
+		final long spawnSlots = getSpawnCache().spawn(slotRng);
 
 		// Now we can respawn the (useful) koopas.
+		final int[] ids = new int[NUM_ARTIFACTS];
+		final int[] startPositions = new int[NUM_ARTIFACTS];
+		final int[] artifactNumbers = new int[NUM_ARTIFACTS];
+		final int[] animationTimes = new int[NUM_ARTIFACTS];
+		final Road[] koopaRoads = new Road[NUM_ARTIFACTS];
 		for (int i = 0; i < NUM_ARTIFACTS; i++) {
-			final int slotId = getNextKoopaSlot(occupiedIds, slotRng);
-			final Position pos = npcSlots.get(slotId);
-
-			final Koopa koopa = new Koopa(NUM_NPCS + NUM_USELESS_KOOPAS + i,
-					pos, this);
-			koopa.setRoad(roads.get(pos.getRoadIndex()));
-			koopa.setArtifactNumber(i);
-			koopa.setAnimationTime(ANIMATION_TIMES.get(i));
-			addKoopa(koopa);
+			final Position pos = npcSlots.get(SpawnCache.getSlot(spawnSlots, i));
+			ids[i] = NUM_NPCS + NUM_USELESS_KOOPAS + i;
+			startPositions[i] = pos.pack();
+			artifactNumbers[i] = i;
+			animationTimes[i] = ANIMATION_TIMES.get(i);
+			koopaRoads[i] = roads.get(pos.getRoadIndex());
 		}
+		koopaRoster = new KoopaRoster(ids, startPositions, artifactNumbers,
+				animationTimes, koopaRoads);
+		koopaAnchorPos = Arrays.copyOf(startPositions, NUM_ARTIFACTS);
+		koopaAnchorTime = new long[NUM_ARTIFACTS];
+		Arrays.fill(koopaAnchorTime, npcTime);
+		koopaStatus = new byte[NUM_ARTIFACTS];
+		Arrays.fill(koopaStatus, (byte) Koopa.Status.ACTIVE.ordinal());
 
 		// Also, any artifacts the player may have collected last time are no
 		// longer valid.
-		for (Kiosk kiosk : getKiosks()) {
-			kiosk.setCompleted(false);
-		}
+		kioskCompletion = 0;
 
 		// And I guess the level can't be complete now, either.
 		completed = false;
@@ -321,91 +529,123 @@ public final class Level {
 	}
 
 	public void advanceNpcs(final long time) {
-		for (Koopa koopa : getKoopas()) {
-			if (koopa != null) {
-				koopa.advance(time);
-			}
+		if (time != 0) {
+			changeState();
+			npcTime += time;
 		}
 	}
 
+	long getStateVersion() {
+		return stateVersion;
+	}
+
 	public boolean sameState(final Level level) {
-		if (completed != level.completed) {
+		if ((completed != level.completed)
+				|| (kioskCompletion != level.kioskCompletion)) {
 			return false;
 		}
 
-		if (kiosks.size() != level.kiosks.size()) {
+		if (!koopaRoster.sameKoopas(level.koopaRoster)) {
 			return false;
 		}
-		for (int i = 0; i < kiosks.size(); i++) {
-			final Kiosk expectedKiosk = kiosks.get(i);
-			if (expectedKiosk == null) {
-				continue;
-			}
-
-			final Kiosk actualKiosk = level.kiosks.get(i);
-			if (expectedKiosk.isCompleted() != actualKiosk.isCompleted()) {
+		for (int slot = 0; slot < koopaStatus.length; slot++) {
+			if ((koopaStatus[slot] != level.koopaStatus[slot])
+					|| (getKoopaPos(slot) != level.getKoopaPos(slot))) {
 				return false;
 			}
 		}
 
-		if (koopas.size() != level.koopas.size()) {
-			return false;
-		}
-		for (int i = 0; i < koopas.size(); i++) {
-			final Koopa expectedKoopa = koopas.get(i);
-			if (expectedKoopa == null) {
-				continue;
-			}
+		return true;
+	}
 
-			final Koopa actualKoopa = level.koopas.get(i);
-			if (!expectedKoopa.sameState(actualKoopa)) {
-				return false;
+	// For UndoLog. Actions only ever change a few Koopas, but there are only
+	// a few Koopas, so just save all of them.
+	void save(final UndoLog log) {
+		log.stateVersion = stateVersion;
+		log.npcTime = npcTime;
+		log.completed = completed;
+		log.completionCode = completionCode;
+		log.kioskCompletion = kioskCompletion;
+		log.koopaRoster = koopaRoster;
+		log.koopaAnchorPos = koopaAnchorPos;
+		log.koopaAnchorTime = koopaAnchorTime;
+		log.koopaStatus = koopaStatus;
+
+		final int numKoopas = koopaStatus.length;
+		log.reserve(numKoopas);
+		System.arraycopy(koopaAnchorPos, 0, log.anchorPosBuffer, 0, numKoopas);
+		System.arraycopy(koopaAnchorTime, 0, log.anchorTimeBuffer, 0,
+				numKoopas);
+		System.arraycopy(koopaStatus, 0, log.statusBuffer, 0, numKoopas);
+	}
+
+	void restore(final UndoLog log) {
+		stateVersion = log.stateVersion;
+		npcTime = log.npcTime;
+		completed = log.completed;
+		completionCode = log.completionCode;
+		kioskCompletion = log.kioskCompletion;
+		if (koopaRoster != log.koopaRoster) {
+			// Respawned, so the views are for the wrong Koopas.
+			koopaRoster = log.koopaRoster;
+			clearKoopaViews();
+		}
+		koopaAnchorPos = log.koopaAnchorPos;
+		koopaAnchorTime = log.koopaAnchorTime;
+		koopaStatus = log.koopaStatus;
+
+		for (int slot = 0; slot < log.numKoopas; slot++) {
+			if ((koopaAnchorPos[slot] != log.anchorPosBuffer[slot])
+					|| (koopaAnchorTime[slot] != log.anchorTimeBuffer[slot])) {
+				koopaAnchorPos[slot] = log.anchorPosBuffer[slot];
+				koopaAnchorTime[slot] = log.anchorTimeBuffer[slot];
+				if ((koopaViews != null) && (koopaViews[slot] != null)) {
+					// The view might remember where the Koopa went from the
+					// anchor that's going away.
+					koopaViews[slot].forgetPosition();
+				}
 			}
+			koopaStatus[slot] = log.statusBuffer[slot];
 		}
-
-		return true;
 	}
 
-	@Override
-	public String toString() {
-		return String.format("Level %d", levelId);
+	private void changeState() {
+		stateVersion = ++lastStateVersion;
 	}
 
-	private int getNextNpcSlot(final Set<Integer> occupiedIds,
-			final Set<Integer> occupiedNpcRoads, final SlotRng slotRng) {
-		// For each NPC, the game repeatedly chooses a random slot until it gets
-		// one that's not already taken and that isn't on the same road as the
-		// slot for a previous NPC.
-		int slot;
-		int road;
-		do {
-			slot = selectRandomNpcSlot(slotRng);
-			road = npcSlots.get(slot).getRoadIndex();
-		} while (occupiedIds.contains(slot) || occupiedNpcRoads.contains(road));
-
-		final Position pos = npcSlots.get(slot);
-		occupiedIds.add(slot);
-		occupiedNpcRoads.add(pos.getRoadIndex());
-
-		return slot;
+	// Where the Koopa in the slot is now, without making a view for it.
+	private int getKoopaPos(final int slot) {
+		final int anchorPos = koopaAnchorPos[slot];
+		final long elapsed = npcTime - koopaAnchorTime[slot];
+		if ((elapsed == 0) || (getKoopaStatus(slot) != Koopa.Status.ACTIVE)) {
+			return anchorPos;
+		}
+		return koopaRoster.getRoad(slot).getKoopaKinematics()
+				.move(anchorPos, elapsed);
 	}
 
-	private int getNextKoopaSlot(final Set<Integer> occupiedIds,
-			final SlotRng slotRng) {
-		// The game only looks at which slots have been taken when spawning
-		// Koopas.
-		int slot;
-		do {
-			slot = selectRandomNpcSlot(slotRng);
-		} while (occupiedIds.contains(slot));
+	private Koopa getKoopaView(final int slot) {
+		if (koopaViews == null) {
+			koopaViews = new Koopa[koopaRoster.size()];
+		}
+		Koopa view = koopaViews[slot];
+		if (view == null) {
+			view = new Koopa(this, koopaRoster, slot);
+			koopaViews[slot] = view;
+		}
+		return view;
+	}
 
-		occupiedIds.add(slot);
-		return slot;
+	private void clearKoopaViews() {
+		koopaViews = null;
+		koopaList = null;
+		artifactHolderList = null;
+		koopasByRoad = null;
 	}
 
-	private int selectRandomNpcSlot(final SlotRng slotRng) {
-		final int numSlots = npcSlots.size();
-		return slotRng.advanceInLevel(numSlots).getSlot(numSlots);
+	@Override
+	public String toString() {
+		return String.format("Level %d", levelId);
 	}
 
 	private <E> void expandList(final List<E> list, final int size) {
@@ -6,9 +6,10 @@ public abstract class NPC {
 
 	private Road road;
 
-	private Position startPos;
+	// Packed. See Position.
+	private int startPos;
 
-	private Position currentPos;
+	private int currentPos;
 
 	public final int getId() {
 		return id;
@@ -19,10 +20,18 @@ public abstract class NPC {
 	}
 
 	public final Position getStartPos() {
+		return Position.unpack(startPos);
+	}
+
+	public final int getPackedStartPos() {
 		return startPos;
 	}
 
-	public final Position getCurrentPos() {
+	public Position getCurrentPos() {
+		return Position.unpack(getPackedCurrentPos());
+	}
+
+	public int getPackedCurrentPos() {
 		return currentPos;
 	}
 
@@ -31,10 +40,14 @@ public abstract class NPC {
 	}
 
 	public final void setStartPos(final Position startPos) {
-		this.startPos = startPos;
+		this.startPos = pack(startPos);
 	}
 
 	public final void setCurrentPos(final Position currentPos) {
+		setPackedCurrentPos(pack(currentPos));
+	}
+
+	public void setPackedCurrentPos(final int currentPos) {
 		this.currentPos = currentPos;
 	}
 
@@ -47,6 +60,10 @@ public abstract class NPC {
 	}
 
 	protected NPC(final int id, final Position startPos) {
+		this(id, pack(startPos));
+	}
+
+	protected NPC(final int id, final int startPos) {
 		this.id = id;
 		this.startPos = startPos;
 		this.currentPos = startPos;
@@ -59,4 +76,8 @@ public abstract class NPC {
 		this.road = npc.road;
 	}
 
+	private static int pack(final Position pos) {
+		return (pos == null) ? Position.NOWHERE : pos.pack();
+	}
+
 }
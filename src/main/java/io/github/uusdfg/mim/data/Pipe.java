@@ -8,33 +8,8 @@ public final class Pipe extends Transition {
 
 	public static final long TOTAL_TIME = NPC_TIME + ROAD_LOAD_TIME;
 
-	private final Range xRange;
-
 	public Pipe(final Position srcPos, final Position destPos) {
-		super(srcPos, destPos);
-
-		xRange = ENTRY_RANGE.withOffset(srcPos.getX());
-	}
-
-	@Override
-	public boolean isActiveAt(final Position pos) {
-		return getSrcPos().sharesRoadWith(pos) && xRange.includes(pos.getX());
-	}
-
-	@Override
-	public Position getActivePosNearestTo(final Position pos) {
-		if (!getSrcPos().sharesRoadWith(pos)) {
-			return null;
-		}
-
-		final int x = pos.getX();
-		if (xRange.isWhollyBelow(x)) {
-			return new Position(true, pos.getRoadIndex(), xRange.getMax());
-		} else if (xRange.isWhollyAbove(x)) {
-			return new Position(false, pos.getRoadIndex(), xRange.getMin());
-		} else {
-			return pos;
-		}
+		super(srcPos, destPos, ENTRY_RANGE);
 	}
 
 	@Override
@@ -48,9 +23,9 @@ public final class Pipe extends Transition {
 	}
 
 	@Override
-	public Position take(final Position pos) {
+	public int take(final int pos) {
 		// Pipes preserve the direction the player is facing.
-		return getDestPos().withLeftFlag(pos.isFacingLeft());
+		return getPackedDestPos(Position.isFacingLeft(pos));
 	}
 
 	@Override
@@ -14,7 +14,12 @@ public class Player {
 
 	private int floor;
 
-	private Position pos;
+	// Packed. See Position.
+	private int pos;
+
+	// Built the first time somebody asks for the position as an object after
+	// it changes.
+	private Position posView;
 
 	private Level level;
 
@@ -26,14 +31,16 @@ public class Player {
 
 	public Player() {
 		floor = 0;
-		pos = new Position(false, 0, 0);
+		pos = Position.pack(false, 0, 0);
 		level = null;
 		yoshi = false;
 	}
 
-	public Player(final Player player, final Game cloneGame) {
+	// The player gets its own copy of the level it's in.
+	public Player(final Player player) {
 		this.floor = player.floor;
 		this.pos = player.pos;
+		this.posView = player.posView;
 		this.yoshi = player.yoshi;
 		this.currentArtifact = player.currentArtifact;
 		this.transitionDelayEnd = player.transitionDelayEnd;
@@ -42,8 +49,7 @@ public class Player {
 		if (srcLevel == null) {
 			this.level = null;
 		} else {
-			this.level = cloneGame.getLevel(player.getFloor(),
-					srcLevel.getLevelId());
+			this.level = new Level(srcLevel);
 		}
 	}
 
@@ -52,9 +58,30 @@ public class Player {
 	}
 
 	public final Position getPos() {
+		Position view = posView;
+		if (view == null) {
+			view = Position.unpack(pos);
+			posView = view;
+		}
+		return view;
+	}
+
+	public final int getPackedPos() {
 		return pos;
 	}
 
+	public final int getX() {
+		return Position.getX(pos);
+	}
+
+	public final int getRoadIndex() {
+		return Position.getRoadIndex(pos);
+	}
+
+	public final boolean isFacingLeft() {
+		return Position.isFacingLeft(pos);
+	}
+
 	public final boolean isInCastle() {
 		return (level == null);
 	}
@@ -68,7 +95,7 @@ public class Player {
 	public final Road getRoad() {
 		Road road = null;
 		if (level != null) {
-			road = level.getRoad(pos.getRoadIndex());
+			road = level.getRoad(Position.getRoadIndex(pos));
 		}
 		return road;
 	}
@@ -95,8 +122,19 @@ public class Player {
 					"Tried to give player null position");
 		}
 
+		setPackedPos(pos.pack());
+		this.posView = pos;
+	}
+
+	public final void setPackedPos(final int pos) {
+		if (pos == Position.NOWHERE) {
+			throw new IllegalArgumentException(
+					"Tried to give player null position");
+		}
+
 		this.pos = pos;
-		final int roadIndex = pos.getRoadIndex();
+		this.posView = null;
+		final int roadIndex = Position.getRoadIndex(pos);
 		if ((this.level != null) && (roadIndex != Road.CASTLE_ROAD_ID)) {
 			this.level.setPlayerRoadFlag(roadIndex);
 		}
@@ -144,23 +182,30 @@ public class Player {
 	}
 
 	public final long getTimeToReach(final Position destPos) {
-		return (long) Math.ceil(((double) pos.getXdistance(destPos))
-				/ getRunSpeed());
+		return getTimeToReach(destPos.pack());
 	}
 
-	public final Position walk(final boolean left, final long time) {
-		return move(getRunSpeed(), left, time);
+	public final long getTimeToReach(final int destPos) {
+		return Intercepts.ceilDiv(Position.getXdistance(pos, destPos),
+				getRunSpeed());
 	}
 
-	public final Position run(final boolean left, final long time) {
-		return move(getRunSpeed(), left, time);
+	public final void walk(final boolean left, final long time) {
+		move(getRunSpeed(), left, time);
 	}
 
-	public final Position move(final int speed, final boolean left,
+	public final void run(final boolean left, final long time) {
+		move(getRunSpeed(), left, time);
+	}
+
+	// Nothing gets allocated for the new position. Ask for it afterward if
+	// you need it.
+	public final void move(final int speed, final boolean left,
 			final long time) {
 		// Advance the player the given number of frames in the given direction.
 		final int velocity = speed * ((left) ? -1 : 1);
-		pos = pos.plusXOffset((int) (velocity * time));
+		pos = Position.plusXOffset(pos, (int) (velocity * time));
+		posView = null;
 
 		// Bound the player according to the road the player is on. It is
 		// possible for us to get, e.g., Koopa-bounced past the edge of the
@@ -174,23 +219,49 @@ public class Player {
 			// XXX I think it might technically be possible for Luigi to fail to
 			// stomp on a Koopa if the Koopa gets to the _very_ edge of the
 			// screen. I hope that doesn't come up...
-			final int x = pos.getX();
+			final int x = Position.getX(pos);
 			final int rightBound = (int) road.getLength() - LUIGI_X_MARGIN;
 			if (x < LUIGI_X_MARGIN) {
-				pos = pos.withX(LUIGI_X_MARGIN);
+				pos = Position.withX(pos, LUIGI_X_MARGIN);
 			} else if (x > rightBound) {
-				pos = pos.withX(rightBound);
+				pos = Position.withX(pos, rightBound);
 			}
 		}
+	}
 
-		return pos;
+	// For UndoLog. The level only gets saved if the player's in one, but it
+	// gets restored even if the player's left it since.
+	final void save(final UndoLog log) {
+		log.floor = floor;
+		log.pos = pos;
+		log.posView = posView;
+		log.level = level;
+		log.yoshi = yoshi;
+		log.currentArtifact = currentArtifact;
+		log.transitionDelayEnd = transitionDelayEnd;
+		if (level != null) {
+			level.save(log);
+		}
+	}
+
+	final void restore(final UndoLog log) {
+		floor = log.floor;
+		pos = log.pos;
+		posView = log.posView;
+		level = log.level;
+		yoshi = log.yoshi;
+		currentArtifact = log.currentArtifact;
+		transitionDelayEnd = log.transitionDelayEnd;
+		if (level != null) {
+			level.restore(log);
+		}
 	}
 
 	@Override
 	public int hashCode() {
 		int hash = floor;
 		hash = (hash * 37) + level.hashCode();
-		hash = (hash * 37) + pos.hashCode();
+		hash = (hash * 37) + getPos().hashCode();
 		hash = (hash * 37) + ((yoshi) ? 31 : 0);
 		return hash;
 	}
@@ -205,7 +276,7 @@ public class Player {
 			final Player player = (Player) obj;
 
 			return (floor == player.floor) && (level == player.level)
-					&& (pos.equals(player.pos)) && (yoshi == player.yoshi);
+					&& (pos == player.pos) && (yoshi == player.yoshi);
 		}
 	}
 
@@ -220,7 +291,7 @@ public class Player {
 			str.append(floor).append("-").append(level);
 		}
 
-		str.append(" @ ").append(pos);
+		str.append(" @ ").append(Position.toString(pos));
 		str.append(" holding ").append(currentArtifact);
 
 		if (yoshi) {
@@ -1,59 +1,92 @@
 package io.github.uusdfg.mim.data;
 
+// A spot on a road, plus which way whoever's there is facing.
+//
+// Positions get moved around constantly, so the real representation is a
+// single packed int: the facing bit on top, then the road index, then a
+// signed X in the low bits. The static methods work on those ints directly,
+// and the player, Koopas, kiosks and transitions all keep packed ints
+// internally. This class is just a thin wrapper around one for code that
+// doesn't care about allocating.
 public final class Position {
 
-	private boolean facingLeft;
+	private static final int X_BITS = 20;
 
-	private int x;
+	private static final int X_MASK = (1 << X_BITS) - 1;
 
-	private int roadIndex;
+	private static final int ROAD_BITS = 11;
+
+	private static final int ROAD_MASK = ((1 << ROAD_BITS) - 1) << X_BITS;
+
+	private static final int LEFT_BIT = 1 << 31;
+
+	public static final int MIN_X = -(1 << (X_BITS - 1));
+
+	public static final int MAX_X = (1 << (X_BITS - 1)) - 1;
+
+	// The biggest road index is saved for NOWHERE. The castle road is the
+	// biggest one we actually use.
+	public static final int MAX_ROAD_INDEX = (1 << ROAD_BITS) - 2;
+
+	// What the packed methods return instead of null.
+	public static final int NOWHERE = ROAD_MASK;
+
+	private final int packed;
 
 	public Position(final boolean facingLeft, final int roadIndex, final int x) {
-		this.facingLeft = facingLeft;
-		this.roadIndex = roadIndex;
-		this.x = x;
+		this.packed = pack(facingLeft, roadIndex, x);
 	}
 
 	public Position(final Position src) {
-		this.facingLeft = src.facingLeft;
-		this.x = src.x;
-		this.roadIndex = src.roadIndex;
+		this.packed = src.packed;
+	}
+
+	private Position(final int packed) {
+		this.packed = packed;
+	}
+
+	public static Position unpack(final int packed) {
+		return (packed == NOWHERE) ? null : new Position(packed);
+	}
+
+	public int pack() {
+		return packed;
 	}
 
 	public boolean isFacingLeft() {
-		return facingLeft;
+		return isFacingLeft(packed);
 	}
 
 	public int getX() {
-		return x;
+		return getX(packed);
 	}
 
 	public int getRoadIndex() {
-		return roadIndex;
+		return getRoadIndex(packed);
 	}
 
 	public Position withLeftFlag(final boolean leftFlag) {
-		return new Position(leftFlag, roadIndex, x);
+		return new Position(withLeftFlag(packed, leftFlag));
 	}
 
 	public Position withX(final int x) {
-		return new Position(this.facingLeft, this.roadIndex, x);
+		return new Position(withX(packed, x));
 	}
 
 	public Position plusXOffset(final int offset) {
-		return new Position(this.facingLeft, this.roadIndex, x + offset);
+		return new Position(plusXOffset(packed, offset));
 	}
 
 	public boolean sharesRoadWith(final Position pos) {
-		return (roadIndex == pos.roadIndex);
+		return sharesRoad(packed, pos.packed);
 	}
 
 	public boolean isLeftOf(final Position pos) {
-		return (this.x < pos.x);
+		return isLeftOf(packed, pos.packed);
 	}
 
 	public int getXdistance(final Position pos) {
-		return Math.abs(this.x - pos.x);
+		return getXdistance(packed, pos.packed);
 	}
 
 	@Override
@@ -63,21 +96,77 @@ public final class Position {
 		} else if (!(obj instanceof Position)) {
 			return false;
 		} else {
-			final Position pos = (Position) obj;
-
-			return (facingLeft == pos.facingLeft) && (x == pos.x)
-					&& (roadIndex == pos.roadIndex);
+			return (packed == ((Position) obj).packed);
 		}
 	}
 
 	@Override
 	public int hashCode() {
-		return 31 * ((31 * x) + roadIndex) + ((facingLeft) ? 31 : 0);
+		return 31 * ((31 * getX()) + getRoadIndex())
+				+ ((isFacingLeft()) ? 31 : 0);
 	}
 
 	@Override
 	public String toString() {
-		return String.format("(#%d, %d (%s))", roadIndex, x,
-				(facingLeft) ? "left" : "right");
+		return toString(packed);
+	}
+
+	public static int pack(final boolean facingLeft, final int roadIndex,
+			final int x) {
+		if ((roadIndex < 0) || (roadIndex > MAX_ROAD_INDEX)) {
+			throw new IllegalArgumentException("Road index out of range: "
+					+ roadIndex);
+		}
+		return ((facingLeft) ? LEFT_BIT : 0) | (roadIndex << X_BITS)
+				| checkX(x);
+	}
+
+	public static boolean isFacingLeft(final int packed) {
+		return ((packed & LEFT_BIT) != 0);
+	}
+
+	public static int getX(final int packed) {
+		// Shift the sign bit of X up to the top and back down to extend it.
+		return (packed << (32 - X_BITS)) >> (32 - X_BITS);
+	}
+
+	public static int getRoadIndex(final int packed) {
+		return (packed & ROAD_MASK) >>> X_BITS;
+	}
+
+	public static int withLeftFlag(final int packed, final boolean leftFlag) {
+		return (leftFlag) ? (packed | LEFT_BIT) : (packed & ~LEFT_BIT);
+	}
+
+	public static int withX(final int packed, final int x) {
+		return (packed & ~X_MASK) | checkX(x);
+	}
+
+	public static int plusXOffset(final int packed, final int offset) {
+		return withX(packed, getX(packed) + offset);
+	}
+
+	public static boolean sharesRoad(final int packed1, final int packed2) {
+		return (((packed1 ^ packed2) & ROAD_MASK) == 0);
+	}
+
+	public static boolean isLeftOf(final int packed1, final int packed2) {
+		return (getX(packed1) < getX(packed2));
+	}
+
+	public static int getXdistance(final int packed1, final int packed2) {
+		return Math.abs(getX(packed1) - getX(packed2));
+	}
+
+	public static String toString(final int packed) {
+		return String.format("(#%d, %d (%s))", getRoadIndex(packed),
+				getX(packed), (isFacingLeft(packed)) ? "left" : "right");
+	}
+
+	private static int checkX(final int x) {
+		if ((x < MIN_X) || (x > MAX_X)) {
+			throw new IllegalArgumentException("X out of range: " + x);
+		}
+		return x & X_MASK;
 	}
 }
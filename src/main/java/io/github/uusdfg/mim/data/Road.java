@@ -14,14 +14,27 @@ public final class Road {
 
 	private final int length;
 
+	// Null for the castle, since there aren't any Koopas there.
+	private final KoopaKinematics koopaKinematics;
+
 	private final List<Transition> transitions = new ArrayList<>();
 
 	private final List<Transition> reverseTransitions = new ArrayList<>();
 
+	// Read-only views of the above, since the action generator asks for the
+	// transitions constantly.
+	private final List<Transition> transitionView = Collections
+			.unmodifiableList(transitions);
+
+	private final List<Transition> reverseTransitionView = Collections
+			.unmodifiableList(reverseTransitions);
+
 	public Road(final Level containingLevel, final int roadId, final int length) {
 		this.containingLevel = containingLevel;
 		this.roadId = roadId;
 		this.length = length;
+		this.koopaKinematics = (roadId == CASTLE_ROAD_ID) ? null
+				: new KoopaKinematics(length);
 	}
 
 	public Level getContainingLevel() {
@@ -36,6 +49,10 @@ public final class Road {
 		return length;
 	}
 
+	public KoopaKinematics getKoopaKinematics() {
+		return koopaKinematics;
+	}
+
 	public boolean isCastle() {
 		return (roadId == CASTLE_ROAD_ID);
 	}
@@ -45,11 +62,11 @@ public final class Road {
 	}
 
 	public List<Transition> getTransitions() {
-		return Collections.unmodifiableList(transitions);
+		return transitionView;
 	}
 
 	public List<Transition> getReverseTransitions() {
-		return Collections.unmodifiableList(reverseTransitions);
+		return reverseTransitionView;
 	}
 
 	// TODO Add stuff to Level to double-check that the reverse transitions are
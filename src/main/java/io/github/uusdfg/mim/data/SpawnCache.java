@@ -0,0 +1,202 @@
+package io.github.uusdfg.mim.data;
+
+import io.github.uusdfg.mim.rng.SlotRng;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Works out where the Koopas that hold artifacts spawn when the player enters
+// a level. That only depends on the level's NPC slots and on the RNG, so
+// each level template keeps one of these, and its copies all share it.
+//
+// The answer for each RNG state goes into an open-addressing table of longs:
+// one long with the three slots the Koopas land in, and one with the RNG
+// state going in and coming out. Entries never change once they're in, so
+// threads can share the table without locking. A thread claims an empty
+// entry by CASing its slots in, then publishes the RNG states. Readers only
+// believe an entry once they see the RNG states. When the table fills up,
+// new answers just don't get saved.
+final class SpawnCache {
+
+	static final int NUM_NPCS = 5;
+
+	static final int NUM_USELESS_KOOPAS = 13;
+
+	static final int NUM_ARTIFACTS = 3;
+
+	private static final int CAPACITY_BITS = 12;
+
+	private static final int MAX_PROBES = 16;
+
+	private static final int SLOT_BITS = 16;
+
+	private static final long SLOT_MASK = (1L << SLOT_BITS) - 1;
+
+	// Set in every saved slots long, so it's never 0, which means empty.
+	private static final long VALID_BIT = 1L << 63;
+
+	private final int numSlots;
+
+	// The road each slot's on, since NPCs can't share roads.
+	private final int[] slotRoads;
+
+	// How many longs of the scratch space go to the slots. The rest go to
+	// the roads.
+	private final int slotWords;
+
+	private final int scratchSize;
+
+	private final AtomicLongArray table;
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	// Bitsets for working out misses, so doing so doesn't allocate.
+	private final ThreadLocal<long[]> scratch = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			return new long[scratchSize];
+		}
+	};
+
+	SpawnCache(final List<Position> npcSlots) {
+		this.numSlots = npcSlots.size();
+		this.slotRoads = new int[numSlots];
+		int maxRoad = 0;
+		for (int slot = 0; slot < numSlots; slot++) {
+			slotRoads[slot] = npcSlots.get(slot).getRoadIndex();
+			maxRoad = Math.max(maxRoad, slotRoads[slot]);
+		}
+		this.slotWords = (numSlots / 64) + 1;
+		this.scratchSize = slotWords + (maxRoad / 64) + 1;
+		this.table = new AtomicLongArray(2 << CAPACITY_BITS);
+	}
+
+	static int getSlot(final long spawnSlots, final int artifactNumber) {
+		return (int) ((spawnSlots >>> (artifactNumber * SLOT_BITS)) & SLOT_MASK);
+	}
+
+	long getHits() {
+		return hits.get();
+	}
+
+	long getMisses() {
+		return misses.get();
+	}
+
+	// Advances the RNG the way spawning everything in the level does, and
+	// returns the slots the artifact holders land in. Use getSlot() to get
+	// them out.
+	long spawn(final SlotRng slotRng) {
+		final int low = slotRng.getLow();
+		final int high = slotRng.getHigh();
+		if (((low | high) & ~0xffff) != 0 || (numSlots > SLOT_MASK)) {
+			// Not something we can save. It's also never going to happen.
+			return spawnSlowly(slotRng);
+		}
+
+		final int key = (low << 16) | high;
+		final int start = hash(key);
+		for (int probe = 0; probe < MAX_PROBES; probe++) {
+			final int index = 2 * ((start + probe) & ((1 << CAPACITY_BITS) - 1));
+			final long spawnSlots = table.get(index);
+			if (spawnSlots == 0) {
+				break;
+			}
+			final long states = table.get(index + 1);
+			if ((states != 0) && ((int) (states >>> 32) == key)) {
+				hits.incrementAndGet();
+				final int post = (int) states;
+				slotRng.reseed(post >>> 16, post & 0xffff);
+				return spawnSlots & ~VALID_BIT;
+			}
+		}
+
+		misses.incrementAndGet();
+		final long spawnSlots = spawnSlowly(slotRng);
+		final int post = (slotRng.getLow() << 16) | slotRng.getHigh();
+		save(key, post, spawnSlots);
+		return spawnSlots;
+	}
+
+	// XXX A state of 0 can't be saved because it looks empty, but the RNG
+	// never gets out of 0, so spawning from there never finishes anyway.
+	private void save(final int key, final int post, final long spawnSlots) {
+		final long states = ((long) key << 32) | (post & 0xffffffffL);
+		final int start = hash(key);
+		for (int probe = 0; probe < MAX_PROBES; probe++) {
+			final int index = 2 * ((start + probe) & ((1 << CAPACITY_BITS) - 1));
+			if (table.compareAndSet(index, 0, spawnSlots | VALID_BIT)) {
+				table.set(index + 1, states);
+				return;
+			}
+			if ((int) (table.get(index + 1) >>> 32) == key) {
+				// Somebody else beat us to it.
+				return;
+			}
+		}
+	}
+
+	private long spawnSlowly(final SlotRng slotRng) {
+		final long[] occupied = scratch.get();
+		Arrays.fill(occupied, 0);
+
+		// We don't track of the NPCs, but the game does, and it advances the
+		// RNG for spawning them. Therefore, we have to pretend to spawn them.
+		// For each NPC, the game repeatedly chooses a random slot until it
+		// gets one that's not already taken and that isn't on the same road
+		// as the slot for a previous NPC.
+		for (int i = 0; i < NUM_NPCS; i++) {
+			int slot;
+			do {
+				slot = selectRandomSlot(slotRng);
+			} while (isSet(occupied, slot)
+					|| isSet(occupied, slotWords * 64 + slotRoads[slot]));
+			set(occupied, slot);
+			set(occupied, slotWords * 64 + slotRoads[slot]);
+		}
+
+		// We also don't track the Koopas that spawn artifacts, but they affect
+		// the RNG as well. The game only looks at which slots have been taken
+		// when spawning Koopas.
+		for (int i = 0; i < NUM_USELESS_KOOPAS; i++) {
+			set(occupied, selectFreeSlot(occupied, slotRng));
+		}
+
+		long spawnSlots = 0;
+		for (int i = 0; i < NUM_ARTIFACTS; i++) {
+			final int slot = selectFreeSlot(occupied, slotRng);
+			set(occupied, slot);
+			spawnSlots |= ((long) slot) << (i * SLOT_BITS);
+		}
+		return spawnSlots;
+	}
+
+	private int selectFreeSlot(final long[] occupied, final SlotRng slotRng) {
+		int slot;
+		do {
+			slot = selectRandomSlot(slotRng);
+		} while (isSet(occupied, slot));
+		return slot;
+	}
+
+	private int selectRandomSlot(final SlotRng slotRng) {
+		return slotRng.advanceInLevel(numSlots).getSlot(numSlots);
+	}
+
+	private static boolean isSet(final long[] bits, final int bit) {
+		return ((bits[bit >>> 6] & (1L << bit)) != 0);
+	}
+
+	private static void set(final long[] bits, final int bit) {
+		bits[bit >>> 6] |= (1L << bit);
+	}
+
+	private static int hash(final int key) {
+		return (key * 0x9e3779b9) >>> (32 - CAPACITY_BITS);
+	}
+
+}
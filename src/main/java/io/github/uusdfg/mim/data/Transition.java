@@ -10,6 +10,17 @@ public abstract class Transition {
 
 	private final Position destPos;
 
+	// Packed copies of the positions above, for the player's packed position
+	// to be checked against without allocating anything.
+	private final int packedSrcPos;
+
+	private final int packedDestPos;
+
+	// Where on the source road the player can take the transition from.
+	private final int minX;
+
+	private final int maxX;
+
 	public final Position getSrcPos() {
 		return srcPos;
 	}
@@ -18,19 +29,78 @@ public abstract class Transition {
 		return destPos;
 	}
 
-	public abstract boolean isActiveAt(final Position pos);
+	public final int getPackedSrcPos() {
+		return packedSrcPos;
+	}
+
+	public final int getPackedDestPos() {
+		return packedDestPos;
+	}
 
-	public abstract Position getActivePosNearestTo(final Position pos);
+	public final boolean isActiveAt(final Position pos) {
+		return isActiveAt(pos.pack());
+	}
+
+	public final boolean isActiveAt(final int pos) {
+		final int x = Position.getX(pos);
+		return Position.sharesRoad(packedSrcPos, pos) && (x >= minX)
+				&& (x <= maxX);
+	}
+
+	public final Position getActivePosNearestTo(final Position pos) {
+		final int packed = pos.pack();
+		final int nearest = getActivePackedPosNearestTo(packed);
+		return (nearest == packed) ? pos : Position.unpack(nearest);
+	}
+
+	// Returns Position.NOWHERE if the transition's on a different road.
+	public final int getActivePackedPosNearestTo(final int pos) {
+		if (!Position.sharesRoad(packedSrcPos, pos)) {
+			return Position.NOWHERE;
+		}
+
+		// Assume the player has to go left to get to a transition point to
+		// the left, and similarly for the right.
+		final int x = Position.getX(pos);
+		if (x > maxX) {
+			return Position.withX(Position.withLeftFlag(pos, true), maxX);
+		} else if (x < minX) {
+			return Position.withX(Position.withLeftFlag(pos, false), minX);
+		} else {
+			return pos;
+		}
+	}
 
 	public abstract long getTotalTime();
 
 	public abstract long getNpcActivityTime();
 
-	public abstract Position take(final Position pos);
+	public final Position take(final Position pos) {
+		return Position.unpack(take(pos.pack()));
+	}
+
+	// Where the player ends up after taking the transition from the given
+	// packed position, or Position.NOWHERE if that can't be done.
+	public abstract int take(final int pos);
 
-	protected Transition(final Position srcPos, final Position destPos) {
+	protected Transition(final Position srcPos, final Position destPos,
+			final Range entryRange) {
 		this.srcPos = srcPos;
 		this.destPos = destPos;
+		this.packedSrcPos = srcPos.pack();
+		this.packedDestPos = (destPos == null) ? Position.NOWHERE : destPos
+				.pack();
+		this.minX = entryRange.getMin() + srcPos.getX();
+		this.maxX = entryRange.getMax() + srcPos.getX();
+	}
+
+	// The destination, facing whichever way. Stays nowhere if the
+	// destination's unknown.
+	protected final int getPackedDestPos(final boolean leftFlag) {
+		if (packedDestPos == Position.NOWHERE) {
+			return Position.NOWHERE;
+		}
+		return Position.withLeftFlag(packedDestPos, leftFlag);
 	}
 
 }
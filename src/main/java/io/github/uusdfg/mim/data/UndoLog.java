@@ -0,0 +1,98 @@
+package io.github.uusdfg.mim.data;
+
+// Remembers everything an action can change about a game, so the search can
+// try an action on the game itself and take it back afterwards instead of
+// copying the whole game first. Call mark() before the action and undo()
+// after it.
+//
+// Only one action at a time, and the game has to be the one that was marked.
+// The log keeps its buffers between marks, so trying actions over and over
+// doesn't allocate anything once they're big enough.
+public final class UndoLog {
+
+	private Game game = null;
+
+	// The game's part.
+	int completionMask;
+
+	int rngLow;
+
+	int rngHigh;
+
+	// The player's part.
+	int floor;
+
+	int pos;
+
+	Position posView;
+
+	Level level;
+
+	boolean yoshi;
+
+	int currentArtifact;
+
+	long transitionDelayEnd;
+
+	// The player's level's part. The arrays are the level's own, and the
+	// buffers hold what was in them, in case the action replaces them (i.e.
+	// respawns) instead of just changing them.
+	long stateVersion;
+
+	long npcTime;
+
+	boolean completed;
+
+	int completionCode;
+
+	int kioskCompletion;
+
+	KoopaRoster koopaRoster;
+
+	int[] koopaAnchorPos;
+
+	long[] koopaAnchorTime;
+
+	byte[] koopaStatus;
+
+	int numKoopas;
+
+	int[] anchorPosBuffer = new int[0];
+
+	long[] anchorTimeBuffer = new long[0];
+
+	byte[] statusBuffer = new byte[0];
+
+	public boolean isMarked() {
+		return (game != null);
+	}
+
+	public void mark(final Game game) {
+		this.game = game;
+		game.save(this);
+	}
+
+	public void undo() {
+		if (game == null) {
+			throw new IllegalStateException("Nothing to undo");
+		}
+		game.restore(this);
+		game = null;
+		level = null;
+		koopaRoster = null;
+		koopaAnchorPos = null;
+		koopaAnchorTime = null;
+		koopaStatus = null;
+	}
+
+	// Makes sure the buffers can hold the given number of Koopas.
+	void reserve(final int numKoopas) {
+		if (anchorPosBuffer.length < numKoopas) {
+			anchorPosBuffer = new int[numKoopas];
+			anchorTimeBuffer = new long[numKoopas];
+			statusBuffer = new byte[numKoopas];
+		}
+		this.numKoopas = numKoopas;
+	}
+
+}
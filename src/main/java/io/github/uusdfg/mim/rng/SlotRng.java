@@ -1,11 +1,54 @@
 package io.github.uusdfg.mim.rng;
 
+// The two 16-bit halves are really one 32-bit Galois LFSR, low on top:
+// every step shifts the whole thing left a bit, and if a bit falls off the
+// top, the taps get XORed into the bottom. That makes it linear over GF(2),
+// so stepping a bunch of times at once is just table lookups:
+// - Up to 8 steps at a time, only the bits that fall off matter for the
+//   feedback, and a 256-entry table has the feedback for each combination.
+// - Any bigger jump is a product of the 32x32 matrices for jumping 2^k
+//   steps, which get worked out once up front.
 public final class SlotRng {
 
 	public static final int DEFAULT_LOW = 4506;
 
 	public static final int DEFAULT_HIGH = 3716;
 
+	private static final int TAPS = 0xb400;
+
+	// Entry i is the feedback from stepping up to 8 times when the bits in
+	// i fall off the top. Bit j falls off j steps before the end, so its
+	// taps get shifted j more times.
+	private static final int[] FEEDBACK = new int[256];
+
+	// JUMPS[k][i] is where the state with only bit i set ends up after 2^k
+	// steps.
+	private static final int[][] JUMPS = new int[31][32];
+
+	// Below this many steps, going a byte at a time beats the matrices.
+	private static final int MIN_JUMP = 64;
+
+	static {
+		for (int i = 0; i < FEEDBACK.length; i++) {
+			int feedback = 0;
+			for (int j = 0; j < 8; j++) {
+				if ((i & (1 << j)) != 0) {
+					feedback ^= TAPS << j;
+				}
+			}
+			FEEDBACK[i] = feedback;
+		}
+
+		for (int i = 0; i < 32; i++) {
+			JUMPS[0][i] = step(1 << i, 1);
+		}
+		for (int k = 1; k < JUMPS.length; k++) {
+			for (int i = 0; i < 32; i++) {
+				JUMPS[k][i] = multiply(JUMPS[k - 1], JUMPS[k - 1][i]);
+			}
+		}
+	}
+
 	private int low;
 
 	private int high;
@@ -60,9 +103,28 @@ public final class SlotRng {
 	}
 
 	public SlotRng advanceAbsolute(final int numIterations) {
-		for (int i = 0; i < numIterations; i++) {
+		if (numIterations <= 0) {
+			return this;
+		}
+
+		int remaining = numIterations;
+		if (!isNormal()) {
+			// The first step squashes the halves down to 16 bits.
 			advance();
+			remaining--;
+		}
+
+		int state = getState();
+		if (remaining >= MIN_JUMP) {
+			for (int k = 0; remaining != 0; k++, remaining >>>= 1) {
+				if ((remaining & 1) != 0) {
+					state = multiply(JUMPS[k], state);
+				}
+			}
+		} else {
+			state = step(state, remaining);
 		}
+		setState(state);
 		return this;
 	}
 
@@ -74,11 +136,22 @@ public final class SlotRng {
 		// The game also randomly generates a slot number until it gets a valid
 		// one. The algorithm for producing the slot number sometimes overshoots
 		// and the game compensates by redoing it a lot.
-		int slot;
+		if (!isNormal() || (numIterations < 1) || (numIterations > 16)) {
+			int slot;
+			do {
+				advanceAbsolute(numIterations);
+				slot = getSlot(numNpcSlots);
+			} while (slot >= numNpcSlots);
+			return this;
+		}
+
+		// Same thing, but without writing the halves back every time.
+		final int mask = 0xffff >> (16 - numIterations);
+		int state = getState();
 		do {
-			advanceAbsolute(numIterations);
-			slot = getSlot(numNpcSlots);
-		} while (slot >= numNpcSlots);
+			state = step(state, numIterations);
+		} while (((state >>> 16) & mask) >= numNpcSlots);
+		setState(state);
 
 		return this;
 	}
@@ -107,8 +180,52 @@ public final class SlotRng {
 	}
 
 	protected int next2exp(final int val) {
-		// TODO Less disgusting approach.
-		return (int) (Math.log(val) / Math.log(2)) + 1;
+		if (val <= 0) {
+			// Nonsense, but it's the nonsense the old floating-point version
+			// gave.
+			return (int) (Math.log(val) / Math.log(2)) + 1;
+		}
+		return 32 - Integer.numberOfLeadingZeros(val);
+	}
+
+	// Whether both halves fit in 16 bits, which they always do after a step.
+	private boolean isNormal() {
+		return ((low & ~0xffff) == 0) && ((high & ~0xffff) == 0);
+	}
+
+	private int getState() {
+		return (low << 16) | high;
+	}
+
+	private void setState(final int state) {
+		low = state >>> 16;
+		high = state & 0xffff;
+	}
+
+	// Steps the packed state the given number of times, up to a byte's worth
+	// at a time.
+	private static int step(final int state, final int numIterations) {
+		int newState = state;
+		int remaining = numIterations;
+		while (remaining >= 8) {
+			newState = (newState << 8) ^ FEEDBACK[newState >>> 24];
+			remaining -= 8;
+		}
+		if (remaining > 0) {
+			newState = (newState << remaining)
+					^ FEEDBACK[newState >>> (32 - remaining)];
+		}
+		return newState;
+	}
+
+	// Multiplies the state by one of the jump matrices, which is just XORing
+	// together the columns for each bit that's set.
+	private static int multiply(final int[] jump, final int state) {
+		int result = 0;
+		for (int bits = state; bits != 0; bits &= bits - 1) {
+			result ^= jump[Integer.numberOfTrailingZeros(bits)];
+		}
+		return result;
 	}
 
 }
@@ -6,56 +6,125 @@ import io.github.uusdfg.mim.action.Route;
 import io.github.uusdfg.mim.action.TakeTransition;
 import io.github.uusdfg.mim.action.Route.HistoryEntry;
 import io.github.uusdfg.mim.data.Exit;
-import io.github.uusdfg.mim.data.Floor;
 import io.github.uusdfg.mim.data.Game;
+import io.github.uusdfg.mim.data.GameFingerprint;
 import io.github.uusdfg.mim.data.Level;
 import io.github.uusdfg.mim.data.Player;
 import io.github.uusdfg.mim.data.Position;
 import io.github.uusdfg.mim.data.Road;
 import io.github.uusdfg.mim.data.Transition;
+import io.github.uusdfg.mim.data.UndoLog;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class AStarRouteOptimizer implements RouteGenerator {
 
+	// Looks at each step visitLevelSteps() tries.
+	protected interface LevelStepVisitor {
+		public void visit(final Route step);
+	}
+
+	// What checkLevelStep() says about steps that aren't worth keeping.
+	private static final HistoryEntry REJECTED_STEP = new HistoryEntry();
+
+	// What to tell pruneForMemory() when there's nothing to compare against,
+	// so nothing gets pruned.
+	protected static final long NO_FRONTIER = Long.MAX_VALUE;
+
+	// Checkpoint intervals the memory governor switches to as it steps down.
+	private static final int COMPACT_CHECKPOINT_INTERVAL = 8;
+
+	private static final int REPLAY_CHECKPOINT_INTERVAL = 64;
+
 	private final ActionGenerator actionGenerator;
 
 	private final AStarHeuristic heuristic;
 
-	private final Queue<Route> overallRouteQueue = new PriorityQueue<>(1000,
-			new OutsideLevelRouteTimeComparator());
+	private QueueType queueType = QueueType.HEAP;
 
-	private final Queue<Route> levelRouteQueue = new PriorityQueue<>(1000,
-			new InLevelRouteTimeComparator());
+	private BucketRouteQueue.TieBreak tieBreak = BucketRouteQueue.TieBreak.FIFO;
 
-	private final Map<Integer, Collection<HistoryEntry>> levelSnapshotsByCode = new LinkedHashMap<>();
+	// Only for SPILLING queues. A null directory means the system's temporary
+	// directory.
+	private File spillDirectory = null;
 
-	private long totalLevelSolvingTime = 0;
+	private int maxRoutesInMemory = SpillingRouteQueue.DEFAULT_MAX_ROUTES_IN_MEMORY;
 
-	private long totalGetActionsTime = 0;
+	// What the bucket, off-heap and spilling queues order routes by.
+	private final BucketRouteQueue.Priority overallPriority = new BucketRouteQueue.Priority() {
+		public long getPriority(final Route route) {
+			return estimateOverallTime(route);
+		}
+	};
 
-	private long totalCopyRouteTime = 0;
+	private final BucketRouteQueue.Priority inLevelPriority = new BucketRouteQueue.Priority() {
+		public long getPriority(final Route route) {
+			return estimateInLevelTime(route);
+		}
+	};
+
+	private Queue<Route> overallRouteQueue;
 
-	private long totalPerformActionTime = 0;
+	private Queue<Route> levelRouteQueue;
 
-	private long totalAddToQueueTime = 0;
+	private final LevelSnapshotIndex levelSnapshots;
+
+	private long totalLevelSolvingTime = 0;
 
-	private long totalAddToQueueOpsTime = 0;
+	private final SearchTimes totalTimes = new SearchTimes();
 
-	private long totalLevelHeuristicTime = 0;
+	// Parallel subclasses' workers each keep their own times and add them to
+	// the totals once they're done. Everybody else uses the totals.
+	private final ThreadLocal<SearchTimes> workerTimes = new ThreadLocal<>();
+
+	private long levelAttempts = 0;
 
 	private long solutionsComputed = 0;
 
 	private long timesThatThingWorked = 0;
 
+	private long closedRoutesSkipped = 0;
+
+	// Parallel subclasses expand routes from several threads at once, so
+	// each one gets its own undo log.
+	private final ThreadLocal<UndoLog> undoLogs = new ThreadLocal<UndoLog>() {
+		@Override
+		protected UndoLog initialValue() {
+			return new UndoLog();
+		}
+	};
+
+	private final Map<OverallStateKey, Route> overallRoutesByState = new HashMap<>();
+
+	private final Set<OverallStateKey> closedOverallStates = new HashSet<>();
+
+	private LevelSolutionCache levelSolutionCache = new LevelSolutionCache();
+
+	// 0 means routes keep their final states (and every history entry keeps
+	// its snapshot) for as long as they're around. The governor can change
+	// this from a parallel search's worker.
+	private volatile int checkpointInterval = 0;
+
+	// Null means nobody's watching memory, and the search does the same thing
+	// no matter how big it gets.
+	private MemoryGovernor memoryGovernor = null;
+
+	// Parallel subclasses prune from every worker.
+	private final AtomicLong memoryPrunedRoutes = new AtomicLong();
+
+	private volatile boolean pruningSuspended = false;
+
 	public AStarRouteOptimizer() {
 		this(new DefaultActionGenerator(), new SlightlyBetterHeuristic());
 	}
@@ -64,18 +133,142 @@ public class AStarRouteOptimizer implements RouteGenerator {
 			final AStarHeuristic heuristic) {
 		this.actionGenerator = actionGenerator;
 		this.heuristic = heuristic;
+		this.overallRouteQueue = createOverallRouteQueue();
+		this.levelRouteQueue = createLevelRouteQueue();
+		this.levelSnapshots = createLevelSnapshotIndex();
+	}
+
+	public final ActionGenerator getActionGenerator() {
+		return actionGenerator;
+	}
+
+	public final AStarHeuristic getHeuristic() {
+		return heuristic;
+	}
+
+	public final QueueType getQueueType() {
+		return queueType;
+	}
+
+	public final BucketRouteQueue.TieBreak getTieBreak() {
+		return tieBreak;
+	}
+
+	public final AStarRouteOptimizer setQueueType(final QueueType queueType) {
+		this.queueType = queueType;
+		this.overallRouteQueue = createOverallRouteQueue();
+		this.levelRouteQueue = createLevelRouteQueue();
+		return this;
+	}
+
+	// Only matters for bucket queues. Heaps don't promise anything about
+	// ties.
+	public final AStarRouteOptimizer setTieBreak(
+			final BucketRouteQueue.TieBreak tieBreak) {
+		this.tieBreak = tieBreak;
+		this.overallRouteQueue = createOverallRouteQueue();
+		this.levelRouteQueue = createLevelRouteQueue();
+		return this;
+	}
+
+	public final File getSpillDirectory() {
+		return spillDirectory;
+	}
+
+	public final int getMaxRoutesInMemory() {
+		return maxRoutesInMemory;
+	}
+
+	// Where SPILLING queues put their run files, and how many routes each
+	// queue can hold before it starts writing them out.
+	public final AStarRouteOptimizer setSpilling(final File spillDirectory,
+			final int maxRoutesInMemory) {
+		this.spillDirectory = spillDirectory;
+		this.maxRoutesInMemory = maxRoutesInMemory;
+		this.overallRouteQueue = createOverallRouteQueue();
+		this.levelRouteQueue = createLevelRouteQueue();
+		return this;
+	}
+
+	public final LevelSolutionCache getLevelSolutionCache() {
+		return levelSolutionCache;
+	}
+
+	// Pass null to solve every level from scratch.
+	public final AStarRouteOptimizer setLevelSolutionCache(
+			final LevelSolutionCache levelSolutionCache) {
+		this.levelSolutionCache = levelSolutionCache;
+		return this;
+	}
+
+	public final int getCheckpointInterval() {
+		return checkpointInterval;
+	}
+
+	// Queued routes throw away their final states unless their history is a
+	// multiple of this long, and get them back by replaying the actions since
+	// the last checkpoint when they come out of the queue. That trades some
+	// replaying for not having a whole Game per queued route. Pass 0 to keep
+	// everything.
+	public final AStarRouteOptimizer setCheckpointInterval(
+			final int checkpointInterval) {
+		if (checkpointInterval < 0) {
+			throw new IllegalArgumentException(
+					"Checkpoint interval can't be negative: "
+							+ checkpointInterval);
+		}
+		this.checkpointInterval = checkpointInterval;
+		return this;
+	}
+
+	public final MemoryGovernor getMemoryGovernor() {
+		return memoryGovernor;
+	}
+
+	// Pass 0 to turn the governor off. The budget is in bytes of heap.
+	public final AStarRouteOptimizer setMemoryBudget(final long budget) {
+		return setMemoryGovernor((budget > 0) ? new MemoryGovernor(budget)
+				: null);
+	}
+
+	public final AStarRouteOptimizer setMemoryGovernor(
+			final MemoryGovernor memoryGovernor) {
+		this.memoryGovernor = memoryGovernor;
+		return this;
+	}
+
+	public final long getMemoryPrunedRoutes() {
+		return memoryPrunedRoutes.get();
 	}
 
 	public List<Route> generate(final Game baseGame, final int numRoutes) {
 		overallRouteQueue.clear();
+		overallRoutesByState.clear();
+		closedOverallStates.clear();
 		overallRouteQueue.add(new Route(baseGame));
 
 		final List<Route> completeRoutes = new ArrayList<>(numRoutes);
 		while ((completeRoutes.size() < numRoutes)
 				&& !overallRouteQueue.isEmpty()) {
 			final Route route = overallRouteQueue.remove();
+			checkMemory(levelRouteQueue.size());
 
-			if (route.getFinalState().isCompleted()) {
+			// The first time we see a state is the fastest way to get there,
+			// so don't bother expanding it again. Finished games are the
+			// exception since we might want more than one of them.
+			final Game game = route.getFinalState();
+			if (!game.isCompleted()) {
+				final OverallStateKey key = new OverallStateKey(game);
+				if (overallRoutesByState.get(key) == route) {
+					overallRoutesByState.remove(key);
+				}
+				if (!closedOverallStates.add(key)) {
+					closedRoutesSkipped++;
+					continue;
+				}
+			}
+
+			if (game.isCompleted()) {
 				completeRoutes.add(route);
 			} else if (justEnteredLevel(route)) {
 				// TODO Make immediate level exits not completely awful
@@ -94,13 +287,18 @@ public class AStarRouteOptimizer implements RouteGenerator {
 				// queue.
 				final Route levelRoute = completeLevel(route);
 				addLevelSolutionToQueue(levelRoute, overallRouteQueue);
+				compact(route);
 
 				whine();
 			} else {
 				expandOutsideLevel(route, overallRouteQueue);
+				compact(route);
 			}
 		}
 
+		// Spilling queues keep their files until they're cleared.
+		overallRouteQueue.clear();
+		levelRouteQueue.clear();
 		return completeRoutes;
 	}
 
@@ -123,8 +321,16 @@ public class AStarRouteOptimizer implements RouteGenerator {
 		final int floorId = player.getFloor();
 		final int levelId = player.getLevel().getLevelId();
 
-		levelRouteQueue.clear();
-		levelSnapshotsByCode.clear();
+		// If we've already been here in exactly this state, just do whatever
+		// we did last time.
+		if (levelSolutionCache != null) {
+			final Route cachedRoute = levelSolutionCache.replay(baseRoute);
+			if (cachedRoute != null) {
+				totalLevelSolvingTime += System.nanoTime()
+						- levelSolvingStartTime;
+				return cachedRoute;
+			}
+		}
 
 		// Assume that we start the level by getting Yoshi because it's
 		// extremely unlikely, if not impossible, for any other move to be
@@ -133,41 +339,83 @@ public class AStarRouteOptimizer implements RouteGenerator {
 		// level.
 		final Route realBaseRoute = new Route(baseRoute);
 		realBaseRoute.performAction(new GetYoshi());
-		levelRouteQueue.add(realBaseRoute);
 
 		System.err.printf("Trying to finish %d-%d%n", floorId, levelId);
+		final Route completeRoute = searchLevel(realBaseRoute, floorId,
+				levelId);
+
+		final long levelSolvingTime = System.nanoTime() - levelSolvingStartTime;
+		totalLevelSolvingTime += levelSolvingTime;
+		System.err
+				.printf("After %.2f s and %d tries, complete route for %d-%d (%d done) takes %d%n",
+						((double) levelSolvingTime) / 1e9, levelAttempts,
+						floorId, levelId, completeRoute.getFinalState()
+								.getNumLevelsCompleted(), completeRoute
+								.getTotalTime());
+
+		solutionsComputed++;
+		if (levelSolutionCache != null) {
+			levelSolutionCache.put(baseRoute, completeRoute);
+		}
+		return completeRoute;
+	}
+
+	// Subclasses that search levels some other way should override
+	// searchLevelOnce(), so they get the retry too.
+	protected Route searchLevel(final Route baseRoute, final int floorId,
+			final int levelId) {
+		final long prunedBefore = memoryPrunedRoutes.get();
+		Route completeRoute = searchLevelOnce(baseRoute, floorId, levelId);
+		if ((completeRoute == null)
+				&& (memoryPrunedRoutes.get() > prunedBefore)) {
+			// Pruning threw away every way to finish the level. Not much
+			// choice but to do it properly, and hope there's enough memory.
+			memoryGovernor.logDecision(String.format(
+					"Pruned too much to finish %d-%d, trying again without"
+							+ " pruning", floorId, levelId));
+			pruningSuspended = true;
+			try {
+				completeRoute = searchLevelOnce(baseRoute, floorId, levelId);
+			} finally {
+				pruningSuspended = false;
+			}
+		}
+		return completeRoute;
+	}
+
+	protected Route searchLevelOnce(final Route baseRoute, final int floorId,
+			final int levelId) {
+		levelRouteQueue.clear();
+		levelSnapshots.clear();
+		levelRouteQueue.add(baseRoute);
+
 		int numAttempts = 0;
 		Route completeRoute = null;
 		while ((completeRoute == null) && !levelRouteQueue.isEmpty()) {
 			final Route route = levelRouteQueue.remove();
+			checkMemory(levelRouteQueue.size());
 
 			if (isLevelCompleted(route, floorId, levelId)) {
 				completeRoute = route;
 			} else {
 				expandInLevel(route, levelRouteQueue);
+				compact(route);
 			}
 
 			++numAttempts;
 		}
 
-		final long levelSolvingTime = System.nanoTime() - levelSolvingStartTime;
-		totalLevelSolvingTime += levelSolvingTime;
-		System.err
-				.printf("After %.2f s and %d tries, complete route for %d-%d (%d done) takes %d%n",
-						((double) levelSolvingTime) / 1e9,
-						(numAttempts + levelRouteQueue.size()), floorId,
-						levelId, completeRoute.getFinalState()
-								.getNumLevelsCompleted(), completeRoute
-								.getTotalTime());
-
-		solutionsComputed++;
+		recordLevelAttempts(numAttempts + levelRouteQueue.size());
 		return completeRoute;
 	}
 
+	protected final void recordLevelAttempts(final long levelAttempts) {
+		this.levelAttempts = levelAttempts;
+	}
+
 	protected boolean isLevelCompleted(final Route route, final int floorId,
 			final int levelId) {
-		final Level level = route.getFinalState().getLevel(floorId, levelId);
-		return level.isCompleted();
+		return route.getFinalState().isLevelCompleted(floorId, levelId);
 	}
 
 	protected void expandOutsideLevel(final Route route,
@@ -179,57 +427,126 @@ public class AStarRouteOptimizer implements RouteGenerator {
 			final Route routeWithAction = new Route(route);
 			routeWithAction.performAction(action);
 			outRouteQueue.add(routeWithAction);
+			compact(routeWithAction);
 		}
 	}
 
 	protected void expandInLevel(final Route route,
 			final Queue<Route> outRouteQueue) {
+		// The route just came out of the queue, so nothing queued looks any
+		// better than it does.
+		final long frontierEstimate = estimateInLevelTime(route);
+		final SearchTimes times = getSearchTimes();
+		visitLevelSteps(route, new LevelStepVisitor() {
+			public void visit(final Route step) {
+				final long queueTimeStart = System.nanoTime();
+				final HistoryEntry existingEntry = checkLevelStep(step,
+						levelSnapshots, frontierEstimate);
+				times.addToQueue += System.nanoTime() - queueTimeStart;
+				if (existingEntry == REJECTED_STEP) {
+					return;
+				}
+
+				final long copyRouteTimeStart = System.nanoTime();
+				final Route keptStep = step.fork();
+				times.copyRoute += System.nanoTime() - copyRouteTimeStart;
+
+				final long storeTimeStart = System.nanoTime();
+				storeLevelStep(keptStep, existingEntry, outRouteQueue,
+						levelSnapshots);
+				times.addToQueue += System.nanoTime() - storeTimeStart;
+			}
+		});
+	}
+
+	protected List<Route> getLevelSteps(final Route route) {
+		final List<Route> steps = new ArrayList<>();
+		final SearchTimes times = getSearchTimes();
+		visitLevelSteps(route, new LevelStepVisitor() {
+			public void visit(final Route step) {
+				final long copyRouteTimeStart = System.nanoTime();
+				steps.add(step.fork());
+				times.copyRoute += System.nanoTime() - copyRouteTimeStart;
+			}
+		});
+		return steps;
+	}
+
+	// Tries every action that's possible from the route on one working copy
+	// of it, and undoes each one once the visitor's looked at the result.
+	// Most steps get thrown away, so this way, only the ones somebody keeps
+	// get copied. The visitor sees the working copy, so it has to fork()
+	// anything it wants to hang on to.
+	protected void visitLevelSteps(final Route route,
+			final LevelStepVisitor visitor) {
 		final Player player = route.getFinalState().getPlayer();
 		final int floorId = player.getFloor();
 		final int levelId = player.getLevel().getLevelId();
 
+		final SearchTimes times = getSearchTimes();
 		final long getTimeStart = System.nanoTime();
 		final Collection<Action> actions = actionGenerator
 				.getPossibleActions(route.getFinalState());
-		totalGetActionsTime += System.nanoTime() - getTimeStart;
+		times.getActions += System.nanoTime() - getTimeStart;
 
-		for (Action action : actions) {
-			final long copyRouteTimeStart = System.nanoTime();
-			final Route routeWithAction = new Route(route);
-			totalCopyRouteTime += System.nanoTime() - copyRouteTimeStart;
+		final long copyRouteTimeStart = System.nanoTime();
+		final Route workingRoute = new Route(route);
+		times.copyRoute += System.nanoTime() - copyRouteTimeStart;
 
+		final UndoLog undoLog = undoLogs.get();
+		for (Action action : actions) {
 			final long performTimeStart = System.nanoTime();
-			routeWithAction.performAction(action);
-			totalPerformActionTime += System.nanoTime() - performTimeStart;
+			workingRoute.performUndoably(action, undoLog);
+			times.performAction += System.nanoTime() - performTimeStart;
 
 			// Don't let the player exit the level immediately. We want to
 			// actually complete the level.
-			if (!routeWithAction.getFinalState().getPlayer().isInCastle()
-					|| isLevelCompleted(routeWithAction, floorId, levelId)) {
-				final long queueTimeStart = System.nanoTime();
-				addLevelStepToQueue(routeWithAction, outRouteQueue);
-				totalAddToQueueTime += System.nanoTime() - queueTimeStart;
+			if (!workingRoute.getFinalState().getPlayer().isInCastle()
+					|| isLevelCompleted(workingRoute, floorId, levelId)) {
+				visitor.visit(workingRoute);
 			}
+
+			final long undoTimeStart = System.nanoTime();
+			workingRoute.undoAction(undoLog);
+			times.performAction += System.nanoTime() - undoTimeStart;
 		}
 	}
 
 	protected void addLevelStepToQueue(final Route route,
 			final Queue<Route> outRouteQueue) {
+		addLevelStepToQueue(route, outRouteQueue, levelSnapshots);
+	}
+
+	protected void addLevelStepToQueue(final Route route,
+			final Queue<Route> outRouteQueue, final LevelSnapshotIndex snapshots) {
+		// Whoever made the route gets to decide whether it's worth keeping
+		// for memory's sake.
+		final HistoryEntry existingEntry = checkLevelStep(route, snapshots,
+				NO_FRONTIER);
+		if (existingEntry != REJECTED_STEP) {
+			storeLevelStep(route, existingEntry, outRouteQueue, snapshots);
+		}
+	}
+
+	// Decides whether the route is worth putting in the queue without
+	// putting it there, so it can be asked about a working copy. Returns
+	// REJECTED_STEP if it isn't, or else the entry for the slower duplicate
+	// it should replace, if there is one.
+	private HistoryEntry checkLevelStep(final Route route,
+			final LevelSnapshotIndex snapshots, final long frontierEstimate) {
 		// As a first check, see if this route completes the level. If it does,
 		// we want it in the queue immediately so we can use the queue to find
 		// the fastest solution for us. Additional, non-O(log n) pruning is a
 		// waste of time in this case.
-		final Game game = route.getFinalState();
-		final Player player = game.getPlayer();
+		final Player player = route.getFinalState().getPlayer();
 		if (player.isInCastle()) {
-			outRouteQueue.add(route);
-			return;
+			return null;
 		}
 
 		// Next, make sure it isn't completely stupid. If it is, don't bother
 		// looking at it further.
-		if (pruneIndividual(route)) {
-			return;
+		if (pruneIndividual(route) || pruneForMemory(route, frontierEstimate)) {
+			return REJECTED_STEP;
 		}
 
 		// Now go through all of the existing routes and see if this one
@@ -238,47 +555,43 @@ public class AStarRouteOptimizer implements RouteGenerator {
 		// long as this method is called consistently, there won't ever be more
 		// than one duplicate run in the queue.
 		//
-		// To minimize the amount of time wasted doing this, use a collection of
-		// routes that are pre-sorted by how far the player has progressed
-		// through the level. That way, we'll only have to check the routes that
-		// have already made the same progress.
-		Route badExistingRoute = null;
-		HistoryEntry badExistingHistory = null;
-		boolean shouldAddRoute = true;
-		final int completionCode = player.getLevel().getCompletionCode();
-		Collection<HistoryEntry> historyForCode = levelSnapshotsByCode
-				.get(completionCode);
-		if (historyForCode == null) {
-			historyForCode = new ArrayList<>();
-			levelSnapshotsByCode.put(completionCode, historyForCode);
-		} else {
-			final HistoryEntry existingEntry = findEquivalentHistoryEntry(
-					route, historyForCode);
-			if (existingEntry != null) {
-				shouldAddRoute = (route.getTotalTime() < existingEntry.cumulativeTime);
-				if (shouldAddRoute) {
-					badExistingHistory = existingEntry;
-					badExistingRoute = existingEntry.backReference;
-				}
-			}
+		// To minimize the amount of time wasted doing this, use an index of
+		// the routes that are sorted by how far the player has progressed
+		// through the level and where the player is. That way, we'll only have
+		// to check the routes that have already made the same progress and are
+		// close enough to matter.
+		final HistoryEntry existingEntry = snapshots.findEquivalent(route);
+		if ((existingEntry != null)
+				&& (route.getTotalTime() >= existingEntry.cumulativeTime)) {
+			return REJECTED_STEP;
 		}
+		return existingEntry;
+	}
 
-		final long queueOpsTimeStart = System.nanoTime();
-		if (badExistingRoute != null) {
-			outRouteQueue.remove(badExistingRoute);
-
-			// Don't forget to clean the bad entry out of our per-road map, or
-			// we won't really be removing it.
-			historyForCode.remove(badExistingHistory);
-		}
-		if (shouldAddRoute) {
+	private void storeLevelStep(final Route route,
+			final HistoryEntry existingEntry, final Queue<Route> outRouteQueue,
+			final LevelSnapshotIndex snapshots) {
+		if (route.getFinalState().getPlayer().isInCastle()) {
 			outRouteQueue.add(route);
+			compact(route);
+			return;
+		}
 
-			// Remember the history for this road for next time.
-			historyForCode.add(route.getHistory().get(
-					route.getHistory().size() - 1));
+		final long queueOpsTimeStart = System.nanoTime();
+		Route badExistingRoute = null;
+		if (existingEntry != null) {
+			// Don't forget to clean the bad entry out of the index, or we won't
+			// really be removing it.
+			badExistingRoute = existingEntry.backReference;
+			snapshots.remove(existingEntry);
 		}
-		totalAddToQueueOpsTime += System.nanoTime() - queueOpsTimeStart;
+		replaceInQueue(outRouteQueue, badExistingRoute, route);
+
+		// Remember the history for this road for next time.
+		snapshots.add(route.getLastEntry());
+		compact(route);
+		getSearchTimes().addToQueueOps += System.nanoTime()
+				- queueOpsTimeStart;
 	}
 
 	protected boolean pruneIndividual(final Route route) {
@@ -288,6 +601,22 @@ public class AStarRouteOptimizer implements RouteGenerator {
 		return (findEquivalentHistoryEntry(route, route.getHistory()) != null);
 	}
 
+	// Only does anything once the governor's given up on keeping the search
+	// optimal. The frontier estimate is the best estimate of anything queued
+	// in the search the route's going into (or NO_FRONTIER).
+	protected boolean pruneForMemory(final Route route,
+			final long frontierEstimate) {
+		if ((memoryGovernor == null) || pruningSuspended
+				|| (frontierEstimate == NO_FRONTIER)
+				|| (memoryGovernor.getStage() != MemoryGovernor.Stage.PRUNE)
+				|| (estimateInLevelTime(route) <= frontierEstimate
+						+ memoryGovernor.getPruneSlack())) {
+			return false;
+		}
+		memoryPrunedRoutes.incrementAndGet();
+		return true;
+	}
+
 	protected HistoryEntry findEquivalentHistoryEntry(final Route route,
 			final Collection<HistoryEntry> history) {
 		// We consider states equivalent if:
@@ -299,18 +628,8 @@ public class AStarRouteOptimizer implements RouteGenerator {
 		// time elapsed between the given history state and the current one, the
 		// player could have walked to the current position and gotten there
 		// faster.
-		final long routeTime = route.getTotalTime();
-		final Game game = route.getFinalState();
-		final Player player = game.getPlayer();
 		for (HistoryEntry entry : history) {
-			final Game oldGame = entry.state;
-			final long timeSince = routeTime - entry.cumulativeTime;
-			if ((game != oldGame)
-					&& essentiallySamePosition(player, oldGame.getPlayer(),
-							Math.abs(timeSince))
-					&& sameProgressInLevel(game, oldGame, routeTime,
-							entry.cumulativeTime)
-					&& game.getSlotRng().equals(oldGame.getSlotRng())) {
+			if (isEquivalentHistoryEntry(route, entry)) {
 				return entry;
 			}
 		}
@@ -318,6 +637,52 @@ public class AStarRouteOptimizer implements RouteGenerator {
 		return null;
 	}
 
+	protected boolean isEquivalentHistoryEntry(final Route route,
+			final HistoryEntry entry) {
+		final long routeTime = route.getTotalTime();
+		final Game game = route.getFinalState();
+		final Game oldGame = entry.state;
+		if (oldGame == null) {
+			// The snapshot's been thrown away to save memory, so all we've got
+			// is the fingerprint.
+			return (entry != route.getLastEntry())
+					&& sameFingerprint(game, routeTime, entry.getFingerprint(),
+							entry.cumulativeTime);
+		}
+		final long timeSince = routeTime - entry.cumulativeTime;
+		return (game != oldGame)
+				&& essentiallySamePosition(game.getPlayer(),
+						oldGame.getPlayer(), Math.abs(timeSince))
+				&& sameProgressInLevel(game, oldGame, routeTime,
+						entry.cumulativeTime)
+				&& game.getSlotRng().equals(oldGame.getSlotRng());
+	}
+
+	// The same checks as above, against a released snapshot.
+	protected boolean sameFingerprint(final Game game, final long time,
+			final GameFingerprint old, final long oldTime) {
+		final Player player = game.getPlayer();
+		final Position pos = player.getPos();
+		if ((player.isInCastle() != old.isInCastle())
+				|| (pos.getRoadIndex() != old.getRoadIndex())
+				|| (Math.abs(pos.getX() - old.getX()) > old.getRunSpeed()
+						* Math.abs(time - oldTime))) {
+			return false;
+		}
+
+		if ((player.hasYoshi() != old.hasYoshi())
+				|| (player.getLevel().getCompletionCode() != old
+						.getCompletionCode())) {
+			return false;
+		}
+		final long remainingTransitionDelay = player.getTransitionDelayEnd()
+				- time;
+		final long oldRemainingTransitionDelay = old.getTransitionDelayEnd()
+				- oldTime;
+		return ((remainingTransitionDelay == oldRemainingTransitionDelay) || (remainingTransitionDelay <= 0))
+				&& old.sameRng(game);
+	}
+
 	protected boolean essentiallySamePosition(final Player newPlayer,
 			final Player oldPlayer, final long timeDelta) {
 		// Have to be on the same road. Not comparable otherwise. Also watch out
@@ -371,53 +736,203 @@ public class AStarRouteOptimizer implements RouteGenerator {
 
 	protected void addLevelSolutionToQueue(final Route newRoute,
 			final Queue<Route> routeQueue) {
-		boolean shouldAdd = true;
-		Route routeToRemove = null;
-
-		final Game game = newRoute.getFinalState();
-		for (Route existingRoute : routeQueue) {
-			// 1. The routes must have the same RNG. We can't compare routes
-			// with different RNGs because we don't know what effect those RNGs
-			// will have later on.
-			final Game existingGame = existingRoute.getFinalState();
-			boolean match = game.getSlotRng().equals(existingGame.getSlotRng());
-
-			// 2. The routes must have completed exactly the same levels.
-			for (final Iterator<Floor> fit = game.getFloors().iterator(); match
-					&& fit.hasNext();) {
-				final Floor floor = fit.next();
-				for (final Iterator<Level> lit = floor.getLevels().iterator(); match
-						&& lit.hasNext();) {
-					final Level level = lit.next();
-					match = level.isCompleted() == existingGame.getLevel(
-							floor.getFloorId(), level.getLevelId())
-							.isCompleted();
-				}
+		// Routes are duplicates if they have the same RNG, have completed
+		// exactly the same levels and leave the player in the same spot. We
+		// can't compare routes with different RNGs because we don't know what
+		// effect those RNGs will have later on. If we've already expanded a
+		// duplicate, it got there first, so this one can't be any better.
+		final OverallStateKey key = new OverallStateKey(
+				newRoute.getFinalState());
+		if (closedOverallStates.contains(key)) {
+			timesThatThingWorked++;
+			return;
+		}
+
+		// Otherwise, keep whichever one is faster. As long as we always use
+		// this method to add level solutions, there's never more than one
+		// route per key in the queue.
+		final Route existingRoute = overallRoutesByState.get(key);
+		if (existingRoute != null) {
+			// XXX See if this is worth it...
+			timesThatThingWorked++;
+			if (newRoute.getTotalTime() >= existingRoute.getTotalTime()) {
+				return;
 			}
+		}
 
-			if (match) {
-				// XXX See if this is worth it...
-				timesThatThingWorked++;
+		overallRoutesByState.put(key, newRoute);
+		replaceInQueue(routeQueue, existingRoute, newRoute);
+		compact(newRoute);
+	}
 
-				// If the routes match, plan to keep whichever one is faster.
-				if (newRoute.getTotalTime() < existingRoute.getTotalTime()) {
-					routeToRemove = existingRoute;
-				} else {
-					shouldAdd = false;
-				}
+	// Workers in parallel subclasses call this with their own times before
+	// they start and with null once they're done, and then whoever's waiting
+	// for them adds their times to the totals.
+	protected final void useSearchTimes(final SearchTimes times) {
+		if (times == null) {
+			workerTimes.remove();
+		} else {
+			workerTimes.set(times);
+		}
+	}
 
-				// As long as we always use this method to add routes, we'll
-				// never have duplicates, so we can stop now.
-				break;
+	protected final void addSearchTimes(final SearchTimes times) {
+		totalTimes.add(times);
+	}
+
+	private SearchTimes getSearchTimes() {
+		final SearchTimes times = workerTimes.get();
+		return (times == null) ? totalTimes : times;
+	}
+
+	// Only call this once the route's queued, so the queue's already worked
+	// out its estimate and won't need the final state again until it comes
+	// back out.
+	protected final void compact(final Route route) {
+		if (checkpointInterval > 0) {
+			route.compact(checkpointInterval);
+		}
+	}
+
+	// Call this once per expanded route, with however many routes the level
+	// search has queued (or live) right now.
+	protected final void checkMemory(final long levelRoutes) {
+		if (memoryGovernor == null) {
+			return;
+		}
+		final MemoryGovernor.Stage oldStage = memoryGovernor.getStage();
+		final MemoryGovernor.Stage stage = memoryGovernor
+				.check(overallRouteQueue.size() + levelRoutes);
+		if (stage != oldStage) {
+			stepDown(stage);
+		}
+	}
+
+	// For level searches that count their own expansions and decide when to
+	// sample. Any thread can call this, but only one steps the search down
+	// at a time.
+	protected final synchronized void sampleMemory(final long levelRoutes) {
+		if (memoryGovernor == null) {
+			return;
+		}
+		final MemoryGovernor.Stage oldStage = memoryGovernor.getStage();
+		final MemoryGovernor.Stage stage = memoryGovernor
+				.sample(overallRouteQueue.size() + levelRoutes);
+		if (stage != oldStage) {
+			stepDown(stage);
+		}
+	}
+
+	protected void stepDown(final MemoryGovernor.Stage stage) {
+		switch (stage) {
+		case COMPACT_HISTORY:
+			compactQueuedRoutes(COMPACT_CHECKPOINT_INTERVAL);
+			break;
+		case REPLAY:
+			compactQueuedRoutes(REPLAY_CHECKPOINT_INTERVAL);
+			break;
+		case SPILL:
+			if (queueType == QueueType.SPILLING) {
+				memoryGovernor.logDecision("Queues are already spilling");
+			} else {
+				// Move everything that's queued over. Polling keeps the order
+				// as close as we can get to what it was.
+				final Queue<Route> oldOverallQueue = overallRouteQueue;
+				final Queue<Route> oldLevelQueue = levelRouteQueue;
+				queueType = QueueType.SPILLING;
+				overallRouteQueue = createOverallRouteQueue();
+				levelRouteQueue = createLevelRouteQueue();
+				final int numMoved = oldOverallQueue.size()
+						+ oldLevelQueue.size();
+				while (!oldOverallQueue.isEmpty()) {
+					overallRouteQueue.add(oldOverallQueue.poll());
+				}
+				while (!oldLevelQueue.isEmpty()) {
+					levelRouteQueue.add(oldLevelQueue.poll());
+				}
+				memoryGovernor.logDecision(String.format(
+						"Moved %d queued routes to spilling queues", numMoved));
 			}
+			break;
+		case PRUNE:
+			memoryGovernor.logDecision(String.format(
+					"Pruning level routes more than %d frames behind the"
+							+ " best queued one", memoryGovernor.getPruneSlack()));
+			break;
+		default:
+			break;
+		}
+	}
+
+	private void compactQueuedRoutes(final int interval) {
+		if ((checkpointInterval == 0) || (checkpointInterval < interval)) {
+			checkpointInterval = interval;
+		}
+		for (Route route : overallRouteQueue) {
+			compact(route);
 		}
+		for (Route route : levelRouteQueue) {
+			compact(route);
+		}
+		memoryGovernor.logDecision(String.format(
+				"Checkpointing every %d actions and compacted %d queued routes",
+				checkpointInterval,
+				overallRouteQueue.size() + levelRouteQueue.size()));
+	}
 
-		if (routeToRemove != null) {
-			routeQueue.remove(routeToRemove);
+	protected Queue<Route> createOverallRouteQueue() {
+		if (queueType == QueueType.BUCKET) {
+			return new BucketRouteQueue(overallPriority, tieBreak);
+		} else if (queueType == QueueType.OFF_HEAP) {
+			return new OffHeapRouteQueue(overallPriority);
+		} else if (queueType == QueueType.SPILLING) {
+			return new SpillingRouteQueue(overallPriority, spillDirectory,
+					maxRoutesInMemory);
+		} else if (queueType == QueueType.PRIORITY_QUEUE) {
+			return new PriorityQueue<>(1000,
+					new OutsideLevelRouteTimeComparator());
 		}
-		if (shouldAdd) {
-			routeQueue.add(newRoute);
+		return new IndexedRouteHeap(new OutsideLevelRouteTimeComparator());
+	}
+
+	protected Queue<Route> createLevelRouteQueue() {
+		if (queueType == QueueType.BUCKET) {
+			return new BucketRouteQueue(inLevelPriority, tieBreak);
+		} else if (queueType == QueueType.OFF_HEAP) {
+			return new OffHeapRouteQueue(inLevelPriority);
+		} else if (queueType == QueueType.SPILLING) {
+			return new SpillingRouteQueue(inLevelPriority, spillDirectory,
+					maxRoutesInMemory);
+		} else if (queueType == QueueType.PRIORITY_QUEUE) {
+			return new PriorityQueue<>(1000, new InLevelRouteTimeComparator());
 		}
+		return new IndexedRouteHeap(new InLevelRouteTimeComparator());
+	}
+
+	protected LevelSnapshotIndex createLevelSnapshotIndex() {
+		return new LevelSnapshotIndex(this);
+	}
+
+	protected void replaceInQueue(final Queue<Route> routeQueue,
+			final Route oldRoute, final Route newRoute) {
+		// The old route might not be in the queue anymore if it's already
+		// been expanded, in which case the new one just goes in normally.
+		if (routeQueue instanceof IndexedRouteHeap) {
+			if ((oldRoute != null)
+					&& ((IndexedRouteHeap) routeQueue).replace(oldRoute,
+							newRoute)) {
+				return;
+			}
+		} else if (routeQueue instanceof OffHeapRouteQueue) {
+			if ((oldRoute != null)
+					&& ((OffHeapRouteQueue) routeQueue).replace(oldRoute,
+							newRoute)) {
+				return;
+			}
+		} else if (oldRoute != null) {
+			routeQueue.remove(oldRoute);
+		}
+		routeQueue.add(newRoute);
 	}
 
 	protected void addImmediateExitToQueue(final Route route,
@@ -445,37 +960,85 @@ public class AStarRouteOptimizer implements RouteGenerator {
 		addLevelSolutionToQueue(exitRoute, outRouteQueue);
 	}
 
+	// HEAP is the default. PRIORITY_QUEUE is the plain java.util one with a
+	// linear remove(), kept around so the two can be compared on real
+	// searches (RouteQueueTraceReplay does it on a recorded trace). OFF_HEAP
+	// orders routes the same way HEAP does, but keeps the queued routes' games
+	// in direct byte buffers. SPILLING works like BUCKET with FIFO ties, but
+	// writes the worst buckets' games to disk when too many routes are queued.
+	public enum QueueType {
+		HEAP, PRIORITY_QUEUE, BUCKET, OFF_HEAP, SPILLING
+	}
+
+	// How long the level searches have spent on each part of their work, in
+	// nanoseconds.
+	protected static final class SearchTimes {
+		private long getActions = 0;
+
+		private long copyRoute = 0;
+
+		private long performAction = 0;
+
+		private long addToQueue = 0;
+
+		private long addToQueueOps = 0;
+
+		private long levelHeuristic = 0;
+
+		private void add(final SearchTimes times) {
+			getActions += times.getActions;
+			copyRoute += times.copyRoute;
+			performAction += times.performAction;
+			addToQueue += times.addToQueue;
+			addToQueueOps += times.addToQueueOps;
+			levelHeuristic += times.levelHeuristic;
+		}
+	}
+
 	protected class OutsideLevelRouteTimeComparator implements
 			Comparator<Route> {
 		public int compare(final Route o1, final Route o2) {
-			return Long.signum(getTime(o1) - getTime(o2));
-		}
-
-		private long getTime(final Route route) {
-			final Game game = route.getFinalState();
-			return heuristic.estimateRemainingLevelsTime(game)
-					+ route.getTotalTime();
+			final long time1 = estimateOverallTime(o1);
+			final long time2 = estimateOverallTime(o2);
+			return (time1 < time2) ? -1 : ((time1 == time2) ? 0 : 1);
 		}
 	}
 
 	protected class InLevelRouteTimeComparator implements Comparator<Route> {
 		public int compare(final Route o1, final Route o2) {
-			return Long.signum(getTime(o1) - getTime(o2));
+			final long time1 = estimateInLevelTime(o1);
+			final long time2 = estimateInLevelTime(o2);
+			return (time1 < time2) ? -1 : ((time1 == time2) ? 0 : 1);
 		}
+	}
 
-		private long getTime(final Route route) {
-			final Game game = route.getFinalState();
-			final Player player = game.getPlayer();
+	protected long estimateOverallTime(final Route route) {
+		long estimate = route.getRemainingTimeEstimate();
+		if (estimate == Route.UNKNOWN_ESTIMATE) {
+			estimate = heuristic.estimateRemainingLevelsTime(route
+					.getFinalState());
+			route.setRemainingTimeEstimate(estimate);
+		}
+		return route.getTotalTime() + estimate;
+	}
 
-			long time = route.getTotalTime();
+	protected long estimateInLevelTime(final Route route) {
+		// The heuristic is by far the most expensive part of comparing two
+		// routes, so only run it once per route.
+		long estimate = route.getLevelTimeEstimate();
+		if (estimate == Route.UNKNOWN_ESTIMATE) {
+			final Player player = route.getFinalState().getPlayer();
+			estimate = 0;
 			if (!player.isInCastle()) {
 				final long heuristicTimeStart = System.nanoTime();
-				time += heuristic.estimateLevelTime(player.getLevel(), player);
-				totalLevelHeuristicTime += System.nanoTime()
+				estimate = heuristic.estimateLevelTime(player.getLevel(),
+						player);
+				getSearchTimes().levelHeuristic += System.nanoTime()
 						- heuristicTimeStart;
 			}
-			return time;
+			route.setLevelTimeEstimate(estimate);
 		}
+		return route.getTotalTime() + estimate;
 	}
 
 	private void whine() {
@@ -483,14 +1046,32 @@ public class AStarRouteOptimizer implements RouteGenerator {
 				totalLevelSolvingTime / 1e9);
 		System.err
 				.printf("get=%.2f, copy=%.2f, perf=%.2f, add=%.2f, add-ops=%.2f, guess=%.2f%n",
-						totalGetActionsTime / 1e9, totalCopyRouteTime / 1e9,
-						totalPerformActionTime / 1e9,
-						totalAddToQueueTime / 1e9,
-						totalAddToQueueOpsTime / 1e9,
-						totalLevelHeuristicTime / 1e9);
+						totalTimes.getActions / 1e9,
+						totalTimes.copyRoute / 1e9,
+						totalTimes.performAction / 1e9,
+						totalTimes.addToQueue / 1e9,
+						totalTimes.addToQueueOps / 1e9,
+						totalTimes.levelHeuristic / 1e9);
 		System.err.printf(
 				"Computed %d level solutions; that thing worked %d times.%n",
 				solutionsComputed, timesThatThingWorked);
+		System.err.printf(
+				"Closed %d castle states; skipped %d routes to them.%n",
+				closedOverallStates.size(), closedRoutesSkipped);
+		System.err.println(levelSnapshots);
+		if ((overallRouteQueue instanceof OffHeapRouteQueue)
+				|| (overallRouteQueue instanceof SpillingRouteQueue)) {
+			System.err.println("Castle queue: " + overallRouteQueue);
+			System.err.println("Level queue: " + levelRouteQueue);
+		}
+		if (levelSolutionCache != null) {
+			System.err.println(levelSolutionCache);
+		}
+		if (memoryGovernor != null) {
+			System.err.println(memoryGovernor);
+			System.err.printf("Pruned %d routes to save memory.%n",
+					memoryPrunedRoutes.get());
+		}
 	}
 
 }
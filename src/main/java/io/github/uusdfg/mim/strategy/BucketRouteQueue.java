@@ -0,0 +1,295 @@
+package io.github.uusdfg.mim.strategy;
+
+import io.github.uusdfg.mim.action.Route;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// A bucket queue for routes. Route priorities are whole frame counts, and the
+// priorities in a queue only ever cover a few thousand frames, so it's cheaper
+// to keep one bucket per frame and walk a cursor up through them than it is to
+// keep a heap in order. Adding a route is O(1), and taking the best one out is
+// amortized O(1) as long as new routes don't keep landing below the cursor.
+//
+// Routes with the same priority come out in FIFO or LIFO order, depending on
+// how the queue is set up.
+//
+// Removing a route just marks it as gone. It stays in its bucket until the
+// cursor gets to it.
+//
+// XXX That means a route that's removed and then added again before the
+// cursor gets to it will be in two buckets at once. The optimizers never do
+// that, so it isn't worth the bookkeeping to prevent it.
+public class BucketRouteQueue extends AbstractQueue<Route> {
+
+	public interface Priority {
+		public long getPriority(final Route route);
+	}
+
+	public enum TieBreak {
+		FIFO, LIFO
+	}
+
+	// What a route's queue index gets set to while it's in one of these. It
+	// can't be mistaken for a slot in an IndexedRouteHeap since no heap is
+	// ever that big.
+	static final int IN_BUCKET = Integer.MAX_VALUE;
+
+	private static final int DEFAULT_NUM_BUCKETS = 1024;
+
+	private final Priority priority;
+
+	private final TieBreak tieBreak;
+
+	private ArrayDeque<Route>[] buckets;
+
+	// The priority of the route(s) in buckets[0].
+	private long basePriority = 0;
+
+	// Every bucket below this one is empty.
+	private int minBucket = 0;
+
+	// Upper bound on the buckets that have anything in them.
+	private int maxBucket = -1;
+
+	private int size = 0;
+
+	private int modCount = 0;
+
+	public BucketRouteQueue(final Priority priority) {
+		this(priority, TieBreak.FIFO);
+	}
+
+	public BucketRouteQueue(final Priority priority, final TieBreak tieBreak) {
+		this.priority = priority;
+		this.tieBreak = tieBreak;
+		this.buckets = newBuckets(DEFAULT_NUM_BUCKETS);
+	}
+
+	public final TieBreak getTieBreak() {
+		return tieBreak;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean offer(final Route route) {
+		if (route == null) {
+			throw new NullPointerException();
+		}
+		if (route.getQueueIndex() >= 0) {
+			throw new IllegalArgumentException("Route is already queued at "
+					+ route.getQueueIndex());
+		}
+
+		final long routePriority = priority.getPriority(route);
+		if (maxBucket < 0) {
+			// The queue's empty, so start over wherever this route is.
+			basePriority = routePriority;
+			minBucket = 0;
+		} else if (routePriority < basePriority) {
+			shiftUp(basePriority - routePriority);
+		}
+
+		final long offset = routePriority - basePriority;
+		if (offset >= buckets.length) {
+			grow(offset);
+		}
+		final int index = (int) offset;
+		if (buckets[index] == null) {
+			buckets[index] = new ArrayDeque<>();
+		}
+		buckets[index].addLast(route);
+		route.setQueueIndex(IN_BUCKET);
+
+		minBucket = Math.min(minBucket, index);
+		maxBucket = Math.max(maxBucket, index);
+		size++;
+		modCount++;
+		return true;
+	}
+
+	@Override
+	public Route peek() {
+		final ArrayDeque<Route> bucket = findMinBucket();
+		if (bucket == null) {
+			return null;
+		}
+		return (tieBreak == TieBreak.FIFO) ? bucket.peekFirst() : bucket
+				.peekLast();
+	}
+
+	@Override
+	public Route poll() {
+		final ArrayDeque<Route> bucket = findMinBucket();
+		if (bucket == null) {
+			return null;
+		}
+		final Route route = (tieBreak == TieBreak.FIFO) ? bucket.pollFirst()
+				: bucket.pollLast();
+		route.setQueueIndex(-1);
+		size--;
+		modCount++;
+		if (size == 0) {
+			clear();
+		}
+		return route;
+	}
+
+	@Override
+	public boolean contains(final Object obj) {
+		return (obj instanceof Route)
+				&& (((Route) obj).getQueueIndex() == IN_BUCKET);
+	}
+
+	@Override
+	public boolean remove(final Object obj) {
+		if (!contains(obj)) {
+			return false;
+		}
+		((Route) obj).setQueueIndex(-1);
+		size--;
+		modCount++;
+		if (size == 0) {
+			clear();
+		}
+		return true;
+	}
+
+	@Override
+	public void clear() {
+		for (int i = minBucket; i <= maxBucket; i++) {
+			final ArrayDeque<Route> bucket = buckets[i];
+			if (bucket != null) {
+				for (Route route : bucket) {
+					if (route.getQueueIndex() == IN_BUCKET) {
+						route.setQueueIndex(-1);
+					}
+				}
+				bucket.clear();
+			}
+		}
+		minBucket = 0;
+		maxBucket = -1;
+		size = 0;
+		modCount++;
+	}
+
+	@Override
+	public Iterator<Route> iterator() {
+		return new Iterator<Route>() {
+			private final int expectedModCount = modCount;
+
+			private int bucketIndex = minBucket - 1;
+
+			private Iterator<Route> bucketIt = null;
+
+			private Route next = advance();
+
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			public Route next() {
+				if (expectedModCount != modCount) {
+					throw new ConcurrentModificationException();
+				}
+				if (next == null) {
+					throw new NoSuchElementException();
+				}
+				final Route route = next;
+				next = advance();
+				return route;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException(
+						"Remove routes from the queue directly");
+			}
+
+			private Route advance() {
+				while (true) {
+					while ((bucketIt != null) && bucketIt.hasNext()) {
+						final Route route = bucketIt.next();
+						if (route.getQueueIndex() == IN_BUCKET) {
+							return route;
+						}
+					}
+					if (++bucketIndex > maxBucket) {
+						return null;
+					}
+					bucketIt = (buckets[bucketIndex] == null) ? null
+							: buckets[bucketIndex].iterator();
+				}
+			}
+		};
+	}
+
+	private ArrayDeque<Route> findMinBucket() {
+		if (size == 0) {
+			return null;
+		}
+
+		// Throw out anything that was removed on the way.
+		while (true) {
+			final ArrayDeque<Route> bucket = buckets[minBucket];
+			if (bucket != null) {
+				while (!bucket.isEmpty()) {
+					final Route route = (tieBreak == TieBreak.FIFO) ? bucket
+							.peekFirst() : bucket.peekLast();
+					if (route.getQueueIndex() == IN_BUCKET) {
+						return bucket;
+					}
+					if (tieBreak == TieBreak.FIFO) {
+						bucket.pollFirst();
+					} else {
+						bucket.pollLast();
+					}
+				}
+			}
+			minBucket++;
+		}
+	}
+
+	private void grow(final long offset) {
+		if (offset >= Integer.MAX_VALUE / 2) {
+			throw new IllegalArgumentException("Route priority " + offset
+					+ " frames past the best one is too big to bucket");
+		}
+		buckets = Arrays.copyOf(buckets,
+				(int) Math.max(offset + 1, buckets.length * 2L));
+	}
+
+	private void shiftUp(final long shift) {
+		// Leave some room below the new route too so a run of slightly
+		// better routes doesn't shift everything over every time.
+		final long totalShift = Math.max(shift, buckets.length / 4);
+		if ((totalShift + maxBucket) >= Integer.MAX_VALUE / 2) {
+			throw new IllegalArgumentException("Route priority " + shift
+					+ " frames before the best one is too small to bucket");
+		}
+
+		final int intShift = (int) totalShift;
+		final ArrayDeque<Route>[] newBuckets = newBuckets(Math.max(
+				buckets.length, maxBucket + intShift + 1));
+		System.arraycopy(buckets, minBucket, newBuckets, minBucket + intShift,
+				maxBucket - minBucket + 1);
+		buckets = newBuckets;
+		basePriority -= totalShift;
+		minBucket += intShift;
+		maxBucket += intShift;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static ArrayDeque<Route>[] newBuckets(final int numBuckets) {
+		return new ArrayDeque[numBuckets];
+	}
+
+}
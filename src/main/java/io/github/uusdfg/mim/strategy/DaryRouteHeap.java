@@ -0,0 +1,239 @@
+package io.github.uusdfg.mim.strategy;
+
+import io.github.uusdfg.mim.action.Route;
+
+import java.util.AbstractQueue;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// The d-ary heap that IndexedRouteHeap and OffHeapRouteQueue both sit on,
+// with every route remembering its own slot. This decides which slot each
+// route goes in, and the subclasses decide how routes compare and keep
+// anything else that goes with a slot in their own arrays. Since they share
+// every sift, routes come out of either one in exactly the same order, ties
+// and all.
+//
+// Sifting carries one route around outside the slots while it looks for a
+// place to put it. That's the held route, and subclasses keep whatever goes
+// with it (like its priority) until placeHeld() puts it in a slot.
+abstract class DaryRouteHeap extends AbstractQueue<Route> {
+
+	protected static final int DEFAULT_CAPACITY = 1000;
+
+	private final int arity;
+
+	protected Route[] routes;
+
+	protected Route held = null;
+
+	protected int size = 0;
+
+	protected int modCount = 0;
+
+	protected DaryRouteHeap(final int arity) {
+		if (arity < 2) {
+			throw new IllegalArgumentException("Heap arity must be at least 2, not "
+					+ arity);
+		}
+		this.arity = arity;
+		this.routes = new Route[DEFAULT_CAPACITY];
+	}
+
+	public final int getArity() {
+		return arity;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Route peek() {
+		return (size == 0) ? null : routes[0];
+	}
+
+	@Override
+	public boolean contains(final Object obj) {
+		return indexOf(obj) >= 0;
+	}
+
+	@Override
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			routes[i].setQueueIndex(-1);
+			routes[i] = null;
+		}
+		size = 0;
+		modCount++;
+	}
+
+	// The routes this hands out are in heap order.
+	@Override
+	public Iterator<Route> iterator() {
+		return new Iterator<Route>() {
+			private final int expectedModCount = modCount;
+
+			private int next = 0;
+
+			public boolean hasNext() {
+				return next < size;
+			}
+
+			public Route next() {
+				if (expectedModCount != modCount) {
+					throw new ConcurrentModificationException();
+				}
+				if (next >= size) {
+					throw new NoSuchElementException();
+				}
+				return routes[next++];
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException(
+						"Remove routes from the queue directly");
+			}
+		};
+	}
+
+	// How the held route compares to the one in the slot.
+	protected abstract int compareHeld(final int slot);
+
+	protected abstract int compareSlots(final int slot1, final int slot2);
+
+	// Whatever goes with a route besides the route itself.
+	protected abstract void moveExtras(final int fromSlot, final int toSlot);
+
+	protected abstract void holdExtras(final int slot);
+
+	protected abstract void placeHeldExtras(final int slot);
+
+	protected abstract void resizeExtras(final int capacity);
+
+	protected final void checkNotQueued(final Route route) {
+		if (route == null) {
+			throw new NullPointerException();
+		}
+		if (route.getQueueIndex() >= 0) {
+			throw new IllegalArgumentException("Route is already queued at "
+					+ route.getQueueIndex());
+		}
+	}
+
+	// Makes room for one more route.
+	protected final void ensureCapacity() {
+		if (size == routes.length) {
+			final int capacity = routes.length * 2;
+			routes = Arrays.copyOf(routes, capacity);
+			resizeExtras(capacity);
+		}
+	}
+
+	// Queues the held route.
+	protected final void addHeld() {
+		modCount++;
+		siftUp(size++);
+	}
+
+	// Swaps the held route into the slot and moves it to wherever it
+	// belongs. When it's a faster duplicate of the route that was there,
+	// that's decrease-key.
+	protected final void replaceWithHeld(final int index) {
+		modCount++;
+		routes[index].setQueueIndex(-1);
+		if (compareHeld(index) <= 0) {
+			siftUp(index);
+		} else {
+			siftDown(index);
+		}
+	}
+
+	protected final int indexOf(final Object obj) {
+		if (!(obj instanceof Route)) {
+			return -1;
+		}
+		// The index might belong to some other queue, so make sure it's
+		// really ours.
+		final int index = ((Route) obj).getQueueIndex();
+		return ((index >= 0) && (index < size) && (routes[index] == obj)) ? index
+				: -1;
+	}
+
+	protected final void removeAt(final int index) {
+		modCount++;
+		routes[index].setQueueIndex(-1);
+
+		final int last = --size;
+		if (index == last) {
+			routes[last] = null;
+			return;
+		}
+		hold(last);
+		routes[last] = null;
+		final Route moved = held;
+		siftDown(index);
+		if (routes[index] == moved) {
+			hold(index);
+			siftUp(index);
+		}
+	}
+
+	private void hold(final int slot) {
+		held = routes[slot];
+		holdExtras(slot);
+	}
+
+	private void siftUp(int index) {
+		while (index > 0) {
+			final int parent = (index - 1) / arity;
+			if (compareHeld(parent) >= 0) {
+				break;
+			}
+			move(parent, index);
+			index = parent;
+		}
+		placeHeld(index);
+	}
+
+	private void siftDown(int index) {
+		while (true) {
+			final int firstChild = (index * arity) + 1;
+			if (firstChild >= size) {
+				break;
+			}
+
+			int bestChild = firstChild;
+			final int lastChild = Math.min(firstChild + arity, size);
+			for (int child = firstChild + 1; child < lastChild; child++) {
+				if (compareSlots(child, bestChild) < 0) {
+					bestChild = child;
+				}
+			}
+
+			if (compareHeld(bestChild) <= 0) {
+				break;
+			}
+			move(bestChild, index);
+			index = bestChild;
+		}
+		placeHeld(index);
+	}
+
+	private void move(final int fromSlot, final int toSlot) {
+		final Route route = routes[fromSlot];
+		routes[toSlot] = route;
+		route.setQueueIndex(toSlot);
+		moveExtras(fromSlot, toSlot);
+	}
+
+	private void placeHeld(final int slot) {
+		routes[slot] = held;
+		held.setQueueIndex(slot);
+		placeHeldExtras(slot);
+		held = null;
+	}
+
+}
@@ -1,6 +1,7 @@
 package io.github.uusdfg.mim.strategy;
 
 import io.github.uusdfg.mim.action.Action;
+import io.github.uusdfg.mim.action.ActionCodes;
 import io.github.uusdfg.mim.action.GetYoshi;
 import io.github.uusdfg.mim.action.PickUpArtifact;
 import io.github.uusdfg.mim.action.PickUpMultipleArtifacts;
@@ -11,19 +12,35 @@ import io.github.uusdfg.mim.action.TakeTransition;
 import io.github.uusdfg.mim.data.Game;
 import io.github.uusdfg.mim.data.Kiosk;
 import io.github.uusdfg.mim.data.Koopa;
+import io.github.uusdfg.mim.data.Koopa.Status;
 import io.github.uusdfg.mim.data.Level;
 import io.github.uusdfg.mim.data.Player;
+import io.github.uusdfg.mim.data.Position;
 import io.github.uusdfg.mim.data.Road;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class DefaultActionGenerator implements ActionGenerator {
 
+	private static final GetYoshi GET_YOSHI = new GetYoshi();
+
+	// Actions don't have any state of their own, so every expansion can share
+	// the same ones. Which actions could possibly apply only depends on the
+	// road the player's on, so each road gets a table of them the first time
+	// somebody's on it. Roads are shared by every copy of a level, so this
+	// only happens once per road. The optimizers can call us from several
+	// threads at once, hence the concurrent maps.
+	private final ConcurrentMap<Road, RoadActions> roadActions = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<Integer, KoopaActions> koopaActions = new ConcurrentHashMap<>();
+
+	// Keyed by masks of Koopa IDs.
+	private final ConcurrentMap<Long, MultiKoopaActions> multiKoopaActions = new ConcurrentHashMap<>();
+
 	public Collection<Action> getPossibleActions(final Game game) {
 		final Player player = game.getPlayer();
 		final Level level = player.getLevel();
@@ -46,8 +63,7 @@ public class DefaultActionGenerator implements ActionGenerator {
 
 	protected Collection<Action> getPossibleActionsInLevel(final Level level,
 			final Game game) {
-		final Road road = level.getRoad(game.getPlayer().getPos()
-				.getRoadIndex());
+		final Road road = level.getRoad(game.getPlayer().getRoadIndex());
 
 		final Collection<Action> actions = new ArrayList<>();
 		addKioskActions(level, game, actions);
@@ -60,9 +76,19 @@ public class DefaultActionGenerator implements ActionGenerator {
 
 	protected void addKioskActions(final Level level, final Game game,
 			final Collection<Action> outActions) {
-		for (Kiosk kiosk : level.getKiosks()) {
-			addActionIfPossible(new ReturnArtifact(kiosk.getArtifactId()),
-					game, outActions);
+		// Only kiosks on the player's road, for artifacts the player's carrying
+		// and hasn't returned, are worth asking about.
+		final RoadActions templates = getRoadActions(level.getRoad(game
+				.getPlayer().getRoadIndex()), level);
+		final int returnable = level.getArtifactStatusMask(Status.CARRIED)
+				& ~level.getReturnedArtifactMask();
+		if (returnable == 0) {
+			return;
+		}
+		for (int i = 0; i < templates.kioskReturns.length; i++) {
+			if ((returnable & (1 << templates.kioskArtifacts[i])) != 0) {
+				addActionIfPossible(templates.kioskReturns[i], game, outActions);
+			}
 		}
 	}
 
@@ -71,90 +97,193 @@ public class DefaultActionGenerator implements ActionGenerator {
 		// We handle individual-Koopa and multi-Koopa actions separately because
 		// the simplified logic makes the individual ones go faster (I hope so,
 		// anyway).
-		for (Koopa koopa : level.getKoopas()) {
+		//
+		// Every one of them needs the Koopa to be on the player's road, and
+		// picking up an artifact and stomping need different statuses, so
+		// those get checked first.
+		final int playerPos = game.getPlayer().getPackedPos();
+		final List<Koopa> koopas = level.getKoopas();
+		for (int i = 0; i < koopas.size(); i++) {
+			final Koopa koopa = koopas.get(i);
 			if (koopa == null) {
 				continue;
 			}
-			final int koopaId = koopa.getId();
-			addActionIfPossible(new PickUpArtifact(koopaId), game, outActions);
-
-			// There are lots of different ways to stomp a Koopa, turns out.
-			addActionIfPossible(new StompKoopa(koopaId, false, false), game,
-					outActions);
-			addActionIfPossible(new StompKoopa(koopaId, false, true), game,
-					outActions);
-			addActionIfPossible(new StompKoopa(koopaId, true, false), game,
-					outActions);
-			addActionIfPossible(new StompKoopa(koopaId, true, true), game,
-					outActions);
-		}
+			final Status status = koopa.getStatus();
+			if ((status == Status.CARRIED)
+					|| ((status == Status.STOMPED) && !koopa.hasArtifact())
+					|| !Position.sharesRoad(koopa.getPackedCurrentPos(),
+							playerPos)) {
+				continue;
+			}
 
-		final Collection<Koopa> koopasOnRoad = level.getKoopasOnRoad(game
-				.getPlayer().getPos().getRoadIndex());
-		if (koopasOnRoad != null) {
-			addMultiKoopaActions(new HashSet<Koopa>(), new HashSet<Koopa>(
-					koopasOnRoad), game, outActions);
+			final KoopaActions templates = getKoopaActions(koopa.getId());
+			if (status == Status.STOMPED) {
+				addActionIfPossible(templates.pickUp, game, outActions);
+			} else {
+				// There are lots of different ways to stomp a Koopa, turns out.
+				for (StompKoopa stomp : templates.stomps) {
+					addActionIfPossible(stomp, game, outActions);
+				}
+			}
 		}
+
+		addMultiKoopaActions(level, game, outActions);
 	}
 
-	protected void addMultiKoopaActions(final Set<Koopa> selection,
-			final Set<Koopa> remaining, final Game game,
+	protected void addMultiKoopaActions(final Level level, final Game game,
 			final Collection<Action> outActions) {
-		for (final Iterator<Koopa> it = remaining.iterator(); it.hasNext();) {
-			final Koopa koopa = it.next();
-
-			// Put in one of the remaining Koopas each time. If that actually
-			// gives us multiple Koopas, consider adding each of the possible
-			// multi-Koopa actions.
-			selection.add(koopa);
-			if (selection.size() > 1) {
-				final Collection<Integer> koopaIds = new ArrayList<>(
-						selection.size());
-				for (Koopa selected : selection) {
-					koopaIds.add(selected.getId());
-				}
-
-				addActionIfPossible(new PickUpMultipleArtifacts(koopaIds),
-						game, outActions);
-				addActionIfPossible(new StompMultipleKoopas(koopaIds, false,
-						false), game, outActions);
-				addActionIfPossible(new StompMultipleKoopas(koopaIds, false,
-						true), game, outActions);
-				addActionIfPossible(new StompMultipleKoopas(koopaIds, true,
-						false), game, outActions);
-				addActionIfPossible(new StompMultipleKoopas(koopaIds, true,
-						true), game, outActions);
+		// The level works out every combination of the artifact holders on
+		// each road when they spawn, as masks of Koopa IDs. Picking up
+		// artifacts needs every Koopa stomped, and stomping needs exactly two
+		// active ones, so the status masks rule out most combinations before
+		// we look at any actions.
+		final long[] subsets = level.getKoopaSubsetsOnRoad(game.getPlayer()
+				.getRoadIndex());
+		if (subsets == null) {
+			return;
+		}
+		final long stomped = level.getArtifactHolderMask(Status.STOMPED);
+		final long active = level.getArtifactHolderMask(Status.ACTIVE);
+		for (long subset : subsets) {
+			final boolean canPickUp = ((subset & ~stomped) == 0);
+			final boolean canStomp = ((subset & ~active) == 0)
+					&& (Long.bitCount(subset) == 2);
+			if (!canPickUp && !canStomp) {
+				continue;
 			}
 
-			// Consider all possible actions using any of the other Koopas, plus
-			// the current selection.
-			it.remove();
-			addMultiKoopaActions(selection, new HashSet<>(remaining), game,
-					outActions);
-
-			// Go through and try again, without again considering this Koopa.
-			selection.remove(koopa);
+			final MultiKoopaActions templates = getMultiKoopaActions(subset);
+			if (canPickUp) {
+				addActionIfPossible(templates.pickUp, game, outActions);
+			} else {
+				for (StompMultipleKoopas stomp : templates.stomps) {
+					addActionIfPossible(stomp, game, outActions);
+				}
+			}
 		}
 	}
 
 	protected void addRoadActions(final Road road, final Game game,
 			final Collection<Action> outActions) {
-		final int roadId = road.getRoadId();
-		for (int i = 0; i < road.getTransitions().size(); i++) {
-			addActionIfPossible(new TakeTransition(roadId, i), game, outActions);
+		for (TakeTransition transition : getRoadActions(road,
+				game.getPlayer().getLevel()).transitions) {
+			addActionIfPossible(transition, game, outActions);
 		}
 	}
 
 	protected void addYoshiAction(final Game game,
 			final Collection<Action> outActions) {
-		addActionIfPossible(new GetYoshi(), game, outActions);
+		addActionIfPossible(GET_YOSHI, game, outActions);
 	}
 
 	protected void addActionIfPossible(final Action action, final Game game,
 			final Collection<Action> outActions) {
-		if (action.checkIfPossible(game)) {
+		if (ActionCodes.checkIfPossible(action.getCode(), game)) {
 			outActions.add(action);
 		}
 	}
 
+	private RoadActions getRoadActions(final Road road, final Level level) {
+		RoadActions templates = roadActions.get(road);
+		if (templates == null) {
+			templates = new RoadActions(road, level);
+			final RoadActions existing = roadActions.putIfAbsent(road,
+					templates);
+			if (existing != null) {
+				templates = existing;
+			}
+		}
+		return templates;
+	}
+
+	private KoopaActions getKoopaActions(final int koopaId) {
+		KoopaActions templates = koopaActions.get(koopaId);
+		if (templates == null) {
+			templates = new KoopaActions(koopaId);
+			final KoopaActions existing = koopaActions.putIfAbsent(koopaId,
+					templates);
+			if (existing != null) {
+				templates = existing;
+			}
+		}
+		return templates;
+	}
+
+	private MultiKoopaActions getMultiKoopaActions(final long koopaMask) {
+		MultiKoopaActions templates = multiKoopaActions.get(koopaMask);
+		if (templates == null) {
+			templates = new MultiKoopaActions(koopaMask);
+			final MultiKoopaActions existing = multiKoopaActions.putIfAbsent(
+					koopaMask, templates);
+			if (existing != null) {
+				templates = existing;
+			}
+		}
+		return templates;
+	}
+
+	// Everything that could happen on a road that doesn't involve a Koopa.
+	// Koopas move between respawns, so they get their own table.
+	private static final class RoadActions {
+		private final TakeTransition[] transitions;
+
+		// In the same order as the level's kiosks.
+		private final ReturnArtifact[] kioskReturns;
+
+		private final int[] kioskArtifacts;
+
+		public RoadActions(final Road road, final Level level) {
+			final int roadId = road.getRoadId();
+			transitions = new TakeTransition[road.getTransitions().size()];
+			for (int i = 0; i < transitions.length; i++) {
+				transitions[i] = new TakeTransition(roadId, i);
+			}
+
+			final List<Kiosk> kiosksOnRoad = new ArrayList<>();
+			if (level != null) {
+				for (Kiosk kiosk : level.getKiosks()) {
+					if (kiosk.getBasePos().getRoadIndex() == roadId) {
+						kiosksOnRoad.add(kiosk);
+					}
+				}
+			}
+			kioskReturns = new ReturnArtifact[kiosksOnRoad.size()];
+			kioskArtifacts = new int[kiosksOnRoad.size()];
+			for (int i = 0; i < kioskReturns.length; i++) {
+				kioskArtifacts[i] = kiosksOnRoad.get(i).getArtifactId();
+				kioskReturns[i] = new ReturnArtifact(kioskArtifacts[i]);
+			}
+		}
+	}
+
+	private static final class KoopaActions {
+		private final PickUpArtifact pickUp;
+
+		private final StompKoopa[] stomps;
+
+		public KoopaActions(final int koopaId) {
+			pickUp = new PickUpArtifact(koopaId);
+			stomps = new StompKoopa[] {
+					new StompKoopa(koopaId, false, false),
+					new StompKoopa(koopaId, false, true),
+					new StompKoopa(koopaId, true, false),
+					new StompKoopa(koopaId, true, true) };
+		}
+	}
+
+	private static final class MultiKoopaActions {
+		private final PickUpMultipleArtifacts pickUp;
+
+		private final StompMultipleKoopas[] stomps;
+
+		public MultiKoopaActions(final long koopaMask) {
+			pickUp = new PickUpMultipleArtifacts(koopaMask);
+			stomps = new StompMultipleKoopas[] {
+					new StompMultipleKoopas(koopaMask, false, false),
+					new StompMultipleKoopas(koopaMask, false, true),
+					new StompMultipleKoopas(koopaMask, true, false),
+					new StompMultipleKoopas(koopaMask, true, true) };
+		}
+	}
+
 }
@@ -0,0 +1,298 @@
+package io.github.uusdfg.mim.strategy;
+
+import io.github.uusdfg.mim.action.Route;
+import io.github.uusdfg.mim.data.Game;
+import io.github.uusdfg.mim.data.GameRecord;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Solves each level with IDA* instead of A*, so the memory it needs doesn't
+// grow with the number of routes it looks at. Each pass is a depth-first
+// search that gives up on any route whose estimate is over the current
+// threshold.
+//
+// Estimates are in frames, and almost every route has a different one, so
+// raising the threshold to the next estimate that got cut off (like textbook
+// IDA* does) means thousands of passes per level. Instead, the threshold
+// grows by at least a step that doubles every pass, and each pass keeps going
+// after it finds a solution, only looking at routes that could beat the best
+// one so far. The previous pass didn't find anything, so every solution is
+// slower than its threshold, and the best solution from the first pass that
+// finds one is as fast as possible, as long as the heuristic never
+// overestimates.
+//
+// Plain IDA* would explore the same states over and over, so there's a
+// transposition table of the fastest time each state has been reached in.
+// The table has a fixed number of entries. Once it's full, new states just
+// don't get remembered, which costs time but not correctness.
+//
+// The outer search over levels still runs as normal A*. It's tiny compared to
+// the level searches.
+//
+// With a memory governor, every expansion counts towards its next sample, with
+// the routes on the current path (and their siblings) as the frontier, so
+// the outer search still steps down while a level's being solved. The level
+// searches themselves never prune for memory, though. The table's the only
+// thing here that grows with the search, and it's already capped. Pruning
+// routes against anything IDA* has handy (the route they came from, or the
+// threshold) throws away nearly everything anyway.
+public class IdaStarRouteOptimizer extends AStarRouteOptimizer {
+
+	public static final int DEFAULT_MAX_TABLE_ENTRIES = 1 << 18;
+
+	private static final long INITIAL_THRESHOLD_STEP = 16;
+
+	private final int maxTableEntries;
+
+	private long totalIterations = 0;
+
+	private long totalExpansions = 0;
+
+	private long totalReexpansions = 0;
+
+	private long peakLiveRoutes = 0;
+
+	private long peakTableEntries = 0;
+
+	public IdaStarRouteOptimizer() {
+		this(DEFAULT_MAX_TABLE_ENTRIES);
+	}
+
+	public IdaStarRouteOptimizer(final int maxTableEntries) {
+		this(new DefaultActionGenerator(), new SlightlyBetterHeuristic(),
+				maxTableEntries);
+	}
+
+	public IdaStarRouteOptimizer(final ActionGenerator actionGenerator,
+			final AStarHeuristic heuristic, final int maxTableEntries) {
+		super(actionGenerator, heuristic);
+
+		if (maxTableEntries < 0) {
+			throw new IllegalArgumentException(
+					"Table size can't be negative: " + maxTableEntries);
+		}
+		this.maxTableEntries = maxTableEntries;
+	}
+
+	public final int getMaxTableEntries() {
+		return maxTableEntries;
+	}
+
+	public final long getTotalIterations() {
+		return totalIterations;
+	}
+
+	public final long getTotalExpansions() {
+		return totalExpansions;
+	}
+
+	public final long getTotalReexpansions() {
+		return totalReexpansions;
+	}
+
+	public final long getPeakLiveRoutes() {
+		return peakLiveRoutes;
+	}
+
+	public final long getPeakTableEntries() {
+		return peakTableEntries;
+	}
+
+	@Override
+	protected Route searchLevelOnce(final Route baseRoute, final int floorId,
+			final int levelId) {
+		final LevelSearch search = new LevelSearch(floorId, levelId);
+		final Route completeRoute = search.run(baseRoute);
+
+		totalIterations += search.iteration;
+		totalExpansions += search.expansions;
+		totalReexpansions += search.reexpansions;
+		peakLiveRoutes = Math.max(peakLiveRoutes, search.peakLiveRoutes);
+		peakTableEntries = Math.max(peakTableEntries, search.table.size());
+		System.err.printf(
+				"IDA*: %d passes, %d expansions (%d again), %d routes and %d"
+						+ " table entries at most%n", search.iteration,
+				search.expansions, search.reexpansions, search.peakLiveRoutes,
+				search.table.size());
+
+		recordLevelAttempts(search.expansions);
+		return completeRoute;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"IDA*: %d passes, %d expansions (%d again), peak of %d routes"
+						+ " and %d table entries", totalIterations,
+				totalExpansions, totalReexpansions, peakLiveRoutes,
+				peakTableEntries);
+	}
+
+	protected final class LevelSearch {
+
+		private final int floorId;
+
+		private final int levelId;
+
+		private final Map<StateKey, TableEntry> table = new HashMap<>();
+
+		private final ByteBuffer keyBuffer = ByteBuffer
+				.allocate(GameRecord.SIZE);
+
+		private int iteration = 0;
+
+		private long threshold;
+
+		private long nextThreshold;
+
+		private Route bestRoute;
+
+		private long expansions = 0;
+
+		private long reexpansions = 0;
+
+		private long liveRoutes = 0;
+
+		private long peakLiveRoutes = 0;
+
+		public LevelSearch(final int floorId, final int levelId) {
+			this.floorId = floorId;
+			this.levelId = levelId;
+		}
+
+		public Route run(final Route baseRoute) {
+			threshold = estimateInLevelTime(baseRoute);
+			long step = INITIAL_THRESHOLD_STEP;
+			while (true) {
+				iteration++;
+				nextThreshold = Long.MAX_VALUE;
+				bestRoute = null;
+				search(baseRoute);
+				if (bestRoute != null) {
+					return bestRoute;
+				} else if (nextThreshold == Long.MAX_VALUE) {
+					// Nothing got cut off, so there's nothing else to try.
+					return null;
+				}
+				threshold = Math.max(nextThreshold, threshold + step);
+				step *= 2;
+			}
+		}
+
+		private void search(final Route route) {
+			final long estimate = estimateInLevelTime(route);
+			if (estimate > threshold) {
+				nextThreshold = Math.min(nextThreshold, estimate);
+				return;
+			}
+			if ((bestRoute != null) && (estimate >= bestRoute.getTotalTime())) {
+				// Can't beat what we've already got.
+				return;
+			}
+			if (isLevelCompleted(route, floorId, levelId)) {
+				bestRoute = route;
+				return;
+			}
+			if (!checkTable(route)) {
+				return;
+			}
+
+			expansions++;
+			checkMemory(liveRoutes);
+			// Prune before copying, since most steps don't make it.
+			final List<Route> steps = new ArrayList<>();
+			visitLevelSteps(route, new LevelStepVisitor() {
+				public void visit(final Route step) {
+					if (step.getFinalState().getPlayer().isInCastle()
+							|| !pruneIndividual(step)) {
+						steps.add(step.fork());
+					}
+				}
+			});
+			// Try the most promising routes first. Sorting's stable, so ties
+			// stay in the order the action generator gave us.
+			Collections.sort(steps, new InLevelRouteTimeComparator());
+
+			liveRoutes += steps.size();
+			peakLiveRoutes = Math.max(peakLiveRoutes, liveRoutes);
+			for (Route step : steps) {
+				search(step);
+			}
+			liveRoutes -= steps.size();
+		}
+
+		// Returns false if the route's state has already been reached at
+		// least as fast, so it isn't worth expanding.
+		private boolean checkTable(final Route route) {
+			final StateKey key = new StateKey(route);
+			final long time = route.getTotalTime();
+			final TableEntry entry = table.get(key);
+			if (entry == null) {
+				if (table.size() < maxTableEntries) {
+					table.put(key, new TableEntry(time, iteration));
+				}
+				return true;
+			}
+
+			// Getting there just as fast in an earlier pass doesn't count,
+			// since the threshold's higher now.
+			if ((entry.time < time)
+					|| ((entry.time == time) && (entry.iteration == iteration))) {
+				return false;
+			}
+			reexpansions++;
+			entry.time = time;
+			entry.iteration = iteration;
+			return true;
+		}
+
+		private final class StateKey {
+			private final byte[] record;
+
+			private final int hash;
+
+			public StateKey(final Route route) {
+				// Routes that get to the same state at different times
+				// should match as long as they have the same amount of stomp
+				// delay left.
+				final Game game = route.getFinalState();
+				GameRecord.write(game, keyBuffer, 0);
+				keyBuffer.putLong(GameRecord.TRANSITION_DELAY_END_OFFSET, Math
+						.max(0, game.getPlayer().getTransitionDelayEnd()
+								- route.getTotalTime()));
+				this.record = Arrays.copyOf(keyBuffer.array(),
+						GameRecord.SIZE);
+				this.hash = Arrays.hashCode(record);
+			}
+
+			@Override
+			public int hashCode() {
+				return hash;
+			}
+
+			@Override
+			public boolean equals(final Object obj) {
+				return (obj instanceof StateKey)
+						&& Arrays.equals(record, ((StateKey) obj).record);
+			}
+		}
+	}
+
+	private static final class TableEntry {
+		private long time;
+
+		private int iteration;
+
+		public TableEntry(final long time, final int iteration) {
+			this.time = time;
+			this.iteration = iteration;
+		}
+	}
+
+}
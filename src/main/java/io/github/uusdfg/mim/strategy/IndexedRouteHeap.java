@@ -0,0 +1,103 @@
+package io.github.uusdfg.mim.strategy;
+
+import io.github.uusdfg.mim.action.Route;
+
+import java.util.Comparator;
+
+// A d-ary heap of routes where every route remembers its own slot. That makes
+// removing a route that's been beaten by a faster duplicate O(log n) instead
+// of the linear scan PriorityQueue.remove(Object) does, and it lets a faster
+// duplicate take over the slow one's slot directly. See DaryRouteHeap for the
+// heap itself.
+//
+// XXX A route can only be in one of these at a time, since it only has room
+// for one index.
+public class IndexedRouteHeap extends DaryRouteHeap {
+
+	public static final int DEFAULT_ARITY = 4;
+
+	private final Comparator<? super Route> comparator;
+
+	public IndexedRouteHeap(final Comparator<? super Route> comparator) {
+		this(comparator, DEFAULT_ARITY);
+	}
+
+	public IndexedRouteHeap(final Comparator<? super Route> comparator,
+			final int arity) {
+		super(arity);
+		this.comparator = comparator;
+	}
+
+	@Override
+	public boolean offer(final Route route) {
+		checkNotQueued(route);
+		ensureCapacity();
+		held = route;
+		addHeld();
+		return true;
+	}
+
+	@Override
+	public Route poll() {
+		if (size == 0) {
+			return null;
+		}
+		final Route route = routes[0];
+		removeAt(0);
+		return route;
+	}
+
+	@Override
+	public boolean remove(final Object obj) {
+		final int index = indexOf(obj);
+		if (index < 0) {
+			return false;
+		}
+		removeAt(index);
+		return true;
+	}
+
+	// Swaps newRoute into oldRoute's slot and moves it to wherever it belongs.
+	// When newRoute is a faster duplicate of oldRoute, that's decrease-key.
+	// Returns false (and doesn't queue anything) if oldRoute isn't queued
+	// here.
+	public boolean replace(final Route oldRoute, final Route newRoute) {
+		final int index = indexOf(oldRoute);
+		if (index < 0) {
+			return false;
+		}
+		checkNotQueued(newRoute);
+
+		held = newRoute;
+		replaceWithHeld(index);
+		return true;
+	}
+
+	@Override
+	protected int compareHeld(final int slot) {
+		return comparator.compare(held, routes[slot]);
+	}
+
+	@Override
+	protected int compareSlots(final int slot1, final int slot2) {
+		return comparator.compare(routes[slot1], routes[slot2]);
+	}
+
+	// The routes are all there is.
+	@Override
+	protected void moveExtras(final int fromSlot, final int toSlot) {
+	}
+
+	@Override
+	protected void holdExtras(final int slot) {
+	}
+
+	@Override
+	protected void placeHeldExtras(final int slot) {
+	}
+
+	@Override
+	protected void resizeExtras(final int capacity) {
+	}
+
+}
@@ -0,0 +1,345 @@
+package io.github.uusdfg.mim.strategy;
+
+import io.github.uusdfg.mim.action.Route;
+import io.github.uusdfg.mim.action.Route.HistoryEntry;
+import io.github.uusdfg.mim.data.Game;
+import io.github.uusdfg.mim.data.GameFingerprint;
+import io.github.uusdfg.mim.data.Player;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Keeps track of the latest snapshot of every route in a level's queue so new
+// routes can be checked against them for duplicates without looking at every
+// snapshot with the same completion code.
+//
+// findEquivalentHistoryEntry() only ever matches snapshots with the same
+// completion code, RNG, road and Yoshi, so those go into the key. Remaining
+// stomp delays have to match exactly unless the new route doesn't have one,
+// so each group is split by delay too. Within a delay bucket, snapshots are
+// sorted by x and time, so "could the old route have run here in the time
+// between them" turns into a range query around the new route's x.
+//
+// The optimizer still gets the final say on every candidate, and the
+// earliest-added match always wins, so this finds exactly the same duplicates
+// as scanning the snapshots in order.
+public class LevelSnapshotIndex {
+
+	private static final Comparator<Snapshot> SNAPSHOT_ORDER = new Comparator<Snapshot>() {
+		public int compare(final Snapshot o1, final Snapshot o2) {
+			if (o1.x != o2.x) {
+				return (o1.x < o2.x) ? -1 : 1;
+			} else if (o1.time != o2.time) {
+				return (o1.time < o2.time) ? -1 : 1;
+			} else {
+				return (o1.sequence < o2.sequence) ? -1
+						: ((o1.sequence == o2.sequence) ? 0 : 1);
+			}
+		}
+	};
+
+	private final AStarRouteOptimizer optimizer;
+
+	private final Map<Key, Group> groups = new HashMap<>();
+
+	private final Map<HistoryEntry, Snapshot> snapshots = new IdentityHashMap<>();
+
+	private long nextSequence = 0;
+
+	private long numLookups = 0;
+
+	private long numMatches = 0;
+
+	private long numCandidates = 0;
+
+	private long totalLookupTime = 0;
+
+	public LevelSnapshotIndex(final AStarRouteOptimizer optimizer) {
+		this.optimizer = optimizer;
+	}
+
+	public final int size() {
+		return snapshots.size();
+	}
+
+	public final long getNumLookups() {
+		return numLookups;
+	}
+
+	public final long getNumMatches() {
+		return numMatches;
+	}
+
+	public final long getNumCandidates() {
+		return numCandidates;
+	}
+
+	public final long getTotalLookupTime() {
+		return totalLookupTime;
+	}
+
+	public void clear() {
+		groups.clear();
+		snapshots.clear();
+	}
+
+	public HistoryEntry findEquivalent(final Route route) {
+		final long lookupTimeStart = System.nanoTime();
+		numLookups++;
+
+		final Game game = route.getFinalState();
+		final Player player = game.getPlayer();
+		final Group group = groups.get(new Key(game));
+		Snapshot best = null;
+		if (group != null) {
+			final long time = route.getTotalTime();
+			final long delay = getRemainingDelay(player, time);
+			if (delay > 0) {
+				// Only an identical delay is good enough.
+				best = findInBucket(route, group.buckets.get(delay), best);
+			} else {
+				// No delay left means any old delay is fine.
+				for (Bucket bucket : group.buckets.values()) {
+					best = findInBucket(route, bucket, best);
+				}
+			}
+		}
+
+		if (best != null) {
+			numMatches++;
+		}
+		totalLookupTime += System.nanoTime() - lookupTimeStart;
+		return (best == null) ? null : best.entry;
+	}
+
+	public void add(final HistoryEntry entry) {
+		// Only use the fingerprint so the snapshot can be released later.
+		final GameFingerprint fingerprint = entry.getFingerprint();
+		final Key key = new Key(fingerprint);
+		Group group = groups.get(key);
+		if (group == null) {
+			group = new Group(key, fingerprint.getRunSpeed());
+			groups.put(key, group);
+		}
+		final long delay = Math.max(0, fingerprint.getTransitionDelayEnd()
+				- entry.cumulativeTime);
+		Bucket bucket = group.buckets.get(delay);
+		if (bucket == null) {
+			bucket = new Bucket(group, delay);
+			group.buckets.put(delay, bucket);
+		}
+
+		final Snapshot snapshot = new Snapshot(entry, fingerprint.getX(),
+				entry.cumulativeTime, nextSequence++, bucket);
+		bucket.add(snapshot);
+		snapshots.put(entry, snapshot);
+	}
+
+	public boolean remove(final HistoryEntry entry) {
+		final Snapshot snapshot = snapshots.remove(entry);
+		if (snapshot == null) {
+			return false;
+		}
+
+		final Bucket bucket = snapshot.bucket;
+		final Group group = bucket.group;
+		bucket.remove(snapshot);
+		if (bucket.snapshots.isEmpty()) {
+			group.buckets.remove(bucket.delay);
+			if (group.buckets.isEmpty()) {
+				groups.remove(group.key);
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"Snapshot index: %d lookups, %d duplicates (%.1f%%), %.1f candidates/lookup, %.2f us/lookup",
+				numLookups, numMatches, (numLookups == 0) ? 0.0
+						: (100.0 * numMatches) / numLookups,
+				(numLookups == 0) ? 0.0 : ((double) numCandidates)
+						/ numLookups, (numLookups == 0) ? 0.0
+						: (totalLookupTime / 1e3) / numLookups);
+	}
+
+	private Snapshot findInBucket(final Route route, final Bucket bucket,
+			final Snapshot bestSoFar) {
+		if (bucket == null) {
+			return bestSoFar;
+		}
+
+		final Group group = bucket.group;
+		final long time = route.getTotalTime();
+		final int x = route.getFinalState().getPlayer().getPos().getX();
+
+		// Nothing farther away than the old player could have run in the
+		// biggest time difference in the bucket can possibly match.
+		final long maxTimeDelta = Math.max(Math.abs(time - bucket.minTime),
+				Math.abs(time - bucket.maxTime));
+		final long maxDistance = group.runSpeed * maxTimeDelta;
+		final List<Snapshot> sorted = bucket.snapshots;
+
+		Snapshot best = bestSoFar;
+		for (int i = bucket.lowerBound(x - maxDistance); i < sorted.size(); i++) {
+			final Snapshot snapshot = sorted.get(i);
+			if (snapshot.x > x + maxDistance) {
+				break;
+			}
+			if (((best != null) && (best.sequence < snapshot.sequence))
+					|| (Math.abs(x - snapshot.x) > group.runSpeed
+							* Math.abs(time - snapshot.time))) {
+				continue;
+			}
+
+			numCandidates++;
+			if (optimizer.isEquivalentHistoryEntry(route, snapshot.entry)) {
+				best = snapshot;
+			}
+		}
+		return best;
+	}
+
+	private static long getRemainingDelay(final Player player, final long time) {
+		return player.getTransitionDelayEnd() - time;
+	}
+
+	private static final class Key {
+		private final int completionCode;
+		private final int rngLow;
+		private final int rngHigh;
+		private final int roadIndex;
+		private final boolean yoshi;
+
+		public Key(final Game game) {
+			final Player player = game.getPlayer();
+			this.completionCode = player.getLevel().getCompletionCode();
+			this.rngLow = game.getSlotRng().getLow();
+			this.rngHigh = game.getSlotRng().getHigh();
+			this.roadIndex = player.getPos().getRoadIndex();
+			this.yoshi = player.hasYoshi();
+		}
+
+		public Key(final GameFingerprint fingerprint) {
+			this.completionCode = fingerprint.getCompletionCode();
+			this.rngLow = fingerprint.getRngLow();
+			this.rngHigh = fingerprint.getRngHigh();
+			this.roadIndex = fingerprint.getRoadIndex();
+			this.yoshi = fingerprint.hasYoshi();
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = completionCode;
+			hash = (hash * 31) + rngLow;
+			hash = (hash * 31) + rngHigh;
+			hash = (hash * 31) + roadIndex;
+			return (hash * 2) + (yoshi ? 1 : 0);
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			final Key key = (Key) obj;
+			return (completionCode == key.completionCode)
+					&& (rngLow == key.rngLow) && (rngHigh == key.rngHigh)
+					&& (roadIndex == key.roadIndex) && (yoshi == key.yoshi);
+		}
+	}
+
+	private static final class Group {
+		private final Key key;
+
+		// Everything in the group is on the same road with the same Yoshi
+		// status, so they all run at the same speed.
+		private final int runSpeed;
+
+		private final Map<Long, Bucket> buckets = new HashMap<>();
+
+		public Group(final Key key, final int runSpeed) {
+			this.key = key;
+			this.runSpeed = runSpeed;
+		}
+	}
+
+	private static final class Bucket {
+		private final Group group;
+
+		private final long delay;
+
+		private final List<Snapshot> snapshots = new ArrayList<>();
+
+		// These only ever widen, which is fine since they're just bounds.
+		private long minTime = Long.MAX_VALUE;
+
+		private long maxTime = Long.MIN_VALUE;
+
+		public Bucket(final Group group, final long delay) {
+			this.group = group;
+			this.delay = delay;
+		}
+
+		public void add(final Snapshot snapshot) {
+			snapshots.add(insertionPoint(snapshot), snapshot);
+			minTime = Math.min(minTime, snapshot.time);
+			maxTime = Math.max(maxTime, snapshot.time);
+		}
+
+		public void remove(final Snapshot snapshot) {
+			snapshots.remove(insertionPoint(snapshot));
+		}
+
+		public int lowerBound(final long x) {
+			int low = 0;
+			int high = snapshots.size();
+			while (low < high) {
+				final int mid = (low + high) >>> 1;
+				if (snapshots.get(mid).x < x) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+
+		private int insertionPoint(final Snapshot snapshot) {
+			int low = 0;
+			int high = snapshots.size();
+			while (low < high) {
+				final int mid = (low + high) >>> 1;
+				if (SNAPSHOT_ORDER.compare(snapshots.get(mid), snapshot) < 0) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+	}
+
+	private static final class Snapshot {
+		private final HistoryEntry entry;
+		private final int x;
+		private final long time;
+		private final long sequence;
+		private final Bucket bucket;
+
+		public Snapshot(final HistoryEntry entry, final int x, final long time,
+				final long sequence, final Bucket bucket) {
+			this.entry = entry;
+			this.x = x;
+			this.time = time;
+			this.sequence = sequence;
+			this.bucket = bucket;
+		}
+	}
+
+}
@@ -0,0 +1,251 @@
+package io.github.uusdfg.mim.strategy;
+
+import io.github.uusdfg.mim.action.Action;
+import io.github.uusdfg.mim.action.Route;
+import io.github.uusdfg.mim.action.Route.HistoryEntry;
+import io.github.uusdfg.mim.data.Game;
+import io.github.uusdfg.mim.data.Koopa;
+import io.github.uusdfg.mim.data.Level;
+import io.github.uusdfg.mim.data.Player;
+import io.github.uusdfg.mim.data.Position;
+import io.github.uusdfg.mim.rng.SlotRng;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Remembers how levels were solved so the outer search doesn't have to run A*
+// again every time it walks into a level in a state it has seen before. Once
+// the player enters a level, everything about the solution is determined by
+// the Koopas the level spawned, the RNG, the artifact the player has equipped
+// and how much of a stomp delay the player carried in from the castle. None
+// of the actions in a level touch the RNG, so the RNG coming out is the same
+// as the one going in.
+public class LevelSolutionCache {
+
+	public static final int DEFAULT_MAX_CACHED_ACTIONS = 1 << 20;
+
+	private final int maxCachedActions;
+
+	// Access-ordered so the eldest entry is always the least recently used.
+	private final LinkedHashMap<Key, Solution> solutions = new LinkedHashMap<>(
+			16, 0.75f, true);
+
+	private long numCachedActions = 0;
+
+	private long hits = 0;
+
+	private long misses = 0;
+
+	private long evictions = 0;
+
+	public LevelSolutionCache() {
+		this(DEFAULT_MAX_CACHED_ACTIONS);
+	}
+
+	public LevelSolutionCache(final int maxCachedActions) {
+		this.maxCachedActions = maxCachedActions;
+	}
+
+	public final int getMaxCachedActions() {
+		return maxCachedActions;
+	}
+
+	public final long getNumCachedActions() {
+		return numCachedActions;
+	}
+
+	public final int size() {
+		return solutions.size();
+	}
+
+	public final long getHits() {
+		return hits;
+	}
+
+	public final long getMisses() {
+		return misses;
+	}
+
+	public final long getEvictions() {
+		return evictions;
+	}
+
+	public void clear() {
+		solutions.clear();
+		numCachedActions = 0;
+	}
+
+	// Returns the given entry route extended with a cached solution for its
+	// level, or null if there isn't one.
+	public Route replay(final Route entryRoute) {
+		final Key key = new Key(entryRoute);
+		final Solution solution = solutions.get(key);
+		if (solution == null) {
+			misses++;
+			return null;
+		}
+
+		// Each action gets its own copy of the game so the history snapshots
+		// come out the same as they would from a real search.
+		Route route = entryRoute;
+		for (Action action : solution.actions) {
+			route = new Route(route);
+			route.performAction(action);
+		}
+
+		final SlotRng rng = route.getFinalState().getSlotRng();
+		if ((route.getTotalTime() - entryRoute.getTotalTime() != solution.time)
+				|| (rng.getLow() != solution.rngLow)
+				|| (rng.getHigh() != solution.rngHigh)) {
+			// This should never happen, but if it does, the key is missing
+			// something, and solving the level for real is the only safe
+			// thing to do.
+			System.err.printf("Cached solution for %s didn't replay right%n",
+					key);
+			remove(key);
+			misses++;
+			return null;
+		}
+
+		hits++;
+		return route;
+	}
+
+	public void put(final Route entryRoute, final Route solvedRoute) {
+		final List<HistoryEntry> history = solvedRoute.getHistory();
+		final int firstIndex = entryRoute.getHistorySize();
+		final List<Action> actions = new ArrayList<>(history.size()
+				- firstIndex);
+		for (int i = firstIndex; i < history.size(); i++) {
+			actions.add(history.get(i).action);
+		}
+		if (actions.size() > maxCachedActions) {
+			return;
+		}
+
+		final SlotRng rng = solvedRoute.getFinalState().getSlotRng();
+		final Solution solution = new Solution(
+				Collections.unmodifiableList(actions),
+				solvedRoute.getTotalTime() - entryRoute.getTotalTime(),
+				rng.getLow(), rng.getHigh());
+
+		final Key key = new Key(entryRoute);
+		remove(key);
+		solutions.put(key, solution);
+		numCachedActions += actions.size();
+
+		// Throw out the least recently used solutions until we fit again.
+		final Iterator<Map.Entry<Key, Solution>> it = solutions.entrySet()
+				.iterator();
+		while ((numCachedActions > maxCachedActions) && it.hasNext()) {
+			final Solution evicted = it.next().getValue();
+			it.remove();
+			numCachedActions -= evicted.actions.size();
+			evictions++;
+		}
+	}
+
+	private void remove(final Key key) {
+		final Solution old = solutions.remove(key);
+		if (old != null) {
+			numCachedActions -= old.actions.size();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"Level cache: %d hits, %d misses, %d evictions; %d solutions"
+						+ " (%d actions) cached", hits, misses, evictions,
+				solutions.size(), numCachedActions);
+	}
+
+	protected static final class Key {
+		private final int floorId;
+		private final int levelId;
+		private final int rngLow;
+		private final int rngHigh;
+		private final int currentArtifact;
+		private final long transitionDelay;
+		private final List<Position> koopaPositions;
+
+		public Key(final Route entryRoute) {
+			final Game game = entryRoute.getFinalState();
+			final Player player = game.getPlayer();
+			final Level level = player.getLevel();
+
+			this.floorId = player.getFloor();
+			this.levelId = level.getLevelId();
+			this.rngLow = game.getSlotRng().getLow();
+			this.rngHigh = game.getSlotRng().getHigh();
+			this.currentArtifact = player.getCurrentArtifact();
+
+			// Only the part of the stomp delay that hasn't run out yet
+			// matters.
+			this.transitionDelay = Math.max(0, player.getTransitionDelayEnd()
+					- entryRoute.getTotalTime());
+
+			// The RNG coming out of the spawn logic should pin down where
+			// the Koopas went, but it's cheap to make sure.
+			this.koopaPositions = new ArrayList<>(3);
+			for (Koopa koopa : level.getArtifactHolders()) {
+				koopaPositions.add(koopa.getCurrentPos());
+			}
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = floorId;
+			hash = (hash * 31) + levelId;
+			hash = (hash * 31) + rngLow;
+			hash = (hash * 31) + rngHigh;
+			hash = (hash * 31) + currentArtifact;
+			hash = (hash * 31) + (int) transitionDelay;
+			hash = (hash * 31) + koopaPositions.hashCode();
+			return hash;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj) {
+				return true;
+			} else if (!(obj instanceof Key)) {
+				return false;
+			} else {
+				final Key key = (Key) obj;
+				return (floorId == key.floorId) && (levelId == key.levelId)
+						&& (rngLow == key.rngLow) && (rngHigh == key.rngHigh)
+						&& (currentArtifact == key.currentArtifact)
+						&& (transitionDelay == key.transitionDelay)
+						&& koopaPositions.equals(key.koopaPositions);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d-%d (RNG %d-%d, holding %d, delay %d)",
+					floorId, levelId, rngLow, rngHigh, currentArtifact,
+					transitionDelay);
+		}
+	}
+
+	protected static final class Solution {
+		public final List<Action> actions;
+		public final long time;
+		public final int rngLow;
+		public final int rngHigh;
+
+		public Solution(final List<Action> actions, final long time,
+				final int rngLow, final int rngHigh) {
+			this.actions = actions;
+			this.time = time;
+			this.rngLow = rngLow;
+			this.rngHigh = rngHigh;
+		}
+	}
+
+}
@@ -0,0 +1,216 @@
+package io.github.uusdfg.mim.strategy;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Keeps an eye on the heap while a search runs, so running low on memory
+// makes the search cheaper instead of killing it with an OutOfMemoryError
+// hours in. Every so often it looks at how much of the heap was still in use
+// after the last GC, along with how many routes are queued, and steps the
+// search down to the next stage once usage crosses that stage's share of the
+// budget. It only ever steps down. Memory that a search has filled up once
+// will probably fill up again.
+//
+// The governor only decides and keeps track. It's up to the optimizer to
+// actually do something at each stage.
+//
+// Parallel searches sample from their worker threads, so sample() and the
+// logging are synchronized, and the stage and prune slack can be read from
+// anywhere. check()'s countdown isn't, so only one thread should call that.
+public class MemoryGovernor {
+
+	public static final int DEFAULT_SAMPLE_INTERVAL = 1000;
+
+	public static final long DEFAULT_PRUNE_SLACK = 600;
+
+	public static final long MIN_PRUNE_SLACK = 60;
+
+	private final long budget;
+
+	private final int sampleInterval;
+
+	private volatile Stage stage = Stage.NORMAL;
+
+	private int untilNextSample;
+
+	private volatile long pruneSlack = DEFAULT_PRUNE_SLACK;
+
+	private long samples = 0;
+
+	private long lastUsed = 0;
+
+	private long peakUsed = 0;
+
+	private long peakFrontier = 0;
+
+	private final List<String> decisions = new ArrayList<>();
+
+	public MemoryGovernor(final long budget) {
+		this(budget, DEFAULT_SAMPLE_INTERVAL);
+	}
+
+	public MemoryGovernor(final long budget, final int sampleInterval) {
+		if (budget <= 0) {
+			throw new IllegalArgumentException("Memory budget must be positive: "
+					+ budget);
+		}
+		if (sampleInterval < 1) {
+			throw new IllegalArgumentException(
+					"Sample interval must be at least 1: " + sampleInterval);
+		}
+		this.budget = budget;
+		this.sampleInterval = sampleInterval;
+		this.untilNextSample = sampleInterval;
+	}
+
+	public final long getBudget() {
+		return budget;
+	}
+
+	public final int getSampleInterval() {
+		return sampleInterval;
+	}
+
+	public final Stage getStage() {
+		return stage;
+	}
+
+	// How much worse than the best queued route a new route's estimate can
+	// be before it gets pruned, once we're in the PRUNE stage.
+	public final long getPruneSlack() {
+		return pruneSlack;
+	}
+
+	public final synchronized long getSamples() {
+		return samples;
+	}
+
+	public final synchronized long getLastUsed() {
+		return lastUsed;
+	}
+
+	public final synchronized long getPeakUsed() {
+		return peakUsed;
+	}
+
+	public final synchronized long getPeakFrontier() {
+		return peakFrontier;
+	}
+
+	public final synchronized List<String> getDecisions() {
+		return Collections.unmodifiableList(new ArrayList<>(decisions));
+	}
+
+	// Call this once per expanded route. Most calls just count down to the
+	// next sample. Returns the stage the search should be in now, which is
+	// never more than one stage further along than it was, so each stage gets
+	// a chance to help before the next one kicks in.
+	public Stage check(final long frontier) {
+		if (--untilNextSample > 0) {
+			return stage;
+		}
+		untilNextSample = sampleInterval;
+		return sample(frontier);
+	}
+
+	// Samples right away. Searches that count their own expansions (like
+	// the parallel one, where every worker expands routes) use this instead
+	// of check().
+	public synchronized Stage sample(final long frontier) {
+		samples++;
+		lastUsed = sampleUsedBytes();
+		peakUsed = Math.max(peakUsed, lastUsed);
+		peakFrontier = Math.max(peakFrontier, frontier);
+
+		final Stage next = stage.next();
+		if ((next != null) && (lastUsed >= next.getShare() * budget)) {
+			stage = next;
+			logDecision(String.format(
+					"%d KB used of %d KB with %d routes queued, going to %s",
+					lastUsed / 1024, budget / 1024, frontier, stage));
+		} else if ((stage == Stage.PRUNE) && (lastUsed >= budget)
+				&& (pruneSlack > MIN_PRUNE_SLACK)) {
+			// Pruning's as far as we can go, so keep making it stricter, up
+			// to a point. Too strict and nothing ever finishes a level.
+			pruneSlack = Math.max(MIN_PRUNE_SLACK, pruneSlack / 2);
+			logDecision(String.format(
+					"%d KB used of %d KB with %d routes queued, prune slack"
+							+ " down to %d", lastUsed / 1024, budget / 1024,
+					frontier, pruneSlack));
+		}
+		return stage;
+	}
+
+	// Lets the optimizer note what it did about a stage change next to the
+	// governor's own decisions.
+	public synchronized void logDecision(final String decision) {
+		decisions.add(decision);
+		System.err.println("Memory governor: " + decision);
+	}
+
+	// The heap usage after the last GC is the best guess at how much is
+	// actually live. Before the first GC there isn't one, so fall back to
+	// whatever's in use right now.
+	protected long sampleUsedBytes() {
+		long usedAfterGc = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				final MemoryUsage usage = pool.getCollectionUsage();
+				if (usage != null) {
+					usedAfterGc += usage.getUsed();
+				}
+			}
+		}
+		if (usedAfterGc > 0) {
+			return usedAfterGc;
+		}
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage()
+				.getUsed();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format(
+				"Memory governor: %s after %d samples; %d KB of %d KB used at"
+						+ " most, %d routes queued at most, %d decisions",
+				stage, samples, peakUsed / 1024, budget / 1024, peakFrontier,
+				decisions.size());
+	}
+
+	// In the order the search steps down through them. Each one kicks in once
+	// usage reaches its share of the budget.
+	public enum Stage {
+		// Leave the search alone.
+		NORMAL(0),
+		// Throw away most of the history snapshots.
+		COMPACT_HISTORY(0.5),
+		// Queued routes replay almost everything from far-apart checkpoints.
+		REPLAY(0.65),
+		// Queued routes go to disk.
+		SPILL(0.8),
+		// Give up on optimality and skip routes that look too slow.
+		PRUNE(0.9);
+
+		private final double share;
+
+		private Stage(final double share) {
+			this.share = share;
+		}
+
+		public double getShare() {
+			return share;
+		}
+
+		public Stage next() {
+			final Stage[] stages = values();
+			return (ordinal() + 1 < stages.length) ? stages[ordinal() + 1]
+					: null;
+		}
+	}
+
+}
@@ -26,17 +26,17 @@ public class NaturalOrderActionGenerator extends DefaultActionGenerator {
 
 		boolean allDun = true;
 		final List<Action> actions = new ArrayList<>();
-		if (isLevelCompleted(floor, 1)) {
+		if (isLevelCompleted(game, floor, 1)) {
 			for (int i = 2; i <= numLevels; i++) {
-				if (!isLevelCompleted(floor, i)) {
+				if (!isLevelCompleted(game, floor, i)) {
 					allDun = false;
 					actions.add(entranceMap.get(i));
 					break;
 				}
 			}
-		} else if (isLevelCompleted(floor, numLevels)) {
+		} else if (isLevelCompleted(game, floor, numLevels)) {
 			for (int i = numLevels - 1; i >= 1; i--) {
-				if (!isLevelCompleted(floor, i)) {
+				if (!isLevelCompleted(game, floor, i)) {
 					allDun = false;
 					actions.add(entranceMap.get(i));
 					break;
@@ -94,7 +94,8 @@ public class NaturalOrderActionGenerator extends DefaultActionGenerator {
 		return new TakeTransition(floorExitRoadIndex, floorExitTransitionIndex);
 	}
 
-	protected boolean isLevelCompleted(final Floor floor, final int index) {
-		return floor.getLevel(index).isCompleted();
+	protected boolean isLevelCompleted(final Game game, final Floor floor,
+			final int index) {
+		return game.isLevelCompleted(floor.getFloorId(), index);
 	}
 }
@@ -0,0 +1,234 @@
+package io.github.uusdfg.mim.strategy;
+
+import io.github.uusdfg.mim.action.Route;
+import io.github.uusdfg.mim.data.Game;
+import io.github.uusdfg.mim.data.GameRecord;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// A route queue that keeps the queued routes' games off the heap. Each game
+// gets written out as a GameRecord into direct byte buffers when its route is
+// queued, and the route lets go of it until it comes back out. The heap part
+// is just the priorities and record numbers in primitive arrays, plus the
+// routes themselves, which the history entries point at anyway. Iterating
+// over the queue hands out routes that still don't have their games. They'll
+// rebuild them from their histories if they have to.
+//
+// The ordering is the same DaryRouteHeap that IndexedRouteHeap uses, just
+// comparing the priorities it keeps instead of calling a comparator, so
+// routes come out in the same order they would from one of those with a
+// comparator on the priority, ties and all.
+//
+// XXX Every queued game has to share its floors with the first one that went
+// into the queue since it was last empty. That's always true within a
+// search.
+public class OffHeapRouteQueue extends DaryRouteHeap {
+
+	// 16k records of GameRecord.SIZE bytes each is a couple of MB per chunk.
+	private static final int RECORDS_PER_CHUNK = 1 << 14;
+
+	private final BucketRouteQueue.Priority priority;
+
+	private final List<ByteBuffer> chunks = new ArrayList<>();
+
+	// Heap order. Slot i holds the route with priority keys[i], whose game is
+	// in record records[i].
+	private long[] keys;
+
+	private int[] records;
+
+	// The same for the held route.
+	private long heldKey;
+
+	private int heldRecord;
+
+	// Records that have been freed up and can be written over.
+	private int[] freeRecords;
+
+	private int numFreeRecords = 0;
+
+	private int numRecords = 0;
+
+	private Game template = null;
+
+	private long bytesWritten = 0;
+
+	private long bytesRead = 0;
+
+	public OffHeapRouteQueue(final BucketRouteQueue.Priority priority) {
+		this(priority, IndexedRouteHeap.DEFAULT_ARITY);
+	}
+
+	public OffHeapRouteQueue(final BucketRouteQueue.Priority priority,
+			final int arity) {
+		super(arity);
+		this.priority = priority;
+		this.keys = new long[DEFAULT_CAPACITY];
+		this.records = new int[DEFAULT_CAPACITY];
+		this.freeRecords = new int[DEFAULT_CAPACITY];
+	}
+
+	public final long getOffHeapBytes() {
+		return ((long) chunks.size()) * RECORDS_PER_CHUNK * GameRecord.SIZE;
+	}
+
+	public final long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	public final long getBytesRead() {
+		return bytesRead;
+	}
+
+	@Override
+	public boolean offer(final Route route) {
+		checkNotQueued(route);
+		ensureCapacity();
+
+		// Work out the priority before the game goes away.
+		heldKey = priority.getPriority(route);
+		heldRecord = store(route);
+		held = route;
+		addHeld();
+		return true;
+	}
+
+	@Override
+	public Route poll() {
+		if (size == 0) {
+			return null;
+		}
+		final Route route = routes[0];
+		final int record = records[0];
+		removeAt(0);
+		route.restoreFinalState(load(record));
+		freeRecord(record);
+		return route;
+	}
+
+	@Override
+	public boolean remove(final Object obj) {
+		final int index = indexOf(obj);
+		if (index < 0) {
+			return false;
+		}
+		// Nobody's going to want this route's game back, so don't bother
+		// reading it. Its history can still rebuild it if they do.
+		final int record = records[index];
+		removeAt(index);
+		freeRecord(record);
+		return true;
+	}
+
+	// Works like IndexedRouteHeap.replace(). The new route's game goes into
+	// the old route's record.
+	public boolean replace(final Route oldRoute, final Route newRoute) {
+		final int index = indexOf(oldRoute);
+		if (index < 0) {
+			return false;
+		}
+		checkNotQueued(newRoute);
+
+		heldKey = priority.getPriority(newRoute);
+		heldRecord = records[index];
+		write(newRoute, heldRecord);
+		held = newRoute;
+		replaceWithHeld(index);
+		return true;
+	}
+
+	@Override
+	public void clear() {
+		super.clear();
+		numRecords = 0;
+		numFreeRecords = 0;
+		template = null;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"%d routes off-heap (%d KB allocated, %d KB written, %d KB read)",
+				size, getOffHeapBytes() / 1024, bytesWritten / 1024,
+				bytesRead / 1024);
+	}
+
+	private int store(final Route route) {
+		final int record;
+		if (numFreeRecords > 0) {
+			record = freeRecords[--numFreeRecords];
+		} else {
+			record = numRecords++;
+			if ((record / RECORDS_PER_CHUNK) == chunks.size()) {
+				chunks.add(ByteBuffer.allocateDirect(RECORDS_PER_CHUNK
+						* GameRecord.SIZE));
+			}
+		}
+		write(route, record);
+		return record;
+	}
+
+	private void write(final Route route, final int record) {
+		final Game game = route.getFinalState();
+		if (template == null) {
+			template = game;
+		}
+		GameRecord.write(game, chunks.get(record / RECORDS_PER_CHUNK),
+				(record % RECORDS_PER_CHUNK) * GameRecord.SIZE);
+		bytesWritten += GameRecord.SIZE;
+		route.releaseFinalState();
+	}
+
+	private Game load(final int record) {
+		bytesRead += GameRecord.SIZE;
+		return GameRecord.read(chunks.get(record / RECORDS_PER_CHUNK),
+				(record % RECORDS_PER_CHUNK) * GameRecord.SIZE, template);
+	}
+
+	private void freeRecord(final int record) {
+		if (numFreeRecords == freeRecords.length) {
+			freeRecords = Arrays.copyOf(freeRecords, freeRecords.length * 2);
+		}
+		freeRecords[numFreeRecords++] = record;
+	}
+
+	@Override
+	protected int compareHeld(final int slot) {
+		return (heldKey < keys[slot]) ? -1 : ((heldKey == keys[slot]) ? 0 : 1);
+	}
+
+	@Override
+	protected int compareSlots(final int slot1, final int slot2) {
+		final long key1 = keys[slot1];
+		final long key2 = keys[slot2];
+		return (key1 < key2) ? -1 : ((key1 == key2) ? 0 : 1);
+	}
+
+	@Override
+	protected void moveExtras(final int fromSlot, final int toSlot) {
+		keys[toSlot] = keys[fromSlot];
+		records[toSlot] = records[fromSlot];
+	}
+
+	@Override
+	protected void holdExtras(final int slot) {
+		heldKey = keys[slot];
+		heldRecord = records[slot];
+	}
+
+	@Override
+	protected void placeHeldExtras(final int slot) {
+		keys[slot] = heldKey;
+		records[slot] = heldRecord;
+	}
+
+	@Override
+	protected void resizeExtras(final int capacity) {
+		keys = Arrays.copyOf(keys, capacity);
+		records = Arrays.copyOf(records, capacity);
+	}
+
+}
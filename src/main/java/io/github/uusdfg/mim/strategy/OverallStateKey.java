@@ -0,0 +1,58 @@
+package io.github.uusdfg.mim.strategy;
+
+import io.github.uusdfg.mim.data.Game;
+import io.github.uusdfg.mim.data.Player;
+import io.github.uusdfg.mim.data.Position;
+
+// Identifies a state in the outer (castle-level) search: the RNG, which
+// levels are done, and where the player is. Everything gets packed into two
+// longs so hashing and comparing keys is cheap.
+public final class OverallStateKey {
+
+	private final long rng;
+
+	// Bits 0-15: completion mask
+	// Bits 16-23: floor
+	// Bits 24-31: level (0 in the castle)
+	// Bits 32-43: road
+	// Bits 44-62: x
+	// Bit 63: facing left
+	private final long state;
+
+	public OverallStateKey(final Game game) {
+		final Player player = game.getPlayer();
+		final Position pos = player.getPos();
+		final int levelId = player.isInCastle() ? 0 : player.getLevel()
+				.getLevelId();
+
+		this.rng = ((long) game.getSlotRng().getLow() << 32)
+				| (game.getSlotRng().getHigh() & 0xffffffffL);
+		this.state = (game.getCompletionMask() & 0xffffL)
+				| ((player.getFloor() & 0xffL) << 16)
+				| ((levelId & 0xffL) << 24)
+				| ((pos.getRoadIndex() & 0xfffL) << 32)
+				| ((pos.getX() & 0x7ffffL) << 44)
+				| ((pos.isFacingLeft() ? 1L : 0L) << 63);
+	}
+
+	@Override
+	public int hashCode() {
+		final long hash = (rng * 31) + state;
+		return (int) (hash ^ (hash >>> 32));
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+		if (!(obj instanceof OverallStateKey)) {
+			return false;
+		}
+		final OverallStateKey key = (OverallStateKey) obj;
+		return (rng == key.rng) && (state == key.state);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%016x:%016x", rng, state);
+	}
+
+}
@@ -0,0 +1,299 @@
+package io.github.uusdfg.mim.strategy;
+
+import io.github.uusdfg.mim.action.Route;
+import io.github.uusdfg.mim.data.Game;
+import io.github.uusdfg.mim.data.Player;
+
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Solves each level with hash-distributed A* (HDA*). Every worker owns the
+// part of the state space whose completion code, RNG and road hash to it, so
+// all of the routes that could possibly be duplicates of each other end up in
+// the same worker's queue and snapshot map. That keeps the duplicate pruning
+// exactly as strong as it is in the serial search without any locking.
+//
+// With a memory governor, the workers sample memory every so many expansions
+// between them, and once it's pruning, each worker prunes the steps it makes
+// against the route it just expanded, which is the best one in its own queue.
+// Switching to spilling queues only takes effect for the next level, since
+// each worker makes its queue when the level starts.
+//
+// Each worker keeps its own timing counters, which get added to the
+// superclass's totals once the level's done, the same as the expansion and
+// message counts.
+public class ParallelAStarRouteOptimizer extends AStarRouteOptimizer {
+
+	private static final long IDLE_POLL_MILLIS = 1;
+
+	private final int numWorkers;
+
+	private long totalMessagesSent = 0;
+
+	public ParallelAStarRouteOptimizer() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public ParallelAStarRouteOptimizer(final int numWorkers) {
+		this(new DefaultActionGenerator(), new SlightlyBetterHeuristic(),
+				numWorkers);
+	}
+
+	public ParallelAStarRouteOptimizer(final ActionGenerator actionGenerator,
+			final AStarHeuristic heuristic, final int numWorkers) {
+		super(actionGenerator, heuristic);
+
+		if (numWorkers < 1) {
+			throw new IllegalArgumentException("Need at least one worker, not "
+					+ numWorkers);
+		}
+		this.numWorkers = numWorkers;
+	}
+
+	public final int getNumWorkers() {
+		return numWorkers;
+	}
+
+	public final long getTotalMessagesSent() {
+		return totalMessagesSent;
+	}
+
+	@Override
+	protected Route searchLevelOnce(final Route baseRoute, final int floorId,
+			final int levelId) {
+		final LevelSearch search = new LevelSearch(floorId, levelId);
+		final Route completeRoute = search.run(baseRoute);
+
+		totalMessagesSent += search.messagesSent.get();
+		recordLevelAttempts(search.expansions.get());
+		return completeRoute;
+	}
+
+	protected int getOwner(final Route route, final int numOwners) {
+		// Everything findEquivalentHistoryEntry() compares has to go into the
+		// hash, or duplicates could land in different workers and never see
+		// each other.
+		final Game game = route.getFinalState();
+		final Player player = game.getPlayer();
+		int hash = player.getLevel().getCompletionCode();
+		hash = (hash * 31) + game.getSlotRng().hashCode();
+		hash = (hash * 31) + player.getPos().getRoadIndex();
+		hash ^= (hash >>> 16);
+		return (hash & Integer.MAX_VALUE) % numOwners;
+	}
+
+	protected final class LevelSearch {
+
+		private final int floorId;
+
+		private final int levelId;
+
+		private final Worker[] workers;
+
+		// The number of routes in flight between workers plus the number of
+		// workers that still have something to do. Once this hits zero, nobody
+		// can ever get more work, so we're done.
+		private final AtomicInteger activity;
+
+		private final AtomicReference<Route> bestRoute = new AtomicReference<>();
+
+		private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+		private final AtomicLong expansions = new AtomicLong();
+
+		private final AtomicLong messagesSent = new AtomicLong();
+
+		private volatile boolean finished = false;
+
+		public LevelSearch(final int floorId, final int levelId) {
+			this.floorId = floorId;
+			this.levelId = levelId;
+
+			this.workers = new Worker[numWorkers];
+			for (int i = 0; i < numWorkers; i++) {
+				workers[i] = new Worker();
+			}
+			this.activity = new AtomicInteger(numWorkers);
+		}
+
+		public Route run(final Route baseRoute) {
+			send(baseRoute);
+
+			final Thread[] threads = new Thread[numWorkers];
+			for (int i = 0; i < numWorkers; i++) {
+				threads[i] = new Thread(workers[i], String.format(
+						"level-%d-%d-worker-%d", floorId, levelId, i));
+				threads[i].setDaemon(true);
+				threads[i].start();
+			}
+
+			try {
+				for (Thread thread : threads) {
+					thread.join();
+				}
+				for (Worker worker : workers) {
+					addSearchTimes(worker.times);
+				}
+			} catch (final InterruptedException e) {
+				finished = true;
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while solving "
+						+ floorId + "-" + levelId, e);
+			}
+
+			final Throwable cause = failure.get();
+			if (cause != null) {
+				throw new IllegalStateException("Worker failed while solving "
+						+ floorId + "-" + levelId, cause);
+			}
+			return bestRoute.get();
+		}
+
+		private long getBestTime() {
+			final Route best = bestRoute.get();
+			return (best == null) ? Long.MAX_VALUE : best.getTotalTime();
+		}
+
+		private void offerSolution(final Route route) {
+			// Completed routes are already exact, so we can tighten the bound
+			// right away instead of waiting for them to come out of a queue.
+			while (true) {
+				final Route best = bestRoute.get();
+				if ((best != null)
+						&& (best.getTotalTime() <= route.getTotalTime())) {
+					return;
+				}
+				if (bestRoute.compareAndSet(best, route)) {
+					return;
+				}
+			}
+		}
+
+		// Only approximate, since the workers don't stop while we count.
+		private long getQueuedRoutes() {
+			long queued = 0;
+			for (Worker worker : workers) {
+				queued += worker.queuedRoutes;
+			}
+			return queued;
+		}
+
+		private void send(final Route route) {
+			// Count the route before it's visible to the receiver so the
+			// activity count can't drop to zero while it's in the mailbox.
+			activity.incrementAndGet();
+			messagesSent.incrementAndGet();
+			workers[getOwner(route, numWorkers)].inbox.add(route);
+		}
+
+		private void finish() {
+			finished = true;
+		}
+
+		private void fail(final Throwable cause) {
+			failure.compareAndSet(null, cause);
+			finished = true;
+		}
+
+		protected final class Worker implements Runnable {
+
+			private final BlockingQueue<Route> inbox = new LinkedBlockingQueue<>();
+
+			private final Queue<Route> openRoutes = createLevelRouteQueue();
+
+			private final LevelSnapshotIndex snapshots = createLevelSnapshotIndex();
+
+			private final SearchTimes times = new SearchTimes();
+
+			// So the other workers can see how big the queue is.
+			private volatile int queuedRoutes = 0;
+
+			public void run() {
+				useSearchTimes(times);
+				try {
+					work();
+				} catch (final Throwable t) {
+					fail(t);
+				} finally {
+					openRoutes.clear();
+					useSearchTimes(null);
+				}
+			}
+
+			private void work() throws InterruptedException {
+				while (!finished) {
+					Route message;
+					while ((message = inbox.poll()) != null) {
+						receive(message);
+					}
+
+					// Only expand routes that could still beat the best
+					// solution anybody has found. Once the best possible
+					// estimate in every queue is at least that good, the
+					// solution is optimal.
+					final Route route = openRoutes.peek();
+					if ((route != null)
+							&& (estimateInLevelTime(route) < getBestTime())) {
+						openRoutes.remove();
+						queuedRoutes = openRoutes.size();
+						expand(route);
+						continue;
+					}
+
+					// Otherwise, go idle until another worker sends us
+					// something or everybody else runs out of work too.
+					if (activity.decrementAndGet() == 0) {
+						finish();
+						return;
+					}
+					message = null;
+					while (!finished && (message == null)) {
+						message = inbox.poll(IDLE_POLL_MILLIS,
+								TimeUnit.MILLISECONDS);
+					}
+					if (message != null) {
+						activity.incrementAndGet();
+						receive(message);
+					}
+				}
+			}
+
+			private void receive(final Route route) {
+				addLevelStepToQueue(route, openRoutes, snapshots);
+				queuedRoutes = openRoutes.size();
+				activity.decrementAndGet();
+			}
+
+			private void expand(final Route route) {
+				final long expansion = expansions.incrementAndGet();
+				final MemoryGovernor governor = getMemoryGovernor();
+				if ((governor != null)
+						&& (expansion % governor.getSampleInterval() == 0)) {
+					sampleMemory(getQueuedRoutes());
+				}
+
+				// The route was the best one in our queue, so it's the
+				// frontier as far as pruning goes. The owners of the steps
+				// might have better ones, but this is close enough, and it
+				// saves sending the steps at all.
+				final long frontierEstimate = estimateInLevelTime(route);
+				for (Route step : getLevelSteps(route)) {
+					if (step.getFinalState().getPlayer().isInCastle()) {
+						// getLevelSteps() only lets the player leave once the
+						// level's done, so this is a solution.
+						offerSolution(step);
+					} else if (!pruneForMemory(step, frontierEstimate)) {
+						send(step);
+					}
+				}
+				compact(route);
+			}
+		}
+	}
+
+}
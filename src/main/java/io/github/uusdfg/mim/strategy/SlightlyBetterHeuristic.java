@@ -9,6 +9,7 @@ import io.github.uusdfg.mim.data.Exit;
 import io.github.uusdfg.mim.data.Floor;
 import io.github.uusdfg.mim.data.Game;
 import io.github.uusdfg.mim.data.Kiosk;
+import io.github.uusdfg.mim.data.Intercepts;
 import io.github.uusdfg.mim.data.Koopa;
 import io.github.uusdfg.mim.data.Level;
 import io.github.uusdfg.mim.data.Pipe;
@@ -61,7 +62,8 @@ public class SlightlyBetterHeuristic implements AStarHeuristic {
 			for (Level level : floor.getLevels()) {
 				final long minArtifactPenalty = ReturnArtifact
 						.getArtifactReturningTime(floor.getFloorId());
-				if (!level.isCompleted()) {
+				if (!game.isLevelCompleted(floor.getFloorId(),
+						level.getLevelId())) {
 					penalty += level.getKiosks().size() * minArtifactPenalty;
 					penalty += level.getArtifactHolders().size()
 							* STOMP_PENALTY;
@@ -257,21 +259,24 @@ public class SlightlyBetterHeuristic implements AStarHeuristic {
 	protected long getDistanceToTarget(final Object target, final Position pos) {
 		if (target instanceof Kiosk) {
 			final Kiosk kiosk = (Kiosk) target;
-			return kiosk.getActivePosNearestTo(pos).getXdistance(pos);
+			return getDistanceTo(kiosk, pos);
 		} else {
 			final Koopa koopa = (Koopa) target;
-			return koopa.getTimeToHitboxEntry(pos, 1);
+			return Intercepts.timeToHitboxEntry(pos, 1, koopa);
 		}
 	}
 
 	protected int getDistanceTo(final Transition transition,
 			final Position playerPos) {
-		return transition.getActivePosNearestTo(playerPos).getXdistance(
-				playerPos);
+		final int packed = playerPos.pack();
+		return Position.getXdistance(
+				transition.getActivePackedPosNearestTo(packed), packed);
 	}
 
 	protected int getDistanceTo(final Kiosk kiosk, final Position playerPos) {
-		return kiosk.getActivePosNearestTo(playerPos).getXdistance(playerPos);
+		final int packed = playerPos.pack();
+		return Position.getXdistance(kiosk.getActivePackedPosNearestTo(packed),
+				packed);
 	}
 
 	// TODO Make a graph of all of the transition start/end positions in each
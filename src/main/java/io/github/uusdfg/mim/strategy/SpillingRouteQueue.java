@@ -0,0 +1,541 @@
+package io.github.uusdfg.mim.strategy;
+
+import io.github.uusdfg.mim.action.Route;
+import io.github.uusdfg.mim.data.Game;
+import io.github.uusdfg.mim.data.GameRecord;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+// A bucket queue that writes its worst buckets out to disk when it holds too
+// many routes. Like BucketRouteQueue, there's one bucket per priority, and
+// routes with the same priority come out first in, first out. Unlike that
+// one, when more than maxRoutesInMemory routes are holding on to their games,
+// the buckets with the highest priorities get their games written out as
+// GameRecords and the routes let go of them. A bucket only gets read back in
+// once it's the best one left.
+//
+// Every spill writes one file, with a run for each bucket it spilled one
+// after the other. A run holds the bucket's games in the order the routes
+// were queued in, so reading a bucket back just reads its runs straight
+// through. Routes that were removed while they were on disk get skipped. A
+// file gets deleted once every bucket in it has been read back, or when the
+// queue's cleared, so clear() the queue when you're done with it.
+//
+// This doesn't look for duplicates at all. The optimizer's snapshot index
+// and closed set catch them before they're queued, and a faster duplicate
+// removes the slower one from the queue, so there's never more than one
+// route to a game in here.
+//
+// The routes themselves stay on the heap since their history entries point at
+// them anyway. It's the games that are big.
+public class SpillingRouteQueue extends AbstractQueue<Route> {
+
+	public static final int DEFAULT_MAX_ROUTES_IN_MEMORY = 1 << 16;
+
+	// Index into the bucket's spilled routes, then the game.
+	private static final int HEADER_SIZE = 4;
+
+	private static final int RECORD_SIZE = HEADER_SIZE + GameRecord.SIZE;
+
+	private static final int RECORDS_PER_IO = 1024;
+
+	private final BucketRouteQueue.Priority priority;
+
+	private final File directory;
+
+	private final int maxRoutesInMemory;
+
+	private final TreeMap<Long, Bucket> buckets = new TreeMap<>();
+
+	private Game template = null;
+
+	private int size = 0;
+
+	// Routes in the buckets' in-memory lists, including ones that have been
+	// removed but haven't been thrown out yet.
+	private int numInMemory = 0;
+
+	private int modCount = 0;
+
+	private long bytesSpilled = 0;
+
+	private long bytesRead = 0;
+
+	private long ioTime = 0;
+
+	private long runsWritten = 0;
+
+	private long filesWritten = 0;
+
+	// Files with runs that haven't been read back yet.
+	private final Set<RunFile> runFiles = new HashSet<>();
+
+	public SpillingRouteQueue(final BucketRouteQueue.Priority priority) {
+		this(priority, null, DEFAULT_MAX_ROUTES_IN_MEMORY);
+	}
+
+	// Pass a null directory to use the system's temporary directory.
+	public SpillingRouteQueue(final BucketRouteQueue.Priority priority,
+			final File directory, final int maxRoutesInMemory) {
+		if (maxRoutesInMemory < 1) {
+			throw new IllegalArgumentException(
+					"Have to keep at least one route in memory, not "
+							+ maxRoutesInMemory);
+		}
+		this.priority = priority;
+		this.directory = directory;
+		this.maxRoutesInMemory = maxRoutesInMemory;
+	}
+
+	public final int getMaxRoutesInMemory() {
+		return maxRoutesInMemory;
+	}
+
+	public final long getBytesSpilled() {
+		return bytesSpilled;
+	}
+
+	public final long getBytesRead() {
+		return bytesRead;
+	}
+
+	public final long getIoTime() {
+		return ioTime;
+	}
+
+	public final long getRunsWritten() {
+		return runsWritten;
+	}
+
+	public final long getFilesWritten() {
+		return filesWritten;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean offer(final Route route) {
+		if (route == null) {
+			throw new NullPointerException();
+		}
+		if (route.getQueueIndex() >= 0) {
+			throw new IllegalArgumentException("Route is already queued at "
+					+ route.getQueueIndex());
+		}
+
+		final long routePriority = priority.getPriority(route);
+		Bucket bucket = buckets.get(routePriority);
+		if (bucket == null) {
+			bucket = new Bucket();
+			buckets.put(routePriority, bucket);
+		}
+		if (template == null) {
+			template = route.getFinalState();
+		}
+		bucket.routes.addLast(route);
+		route.setQueueIndex(BucketRouteQueue.IN_BUCKET);
+		size++;
+		numInMemory++;
+		modCount++;
+
+		if (numInMemory > maxRoutesInMemory) {
+			spillColdBuckets();
+		}
+		return true;
+	}
+
+	@Override
+	public Route peek() {
+		final Bucket bucket = findMinBucket();
+		return (bucket == null) ? null : bucket.routes.peekFirst();
+	}
+
+	@Override
+	public Route poll() {
+		final Bucket bucket = findMinBucket();
+		if (bucket == null) {
+			return null;
+		}
+		final Route route = bucket.routes.pollFirst();
+		route.setQueueIndex(-1);
+		size--;
+		numInMemory--;
+		modCount++;
+		if (size == 0) {
+			// Don't leave runs full of removed routes lying around.
+			clear();
+		}
+		return route;
+	}
+
+	@Override
+	public boolean contains(final Object obj) {
+		return (obj instanceof Route)
+				&& (((Route) obj).getQueueIndex() == BucketRouteQueue.IN_BUCKET);
+	}
+
+	// Just marks the route as gone, same as BucketRouteQueue. If it's on disk,
+	// it gets skipped when its bucket is read back.
+	@Override
+	public boolean remove(final Object obj) {
+		if (!contains(obj)) {
+			return false;
+		}
+		((Route) obj).setQueueIndex(-1);
+		size--;
+		modCount++;
+		if (size == 0) {
+			clear();
+		}
+		return true;
+	}
+
+	@Override
+	public void clear() {
+		for (Bucket bucket : buckets.values()) {
+			for (Route route : bucket.routes) {
+				route.setQueueIndex(-1);
+			}
+			for (Route route : bucket.spilledRoutes) {
+				route.setQueueIndex(-1);
+			}
+		}
+		buckets.clear();
+		for (RunFile file : runFiles) {
+			file.file.delete();
+		}
+		runFiles.clear();
+		template = null;
+		size = 0;
+		numInMemory = 0;
+		modCount++;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"%d routes (%d in memory); spilled %d KB in %d runs (%d files),"
+						+ " read %d KB, %.2f s of I/O", size, numInMemory,
+				bytesSpilled / 1024, runsWritten, filesWritten,
+				bytesRead / 1024, ioTime / 1e9);
+	}
+
+	// Routes that are on disk come out of this without their games. They'll
+	// rebuild them from their histories if they have to.
+	@Override
+	public Iterator<Route> iterator() {
+		final List<Route> queued = new ArrayList<>(size);
+		for (Bucket bucket : buckets.values()) {
+			for (Route route : bucket.spilledRoutes) {
+				if (contains(route)) {
+					queued.add(route);
+				}
+			}
+			for (Route route : bucket.routes) {
+				if (contains(route)) {
+					queued.add(route);
+				}
+			}
+		}
+
+		final Iterator<Route> it = queued.iterator();
+		return new Iterator<Route>() {
+			private final int expectedModCount = modCount;
+
+			public boolean hasNext() {
+				return it.hasNext();
+			}
+
+			public Route next() {
+				if (expectedModCount != modCount) {
+					throw new ConcurrentModificationException();
+				}
+				return it.next();
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException(
+						"Remove routes from the queue directly");
+			}
+		};
+	}
+
+	private Bucket findMinBucket() {
+		while (!buckets.isEmpty()) {
+			final Map.Entry<Long, Bucket> entry = buckets.firstEntry();
+			final Bucket bucket = entry.getValue();
+			if (!bucket.runs.isEmpty()) {
+				readBack(bucket);
+			}
+
+			// Throw out anything that was removed on the way.
+			while (!bucket.routes.isEmpty()
+					&& !contains(bucket.routes.peekFirst())) {
+				bucket.routes.pollFirst();
+				numInMemory--;
+			}
+			if (!bucket.routes.isEmpty()) {
+				return bucket;
+			}
+			buckets.remove(entry.getKey());
+		}
+		return null;
+	}
+
+	private void spillColdBuckets() {
+		// Leave the best bucket alone since it's about to be used, and only
+		// spill down to half the limit so this doesn't happen on every add.
+		final Long bestKey = buckets.firstKey();
+		final List<Bucket> coldBuckets = new ArrayList<>();
+		int numToSpill = numInMemory;
+		for (Map.Entry<Long, Bucket> entry : buckets.descendingMap().entrySet()) {
+			if ((numToSpill <= maxRoutesInMemory / 2)
+					|| entry.getKey().equals(bestKey)) {
+				break;
+			}
+			coldBuckets.add(entry.getValue());
+			numToSpill -= entry.getValue().routes.size();
+		}
+		if (!coldBuckets.isEmpty()) {
+			spill(coldBuckets);
+		}
+	}
+
+	private void spill(final List<Bucket> coldBuckets) {
+		final long ioTimeStart = System.nanoTime();
+		final RunFile runFile = new RunFile();
+		try {
+			runFile.file = File.createTempFile("routes", ".run", directory);
+			runFiles.add(runFile);
+			try (RandomAccessFile out = new RandomAccessFile(runFile.file, "rw")) {
+				final FileChannel channel = out.getChannel();
+				final ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE
+						* RECORDS_PER_IO);
+				long offset = 0;
+				for (Bucket bucket : coldBuckets) {
+					final int numRecords = writeRecords(bucket, channel, buffer);
+					if (numRecords == 0) {
+						continue;
+					}
+					bucket.runs.add(new Run(runFile, offset, numRecords));
+					runFile.liveRuns++;
+					offset += ((long) numRecords) * RECORD_SIZE;
+					runsWritten++;
+				}
+				bytesSpilled += offset;
+			}
+		} catch (final IOException e) {
+			if (runFile.file != null) {
+				runFile.file.delete();
+			}
+			runFiles.remove(runFile);
+			throw new IllegalStateException("Couldn't spill routes to disk", e);
+		}
+		ioTime += System.nanoTime() - ioTimeStart;
+
+		if (runFile.liveRuns == 0) {
+			// Everything in the cold buckets had been removed already.
+			runFile.file.delete();
+			runFiles.remove(runFile);
+		} else {
+			filesWritten++;
+		}
+	}
+
+	// Moves the bucket's in-memory routes to its spilled routes and writes
+	// their records out as one run, through the I/O buffer. Returns how many
+	// records are in the run.
+	private int writeRecords(final Bucket bucket, final FileChannel channel,
+			final ByteBuffer buffer) throws IOException {
+		int numRecords = 0;
+		numInMemory -= bucket.routes.size();
+		for (Route route : bucket.routes) {
+			if (!contains(route)) {
+				continue;
+			}
+			if (buffer.remaining() < RECORD_SIZE) {
+				writeFully(channel, buffer);
+			}
+			final int offset = buffer.position();
+			buffer.putInt(offset, bucket.spilledRoutes.size());
+			GameRecord.write(route.getFinalState(), buffer, offset
+					+ HEADER_SIZE);
+			buffer.position(offset + RECORD_SIZE);
+			numRecords++;
+			bucket.spilledRoutes.add(route);
+			route.releaseFinalState();
+		}
+		bucket.routes.clear();
+		writeFully(channel, buffer);
+		return numRecords;
+	}
+
+	private void readBack(final Bucket bucket) {
+		// The spilled routes are in the order they were queued in, so keeping
+		// track of which ones are still queued is enough to put them back in
+		// order afterwards.
+		final long ioTimeStart = System.nanoTime();
+		final boolean[] survivors = new boolean[bucket.spilledRoutes.size()];
+		try {
+			for (Run run : bucket.runs) {
+				final RunReader reader = new RunReader(run);
+				try {
+					while (reader.advance()) {
+						final int index = reader.record.getInt(0);
+						final Route route = bucket.spilledRoutes.get(index);
+						if (contains(route)) {
+							route.restoreFinalState(GameRecord.read(
+									reader.record, HEADER_SIZE, template));
+							survivors[index] = true;
+						}
+					}
+				} finally {
+					reader.close();
+				}
+			}
+		} catch (final IOException e) {
+			throw new IllegalStateException("Couldn't read spilled routes back",
+					e);
+		} finally {
+			for (Run run : bucket.runs) {
+				if (--run.file.liveRuns == 0) {
+					run.file.file.delete();
+					runFiles.remove(run.file);
+				}
+			}
+			bucket.runs.clear();
+		}
+		ioTime += System.nanoTime() - ioTimeStart;
+
+		// Put everything back in the order it was queued in, ahead of anything
+		// that's been queued in this bucket since the last spill.
+		final ArrayDeque<Route> routes = new ArrayDeque<>(
+				bucket.spilledRoutes.size() + bucket.routes.size());
+		for (int i = 0; i < survivors.length; i++) {
+			if (survivors[i]) {
+				routes.addLast(bucket.spilledRoutes.get(i));
+				numInMemory++;
+			}
+		}
+		routes.addAll(bucket.routes);
+		bucket.routes = routes;
+		bucket.spilledRoutes.clear();
+		modCount++;
+	}
+
+	private static void writeFully(final FileChannel channel,
+			final ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	private final class RunReader {
+		private final File file;
+
+		private final RandomAccessFile in;
+
+		private final ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE
+				* RECORDS_PER_IO);
+
+		private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+
+		private long position;
+
+		private long remaining;
+
+		public RunReader(final Run run) throws IOException {
+			this.file = run.file.file;
+			this.in = new RandomAccessFile(file, "r");
+			this.position = run.offset;
+			this.remaining = ((long) run.numRecords) * RECORD_SIZE;
+			buffer.limit(0);
+		}
+
+		public boolean advance() throws IOException {
+			if (!buffer.hasRemaining()) {
+				if (remaining == 0) {
+					return false;
+				}
+				buffer.clear();
+				buffer.limit((int) Math.min(buffer.capacity(), remaining));
+				final FileChannel channel = in.getChannel();
+				while (buffer.hasRemaining()) {
+					final int numRead = channel.read(buffer, position);
+					if (numRead < 0) {
+						throw new IOException("Run ended early in " + file);
+					}
+					position += numRead;
+				}
+				buffer.flip();
+				remaining -= buffer.remaining();
+				bytesRead += buffer.remaining();
+			}
+			final ByteBuffer slice = buffer.duplicate();
+			slice.limit(buffer.position() + RECORD_SIZE);
+			record.clear();
+			record.put(slice);
+			buffer.position(buffer.position() + RECORD_SIZE);
+			return true;
+		}
+
+		public void close() {
+			try {
+				in.close();
+			} catch (final IOException e) {
+				// Whatever. We're done with it.
+			}
+		}
+	}
+
+	// A file with runs from one spill, which can go once they've all been
+	// read back.
+	private static final class RunFile {
+		private File file;
+
+		private int liveRuns = 0;
+	}
+
+	private static final class Run {
+		private final RunFile file;
+
+		private final long offset;
+
+		private final int numRecords;
+
+		public Run(final RunFile file, final long offset, final int numRecords) {
+			this.file = file;
+			this.offset = offset;
+			this.numRecords = numRecords;
+		}
+	}
+
+	private static final class Bucket {
+		private ArrayDeque<Route> routes = new ArrayDeque<>();
+
+		// Indexed by the numbers in the records in the runs.
+		private final List<Route> spilledRoutes = new ArrayList<>();
+
+		private final List<Run> runs = new ArrayList<>();
+	}
+
+}
@@ -0,0 +1,66 @@
+package io.github.uusdfg.mim.action;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link ActionCodes}.
+ */
+public class ActionCodesTest {
+
+	@Test
+	public void testRoundTrips() {
+		final List<Action> actions = new ArrayList<>();
+		actions.add(new GetYoshi());
+		actions.add(new PickUpArtifact(20));
+		actions.add(new PickUpMultipleArtifacts((1L << 20) | (1L << 18)));
+		actions.add(new ReturnArtifact(2));
+		actions.add(new TakeTransition(0, 0));
+		actions.add(new TakeTransition(4, 7));
+		actions.add(new TakeTransition(7, 4));
+		for (int flags = 0; flags < 4; flags++) {
+			final boolean running = (flags & 2) != 0;
+			final boolean landLeft = (flags & 1) != 0;
+			actions.add(new StompKoopa(19, running, landLeft));
+			actions.add(new StompMultipleKoopas((1L << 55) | (1L << 19),
+					running, landLeft));
+		}
+
+		final Set<Long> codes = new HashSet<>();
+		for (Action action : actions) {
+			final long code = action.getCode();
+			final Action decoded = ActionCodes.decode(code);
+			assertEquals("Decoded to a different kind of action",
+					action.getClass(), decoded.getClass());
+			assertEquals("Decoded to a different action", action.toString(),
+					decoded.toString());
+			assertEquals("Decoded action has a different code", code,
+					decoded.getCode());
+			codes.add(code);
+		}
+		assertEquals("Different actions share codes", actions.size(),
+				codes.size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsMasksThatDontFit() {
+		new StompMultipleKoopas((1L << 56) | (1L << 19), false, false);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsTransitionsThatDontFit() {
+		new TakeTransition(0, 1 << 16);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsUnknownOpcodes() {
+		ActionCodes.decode(0);
+	}
+
+}
@@ -0,0 +1,74 @@
+package io.github.uusdfg.mim.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for how a {@link Game} keeps track of which levels are completed.
+ */
+public class GameTest {
+
+	@Test
+	public void testAssignsCompletionBitsWhenFloorsAreAdded() {
+		final Game game = new Game();
+		game.addFloor(makeFloor(1, 3));
+		game.addFloor(makeFloor(2, 2));
+
+		int bit = 0;
+		for (Floor floor : game.getFloors()) {
+			for (Level level : floor.getLevels()) {
+				assertEquals("Wrong bit for " + floor.getFloorId() + "-"
+						+ level.getLevelId(), bit++, level.getCompletionBit());
+			}
+		}
+		assertEquals("Levels started out completed", 0,
+				game.getCompletionMask());
+	}
+
+	@Test
+	public void testCountsLevelsCompletedBeforeLoading() {
+		final Floor floor = makeFloor(1, 3);
+		floor.getLevel(2).setCompleted(true);
+		final Game game = new Game();
+		game.addFloor(floor);
+
+		assertEquals("Wrong completion mask", 1 << 1, game.getCompletionMask());
+		assertTrue("Completed level isn't", game.isLevelCompleted(1, 2));
+		assertFalse("Other level got completed", game.isLevelCompleted(1, 1));
+
+		final Game copy = new Game(game);
+		assertEquals("Copy lost the completion mask", game.getCompletionMask(),
+				copy.getCompletionMask());
+		assertTrue("Copy doesn't match", game.sameState(copy));
+	}
+
+	@Test
+	public void testExitingLevelUpdatesMask() {
+		final Game game = new Game();
+		game.addFloor(makeFloor(1, 3));
+		game.getPlayer().setFloor(1);
+
+		final Game copy = new Game(game);
+		copy.enterLevel(3).setCompleted(true);
+		copy.exitLevel();
+
+		assertEquals("Wrong completion mask", 1 << 2, copy.getCompletionMask());
+		assertEquals("Wrong number completed", 1, copy.getNumLevelsCompleted());
+		assertEquals("Original got completed", 0, game.getCompletionMask());
+		assertFalse("Template got completed", game.getLevel(1, 3)
+				.isCompleted());
+	}
+
+	private Floor makeFloor(final int floorId, final int numLevels) {
+		final Floor floor = new Floor(floorId, new Position(false,
+				Road.CASTLE_ROAD_ID, 1));
+		for (int levelId = 1; levelId <= numLevels; levelId++) {
+			floor.addLevel(new Level(levelId));
+		}
+		return floor;
+	}
+
+}
@@ -0,0 +1,71 @@
+package io.github.uusdfg.mim.data;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link InterceptCache}.
+ */
+public class InterceptCacheTest {
+
+	private static final long KOOPAS = (1L << 20) | (1L << 18);
+
+	private final Level level = new Level(1);
+
+	private final int playerPos = new Position(false, 0, 250).pack();
+
+	@Before
+	public void setUp() {
+		level.addRoad(new Road(level, 0, 500));
+		final Koopa koopa = new Koopa(20, new Position(false, 0, 100), level);
+		koopa.setRoad(level.getRoad(0));
+		koopa.setArtifactNumber(0);
+		level.addKoopa(koopa);
+	}
+
+	@Test
+	public void testRemembersIntercepts() {
+		final InterceptCache intercepts = new InterceptCache();
+		assertEquals("Found something never put in", InterceptCache.NO_ENTRY,
+				intercepts.find(level, KOOPAS, playerPos, 3));
+
+		intercepts.put(level, KOOPAS, playerPos, 3, 123, 45);
+		final int entry = intercepts.find(level, KOOPAS, playerPos, 3);
+		assertEquals("Wrong X", 123, intercepts.getX(entry));
+		assertEquals("Wrong time", 45, intercepts.getTime(entry));
+		assertEquals("Found it for a different speed",
+				InterceptCache.NO_ENTRY, intercepts.find(level, KOOPAS, playerPos, 2));
+		assertEquals("Found it for different Koopas", InterceptCache.NO_ENTRY,
+				intercepts.find(level, 1L << 20, playerPos, 3));
+	}
+
+	@Test
+	public void testForgetsWhenKoopasChange() {
+		final InterceptCache intercepts = new InterceptCache();
+		intercepts.put(level, KOOPAS, playerPos, 3, 123, 45);
+		level.advanceNpcs(0);
+		assertEquals("Forgot when nothing moved", 45,
+				intercepts.getTime(intercepts.find(level, KOOPAS, playerPos, 3)));
+
+		level.advanceNpcs(10);
+		assertEquals("Remembered after the Koopas moved",
+				InterceptCache.NO_ENTRY, intercepts.find(level, KOOPAS, playerPos, 3));
+
+		intercepts.put(level, KOOPAS, playerPos, 3, 123, 45);
+		level.getKoopa(20).setStatus(Koopa.Status.STOMPED);
+		assertEquals("Remembered after a stomp", InterceptCache.NO_ENTRY,
+				intercepts.find(level, KOOPAS, playerPos, 3));
+	}
+
+	@Test
+	public void testKeepsLevelsApart() {
+		final InterceptCache intercepts = new InterceptCache();
+		intercepts.put(level, KOOPAS, playerPos, 3, 123, 45);
+		assertEquals("Copy has the original's intercepts",
+				InterceptCache.NO_ENTRY, intercepts.find(new Level(level),
+						KOOPAS, playerPos, 3));
+	}
+
+}
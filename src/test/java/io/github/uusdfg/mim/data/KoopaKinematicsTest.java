@@ -0,0 +1,90 @@
+package io.github.uusdfg.mim.data;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link KoopaKinematics} and {@link Intercepts}.
+ */
+public class KoopaKinematicsTest {
+
+	@Test
+	public void testMatchesBouncingFrameByFrame() {
+		final KoopaKinematics kinematics = new KoopaKinematics(300);
+		for (boolean left : new boolean[] { false, true }) {
+			for (int x = KoopaKinematics.LEFT_X_MARGIN; x <= 300; x += 19) {
+				final Position start = new Position(left, 2, x);
+				Position expected = start;
+				for (int time = 1; time <= 3 * kinematics.getPeriod(); time++) {
+					expected = bounce(expected, 300);
+					assertEquals("Wrong position after " + time + " from "
+							+ start, expected, kinematics.move(start, time));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testPausesAtEnds() {
+		final KoopaKinematics kinematics = new KoopaKinematics(100);
+		assertEquals("Didn't turn around in place", new Position(true, 0, 100),
+				kinematics.move(new Position(false, 0, 100), 1));
+		assertEquals("Didn't turn around in place", new Position(false, 0,
+				KoopaKinematics.LEFT_X_MARGIN), kinematics.move(new Position(
+				true, 0, KoopaKinematics.LEFT_X_MARGIN), 1));
+	}
+
+	@Test
+	public void testLongWalksWrapAround() {
+		final KoopaKinematics kinematics = new KoopaKinematics(1000);
+		final Position start = new Position(true, 1, 400);
+		final long laps = 123456789L;
+		assertEquals("Whole laps should end up where they started", start,
+				kinematics.move(start, laps * kinematics.getPeriod()));
+		assertEquals("Wrong position after lots of laps",
+				kinematics.move(start, 77), kinematics.move(start, laps
+						* kinematics.getPeriod() + 77));
+	}
+
+	@Test
+	public void testCeilDivMatchesDoubles() {
+		final Random random = new Random(16);
+		for (int i = 0; i < 100000; i++) {
+			final long num = random.nextInt(4001) - 2000;
+			long den = random.nextInt(41) - 20;
+			if (den == 0) {
+				den = 1;
+			}
+			assertEquals("Wrong quotient for " + num + "/" + den,
+					(long) Math.ceil((double) num / den),
+					Intercepts.ceilDiv(num, den));
+		}
+	}
+
+	@Test
+	public void testMeetingTime() {
+		assertEquals("Wrong time for things walking at each other", 50,
+				Intercepts.meetingTime(100, -1, 0, 1));
+		assertEquals("Wrong time when it takes part of a frame", 34,
+				Intercepts.meetingTime(100, -2, 0, 1));
+		assertEquals("Parallel things should never meet", Intercepts.NEVER,
+				Intercepts.meetingTime(100, 1, 0, 1));
+	}
+
+	// One frame of what the game does.
+	private Position bounce(final Position pos, final int roadLength) {
+		final boolean left = pos.isFacingLeft();
+		final int x = pos.getX() + (left ? -1 : 1);
+		if (x < KoopaKinematics.LEFT_X_MARGIN) {
+			return new Position(false, pos.getRoadIndex(),
+					KoopaKinematics.LEFT_X_MARGIN);
+		} else if (x > roadLength) {
+			return new Position(true, pos.getRoadIndex(), roadLength);
+		}
+		return new Position(left, pos.getRoadIndex(), x);
+	}
+
+}
@@ -108,4 +108,54 @@ public class KoopaTest {
 				174, time);
 	}
 
+	@Test
+	public void testLevelClockMatchesAdvance() {
+		final Koopa lazyKoopa = new Koopa(1, new Position(true, 1, 100), level);
+		lazyKoopa.setRoad(road);
+		final Koopa eagerKoopa = new Koopa(2, new Position(true, 1, 100), null);
+		eagerKoopa.setRoad(road);
+
+		for (int time : new int[] { 1, 50, 85, 1000, 3, 2500 }) {
+			level.advanceNpcs(time);
+			eagerKoopa.advance(time);
+			assertEquals("Koopa ended up somewhere else after " + time,
+					eagerKoopa.getCurrentPos(), lazyKoopa.getCurrentPos());
+		}
+	}
+
+	@Test
+	public void testStompedKoopaStaysPut() {
+		final Koopa koopa = new Koopa(1, new Position(false, 1, 100), level);
+		koopa.setRoad(road);
+
+		level.advanceNpcs(50);
+		koopa.setStatus(Koopa.Status.STOMPED);
+		level.advanceNpcs(50);
+		assertEquals("Stomped Koopa moved", new Position(false, 1, 150),
+				koopa.getCurrentPos());
+
+		koopa.setStatus(Koopa.Status.ACTIVE);
+		level.advanceNpcs(10);
+		assertEquals("Koopa didn't start moving from where it was stomped",
+				new Position(false, 1, 160), koopa.getCurrentPos());
+	}
+
+	@Test
+	public void testCopiesMoveSeparately() {
+		final Koopa koopa = new Koopa(1, new Position(false, 1, 100), level);
+		koopa.setRoad(road);
+		level.advanceNpcs(20);
+
+		final Level copyLevel = new Level(level);
+		final Koopa copy = new Koopa(koopa, copyLevel);
+		assertEquals("Copy isn't where the original is",
+				koopa.getCurrentPos(), copy.getCurrentPos());
+
+		copyLevel.advanceNpcs(30);
+		assertEquals("Copy didn't move", new Position(false, 1, 150),
+				copy.getCurrentPos());
+		assertEquals("Original moved with the copy", new Position(false, 1,
+				120), koopa.getCurrentPos());
+	}
+
 }
@@ -0,0 +1,113 @@
+package io.github.uusdfg.mim.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for how a {@link Level} keeps track of its Koopas and kiosks.
+ */
+public class LevelTest {
+
+	private final Level level = new Level(1);
+
+	@Before
+	public void setUp() {
+		level.addRoad(new Road(level, 0, 500));
+		level.addRoad(new Road(level, 1, 500));
+		level.addKiosk(new Kiosk(0, new Position(false, 0, 300), level));
+		level.addKiosk(new Kiosk(1, new Position(false, 1, 300), level));
+		addKoopa(20, 0, new Position(false, 0, 100));
+		addKoopa(18, 1, new Position(true, 1, 200));
+	}
+
+	@Test
+	public void testFindsKoopas() {
+		final Koopa koopa = new Koopa(19, new Position(false, 1, 50), level);
+		koopa.setRoad(level.getRoad(1));
+		level.addKoopa(koopa);
+
+		assertSame("Added Koopa isn't the level's", koopa, level.getKoopa(19));
+		assertEquals("Wrong number of slots", 21, level.getKoopas().size());
+		assertNull("Made up a Koopa", level.getKoopas().get(0));
+		assertEquals("Wrong artifact holder", 18, level.getKoopaByArtifact(1)
+				.getId());
+		assertEquals("Wrong Koopas on road", 1, level.getKoopasOnRoad(1)
+				.size());
+		assertNull("Koopa on a road with none", level.getKoopasOnRoad(5));
+	}
+
+	@Test
+	public void testCopiesChangeSeparately() {
+		level.advanceNpcs(20);
+		final Level copy = new Level(level);
+		assertTrue("Copy doesn't match", level.sameState(copy));
+
+		copy.getKoopa(20).setStatus(Koopa.Status.STOMPED);
+		copy.getKiosk(1).setCompleted(true);
+		copy.advanceNpcs(30);
+
+		assertEquals("Original got stomped", Koopa.Status.ACTIVE, level
+				.getKoopa(20).getStatus());
+		assertFalse("Original kiosk got completed", level.getKiosk(1)
+				.isCompleted());
+		assertTrue("Copy kiosk didn't get completed", copy
+				.isArtifactReturned(1));
+		assertEquals("Stomped Koopa moved", new Position(false, 0, 120), copy
+				.getKoopa(20).getCurrentPos());
+		assertEquals("Copy moved the original", new Position(false, 0, 120),
+				level.getKoopa(20).getCurrentPos());
+		assertFalse("Copy still matches", level.sameState(copy));
+	}
+
+	@Test
+	public void testDetachedCopyKeepsItsOwnState() {
+		final Koopa koopa = level.getKoopa(18);
+		final Koopa detached = new Koopa(koopa, level);
+		detached.setStatus(Koopa.Status.CARRIED);
+		assertEquals("Detached copy changed the level", Koopa.Status.ACTIVE,
+				koopa.getStatus());
+		assertFalse("Artifact collected", level.isArtifactCollected(1));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testViewsDontChangeWhatsShared() {
+		level.getKoopa(20).setArtifactNumber(2);
+	}
+
+	@Test
+	public void testListsKoopaSubsetsOnRoad() {
+		addKoopa(3, 2, new Position(false, 1, 400));
+		addKoopa(19, 3, new Position(true, 1, 100));
+
+		// 19 & 18, 19 & 18 & 3, 19 & 3, 18 & 3.
+		final long[] expected = { (1L << 19) | (1L << 18),
+				(1L << 19) | (1L << 18) | (1L << 3), (1L << 19) | (1L << 3),
+				(1L << 18) | (1L << 3) };
+		final long[] subsets = level.getKoopaSubsetsOnRoad(1);
+		assertEquals("Wrong number of subsets", expected.length,
+				subsets.length);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals("Wrong subset " + i, Long.toBinaryString(expected[i]),
+					Long.toBinaryString(subsets[i]));
+		}
+		assertEquals("Subsets of one Koopa", 0,
+				level.getKoopaSubsetsOnRoad(0).length);
+		assertNull("Subsets on a road with none",
+				level.getKoopaSubsetsOnRoad(5));
+	}
+
+	private void addKoopa(final int id, final int artifactNumber,
+			final Position pos) {
+		final Koopa koopa = new Koopa(id, pos, level);
+		koopa.setRoad(level.getRoad(pos.getRoadIndex()));
+		koopa.setArtifactNumber(artifactNumber);
+		level.addKoopa(koopa);
+	}
+
+}
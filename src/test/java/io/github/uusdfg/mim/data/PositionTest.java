@@ -0,0 +1,70 @@
+package io.github.uusdfg.mim.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link Position}.
+ */
+public class PositionTest {
+
+	@Test
+	public void testPackingRoundTrips() {
+		final int[] roads = { 0, 7, Road.CASTLE_ROAD_ID,
+				Position.MAX_ROAD_INDEX };
+		final int[] xs = { 0, 1, -1, 15, -300, 4000, Position.MIN_X,
+				Position.MAX_X };
+		for (boolean left : new boolean[] { false, true }) {
+			for (int road : roads) {
+				for (int x : xs) {
+					final int packed = Position.pack(left, road, x);
+					assertEquals("Wrong facing", left,
+							Position.isFacingLeft(packed));
+					assertEquals("Wrong road", road,
+							Position.getRoadIndex(packed));
+					assertEquals("Wrong X", x, Position.getX(packed));
+					assertEquals("Object doesn't match", new Position(left,
+							road, x), Position.unpack(packed));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testPackedHelpersMatchObjects() {
+		final Position pos = new Position(false, 3, -20);
+		final int packed = pos.pack();
+		assertEquals("Wrong offset", pos.plusXOffset(35).pack(),
+				Position.plusXOffset(packed, 35));
+		assertEquals("Wrong flag", pos.withLeftFlag(true).pack(),
+				Position.withLeftFlag(packed, true));
+		assertEquals("Wrong X", pos.withX(9).pack(), Position.withX(packed, 9));
+		assertTrue("Should share a road",
+				Position.sharesRoad(packed, Position.pack(true, 3, 500)));
+		assertFalse("Shouldn't share a road",
+				Position.sharesRoad(packed, Position.pack(false, 4, -20)));
+		assertEquals("Wrong distance", 520,
+				Position.getXdistance(packed, Position.pack(true, 3, 500)));
+		assertEquals("Wrong string", pos.toString(), Position.toString(packed));
+	}
+
+	@Test
+	public void testNowhereIsNull() {
+		assertNull("Nowhere isn't null", Position.unpack(Position.NOWHERE));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsBigX() {
+		Position.pack(false, 0, Position.MAX_X + 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsBigRoad() {
+		new Position(false, Position.MAX_ROAD_INDEX + 1, 0);
+	}
+
+}
@@ -0,0 +1,111 @@
+package io.github.uusdfg.mim.data;
+
+import static org.junit.Assert.assertEquals;
+import io.github.uusdfg.mim.rng.SlotRng;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link SpawnCache}.
+ */
+public class SpawnCacheTest {
+
+	private final List<Position> npcSlots = new ArrayList<>();
+
+	public SpawnCacheTest() {
+		for (int roadId = 0; roadId < 6; roadId++) {
+			for (int i = 0; i < 5; i++) {
+				npcSlots.add(new Position(false, roadId, 40 + (i * 100)));
+			}
+		}
+	}
+
+	@Test
+	public void testMatchesSpawningOneAtATime() {
+		final SpawnCache cache = new SpawnCache(npcSlots);
+		for (int pass = 0; pass < 2; pass++) {
+			for (int seed = 1; seed < 2000; seed += 7) {
+				final SlotRng expectedRng = new SlotRng(seed, seed * 3);
+				final int[] expectedSlots = spawnOneAtATime(expectedRng);
+
+				final SlotRng rng = new SlotRng(seed, seed * 3);
+				final long spawnSlots = cache.spawn(rng);
+				assertEquals("Wrong RNG after spawning", expectedRng, rng);
+				for (int i = 0; i < expectedSlots.length; i++) {
+					assertEquals("Wrong slot for artifact " + i,
+							expectedSlots[i], SpawnCache.getSlot(spawnSlots, i));
+				}
+			}
+		}
+		assertEquals("Second pass didn't hit", cache.getMisses(),
+				cache.getHits());
+	}
+
+	@Test
+	public void testThreadsShareTheCache() throws InterruptedException {
+		final SpawnCache cache = new SpawnCache(npcSlots);
+		final AtomicInteger wrong = new AtomicInteger();
+		final List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					for (int seed = 1; seed < 3000; seed++) {
+						final SlotRng expectedRng = new SlotRng(seed, 77);
+						final int[] expectedSlots = spawnOneAtATime(expectedRng);
+						final SlotRng rng = new SlotRng(seed, 77);
+						final long spawnSlots = cache.spawn(rng);
+						if (!rng.equals(expectedRng)
+								|| (SpawnCache.getSlot(spawnSlots, 2) != expectedSlots[2])) {
+							wrong.incrementAndGet();
+						}
+					}
+				}
+			});
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals("Threads got the wrong spawns", 0, wrong.get());
+	}
+
+	// The way Level used to do it.
+	private int[] spawnOneAtATime(final SlotRng slotRng) {
+		final int numSlots = npcSlots.size();
+		final Set<Integer> occupiedIds = new HashSet<>();
+		final Set<Integer> occupiedRoads = new HashSet<>();
+		for (int i = 0; i < SpawnCache.NUM_NPCS; i++) {
+			int slot;
+			do {
+				slot = slotRng.advanceInLevel(numSlots).getSlot(numSlots);
+			} while (occupiedIds.contains(slot)
+					|| occupiedRoads.contains(npcSlots.get(slot)
+							.getRoadIndex()));
+			occupiedIds.add(slot);
+			occupiedRoads.add(npcSlots.get(slot).getRoadIndex());
+		}
+
+		final int[] slots = new int[SpawnCache.NUM_ARTIFACTS];
+		for (int i = 0; i < SpawnCache.NUM_USELESS_KOOPAS + slots.length; i++) {
+			int slot;
+			do {
+				slot = slotRng.advanceInLevel(numSlots).getSlot(numSlots);
+			} while (occupiedIds.contains(slot));
+			occupiedIds.add(slot);
+			if (i >= SpawnCache.NUM_USELESS_KOOPAS) {
+				slots[i - SpawnCache.NUM_USELESS_KOOPAS] = slot;
+			}
+		}
+		return slots;
+	}
+
+}
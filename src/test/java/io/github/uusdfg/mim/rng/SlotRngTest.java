@@ -0,0 +1,65 @@
+package io.github.uusdfg.mim.rng;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link SlotRng}.
+ */
+public class SlotRngTest {
+
+	private final Random random = new Random(1234);
+
+	@Test
+	public void testAdvanceAbsoluteMatchesSingleSteps() {
+		for (int numIterations : new int[] { 0, 1, 5, 8, 13, 63, 64, 65, 500,
+				70000 }) {
+			for (int i = 0; i < 20; i++) {
+				final SlotRng rng = randomRng();
+				final SlotRng expected = new SlotRng(rng);
+				for (int j = 0; j < numIterations; j++) {
+					expected.advance();
+				}
+				assertEquals("Wrong state after " + numIterations + " from "
+						+ rng, expected, rng.advanceAbsolute(numIterations));
+			}
+		}
+	}
+
+	@Test
+	public void testAdvanceInLevelMatchesSingleSteps() {
+		for (int numSlots : new int[] { 1, 2, 7, 8, 21, 40, 64, 100, 300 }) {
+			for (int i = 0; i < 50; i++) {
+				final SlotRng rng = randomRng();
+				final SlotRng expected = new SlotRng(rng);
+				final int numIterations = 32 - Integer
+						.numberOfLeadingZeros(numSlots);
+				do {
+					for (int j = 0; j < numIterations; j++) {
+						expected.advance();
+					}
+				} while (expected.getSlot(numSlots) >= numSlots);
+				assertEquals("Wrong state for " + numSlots + " slots from "
+						+ rng, expected, rng.advanceInLevel(numSlots));
+			}
+		}
+	}
+
+	@Test
+	public void testOversizedHalves() {
+		final SlotRng rng = new SlotRng(0x1c0de, 0x2beef);
+		final SlotRng expected = new SlotRng(rng);
+		for (int j = 0; j < 100; j++) {
+			expected.advance();
+		}
+		assertEquals("Wrong state", expected, rng.advanceAbsolute(100));
+	}
+
+	private SlotRng randomRng() {
+		return new SlotRng(random.nextInt(0x10000), random.nextInt(0x10000));
+	}
+
+}
@@ -1,6 +1,8 @@
 package io.github.uusdfg.mim.strategy;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import io.github.uusdfg.mim.action.Action;
 import io.github.uusdfg.mim.action.Route;
@@ -10,17 +12,21 @@ import io.github.uusdfg.mim.data.Entrance;
 import io.github.uusdfg.mim.data.Exit;
 import io.github.uusdfg.mim.data.Floor;
 import io.github.uusdfg.mim.data.Game;
+import io.github.uusdfg.mim.data.GameRecord;
+import io.github.uusdfg.mim.data.InterceptCache;
 import io.github.uusdfg.mim.data.Kiosk;
 import io.github.uusdfg.mim.data.Level;
 import io.github.uusdfg.mim.data.Player;
 import io.github.uusdfg.mim.data.Position;
 import io.github.uusdfg.mim.data.Road;
 import io.github.uusdfg.mim.data.Transition;
+import io.github.uusdfg.mim.data.UndoLog;
 import io.github.uusdfg.mim.data.loader.SaveStateLoader;
 
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Queue;
@@ -135,6 +141,166 @@ public class AStarRouteOptimizerTest {
 		}
 	}
 
+	/**
+	 * Verifies that throwing away queued routes' states and replaying them from
+	 * checkpoints doesn't change the route the optimizer finds, and that
+	 * compacted routes rebuild the same states they threw away.
+	 */
+	@Test
+	public void testCheckpointsDontChangeRoutes() {
+		final Route expected = new AStarRouteOptimizer().generate(
+				SyntheticGames.makeGame(3), 1).get(0);
+
+		for (int checkpointInterval : new int[] { 1, 3, 16 }) {
+			final AStarRouteOptimizer optimizer = new AStarRouteOptimizer()
+					.setCheckpointInterval(checkpointInterval);
+			final Route route = optimizer.generate(SyntheticGames.makeGame(3),
+					1).get(0);
+			assertEquals("Wrong route with checkpoints every "
+					+ checkpointInterval, expected.toString(), route.toString());
+		}
+
+		// Walk the same actions again, compacting as we go, and make sure
+		// every snapshot comes back the way it was.
+		final List<Route.HistoryEntry> history = expected.getHistory();
+		Route route = new Route(SyntheticGames.makeGame(3));
+		for (Route.HistoryEntry entry : history) {
+			route = new Route(route);
+			route.performAction(entry.action);
+			route.compact(4);
+		}
+		assertEquals("Compacted route doesn't match", expected.toString(),
+				route.toString());
+		final List<Route.HistoryEntry> compactedHistory = route.getHistory();
+		for (int i = 0; i < history.size(); i++) {
+			final Game expectedState = history.get(i).state;
+			final Route.HistoryEntry entry = compactedHistory.get(i);
+			assertEquals("Compacted snapshot " + i + " doesn't match",
+					expectedState.getPlayer().getPos(), entry.getState()
+							.getPlayer().getPos());
+			assertEquals("Wrong fingerprint for snapshot " + i, expectedState
+					.getPlayer().getTransitionDelayEnd(), entry
+					.getFingerprint().getTransitionDelayEnd());
+			assertTrue("Wrong RNG for snapshot " + i, entry.getFingerprint()
+					.sameRng(expectedState));
+		}
+	}
+
+	/**
+	 * Verifies that trying an action with {@link Route#performUndoably} and
+	 * taking it back leaves the route exactly the way it was, and that forking
+	 * the tried route gives the same thing as performing the action on a copy.
+	 */
+	@Test
+	public void testUndoingActionsRestoresState() {
+		final Route solution = new AStarRouteOptimizer().generate(
+				SyntheticGames.makeGame(3), 1).get(0);
+		final ActionGenerator actionGenerator = new DefaultActionGenerator();
+		final UndoLog undoLog = new UndoLog();
+
+		Route route = new Route(SyntheticGames.makeGame(3));
+		for (Route.HistoryEntry entry : solution.getHistory()) {
+			final Route working = new Route(route);
+			final byte[] before = getRecord(working.getFinalState());
+			for (Action action : actionGenerator.getPossibleActions(working
+					.getFinalState())) {
+				final Route expected = new Route(route);
+				expected.performAction(action);
+
+				working.performUndoably(action, undoLog);
+				final Route forked = working.fork();
+				working.undoAction(undoLog);
+
+				assertEquals("Wrong time after " + action,
+						expected.getTotalTime(), forked.getTotalTime());
+				assertArrayEquals("Wrong state after " + action,
+						getRecord(expected.getFinalState()),
+						getRecord(forked.getFinalState()));
+				assertSame("Forked route shares the working state", forked,
+						forked.getLastEntry().backReference);
+
+				assertEquals("Undoing " + action + " didn't restore the time",
+						route.getTotalTime(), working.getTotalTime());
+				assertSame("Undoing " + action + " didn't restore history",
+						route.getLastEntry(), working.getLastEntry());
+				assertArrayEquals("Undoing " + action
+						+ " didn't restore the state", before,
+						getRecord(working.getFinalState()));
+			}
+
+			route = new Route(route);
+			route.performAction(entry.action);
+		}
+	}
+
+	/**
+	 * Verifies that the stomp variants tried on one working copy share their
+	 * intercepts, and still come out the same as stomping on a fresh copy.
+	 */
+	@Test
+	public void testStompsShareIntercepts() {
+		final Route solution = new AStarRouteOptimizer().generate(
+				SyntheticGames.makeGame(3), 1).get(0);
+		final ActionGenerator actionGenerator = new DefaultActionGenerator();
+		final UndoLog undoLog = new UndoLog();
+		final long hitsBefore = InterceptCache.get().getHits();
+
+		Route route = new Route(SyntheticGames.makeGame(3));
+		for (Route.HistoryEntry entry : solution.getHistory()) {
+			// Everything on the working copy first, the way the search does
+			// it, since the fresh copies push its intercepts out.
+			final Route working = new Route(route);
+			final List<Action> actions = new ArrayList<>(
+					actionGenerator.getPossibleActions(working.getFinalState()));
+			final List<Route> steps = new ArrayList<>();
+			for (Action action : actions) {
+				working.performUndoably(action, undoLog);
+				steps.add(working.fork());
+				working.undoAction(undoLog);
+			}
+
+			for (int i = 0; i < actions.size(); i++) {
+				final Route expected = new Route(route);
+				expected.performAction(actions.get(i));
+				assertEquals("Wrong time after " + actions.get(i),
+						expected.getTotalTime(), steps.get(i).getTotalTime());
+				assertArrayEquals("Wrong state after " + actions.get(i),
+						getRecord(expected.getFinalState()),
+						getRecord(steps.get(i).getFinalState()));
+			}
+
+			route = new Route(route);
+			route.performAction(entry.action);
+		}
+		assertTrue("Stomps never shared an intercept", InterceptCache.get()
+				.getHits() > hitsBefore);
+	}
+
+	@Test
+	public void testReplaysFromActionCodes() {
+		final Game game = SyntheticGames.makeGame(3);
+		final Route solution = new AStarRouteOptimizer().generate(game, 1)
+				.get(0);
+		final byte[] initialRecord = getRecord(game);
+
+		final Route replayed = Route.replay(game, solution.getActionCodes());
+		assertEquals("Wrong time", solution.getTotalTime(),
+				replayed.getTotalTime());
+		assertEquals("Wrong history", solution.getHistory().toString(),
+				replayed.getHistory().toString());
+		assertArrayEquals("Wrong final state",
+				getRecord(solution.getFinalState()),
+				getRecord(replayed.getFinalState()));
+		assertArrayEquals("Replaying changed the initial state",
+				initialRecord, getRecord(game));
+	}
+
+	private byte[] getRecord(final Game game) {
+		final ByteBuffer buffer = ByteBuffer.allocate(GameRecord.SIZE);
+		GameRecord.write(game, buffer, 0);
+		return buffer.array();
+	}
+
 	protected Level loadLevelFromResource(final int id, final String name)
 			throws IOException {
 		final BufferedInputStream levelStream = new BufferedInputStream(
@@ -154,8 +320,8 @@ public class AStarRouteOptimizerTest {
 
 		final Floor floor = new Floor(floorId, new Position(false,
 				Road.CASTLE_ROAD_ID, 1));
-		game.addFloor(floor);
 		floor.addLevel(level);
+		game.addFloor(floor);
 
 		final Road castleRoad = new Road(null, Road.CASTLE_ROAD_ID,
 				Floor.DEFAULT_CASTLE_ROAD_WIDTH);
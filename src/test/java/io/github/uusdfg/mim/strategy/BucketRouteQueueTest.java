@@ -0,0 +1,159 @@
+package io.github.uusdfg.mim.strategy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import io.github.uusdfg.mim.action.Route;
+import io.github.uusdfg.mim.data.Game;
+import io.github.uusdfg.mim.strategy.AStarRouteOptimizer.QueueType;
+import io.github.uusdfg.mim.strategy.BucketRouteQueue.TieBreak;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link BucketRouteQueue}.
+ */
+public class BucketRouteQueueTest {
+
+	private final Game game = new Game();
+
+	private final Map<Route, Long> keys = new IdentityHashMap<>();
+
+	private final BucketRouteQueue.Priority priority = new BucketRouteQueue.Priority() {
+		public long getPriority(final Route route) {
+			return keys.get(route);
+		}
+	};
+
+	@Test
+	public void testRandomOperations() {
+		for (TieBreak tieBreak : TieBreak.values()) {
+			checkRandomOperations(tieBreak, 500);
+		}
+	}
+
+	@Test
+	public void testTieBreak() {
+		final BucketRouteQueue fifo = new BucketRouteQueue(priority,
+				TieBreak.FIFO);
+		final BucketRouteQueue lifo = new BucketRouteQueue(priority,
+				TieBreak.LIFO);
+		final Route first = makeRoute(10);
+		final Route second = makeRoute(10);
+		fifo.add(first);
+		fifo.add(second);
+		assertTrue("FIFO queue broke the tie wrong", fifo.poll() == first);
+		fifo.clear();
+		lifo.add(first);
+		lifo.add(second);
+		assertTrue("LIFO queue broke the tie wrong", lifo.poll() == second);
+	}
+
+	@Test
+	public void testRemoveAndIterate() {
+		final BucketRouteQueue queue = new BucketRouteQueue(priority);
+		final List<Route> routes = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			final Route route = makeRoute(5000 - (i * 700));
+			routes.add(route);
+			queue.add(route);
+		}
+		assertTrue("Couldn't remove a queued route",
+				queue.remove(routes.get(3)));
+		assertFalse("Removed a route twice", queue.remove(routes.get(3)));
+
+		int count = 0;
+		for (Route route : queue) {
+			assertTrue("Iterated over a removed route", route != routes.get(3));
+			count++;
+		}
+		assertEquals("Wrong number of routes iterated", 9, count);
+		assertTrue("Wrong best route", queue.peek() == routes.get(9));
+	}
+
+	@Test
+	public void testOptimizerMatchesHeap() {
+		final long heapTime = generateOne(new AStarRouteOptimizer());
+		for (TieBreak tieBreak : TieBreak.values()) {
+			final AStarRouteOptimizer optimizer = new AStarRouteOptimizer()
+					.setQueueType(QueueType.BUCKET).setTieBreak(tieBreak);
+			assertEquals("Wrong route time with " + tieBreak + " buckets",
+					heapTime, generateOne(optimizer));
+		}
+	}
+
+	private void checkRandomOperations(final TieBreak tieBreak,
+			final int maxKey) {
+		final Random random = new Random(tieBreak.ordinal());
+		final BucketRouteQueue queue = new BucketRouteQueue(priority, tieBreak);
+		final List<Route> queued = new ArrayList<>();
+
+		long cursor = 100000;
+		for (int op = 0; op < 20000; op++) {
+			final int choice = random.nextInt(10);
+			if ((choice < 5) || queued.isEmpty()) {
+				// Mostly add routes near the last one taken out, but make
+				// sure some land way below it too.
+				final long key = (random.nextInt(20) == 0) ? cursor
+						- random.nextInt(5 * maxKey) : cursor
+						+ random.nextInt(maxKey);
+				final Route route = makeRoute(key);
+				queue.add(route);
+				queued.add(route);
+			} else if (choice < 8) {
+				final long expected = findMinKey(queued);
+				final Route polled = queue.poll();
+				assertEquals("Polled the wrong key", expected,
+						(long) keys.get(polled));
+				assertTrue("Polled route wasn't queued", queued.remove(polled));
+				cursor = expected;
+			} else {
+				final Route route = queued.remove(random.nextInt(queued
+						.size()));
+				assertTrue("Couldn't remove a queued route",
+						queue.remove(route));
+			}
+			assertEquals("Wrong size", queued.size(), queue.size());
+		}
+
+		while (!queued.isEmpty()) {
+			final long expected = findMinKey(queued);
+			final Route polled = queue.poll();
+			assertEquals("Polled the wrong key", expected,
+					(long) keys.get(polled));
+			queued.remove(polled);
+		}
+		assertTrue("Queue not empty", queue.isEmpty());
+		assertEquals("Empty queue returned a route", null, queue.poll());
+	}
+
+	private long findMinKey(final List<Route> routes) {
+		long min = Long.MAX_VALUE;
+		for (Route route : routes) {
+			min = Math.min(min, keys.get(route));
+		}
+		return min;
+	}
+
+	private long generateOne(final AStarRouteOptimizer optimizer) {
+		final List<Route> routes = optimizer.generate(
+				SyntheticGames.makeGame(3), 1);
+		assertEquals("Wrong number of routes", 1, routes.size());
+		assertTrue("Route didn't finish the game", routes.get(0)
+				.getFinalState().isCompleted());
+		return routes.get(0).getTotalTime();
+	}
+
+	private Route makeRoute(final long key) {
+		final Route route = new Route(game);
+		keys.put(route, key);
+		return route;
+	}
+
+}
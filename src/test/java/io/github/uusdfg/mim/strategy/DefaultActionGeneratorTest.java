@@ -0,0 +1,162 @@
+package io.github.uusdfg.mim.strategy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import io.github.uusdfg.mim.action.Action;
+import io.github.uusdfg.mim.action.GetYoshi;
+import io.github.uusdfg.mim.action.PickUpArtifact;
+import io.github.uusdfg.mim.action.PickUpMultipleArtifacts;
+import io.github.uusdfg.mim.action.ReturnArtifact;
+import io.github.uusdfg.mim.action.Route;
+import io.github.uusdfg.mim.action.StompKoopa;
+import io.github.uusdfg.mim.action.StompMultipleKoopas;
+import io.github.uusdfg.mim.action.TakeTransition;
+import io.github.uusdfg.mim.data.Game;
+import io.github.uusdfg.mim.data.Kiosk;
+import io.github.uusdfg.mim.data.Koopa;
+import io.github.uusdfg.mim.data.Level;
+import io.github.uusdfg.mim.data.Player;
+import io.github.uusdfg.mim.data.Road;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link DefaultActionGenerator}.
+ */
+public class DefaultActionGeneratorTest {
+
+	private final DefaultActionGenerator generator = new DefaultActionGenerator();
+
+	/**
+	 * Verifies that the shared action tables come up with the same actions, in
+	 * the same order, as trying every action there is, for every state along a
+	 * solution and every state one step off of it.
+	 */
+	@Test
+	public void testMatchesTryingEverything() {
+		final Route solution = new AStarRouteOptimizer().generate(
+				SyntheticGames.makeGame(3), 1).get(0);
+
+		Route route = new Route(SyntheticGames.makeGame(3));
+		for (Route.HistoryEntry entry : solution.getHistory()) {
+			for (Action action : generator.getPossibleActions(route
+					.getFinalState())) {
+				final Route step = new Route(route);
+				step.performAction(action);
+				checkActions(step.getFinalState());
+			}
+			checkActions(route.getFinalState());
+
+			route = new Route(route);
+			route.performAction(entry.action);
+		}
+	}
+
+	@Test
+	public void testSharesActions() {
+		final Game game = SyntheticGames.makeGame(1);
+		final Route route = new Route(game);
+		route.performAction(generator.getPossibleActions(game).iterator()
+				.next());
+		final Game inLevel = route.getFinalState();
+		assertNotNull("Didn't get into a level", inLevel.getPlayer()
+				.getLevel());
+
+		final List<Action> first = new ArrayList<>(
+				generator.getPossibleActions(inLevel));
+		final List<Action> second = new ArrayList<>(
+				generator.getPossibleActions(new Game(inLevel)));
+		assertEquals("Different actions for the same state", first.size(),
+				second.size());
+		for (int i = 0; i < first.size(); i++) {
+			assertSame("Action " + i + " isn't shared", first.get(i),
+					second.get(i));
+		}
+	}
+
+	private void checkActions(final Game game) {
+		assertEquals("Wrong actions for " + game.getPlayer(),
+				tryEverything(game).toString(), generator.getPossibleActions(
+						game).toString());
+	}
+
+	// The way the generator used to do it.
+	private List<Action> tryEverything(final Game game) {
+		final List<Action> candidates = new ArrayList<>();
+		final Player player = game.getPlayer();
+		final Level level = player.getLevel();
+		final Road road;
+		if (level == null) {
+			road = game.getFloor(player.getFloor()).getCastleRoad();
+		} else {
+			road = level.getRoad(player.getRoadIndex());
+			for (Kiosk kiosk : level.getKiosks()) {
+				candidates.add(new ReturnArtifact(kiosk.getArtifactId()));
+			}
+			for (Koopa koopa : level.getKoopas()) {
+				if (koopa != null) {
+					final int koopaId = koopa.getId();
+					candidates.add(new PickUpArtifact(koopaId));
+					candidates.add(new StompKoopa(koopaId, false, false));
+					candidates.add(new StompKoopa(koopaId, false, true));
+					candidates.add(new StompKoopa(koopaId, true, false));
+					candidates.add(new StompKoopa(koopaId, true, true));
+				}
+			}
+			final Collection<Koopa> koopasOnRoad = level.getKoopasOnRoad(player
+					.getRoadIndex());
+			if (koopasOnRoad != null) {
+				final List<Koopa> highestIdFirst = new ArrayList<>(koopasOnRoad);
+				Collections.sort(highestIdFirst, new Comparator<Koopa>() {
+					@Override
+					public int compare(final Koopa k1, final Koopa k2) {
+						return Integer.compare(k2.getId(), k1.getId());
+					}
+				});
+				addMultiKoopaCandidates(0L, highestIdFirst, candidates);
+			}
+		}
+		for (int i = 0; i < road.getTransitions().size(); i++) {
+			candidates.add(new TakeTransition(road.getRoadId(), i));
+		}
+		if (level != null) {
+			candidates.add(new GetYoshi());
+		}
+
+		final List<Action> actions = new ArrayList<>();
+		for (Action action : candidates) {
+			if (action.checkIfPossible(game)) {
+				actions.add(action);
+			}
+		}
+		return actions;
+	}
+
+	private void addMultiKoopaCandidates(final long selection,
+			final List<Koopa> remaining, final List<Action> outCandidates) {
+		for (int i = 0; i < remaining.size(); i++) {
+			final long koopaMask = selection | (1L << remaining.get(i).getId());
+			if (Long.bitCount(koopaMask) > 1) {
+				outCandidates.add(new PickUpMultipleArtifacts(koopaMask));
+				outCandidates.add(new StompMultipleKoopas(koopaMask, false,
+						false));
+				outCandidates.add(new StompMultipleKoopas(koopaMask, false,
+						true));
+				outCandidates.add(new StompMultipleKoopas(koopaMask, true,
+						false));
+				outCandidates
+						.add(new StompMultipleKoopas(koopaMask, true, true));
+			}
+			addMultiKoopaCandidates(koopaMask,
+					remaining.subList(i + 1, remaining.size()), outCandidates);
+		}
+	}
+
+}
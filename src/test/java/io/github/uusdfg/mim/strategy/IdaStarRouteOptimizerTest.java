@@ -0,0 +1,49 @@
+package io.github.uusdfg.mim.strategy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import io.github.uusdfg.mim.action.Route;
+import io.github.uusdfg.mim.data.Game;
+
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link IdaStarRouteOptimizer}.
+ */
+public class IdaStarRouteOptimizerTest {
+
+	@Test
+	public void testMatchesAStarTime() {
+		final long expected = generateOne(new AStarRouteOptimizer())
+				.getTotalTime();
+		final IdaStarRouteOptimizer optimizer = new IdaStarRouteOptimizer();
+		assertEquals("IDA* found a slower route", expected,
+				generateOne(optimizer).getTotalTime());
+		assertTrue("Didn't expand anything",
+				optimizer.getTotalExpansions() > 0);
+	}
+
+	@Test
+	public void testFullTableStillOptimal() {
+		// The table fills up long before the level's done, so this is mostly
+		// running on plain IDA*.
+		final long expected = generateOne(new AStarRouteOptimizer())
+				.getTotalTime();
+		final IdaStarRouteOptimizer optimizer = new IdaStarRouteOptimizer(
+				20000);
+		assertEquals("IDA* found a slower route", expected,
+				generateOne(optimizer).getTotalTime());
+		assertEquals("Table grew past its limit", 20000,
+				optimizer.getPeakTableEntries());
+	}
+
+	private Route generateOne(final AStarRouteOptimizer optimizer) {
+		final Game game = SyntheticGames.makeGame(1);
+		final List<Route> routes = optimizer.generate(game, 1);
+		assertEquals("Wrong number of routes", 1, routes.size());
+		return routes.get(0);
+	}
+
+}
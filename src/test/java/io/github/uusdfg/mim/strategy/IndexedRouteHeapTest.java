@@ -0,0 +1,136 @@
+package io.github.uusdfg.mim.strategy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import io.github.uusdfg.mim.action.Route;
+import io.github.uusdfg.mim.data.Game;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link IndexedRouteHeap}.
+ */
+public class IndexedRouteHeapTest {
+
+	private final Game game = new Game();
+
+	private final Map<Route, Long> keys = new IdentityHashMap<>();
+
+	private final Comparator<Route> comparator = new Comparator<Route>() {
+		public int compare(final Route o1, final Route o2) {
+			return Long.compare(keys.get(o1), keys.get(o2));
+		}
+	};
+
+	@Test
+	public void testRandomOperations() {
+		for (int arity = 2; arity <= 5; arity++) {
+			checkRandomOperations(arity, 1000 + arity);
+		}
+	}
+
+	@Test
+	public void testReplaceDecreasesKey() {
+		final IndexedRouteHeap heap = new IndexedRouteHeap(comparator);
+		for (int i = 0; i < 50; i++) {
+			heap.add(makeRoute(100 + i));
+		}
+		final Route slow = makeRoute(200);
+		heap.add(slow);
+
+		final Route fast = makeRoute(1);
+		assertTrue("Couldn't replace a queued route", heap.replace(slow, fast));
+		assertEquals("Replaced route still queued", -1, slow.getQueueIndex());
+		assertFalse("Replaced route still queued", heap.contains(slow));
+		assertEquals("Wrong size after replace", 51, heap.size());
+		assertTrue("Faster route didn't move up", heap.peek() == fast);
+
+		// Once a route's been polled, replacing it should be a no-op.
+		heap.poll();
+		assertFalse("Replaced a route that wasn't queued",
+				heap.replace(fast, makeRoute(0)));
+	}
+
+	@Test
+	public void testClearResetsIndexes() {
+		final IndexedRouteHeap heap = new IndexedRouteHeap(comparator, 3);
+		final Route route = makeRoute(5);
+		heap.add(route);
+		heap.add(makeRoute(3));
+		heap.clear();
+		assertEquals("Heap not empty", 0, heap.size());
+		assertEquals("Cleared route still has an index", -1,
+				route.getQueueIndex());
+		heap.add(route);
+		assertTrue("Route not queued again", heap.contains(route));
+	}
+
+	private void checkRandomOperations(final int arity, final long seed) {
+		final Random random = new Random(seed);
+		final IndexedRouteHeap heap = new IndexedRouteHeap(comparator, arity);
+		final List<Route> queued = new ArrayList<>();
+
+		for (int op = 0; op < 20000; op++) {
+			final int choice = random.nextInt(10);
+			if ((choice < 5) || queued.isEmpty()) {
+				final Route route = makeRoute(random.nextInt(1000));
+				heap.add(route);
+				queued.add(route);
+			} else if (choice < 7) {
+				final Route expected = findMin(queued);
+				final Route polled = heap.poll();
+				assertEquals("Polled the wrong key", keys.get(expected),
+						keys.get(polled));
+				assertTrue("Polled route wasn't queued", queued.remove(polled));
+				assertEquals("Polled route still has an index", -1,
+						polled.getQueueIndex());
+			} else if (choice < 9) {
+				final Route route = queued.remove(random.nextInt(queued
+						.size()));
+				assertTrue("Couldn't remove a queued route", heap.remove(route));
+				assertFalse("Removed a route twice", heap.remove(route));
+			} else {
+				final int index = random.nextInt(queued.size());
+				final Route replacement = makeRoute(random.nextInt(1000));
+				assertTrue("Couldn't replace a queued route",
+						heap.replace(queued.get(index), replacement));
+				queued.set(index, replacement);
+			}
+			assertEquals("Wrong size", queued.size(), heap.size());
+		}
+
+		while (!queued.isEmpty()) {
+			final Route expected = findMin(queued);
+			final Route polled = heap.poll();
+			assertEquals("Polled the wrong key", keys.get(expected),
+					keys.get(polled));
+			queued.remove(polled);
+		}
+		assertTrue("Heap not empty", heap.isEmpty());
+	}
+
+	private Route findMin(final List<Route> routes) {
+		Route min = null;
+		for (Route route : routes) {
+			if ((min == null) || (comparator.compare(route, min) < 0)) {
+				min = route;
+			}
+		}
+		return min;
+	}
+
+	private Route makeRoute(final long key) {
+		final Route route = new Route(game);
+		keys.put(route, key);
+		return route;
+	}
+
+}
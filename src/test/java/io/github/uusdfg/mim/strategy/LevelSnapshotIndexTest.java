@@ -0,0 +1,82 @@
+package io.github.uusdfg.mim.strategy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import io.github.uusdfg.mim.action.Route;
+import io.github.uusdfg.mim.action.Route.HistoryEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link LevelSnapshotIndex}.
+ */
+public class LevelSnapshotIndexTest {
+
+	@Test
+	public void testMatchesLinearScan() {
+		final List<CheckedSnapshotIndex> indexes = new ArrayList<>();
+		final AStarRouteOptimizer optimizer = new AStarRouteOptimizer() {
+			@Override
+			protected LevelSnapshotIndex createLevelSnapshotIndex() {
+				final CheckedSnapshotIndex index = new CheckedSnapshotIndex(
+						this);
+				indexes.add(index);
+				return index;
+			}
+		}.setLevelSolutionCache(null);
+
+		final List<Route> routes = optimizer.generate(
+				SyntheticGames.makeGame(3), 1);
+		assertEquals("Wrong number of routes", 1, routes.size());
+
+		final CheckedSnapshotIndex index = indexes.get(0);
+		assertTrue("Never looked anything up", index.getNumLookups() > 0);
+		assertTrue("Never found a duplicate", index.getNumMatches() > 0);
+	}
+
+	// Keeps the snapshots in a plain list too, and makes sure the index finds
+	// exactly what scanning that list in order would.
+	private static final class CheckedSnapshotIndex extends LevelSnapshotIndex {
+		private final AStarRouteOptimizer optimizer;
+
+		private final List<HistoryEntry> entries = new ArrayList<>();
+
+		public CheckedSnapshotIndex(final AStarRouteOptimizer optimizer) {
+			super(optimizer);
+			this.optimizer = optimizer;
+		}
+
+		@Override
+		public void clear() {
+			super.clear();
+			entries.clear();
+		}
+
+		@Override
+		public HistoryEntry findEquivalent(final Route route) {
+			final HistoryEntry entry = super.findEquivalent(route);
+			assertSame("Index found a different duplicate",
+					optimizer.findEquivalentHistoryEntry(route, entries), entry);
+			return entry;
+		}
+
+		@Override
+		public void add(final HistoryEntry entry) {
+			super.add(entry);
+			entries.add(entry);
+		}
+
+		@Override
+		public boolean remove(final HistoryEntry entry) {
+			final boolean removed = super.remove(entry);
+			assertEquals("Index and list disagree about removal",
+					entries.remove(entry), removed);
+			return removed;
+		}
+	}
+
+}
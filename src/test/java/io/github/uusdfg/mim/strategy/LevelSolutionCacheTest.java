@@ -0,0 +1,62 @@
+package io.github.uusdfg.mim.strategy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import io.github.uusdfg.mim.action.Route;
+
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link LevelSolutionCache}.
+ */
+public class LevelSolutionCacheTest {
+
+	@Test
+	public void testReplayMatchesSearch() {
+		final AStarRouteOptimizer optimizer = new AStarRouteOptimizer();
+		final LevelSolutionCache cache = optimizer.getLevelSolutionCache();
+
+		final Route firstRoute = generateOne(optimizer);
+		assertEquals("Unexpected hits on the first run", 0, cache.getHits());
+		assertTrue("Nothing got cached", cache.size() > 0);
+
+		// Running the exact same search again should walk into every level
+		// in a state we've already seen.
+		final long misses = cache.getMisses();
+		final Route secondRoute = generateOne(optimizer);
+		assertEquals("Missed the cache on the second run", misses,
+				cache.getMisses());
+		assertTrue("Never hit the cache", cache.getHits() > 0);
+		assertEquals("Replayed route has the wrong time",
+				firstRoute.getTotalTime(), secondRoute.getTotalTime());
+		assertEquals("Replayed route has the wrong length", firstRoute
+				.getHistory().size(), secondRoute.getHistory().size());
+		assertEquals("Replayed route ended up somewhere else", firstRoute
+				.getFinalState().getSlotRng(), secondRoute.getFinalState()
+				.getSlotRng());
+	}
+
+	@Test
+	public void testEvictsToFit() {
+		final LevelSolutionCache cache = new LevelSolutionCache(1);
+		final AStarRouteOptimizer optimizer = new AStarRouteOptimizer()
+				.setLevelSolutionCache(cache);
+
+		generateOne(optimizer);
+		generateOne(optimizer);
+		assertEquals("Cached a solution that doesn't fit", 0, cache.size());
+		assertEquals("Wrong cache size", 0, cache.getNumCachedActions());
+		assertEquals("Hit a cache that can't hold anything", 0,
+				cache.getHits());
+	}
+
+	private Route generateOne(final AStarRouteOptimizer optimizer) {
+		final List<Route> routes = optimizer.generate(
+				SyntheticGames.makeGame(2), 1);
+		assertEquals("Wrong number of routes", 1, routes.size());
+		return routes.get(0);
+	}
+
+}
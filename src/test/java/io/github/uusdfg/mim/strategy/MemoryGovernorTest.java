@@ -0,0 +1,167 @@
+package io.github.uusdfg.mim.strategy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import io.github.uusdfg.mim.action.Route;
+import io.github.uusdfg.mim.strategy.MemoryGovernor.Stage;
+
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link MemoryGovernor}.
+ */
+public class MemoryGovernorTest {
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testStepsDownOneStageAtATime() {
+		final FakeGovernor governor = new FakeGovernor(1000, 1);
+
+		governor.used = 100;
+		assertEquals("Stepped down too early", Stage.NORMAL,
+				governor.check(10));
+
+		// Way over budget, but each sample only goes one stage further.
+		governor.used = 2000;
+		assertEquals("Skipped a stage", Stage.COMPACT_HISTORY,
+				governor.check(10));
+		assertEquals("Skipped a stage", Stage.REPLAY, governor.check(10));
+		assertEquals("Skipped a stage", Stage.SPILL, governor.check(10));
+		assertEquals("Skipped a stage", Stage.PRUNE, governor.check(10));
+
+		final long slack = governor.getPruneSlack();
+		assertEquals("Still the last stage", Stage.PRUNE, governor.check(20));
+		assertEquals("Pruning didn't get stricter", slack / 2,
+				governor.getPruneSlack());
+		assertEquals("Decisions weren't logged", 5, governor.getDecisions()
+				.size());
+		assertEquals("Wrong peak usage", 2000, governor.getPeakUsed());
+		assertEquals("Wrong peak frontier", 20, governor.getPeakFrontier());
+	}
+
+	@Test
+	public void testNeverStepsBackUp() {
+		final FakeGovernor governor = new FakeGovernor(1000, 1);
+		governor.used = 600;
+		assertEquals("Didn't step down", Stage.COMPACT_HISTORY,
+				governor.check(0));
+		governor.used = 0;
+		assertEquals("Stepped back up", Stage.COMPACT_HISTORY,
+				governor.check(0));
+	}
+
+	@Test
+	public void testOnlySamplesEveryInterval() {
+		final FakeGovernor governor = new FakeGovernor(1000, 5);
+		governor.used = 2000;
+		for (int i = 0; i < 4; i++) {
+			assertEquals("Sampled too soon", Stage.NORMAL, governor.check(0));
+		}
+		assertEquals("Didn't sample", Stage.COMPACT_HISTORY,
+				governor.check(0));
+		assertEquals("Wrong number of samples", 1, governor.getSamples());
+	}
+
+	@Test
+	public void testOptimizerStepsDownAndFinishes() {
+		// Pretend we're always out of memory, so the optimizer goes through
+		// every stage.
+		final FakeGovernor governor = new FakeGovernor(1000, 20);
+		governor.used = 2000;
+		final AStarRouteOptimizer optimizer = new AStarRouteOptimizer()
+				.setSpilling(folder.getRoot(), 64)
+				.setMemoryGovernor(governor);
+		final List<Route> routes = optimizer.generate(
+				SyntheticGames.makeGame(3), 1);
+
+		assertEquals("Wrong number of routes", 1, routes.size());
+		assertEquals("Didn't get to the last stage", Stage.PRUNE,
+				governor.getStage());
+		assertEquals("Didn't switch to spilling",
+				AStarRouteOptimizer.QueueType.SPILLING,
+				optimizer.getQueueType());
+		assertTrue("Didn't start checkpointing",
+				optimizer.getCheckpointInterval() > 0);
+		assertTrue("Didn't prune anything",
+				optimizer.getMemoryPrunedRoutes() > 0);
+	}
+
+	@Test
+	public void testParallelSearchSamplesAndFinishes() {
+		final FakeGovernor governor = new FakeGovernor(1000, 20);
+		governor.used = 2000;
+		final AStarRouteOptimizer optimizer = new ParallelAStarRouteOptimizer(
+				4).setMemoryGovernor(governor);
+		final List<Route> routes = optimizer.generate(
+				SyntheticGames.makeGame(3), 1);
+
+		assertEquals("Wrong number of routes", 1, routes.size());
+		assertTrue("Route didn't finish the game", routes.get(0)
+				.getFinalState().isCompleted());
+		assertTrue("Workers never sampled", governor.sampledFromWorker);
+		assertEquals("Didn't get to the last stage", Stage.PRUNE,
+				governor.getStage());
+		assertTrue("Didn't prune anything",
+				optimizer.getMemoryPrunedRoutes() > 0);
+	}
+
+	@Test
+	public void testIdaStarSamplesAndFinishes() {
+		final FakeGovernor governor = new FakeGovernor(1000, 20);
+		governor.used = 2000;
+		final IdaStarRouteOptimizer optimizer = new IdaStarRouteOptimizer();
+		optimizer.setMemoryGovernor(governor);
+		final List<Route> routes = optimizer.generate(
+				SyntheticGames.makeGame(1), 1);
+
+		assertEquals("Wrong number of routes", 1, routes.size());
+		assertTrue("Route didn't finish the game", routes.get(0)
+				.getFinalState().isCompleted());
+		assertTrue("Level search didn't sample",
+				governor.getSamples() >= optimizer.getTotalExpansions()
+						/ governor.getSampleInterval());
+		assertEquals("Didn't get to the last stage", Stage.PRUNE,
+				governor.getStage());
+		assertEquals("Level search pruned", 0,
+				optimizer.getMemoryPrunedRoutes());
+	}
+
+	@Test
+	public void testBigBudgetChangesNothing() {
+		final Route expected = new AStarRouteOptimizer().generate(
+				SyntheticGames.makeGame(3), 1).get(0);
+		final AStarRouteOptimizer optimizer = new AStarRouteOptimizer()
+				.setMemoryBudget(Long.MAX_VALUE);
+		final Route route = optimizer.generate(SyntheticGames.makeGame(3), 1)
+				.get(0);
+		assertEquals("Governor changed the route", expected.toString(),
+				route.toString());
+		assertEquals("Governor stepped down", Stage.NORMAL, optimizer
+				.getMemoryGovernor().getStage());
+	}
+
+	private static final class FakeGovernor extends MemoryGovernor {
+		private volatile long used = 0;
+
+		private volatile boolean sampledFromWorker = false;
+
+		public FakeGovernor(final long budget, final int sampleInterval) {
+			super(budget, sampleInterval);
+		}
+
+		@Override
+		protected long sampleUsedBytes() {
+			if (Thread.currentThread().getName().contains("worker")) {
+				sampledFromWorker = true;
+			}
+			return used;
+		}
+	}
+
+}
@@ -0,0 +1,163 @@
+package io.github.uusdfg.mim.strategy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import io.github.uusdfg.mim.action.Route;
+import io.github.uusdfg.mim.action.Route.HistoryEntry;
+import io.github.uusdfg.mim.data.Game;
+import io.github.uusdfg.mim.data.GameRecord;
+import io.github.uusdfg.mim.data.Level;
+import io.github.uusdfg.mim.data.Player;
+import io.github.uusdfg.mim.strategy.AStarRouteOptimizer.QueueType;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link OffHeapRouteQueue}.
+ */
+public class OffHeapRouteQueueTest {
+
+	private final Game game = new Game();
+
+	private final Map<Route, Long> keys = new IdentityHashMap<>();
+
+	private final Map<Route, Integer> ids = new IdentityHashMap<>();
+
+	private final BucketRouteQueue.Priority priority = new BucketRouteQueue.Priority() {
+		public long getPriority(final Route route) {
+			return keys.get(route);
+		}
+	};
+
+	private final Comparator<Route> comparator = new Comparator<Route>() {
+		public int compare(final Route o1, final Route o2) {
+			return Long.compare(keys.get(o1), keys.get(o2));
+		}
+	};
+
+	@Test
+	public void testMatchesHeapOrder() {
+		// Lots of duplicate keys, so ties have to come out the same way too.
+		final Random random = new Random(11);
+		final IndexedRouteHeap heap = new IndexedRouteHeap(comparator);
+		final OffHeapRouteQueue queue = new OffHeapRouteQueue(priority);
+		final List<Route> heapRoutes = new ArrayList<>();
+		final List<Route> queueRoutes = new ArrayList<>();
+
+		for (int op = 0; op < 20000; op++) {
+			final int choice = random.nextInt(10);
+			if ((choice < 5) || heap.isEmpty()) {
+				final long key = random.nextInt(50);
+				final Route heapRoute = makeRoute(key, op);
+				final Route queueRoute = makeRoute(key, op);
+				heap.add(heapRoute);
+				queue.add(queueRoute);
+				heapRoutes.add(heapRoute);
+				queueRoutes.add(queueRoute);
+			} else if (choice < 8) {
+				final Route heapRoute = heap.poll();
+				final Route queueRoute = queue.poll();
+				assertEquals("Polled a different route", ids.get(heapRoute),
+						ids.get(queueRoute));
+				heapRoutes.remove(heapRoute);
+				queueRoutes.remove(queueRoute);
+			} else {
+				// Replace a random route with a faster one.
+				final int index = random.nextInt(heapRoutes.size());
+				final long key = Math.max(0,
+						keys.get(heapRoutes.get(index)) - random.nextInt(10));
+				final Route heapRoute = makeRoute(key, op);
+				final Route queueRoute = makeRoute(key, op);
+				assertTrue("Couldn't replace a queued route",
+						heap.replace(heapRoutes.set(index, heapRoute), heapRoute));
+				assertTrue("Couldn't replace a queued route",
+						queue.replace(queueRoutes.set(index, queueRoute),
+								queueRoute));
+			}
+			assertEquals("Wrong size", heap.size(), queue.size());
+		}
+	}
+
+	@Test
+	public void testPollRestoresGame() {
+		final Route route = generateOne(new AStarRouteOptimizer());
+		final OffHeapRouteQueue queue = new OffHeapRouteQueue(priority);
+		keys.put(route, 0L);
+		final Game expected = route.getFinalState();
+
+		queue.add(route);
+		assertTrue("Queued route kept its game", route.isCompacted());
+		assertTrue("Wrong route polled", queue.poll() == route);
+		checkSameGame(expected, route.getFinalState());
+	}
+
+	@Test
+	public void testRecordsRoundTrip() {
+		final Route route = generateOne(new AStarRouteOptimizer());
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(GameRecord.SIZE);
+		for (HistoryEntry entry : route.getHistory()) {
+			GameRecord.write(entry.state, buffer, 0);
+			checkSameGame(entry.state, GameRecord.read(buffer, 0, entry.state));
+		}
+	}
+
+	@Test
+	public void testOptimizerMatchesHeap() {
+		final Route expected = generateOne(new AStarRouteOptimizer());
+		final Route route = generateOne(new AStarRouteOptimizer()
+				.setQueueType(QueueType.OFF_HEAP));
+		assertEquals("Off-heap queues found a different route",
+				expected.toString(), route.toString());
+	}
+
+	private void checkSameGame(final Game expected, final Game actual) {
+		final Player expectedPlayer = expected.getPlayer();
+		final Player actualPlayer = actual.getPlayer();
+		assertEquals("Wrong RNG", expected.getSlotRng(), actual.getSlotRng());
+		assertEquals("Wrong player", expectedPlayer.toString(),
+				actualPlayer.toString());
+		assertEquals("Wrong transition delay",
+				expectedPlayer.getTransitionDelayEnd(),
+				actualPlayer.getTransitionDelayEnd());
+		assertEquals("Wrong completed levels", expected.getCompletionMask(),
+				actual.getCompletionMask());
+
+		final Level expectedLevel = expectedPlayer.getLevel();
+		final Level actualLevel = actualPlayer.getLevel();
+		if (expectedLevel == null) {
+			assertTrue("Player's in a level", actualLevel == null);
+		} else {
+			assertEquals("Wrong completion code",
+					expectedLevel.getCompletionCode(),
+					actualLevel.getCompletionCode());
+			assertTrue("Level state doesn't match",
+					expectedLevel.sameState(actualLevel));
+			assertEquals("Wrong Koopas",
+					expectedLevel.getArtifactHolders().toString(), actualLevel
+							.getArtifactHolders().toString());
+		}
+	}
+
+	private Route generateOne(final AStarRouteOptimizer optimizer) {
+		final List<Route> routes = optimizer.generate(
+				SyntheticGames.makeGame(3), 1);
+		assertEquals("Wrong number of routes", 1, routes.size());
+		return routes.get(0);
+	}
+
+	private Route makeRoute(final long key, final int id) {
+		final Route route = new Route(game);
+		keys.put(route, key);
+		ids.put(route, id);
+		return route;
+	}
+
+}
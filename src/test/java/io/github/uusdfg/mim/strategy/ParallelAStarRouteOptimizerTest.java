@@ -0,0 +1,61 @@
+package io.github.uusdfg.mim.strategy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import io.github.uusdfg.mim.action.Route;
+import io.github.uusdfg.mim.data.Game;
+
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link ParallelAStarRouteOptimizer} finds routes that are just as
+ * fast as the ones the serial search finds.
+ */
+public class ParallelAStarRouteOptimizerTest {
+
+	@Test
+	public void testMatchesSerialSearch() {
+		checkMatchesSerialSearch(3);
+	}
+
+	@Test
+	public void testMatchesSerialSearchOnFiveLevels() {
+		checkMatchesSerialSearch(5);
+	}
+
+	private void checkMatchesSerialSearch(final int numLevels) {
+		final Route serialRoute = generateOne(new AStarRouteOptimizer(),
+				numLevels);
+
+		for (int numWorkers : new int[] { 1, 2, 4 }) {
+			final String workers = " with " + numWorkers + " workers";
+			final Route parallelRoute = generateOne(
+					new ParallelAStarRouteOptimizer(numWorkers), numLevels);
+			assertEquals("Wrong route time" + workers,
+					serialRoute.getTotalTime(), parallelRoute.getTotalTime());
+			assertTrue("Parallel route didn't finish the game" + workers,
+					parallelRoute.getFinalState().isCompleted());
+
+			// The time and final state only mean something if the actions
+			// really get there, so play them again from the start.
+			final Route replayed = Route.replay(
+					SyntheticGames.makeGame(numLevels),
+					parallelRoute.getActionCodes());
+			assertEquals("Replayed route took a different time" + workers,
+					parallelRoute.getTotalTime(), replayed.getTotalTime());
+			assertTrue("Replayed route didn't finish the game" + workers,
+					replayed.getFinalState().isCompleted());
+		}
+	}
+
+	private Route generateOne(final RouteGenerator generator,
+			final int numLevels) {
+		final Game game = SyntheticGames.makeGame(numLevels);
+		final List<Route> routes = generator.generate(game, 1);
+		assertEquals("Wrong number of routes", 1, routes.size());
+		return routes.get(0);
+	}
+
+}
@@ -0,0 +1,260 @@
+package io.github.uusdfg.mim.strategy;
+
+import io.github.uusdfg.mim.action.Route;
+import io.github.uusdfg.mim.data.Game;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.AbstractQueue;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+
+/**
+ * Records every in-level queue operation from a real solve of a synthetic game
+ * and replays the trace against a PriorityQueue or an IndexedRouteHeap, the
+ * way replaceInQueue() drives each of them: remove(Object) and add() for the
+ * PriorityQueue, replace() for the heap.
+ * <p>
+ * Run it as "record &lt;levels&gt; &lt;file&gt;" (at most 5 levels), then as
+ * "replay &lt;file&gt; heap|pq &lt;replays&gt;" once per queue. Each queue
+ * gets its own JVM, since the JIT compiles whichever queue ran the solve for
+ * the optimizer's comparators and it then looks slower than it is. A couple
+ * hundred replays are enough to warm it up.
+ */
+final class RouteQueueTraceReplay {
+
+	private static final int ADD = 0;
+
+	private static final int POLL = 1;
+
+	private static final int REPLACE = 2;
+
+	private static final int CLEAR = 3;
+
+	private static final int NO_ROUTE = -1;
+
+	// One entry per operation. Adds and replaces also record the new route's
+	// id and priority, and replaces record the id of the route they beat.
+	private int[] ops = new int[1 << 16];
+
+	private int[] oldIds = new int[1 << 16];
+
+	private long[] priorities = new long[1 << 16];
+
+	private int numOps = 0;
+
+	private int numRoutes = 0;
+
+	private int numReplaces = 0;
+
+	private RouteQueueTraceReplay() {
+	}
+
+	public static void main(final String[] args) throws IOException {
+		final RouteQueueTraceReplay trace = new RouteQueueTraceReplay();
+		if (args[0].equals("record")) {
+			trace.record(SyntheticGames.makeGame(Integer.parseInt(args[1])));
+			trace.write(new File(args[2]));
+			System.out.printf("%d ops, %d routes, %d replaces%n", trace.numOps,
+					trace.numRoutes, trace.numReplaces);
+			return;
+		}
+
+		trace.read(new File(args[1]));
+		final boolean useHeap = args[2].equals("heap");
+		final int numReplays = Integer.parseInt(args[3]);
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < numReplays; i++) {
+			best = Math.min(best, trace.replay(useHeap));
+		}
+		System.out.printf("%s %.2f ms%n", useHeap ? "IndexedRouteHeap"
+				: "PriorityQueue", best / 1e6);
+	}
+
+	private void record(final Game game) {
+		new AStarRouteOptimizer() {
+			@Override
+			protected Queue<Route> createLevelRouteQueue() {
+				return new TracedQueue(super.createLevelRouteQueue());
+			}
+
+			@Override
+			protected void replaceInQueue(final Queue<Route> routeQueue,
+					final Route oldRoute, final Route newRoute) {
+				if (routeQueue instanceof TracedQueue) {
+					final TracedQueue traced = (TracedQueue) routeQueue;
+					final Integer oldId = traced.ids.get(oldRoute);
+					traced.add(REPLACE, newRoute, estimateInLevelTime(newRoute),
+							(oldId == null) ? NO_ROUTE : oldId);
+					super.replaceInQueue(traced.queue, oldRoute, newRoute);
+				} else {
+					super.replaceInQueue(routeQueue, oldRoute, newRoute);
+				}
+			}
+
+			// Lets TracedQueue get at the estimates.
+			final class TracedQueue extends AbstractQueue<Route> {
+				private final Queue<Route> queue;
+
+				private final Map<Route, Integer> ids = new IdentityHashMap<>();
+
+				private TracedQueue(final Queue<Route> queue) {
+					this.queue = queue;
+					log(CLEAR, NO_ROUTE, 0);
+				}
+
+				private void add(final int op, final Route route,
+						final long priority, final int oldId) {
+					ids.put(route, numRoutes++);
+					log(op, oldId, priority);
+				}
+
+				public boolean offer(final Route route) {
+					add(ADD, route, estimateInLevelTime(route), NO_ROUTE);
+					return queue.offer(route);
+				}
+
+				public Route poll() {
+					final Route route = queue.poll();
+					if (route != null) {
+						log(POLL, NO_ROUTE, 0);
+					}
+					return route;
+				}
+
+				public Route peek() {
+					return queue.peek();
+				}
+
+				public int size() {
+					return queue.size();
+				}
+
+				public Iterator<Route> iterator() {
+					return queue.iterator();
+				}
+
+				@Override
+				public void clear() {
+					queue.clear();
+					ids.clear();
+					log(CLEAR, NO_ROUTE, 0);
+				}
+			}
+		}.setLevelSolutionCache(null).generate(game, 1);
+	}
+
+	private void log(final int op, final int oldId, final long priority) {
+		if (numOps == ops.length) {
+			ops = Arrays.copyOf(ops, numOps * 2);
+			oldIds = Arrays.copyOf(oldIds, numOps * 2);
+			priorities = Arrays.copyOf(priorities, numOps * 2);
+		}
+		ops[numOps] = op;
+		oldIds[numOps] = oldId;
+		priorities[numOps] = priority;
+		numOps++;
+		if (op == REPLACE) {
+			numReplaces++;
+		}
+	}
+
+	private void write(final File file) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(numOps);
+			for (int i = 0; i < numOps; i++) {
+				out.writeByte(ops[i]);
+				out.writeInt(oldIds[i]);
+				out.writeLong(priorities[i]);
+			}
+		}
+	}
+
+	private void read(final File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)))) {
+			final int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				final int op = in.readByte();
+				final int oldId = in.readInt();
+				log(op, oldId, in.readLong());
+				if ((op == ADD) || (op == REPLACE)) {
+					numRoutes++;
+				}
+			}
+		}
+	}
+
+	// Returns how long the replay took in nanoseconds. The routes are made up
+	// front, with the recorded priority standing in for the estimate, so only
+	// the queue operations get timed.
+	private long replay(final boolean useHeap) {
+		final Game game = new Game();
+		final Route[] routes = new Route[numRoutes];
+		for (int i = 0, id = 0; i < numOps; i++) {
+			if ((ops[i] == ADD) || (ops[i] == REPLACE)) {
+				routes[id] = new Route(game);
+				routes[id].setLevelTimeEstimate(priorities[i]);
+				id++;
+			}
+		}
+		final Comparator<Route> comparator = new Comparator<Route>() {
+			public int compare(final Route o1, final Route o2) {
+				return Long.compare(o1.getLevelTimeEstimate(),
+						o2.getLevelTimeEstimate());
+			}
+		};
+
+		Queue<Route> queue = null;
+		long checksum = 0;
+		final long start = System.nanoTime();
+		for (int i = 0, id = 0; i < numOps; i++) {
+			switch (ops[i]) {
+			case CLEAR:
+				queue = useHeap ? new IndexedRouteHeap(comparator)
+						: new PriorityQueue<>(1000, comparator);
+				break;
+			case ADD:
+				queue.add(routes[id++]);
+				break;
+			case POLL:
+				checksum += queue.poll().getLevelTimeEstimate();
+				break;
+			default:
+				final Route oldRoute = (oldIds[i] == NO_ROUTE) ? null
+						: routes[oldIds[i]];
+				final Route newRoute = routes[id++];
+				if (useHeap) {
+					if ((oldRoute == null)
+							|| !((IndexedRouteHeap) queue).replace(oldRoute,
+									newRoute)) {
+						queue.add(newRoute);
+					}
+				} else {
+					if (oldRoute != null) {
+						queue.remove(oldRoute);
+					}
+					queue.add(newRoute);
+				}
+			}
+		}
+		final long elapsed = System.nanoTime() - start;
+		if (checksum == 42) {
+			System.out.println("Keeping the polls alive");
+		}
+		return elapsed;
+	}
+
+}
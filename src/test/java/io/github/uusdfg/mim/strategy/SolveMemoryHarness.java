@@ -0,0 +1,78 @@
+package io.github.uusdfg.mim.strategy;
+
+import io.github.uusdfg.mim.action.Route;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.List;
+
+/**
+ * Solves a synthetic game from scratch a few times and reports how much the
+ * solving thread allocated and roughly how much heap stayed live. Run it with
+ * the number of levels (at most 5) on -XX:+UseSerialGC, so System.gc() is a
+ * full collection.
+ * <p>
+ * Live heap is sampled after a full GC every {@link #SAMPLE_INTERVAL_MS} ms,
+ * so the peak it reports is a lower bound on the real one.
+ */
+final class SolveMemoryHarness {
+
+	private static final int NUM_SOLVES = 3;
+
+	private static final long SAMPLE_INTERVAL_MS = 20;
+
+	private static volatile boolean solving = false;
+
+	private static volatile long peakLive = 0;
+
+	private SolveMemoryHarness() {
+	}
+
+	public static void main(final String[] args) throws InterruptedException {
+		final int numLevels = Integer.parseInt(args[0]);
+		final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		final long threadId = Thread.currentThread().getId();
+
+		for (int i = 0; i < NUM_SOLVES; i++) {
+			System.gc();
+			final long baseline = memory.getHeapMemoryUsage().getUsed();
+			peakLive = 0;
+			solving = true;
+			final Thread sampler = new Thread() {
+				@Override
+				public void run() {
+					while (solving) {
+						System.gc();
+						peakLive = Math.max(peakLive, memory.getHeapMemoryUsage()
+								.getUsed() - baseline);
+						try {
+							Thread.sleep(SAMPLE_INTERVAL_MS);
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+				}
+			};
+
+			final long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+			final long start = System.nanoTime();
+			sampler.start();
+			final List<Route> routes = new AStarRouteOptimizer()
+					.setLevelSolutionCache(null).generate(
+							SyntheticGames.makeGame(numLevels), 1);
+			final long allocated = threads.getThreadAllocatedBytes(threadId)
+					- allocatedBefore;
+			solving = false;
+			sampler.join();
+
+			System.out.printf(
+					"solve %d: %.1f MB allocated, peak live %.1f MB, %.2f s, "
+							+ "route time %d%n", i, allocated / 1e6,
+					peakLive / 1e6, (System.nanoTime() - start) / 1e9, routes
+							.get(0).getTotalTime());
+		}
+	}
+
+}
@@ -0,0 +1,189 @@
+package io.github.uusdfg.mim.strategy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import io.github.uusdfg.mim.action.Route;
+import io.github.uusdfg.mim.data.Game;
+import io.github.uusdfg.mim.strategy.AStarRouteOptimizer.QueueType;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link SpillingRouteQueue}.
+ */
+public class SpillingRouteQueueTest {
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private final Map<Route, Long> keys = new IdentityHashMap<>();
+
+	private final Map<Route, Integer> ids = new IdentityHashMap<>();
+
+	private final BucketRouteQueue.Priority priority = new BucketRouteQueue.Priority() {
+		public long getPriority(final Route route) {
+			return keys.get(route);
+		}
+	};
+
+	@Test
+	public void testMatchesBucketQueue() {
+		final Random random = new Random(12);
+		final BucketRouteQueue buckets = new BucketRouteQueue(priority);
+		final SpillingRouteQueue queue = new SpillingRouteQueue(priority,
+				folder.getRoot(), 50);
+		final List<Route> bucketRoutes = new ArrayList<>();
+		final List<Route> queueRoutes = new ArrayList<>();
+
+		for (int op = 0; op < 20000; op++) {
+			final int choice = random.nextInt(10);
+			if ((choice < 5) || buckets.isEmpty()) {
+				final long key = random.nextInt(100);
+				final Route bucketRoute = makeRoute(key, op);
+				final Route queueRoute = makeRoute(key, op);
+				buckets.add(bucketRoute);
+				queue.add(queueRoute);
+				bucketRoutes.add(bucketRoute);
+				queueRoutes.add(queueRoute);
+			} else if (choice < 8) {
+				final Route bucketRoute = buckets.poll();
+				final Route queueRoute = queue.poll();
+				assertEquals("Polled a different route", ids.get(bucketRoute),
+						ids.get(queueRoute));
+				assertEquals("Game didn't come back", ids.get(queueRoute)
+						.intValue(), queueRoute.getFinalState().getSlotRng()
+						.getLow());
+				bucketRoutes.remove(bucketRoute);
+				queueRoutes.remove(queueRoute);
+			} else {
+				final int index = random.nextInt(bucketRoutes.size());
+				assertTrue("Couldn't remove a queued route",
+						buckets.remove(bucketRoutes.remove(index)));
+				assertTrue("Couldn't remove a queued route",
+						queue.remove(queueRoutes.remove(index)));
+			}
+			assertEquals("Wrong size", buckets.size(), queue.size());
+		}
+		while (!buckets.isEmpty()) {
+			assertEquals("Polled a different route", ids.get(buckets.poll()),
+					ids.get(queue.poll()));
+		}
+		assertTrue("Queue should be empty", queue.isEmpty());
+		assertTrue("Nothing got spilled", queue.getBytesSpilled() > 0);
+		assertEquals("Run files left behind", 0,
+				folder.getRoot().list().length);
+	}
+
+	@Test
+	public void testKeepsDuplicatesInOrder() {
+		final SpillingRouteQueue queue = new SpillingRouteQueue(priority,
+				folder.getRoot(), 4);
+		final Game game = makeGame(7);
+		final Route first = makeRoute(10, game);
+		final Route second = makeRoute(10, game);
+		queue.add(first);
+		queue.add(second);
+
+		// Push bucket 10 out to disk.
+		for (int i = 0; i < 4; i++) {
+			queue.add(makeRoute(1, makeGame(i)));
+		}
+		for (int i = 0; i < 4; i++) {
+			queue.poll();
+		}
+
+		// Duplicates are the optimizer's problem, so both come back.
+		assertEquals("Wrong size after reading back", 2, queue.size());
+		assertTrue("Wrong route first", queue.poll() == first);
+		assertTrue("Wrong route second", queue.poll() == second);
+		assertEquals("Game didn't come back", 7, second.getFinalState()
+				.getSlotRng().getLow());
+		assertTrue("Queue should be empty", queue.isEmpty());
+	}
+
+	@Test
+	public void testSpillsColdBucketsTogether() {
+		final SpillingRouteQueue queue = new SpillingRouteQueue(priority,
+				folder.getRoot(), 8);
+		for (int i = 0; i < 9; i++) {
+			queue.add(makeRoute(i, i));
+		}
+
+		// Every bucket but the best one or two has one route in it, and they
+		// all went out in one spill.
+		assertEquals("Wrong number of files", 1, queue.getFilesWritten());
+		assertTrue("Buckets didn't get their own runs",
+				queue.getRunsWritten() > 1);
+		assertEquals("Wrong number of files on disk", 1,
+				folder.getRoot().list().length);
+
+		for (int i = 0; i < 9; i++) {
+			assertEquals("Polled the wrong route", i, ids.get(queue.poll())
+					.intValue());
+		}
+		assertEquals("Run file left behind", 0,
+				folder.getRoot().list().length);
+	}
+
+	@Test
+	public void testClearDeletesRunFiles() {
+		final SpillingRouteQueue queue = new SpillingRouteQueue(priority,
+				folder.getRoot(), 8);
+		for (int i = 0; i < 100; i++) {
+			queue.add(makeRoute(i % 10, i));
+		}
+		assertTrue("Nothing got spilled", folder.getRoot().list().length > 0);
+
+		queue.clear();
+		assertEquals("Run files left behind", 0,
+				folder.getRoot().list().length);
+	}
+
+	@Test
+	public void testOptimizerMatchesBucketQueue() {
+		final Route expected = generateOne(new AStarRouteOptimizer()
+				.setQueueType(QueueType.BUCKET));
+		final Route route = generateOne(new AStarRouteOptimizer()
+				.setQueueType(QueueType.SPILLING).setSpilling(
+						folder.getRoot(), 32));
+		assertEquals("Spilling queues found a different route",
+				expected.toString(), route.toString());
+		assertEquals("Run files left behind", 0,
+				folder.getRoot().list().length);
+	}
+
+	private Route generateOne(final AStarRouteOptimizer optimizer) {
+		final List<Route> routes = optimizer.generate(
+				SyntheticGames.makeGame(3), 1);
+		assertEquals("Wrong number of routes", 1, routes.size());
+		return routes.get(0);
+	}
+
+	private Game makeGame(final int id) {
+		// Give every game its own RNG so the tests can tell them apart.
+		final Game game = new Game();
+		game.getSlotRng().reseed(id, 0);
+		return game;
+	}
+
+	private Route makeRoute(final long key, final int id) {
+		final Route route = makeRoute(key, makeGame(id));
+		ids.put(route, id);
+		return route;
+	}
+
+	private Route makeRoute(final long key, final Game game) {
+		final Route route = new Route(game);
+		keys.put(route, key);
+		return route;
+	}
+
+}
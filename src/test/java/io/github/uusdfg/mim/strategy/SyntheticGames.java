@@ -0,0 +1,117 @@
+package io.github.uusdfg.mim.strategy;
+
+import io.github.uusdfg.mim.data.Crossing;
+import io.github.uusdfg.mim.data.Entrance;
+import io.github.uusdfg.mim.data.Exit;
+import io.github.uusdfg.mim.data.Floor;
+import io.github.uusdfg.mim.data.Game;
+import io.github.uusdfg.mim.data.Kiosk;
+import io.github.uusdfg.mim.data.Level;
+import io.github.uusdfg.mim.data.Pipe;
+import io.github.uusdfg.mim.data.Player;
+import io.github.uusdfg.mim.data.Position;
+import io.github.uusdfg.mim.data.Road;
+
+/**
+ * Builds small, hand-made games so the optimizers can be exercised without
+ * packing real savestates into the test resources.
+ */
+final class SyntheticGames {
+
+	private static final int NUM_ROADS = 5;
+
+	private static final int ROAD_LENGTH = 512;
+
+	private static final int SLOTS_PER_ROAD = 5;
+
+	private static final int FLOOR_EXIT_X = 404;
+
+	private static final int[] DOOR_XS = { 43, 115, 187, 259, 331 };
+
+	private SyntheticGames() {
+	}
+
+	/**
+	 * Makes a one-floor game whose levels all share the same layout: a hub
+	 * road with the exit on it, two side roads reached by pipes, and a pair of
+	 * roads hanging off the hub by a street crossing. Each level has one kiosk
+	 * on each of the side roads and one on the far road.
+	 */
+	public static Game makeGame(final int numLevels) {
+		final Game game = new Game();
+		final Position floorExitPos = new Position(false, Road.CASTLE_ROAD_ID,
+				FLOOR_EXIT_X);
+		final Floor floor = new Floor(1, floorExitPos);
+		final Road castleRoad = floor.getCastleRoad();
+		for (int levelId = 1; levelId <= numLevels; levelId++) {
+			final Position doorPos = new Position(false, Road.CASTLE_ROAD_ID,
+					DOOR_XS[levelId - 1]);
+			final Level level = makeLevel(levelId, doorPos);
+			floor.addLevel(level);
+			castleRoad.addTransition(new Entrance(doorPos, level.getStartPos(),
+					levelId, 500));
+		}
+		castleRoad.addTransition(new Entrance(floorExitPos, floorExitPos,
+				Entrance.FLOOR_EXIT_LEVEL_ID, 0));
+		game.addFloor(floor);
+
+		final Player player = game.getPlayer();
+		player.setFloor(1);
+		player.setLevel(null);
+		player.setPos(new Position(true, Road.CASTLE_ROAD_ID, FLOOR_EXIT_X));
+		player.setYoshi(false);
+		return game;
+	}
+
+	public static Level makeLevel(final int levelId, final Position doorPos) {
+		final Level level = new Level(levelId);
+
+		int slotId = 0;
+		for (int roadId = 0; roadId < NUM_ROADS; roadId++) {
+			for (int i = 0; i < SLOTS_PER_ROAD; i++) {
+				final int x = 40 + (i * 100) + (roadId * 7);
+				level.addNpcSlot(slotId++, new Position(false, roadId, x));
+			}
+		}
+
+		for (int roadId = 0; roadId < NUM_ROADS; roadId++) {
+			level.addRoad(new Road(level, roadId, ROAD_LENGTH));
+		}
+
+		final Position exitPos = new Position(false, 0, 256);
+		level.getRoad(0).addTransition(new Exit(exitPos, doorPos));
+		addPipe(level, 0, 64, 1, 64);
+		addPipe(level, 0, 448, 2, 448);
+		addCrossing(level, 0, 3, 160);
+		addPipe(level, 3, 300, 4, 300);
+
+		level.addKiosk(new Kiosk(0, new Position(false, 1, 300), level));
+		level.addKiosk(new Kiosk(1, new Position(false, 2, 200), level));
+		level.addKiosk(new Kiosk(2, new Position(false, 4, 420), level));
+
+		level.setStartPos(exitPos);
+		return level;
+	}
+
+	private static void addPipe(final Level level, final int road1,
+			final int x1, final int road2, final int x2) {
+		final Position pos1 = new Position(false, road1, x1);
+		final Position pos2 = new Position(false, road2, x2);
+		level.getRoad(road1).addTransition(new Pipe(pos1, pos2));
+		level.getRoad(road2).addTransition(new Pipe(pos2, pos1));
+	}
+
+	private static void addCrossing(final Level level, final int upRoad,
+			final int downRoad, final int x) {
+		for (int offset : new int[] { -48, 48 }) {
+			final boolean left = (offset < 0);
+			final Position upPos = new Position(false, upRoad, x + offset);
+			final Position downPos = new Position(false, downRoad, x + offset);
+			level.getRoad(upRoad).addTransition(
+					new Crossing(upPos, downPos, left, false));
+			level.getRoad(downRoad).addTransition(
+					new Crossing(downPos, upPos, left, true));
+		}
+	}
+
+}